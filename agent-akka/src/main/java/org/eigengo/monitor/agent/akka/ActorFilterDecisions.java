@@ -0,0 +1,72 @@
+package org.eigengo.monitor.agent.akka;
+
+/**
+ * Decides whether to include the actors in the monitoring and what their sampling rates are. The
+ * decisions are computed from the compiled {@code included}, {@code excluded} and {@code sampling}
+ * filters. They are not remembered here: the aspect computes them once per actor, and keeps them
+ * in the actor's {@link CachedActor}.
+ */
+final class ActorFilterDecisions {
+    private final AkkaAgentConfiguration configuration;
+
+    /**
+     * Constructs this instance
+     *
+     * @param configuration the configuration with the filters
+     */
+    ActorFilterDecisions(AkkaAgentConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Computes all decisions for the actor
+     *
+     * @param pathAndClass the actor's path and type
+     * @return the decisions
+     */
+    Decision decide(PathAndClass pathAndClass) {
+        final SamplingRates sampling = this.configuration.sampling();
+        return new Decision(include(pathAndClass),
+                sampling.getRate(pathAndClass), sampling.getMaximumPerSecond(pathAndClass));
+    }
+
+    /**
+     * Decides whether to include the actor in the monitoring
+     *
+     * @param pathAndClass the actor's path and type
+     * @return {@code true} if the actor should be monitored
+     */
+    boolean include(PathAndClass pathAndClass) {
+        // do not monitor our own output code
+        if (pathAndClass.actorClassName().isDefined()) {
+            if (pathAndClass.actorClassName().get().startsWith("org.eigengo.monitor.output")) return false;
+        }
+
+        // include actor if it's in 'included' list
+        if (this.configuration.included().accept(pathAndClass)) return true;
+        // exclude actor if excluded (i.e. is in 'excluded' list, or excludeAllNotIncluded = true, and actor is not included)
+        if (this.configuration.excluded().accept(pathAndClass)) return false;
+
+        // skip system actor checks if we wish to monitor them
+        if (this.configuration.includeSystemAgents()) return true;
+
+        String userOrSystem = pathAndClass.actorPath().getElements().iterator().next();
+        return "user".equals(userOrSystem);
+    }
+
+    /**
+     * The decisions for one actor
+     */
+    static final class Decision {
+        final boolean included;
+        final int samplingRate;
+        final int maximumSampledPerSecond;
+
+        Decision(boolean included, int samplingRate, int maximumSampledPerSecond) {
+            this.included = included;
+            this.samplingRate = samplingRate;
+            this.maximumSampledPerSecond = maximumSampledPerSecond;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.eigengo.monitor.agent.akka;
+
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.GaugeHandle;
+import org.eigengo.monitor.output.TimerHandle;
+
+/**
+ * The handles of the metrics of a single actor, which the advices update instead of passing the actor's
+ * tags to the {@code CounterInterface} for every message. Each handle is bound on its first use, which
+ * means that the outputs only register the metrics that the actor actually updates (for example, only
+ * the actors that fail have the error counter).
+ *
+ * The instances are used from the actor's {@code receive} only; Akka processes one message of an actor
+ * at a time, which means that the lazily bound fields do not need to be volatile.
+ */
+final class ActorHandles {
+    private final CounterInterface counterInterface;
+    private final String[] tags;
+    private GaugeHandle samplingRate;
+    private GaugeHandle queueSize;
+    private CounterHandle delivered;
+    private TimerHandle mailboxWait;
+    private TimerHandle duration;
+    private CounterHandle errors;
+
+    /**
+     * Constructs this instance
+     *
+     * @param counterInterface the counter interface that binds the handles
+     * @param tags the actor tags
+     */
+    ActorHandles(CounterInterface counterInterface, String[] tags) {
+        this.counterInterface = counterInterface;
+        this.tags = tags;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.sampling.rate} gauge
+     *
+     * @return the handle
+     */
+    GaugeHandle samplingRate() {
+        if (this.samplingRate == null) this.samplingRate = CounterHandles.gauge(this.counterInterface, Aspects.samplingRate(), this.tags);
+        return this.samplingRate;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.queue.size} gauge
+     *
+     * @return the handle
+     */
+    GaugeHandle queueSize() {
+        if (this.queueSize == null) this.queueSize = CounterHandles.gauge(this.counterInterface, Aspects.queueSize(), this.tags);
+        return this.queueSize;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.delivered} counter
+     *
+     * @return the handle
+     */
+    CounterHandle delivered() {
+        if (this.delivered == null) this.delivered = CounterHandles.counter(this.counterInterface, Aspects.delivered(), this.tags);
+        return this.delivered;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.mailbox.wait} histogram
+     *
+     * @return the handle
+     */
+    TimerHandle mailboxWait() {
+        if (this.mailboxWait == null) this.mailboxWait = CounterHandles.executionTimeNanos(this.counterInterface, Aspects.mailboxWait(), this.tags);
+        return this.mailboxWait;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.duration} histogram
+     *
+     * @return the handle
+     */
+    TimerHandle duration() {
+        if (this.duration == null) this.duration = CounterHandles.executionTimeNanos(this.counterInterface, Aspects.actorDuration(), this.tags);
+        return this.duration;
+    }
+
+    /**
+     * Returns the handle of the {@code akka.actor.error} counter
+     *
+     * @return the handle
+     */
+    CounterHandle errors() {
+        if (this.errors == null) this.errors = CounterHandles.counter(this.counterInterface, Aspects.actorError(), this.tags);
+        return this.errors;
+    }
+
+}
@@ -39,4 +39,20 @@ public class ActorPathTagger extends AbstractTagger {
 
         return tags.toArray(new String[tags.size()]);
     }
+
+    /**
+     * Computes the tags that the actors of the same type share: the system and the type tags.
+     *
+     * @param actorPath the actor path; never {@code null}
+     * @param actorClassName the actor instance; may be {@code null}
+     * @return non-{@code null} array of tags
+     */
+    final String[] getTypeTags(final ActorPath actorPath, final Option<String> actorClassName) {
+        List<String> tags = new ArrayList<String>(2);
+
+        addSystemTagsTo(actorPath, tags);
+        addTypeTagsTo(actorPath, actorClassName, tags);
+
+        return tags.toArray(new String[tags.size()]);
+    }
 }
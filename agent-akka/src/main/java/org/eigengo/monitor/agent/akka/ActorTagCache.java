@@ -0,0 +1,121 @@
+package org.eigengo.monitor.agent.akka;
+
+import akka.actor.ActorRef;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of the {@link CachedActor}s, keyed by the actor's {@code ActorRef}. The {@code ActorRef}'s
+ * {@code equals} and {@code hashCode} use the path and the actor's uid, so the lookups do not allocate.
+ *
+ * The cache is filled when the actor is created and the entries are removed when the actor stops. If
+ * it already holds {@code maximumSize} actors, putting a new entry evicts another one, chosen by the clock
+ * algorithm: the cursor goes round the entries, and evicts the first one that has not been looked up since
+ * the cursor last passed it, or since it was put. The actors that receive messages therefore stay cached even when there are
+ * more actors than the cache can hold; the evicted actors are computed and cached again when they next
+ * receive a message.
+ */
+final class ActorTagCache {
+    private static final int MAXIMUM_SCAN = 16;
+    private final ConcurrentHashMap<ActorRef, CachedActor> actors = new ConcurrentHashMap<ActorRef, CachedActor>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final int maximumSize;
+    // guarded by this
+    private Iterator<Map.Entry<ActorRef, CachedActor>> clock;
+
+    /**
+     * Constructs this instance
+     *
+     * @param maximumSize the maximum number of actors to retain
+     */
+    ActorTagCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Gets the cached value for the given {@code actor}
+     *
+     * @param actor the actor
+     * @return the cached value or {@code null}
+     */
+    CachedActor get(ActorRef actor) {
+        final CachedActor cachedActor = this.actors.get(actor);
+        if (cachedActor != null && !cachedActor.referenced) cachedActor.referenced = true;
+        return cachedActor;
+    }
+
+    /**
+     * Puts the {@code cachedActor} for the {@code actor} in this cache, unless there already is a value for
+     * the {@code actor}; evicts another actor if the cache is full.
+     *
+     * @param actor the actor
+     * @param cachedActor the computed value
+     * @return the value that should be used for the actor: the already cached value or {@code cachedActor}
+     */
+    CachedActor put(ActorRef actor, CachedActor cachedActor) {
+        cachedActor.retain();
+        final CachedActor existing = this.actors.putIfAbsent(actor, cachedActor);
+        if (existing != null) return existing;
+        if (this.size.incrementAndGet() > this.maximumSize) evict(actor);
+        return cachedActor;
+    }
+
+    /**
+     * Evicts the entries until the cache holds at most {@code maximumSize} entries, sparing the {@code added} one
+     *
+     * @param added the actor that has just been added
+     */
+    private synchronized void evict(ActorRef added) {
+        while (this.size.get() > this.maximumSize) {
+            Map.Entry<ActorRef, CachedActor> victim = null;
+            for (int i = 0; i < MAXIMUM_SCAN; i++) {
+                if (this.clock == null || !this.clock.hasNext()) this.clock = this.actors.entrySet().iterator();
+                if (!this.clock.hasNext()) return;
+
+                final Map.Entry<ActorRef, CachedActor> entry = this.clock.next();
+                if (entry.getKey().equals(added)) continue;
+                victim = entry;
+                // the second chance
+                if (!entry.getValue().referenced) break;
+                entry.getValue().referenced = false;
+            }
+            if (victim == null) return;
+            remove(victim.getKey(), victim.getValue());
+        }
+    }
+
+    /**
+     * Removes the value for the given {@code actor}
+     *
+     * @param actor the actor
+     * @return the removed value or {@code null}
+     */
+    CachedActor remove(ActorRef actor) {
+        final CachedActor removed = this.actors.remove(actor);
+        if (removed != null) this.size.decrementAndGet();
+        return removed;
+    }
+
+    /**
+     * Removes the value for the given {@code actor}, but only if it is still the {@code expected} value
+     *
+     * @param actor the actor
+     * @param expected the value to remove
+     */
+    void remove(ActorRef actor, CachedActor expected) {
+        if (this.actors.remove(actor, expected)) this.size.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of cached actors
+     *
+     * @return the size
+     */
+    int size() {
+        return this.size.get();
+    }
+
+}
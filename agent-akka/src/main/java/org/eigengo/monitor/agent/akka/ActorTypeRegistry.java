@@ -0,0 +1,121 @@
+package org.eigengo.monitor.agent.akka;
+
+import akka.actor.ActorPath;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the types of the actors that we can only see when the Java API's {@code Creator} creates them, and
+ * the number of live actors of each type.
+ *
+ * The types are keyed by the actor's path; the entries are removed when the actor stops. If the registry
+ * already holds {@code maximumSize} paths, the new types are not kept, and the actors are counted and tagged
+ * as anonymous, just like the actors that are created when the registry is not available. This bounds the
+ * registry even if the stops are missed, for example for the actors of an {@code ActorSystem} that is never
+ * shut down properly.
+ *
+ * The live counts are kept for each type; the number of types is bounded by the number of actor classes, so
+ * the counts are never removed. Once a type is known, updating its count does not allocate.
+ */
+final class ActorTypeRegistry {
+    private final ConcurrentHashMap<ActorPath, String> types = new ConcurrentHashMap<ActorPath, String>();
+    private final ConcurrentHashMap<Option<String>, AtomicInteger> liveCounts = new ConcurrentHashMap<Option<String>, AtomicInteger>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final int maximumSize;
+
+    /**
+     * Constructs this instance
+     *
+     * @param maximumSize the maximum number of actor paths whose types we keep
+     */
+    ActorTypeRegistry(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Keeps the {@code className} of the actor at the {@code actorPath}, unless the registry is full or
+     * there already is a type for the {@code actorPath}.
+     *
+     * @param actorPath the actor path
+     * @param className the actor's class name
+     * @return {@code true} if the type was kept; {@code false} if the registry already knew the path or is full
+     */
+    boolean putType(ActorPath actorPath, String className) {
+        if (this.types.containsKey(actorPath)) return false;
+        if (this.size.get() >= this.maximumSize) return false;
+        if (this.types.putIfAbsent(actorPath, className) != null) return false;
+        this.size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gets the type of the actor at the {@code actorPath}
+     *
+     * @param actorPath the actor path
+     * @return the class name or {@code null}
+     */
+    String getType(ActorPath actorPath) {
+        return this.types.get(actorPath);
+    }
+
+    /**
+     * Removes the type of the actor at the {@code actorPath}; typically when the actor stops
+     *
+     * @param actorPath the actor path
+     */
+    void removeType(ActorPath actorPath) {
+        if (this.types.remove(actorPath) != null) this.size.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of actor paths whose types we keep
+     *
+     * @return the size
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Increments the number of live actors of the given {@code actorClassName}
+     *
+     * @param actorClassName the actor type
+     * @return the number of live actors after the increment
+     */
+    int increment(Option<String> actorClassName) {
+        return liveCount(actorClassName).incrementAndGet();
+    }
+
+    /**
+     * Decrements the number of live actors of the given {@code actorClassName}
+     *
+     * @param actorClassName the actor type
+     * @return the number of live actors after the decrement
+     */
+    int decrement(Option<String> actorClassName) {
+        return liveCount(actorClassName).decrementAndGet();
+    }
+
+    /**
+     * Returns the number of live actors of the type, without registering the type
+     *
+     * @param actorClassName the actor class name
+     * @return the number of live actors
+     */
+    int getLiveCount(Option<String> actorClassName) {
+        final AtomicInteger count = this.liveCounts.get(actorClassName);
+        return count == null ? 0 : count.get();
+    }
+
+    private AtomicInteger liveCount(Option<String> actorClassName) {
+        final AtomicInteger count = this.liveCounts.get(actorClassName);
+        if (count != null) return count;
+
+        final AtomicInteger created = new AtomicInteger(0);
+        final AtomicInteger existing = this.liveCounts.putIfAbsent(actorClassName, created);
+        return existing == null ? created : existing;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.eigengo.monitor.agent.akka;
+
+import org.eigengo.monitor.output.StripedCounter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sampling rate shared by all actors of one type, adjusted at runtime so that the actors sample at most
+ * {@code maximumPerSecond} messages per second in total. The sampled messages add their rate to the estimate
+ * of all messages; once a second, the rate becomes the estimated number of messages per second divided by the
+ * {@code maximumPerSecond}, but never less than the configured {@code minimumRate}.
+ *
+ * Because only the sampled messages update this instance, a rate that is high when the traffic drops takes
+ * up to {@code rate / maximumPerSecond} seconds to come down.
+ */
+final class AdaptiveSamplingRate {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final int minimumRate;
+    private final int maximumPerSecond;
+    private final StripedCounter messages = new StripedCounter(Runtime.getRuntime().availableProcessors());
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicBoolean changed = new AtomicBoolean(false);
+    private volatile int rate;
+
+    /**
+     * Constructs this instance
+     *
+     * @param minimumRate the configured sampling rate, which is also the initial rate
+     * @param maximumPerSecond the maximum number of sampled messages per second
+     */
+    AdaptiveSamplingRate(int minimumRate, int maximumPerSecond) {
+        this.minimumRate = Math.max(1, minimumRate);
+        this.maximumPerSecond = maximumPerSecond;
+        this.rate = this.minimumRate;
+    }
+
+    /**
+     * Returns the rate in use
+     *
+     * @return the current sampling rate
+     */
+    int rate() {
+        return this.rate;
+    }
+
+    /**
+     * Records a sampled message, which stands for {@code rate} messages
+     *
+     * @param rate the rate at which the message was sampled
+     */
+    void sampled(int rate) {
+        this.messages.add(rate);
+
+        final long start = this.windowStart.get();
+        final long now = System.nanoTime();
+        final long elapsed = now - start;
+        if (elapsed < WINDOW_NANOS || !this.windowStart.compareAndSet(start, now)) return;
+
+        final double perSecond = this.messages.sumThenReset() * (double)WINDOW_NANOS / elapsed;
+        final int newRate = (int)Math.max(this.minimumRate, Math.min(Integer.MAX_VALUE, Math.ceil(perSecond / this.maximumPerSecond)));
+        if (newRate != this.rate) {
+            this.rate = newRate;
+            this.changed.set(true);
+        }
+    }
+
+    /**
+     * Returns {@code true} once after the rate has changed; the caller then reports the new rate
+     *
+     * @return {@code true} if the rate has changed since the last call
+     */
+    boolean takeChanged() {
+        return this.changed.get() && this.changed.compareAndSet(true, false);
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.eigengo.monitor.agent.akka;
+
+import scala.Option;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the advices compute from one {@link AkkaAgentConfiguration}: the compiled filters and sampling
+ * decisions, the tagger, and the adaptive rates shared by the actors of the same type. The aspect publishes
+ * a new instance with a single volatile write when the configuration is reloaded, so that the advices always
+ * see the configuration, the tagger and the decisions of the same snapshot, without any locking.
+ *
+ * The {@link CachedActor}s remember the snapshot they were computed from; the advices re-compute the actors
+ * whose snapshot is no longer current when they next see them.
+ */
+final class AkkaAgentSnapshot {
+    /**
+     * The configuration of this snapshot
+     */
+    final AkkaAgentConfiguration configuration;
+    /**
+     * The tagger for the configured {@code includeRoutees}
+     */
+    final ActorPathTagger tagger;
+    /**
+     * The filter and sampling decisions
+     */
+    final ActorFilterDecisions decisions;
+    private final ConcurrentHashMap<Option<String>, AdaptiveSamplingRate> adaptiveRates =
+            new ConcurrentHashMap<Option<String>, AdaptiveSamplingRate>();
+
+    /**
+     * Compiles the {@code configuration}
+     *
+     * @param configuration the configuration
+     */
+    AkkaAgentSnapshot(AkkaAgentConfiguration configuration) {
+        this.configuration = configuration;
+        this.tagger = new ActorPathTagger(configuration.includeRoutees());
+        this.decisions = new ActorFilterDecisions(configuration);
+    }
+
+    /**
+     * Returns the adaptive rate shared by the actors of the {@code className}, creating it on the first call
+     *
+     * @param className the actor type
+     * @param samplingRate the minimum sampling rate
+     * @param maximumSampledPerSecond the maximum number of sampled messages per second
+     * @return the shared rate
+     */
+    AdaptiveSamplingRate adaptiveRate(Option<String> className, int samplingRate, int maximumSampledPerSecond) {
+        final AdaptiveSamplingRate adaptiveRate = this.adaptiveRates.get(className);
+        if (adaptiveRate != null) return adaptiveRate;
+
+        final AdaptiveSamplingRate created = new AdaptiveSamplingRate(samplingRate, maximumSampledPerSecond);
+        final AdaptiveSamplingRate existing = this.adaptiveRates.putIfAbsent(className, created);
+        return existing == null ? created : existing;
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.eigengo.monitor.agent.akka;
+
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.GaugeHandle;
+import org.eigengo.monitor.output.StripedCounter;
+
+/**
+ * Accumulates the time that the actors of one type, or of one dispatcher, spend in their {@code receive},
+ * and the number of messages they receive. The actors add to striped primitive counters, so they do not
+ * contend with each other; the {@link UtilizationPoller} turns the sums into the utilization and the
+ * throughput gauges at a fixed interval.
+ */
+final class BusyTime {
+    private final StripedCounter nanos;
+    private final StripedCounter messages;
+    private final GaugeHandle utilization;
+    private final GaugeHandle throughput;
+    // the moving average of the messages per second; only the poller's thread touches it
+    private double rate = Double.NaN;
+    private volatile boolean retired = false;
+
+    /**
+     * Constructs this instance
+     *
+     * @param counterInterface the counter interface that receives the gauges
+     * @param utilizationAspect the aspect of the utilization gauge
+     * @param throughputAspect the aspect of the throughput gauge
+     * @param tags the tags of both gauges
+     * @param stripes the number of cells in each counter
+     */
+    BusyTime(CounterInterface counterInterface, String utilizationAspect, String throughputAspect, String[] tags, int stripes) {
+        this.nanos = new StripedCounter(stripes);
+        this.messages = new StripedCounter(stripes);
+        this.utilization = CounterHandles.gauge(counterInterface, utilizationAspect, tags);
+        this.throughput = CounterHandles.gauge(counterInterface, throughputAspect, tags);
+    }
+
+    /**
+     * Adds the time spent receiving the {@code messages}
+     *
+     * @param nanos the time in nanoseconds
+     * @param messages the number of messages
+     */
+    void add(long nanos, int messages) {
+        this.nanos.add(nanos);
+        this.messages.add(messages);
+    }
+
+    /**
+     * Reports the utilization and the throughput since the last report, and starts a new interval;
+     * must only be called from the poller's thread
+     *
+     * @param elapsed the length of the interval in nanoseconds
+     * @param alpha the weight of this interval in the moving average of the throughput
+     * @param threads the number of threads that could have received the messages
+     * @return the number of messages received in the interval
+     */
+    long report(long elapsed, double alpha, int threads) {
+        final long busy = this.nanos.sumThenReset();
+        final long count = this.messages.sumThenReset();
+        if (elapsed <= 0) return count;
+
+        // in percent of the threads' time
+        this.utilization.set(Math.round(100.0 * busy / ((double)elapsed * Math.max(threads, 1))));
+
+        final double instant = count * 1e9 / elapsed;
+        this.rate = Double.isNaN(this.rate) ? instant : this.rate + alpha * (instant - this.rate);
+        this.throughput.set(Math.round(this.rate));
+        return count;
+    }
+
+    /**
+     * Marks this instance as no longer reported; the actors that hold it then look up the current one
+     */
+    void retire() {
+        this.retired = true;
+    }
+
+    /**
+     * Returns {@code true} if the poller no longer reports this instance
+     *
+     * @return {@code true} if retired
+     */
+    boolean isRetired() {
+        return this.retired;
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.eigengo.monitor.agent.akka;
+
+import org.eigengo.monitor.output.CounterInterface;
+import scala.Option;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Holds everything the advices need to know about a single actor, computed once when the actor
+ * is created. The {@code receiveMessage} advice only reads the fields of this instance, which means
+ * that monitoring a message does not need to re-compute the tags, the class name or the filter
+ * decisions.
+ *
+ * Each actor counts its own messages for the sampling. Akka processes one message of an actor at a time,
+ * and guarantees that the effects of one message are visible to the next, which means that the counter
+ * does not need to be atomic, and that the actors of the same type do not contend on a shared counter.
+ * The same guarantee applies to the receive side of the {@link MailboxTimestamps}, to the
+ * {@link ActorHandles}, the {@link BusyTime}s and the receive in progress.
+ */
+final class CachedActor {
+    /**
+     * The tags computed by the {@link ActorPathTagger}
+     */
+    final String[] tags;
+    /**
+     * The actor class name; see {@code ActorCellMonitoringAspect.getActorClassName}
+     */
+    final Option<String> actorClassName;
+    /**
+     * {@code true} if the filters in the configuration include this actor
+     */
+    final boolean included;
+    /**
+     * The sampling rate from the configuration; {@code 1} to sample every message
+     */
+    final int samplingRate;
+    /**
+     * The rate shared by the actors of the same type in the adaptive sampling mode; {@code null} for
+     * the fixed {@code samplingRate}
+     */
+    final AdaptiveSamplingRate adaptiveRate;
+    /**
+     * The configuration snapshot this instance was computed from; {@code null} outside of the aspect
+     */
+    final AkkaAgentSnapshot snapshot;
+    /**
+     * Set by the {@link ActorTagCache} when it keeps this instance; the instances that are not kept are
+     * computed for every message and cannot count the messages
+     */
+    boolean retained;
+    /**
+     * Set by the {@link ActorTagCache} when it looks this instance up, and cleared by its eviction clock.
+     * It is written without synchronization by the actor's senders; a lost write only costs an earlier eviction.
+     */
+    boolean referenced;
+    /**
+     * The enqueue times of the messages in the actor's mailbox; {@code null} until the {@link ActorTagCache}
+     * keeps this instance, or if we do not measure the time the messages wait in the mailbox
+     */
+    MailboxTimestamps timestamps;
+    /**
+     * The busy time of the actor's type and of its dispatcher; {@code null} until the {@link UtilizationPoller}
+     * first records this actor
+     */
+    BusyTime typeBusyTime;
+    BusyTime dispatcherBusyTime;
+    /**
+     * The start, the message type and the mailbox size of the receive in progress, which the failure advice
+     * offers to the {@link SlowMessageRecorder}; {@code receivingSince} is {@code 0} if there is none
+     */
+    long receivingSince;
+    Class<?> receivingType;
+    int receivingMailboxSize;
+    /**
+     * The id of the actor's node in the {@link MessageFlowGraph}; {@code -1} until it first sends or receives a
+     * message. Unlike the other fields, it is also written by the threads of the actors that send messages to this
+     * one; they all compute the same id.
+     */
+    private volatile int flowNode = -1;
+    private SlowMessages slowMessages;
+    private ActorHandles handles;
+    private final int mailboxTimestamps;
+    private long messages;
+
+    /**
+     * Constructs this instance
+     *
+     * @param tags the actor tags
+     * @param actorClassName the actor class name
+     * @param included the result of the include / exclude filters
+     * @param samplingRate the sampling rate
+     * @param adaptiveRate the adaptive sampling rate; {@code null} to sample at the fixed {@code samplingRate}
+     */
+    CachedActor(String[] tags, Option<String> actorClassName, boolean included, int samplingRate, AdaptiveSamplingRate adaptiveRate) {
+        this(tags, actorClassName, included, samplingRate, adaptiveRate, 0, null);
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param tags the actor tags
+     * @param actorClassName the actor class name
+     * @param included the result of the include / exclude filters
+     * @param samplingRate the sampling rate
+     * @param adaptiveRate the adaptive sampling rate; {@code null} to sample at the fixed {@code samplingRate}
+     * @param mailboxTimestamps the number of enqueue times to keep once retained; {@code 0} to not measure
+     *                          the time the messages wait in the mailbox
+     * @param snapshot the configuration snapshot that the other values were computed from
+     */
+    CachedActor(String[] tags, Option<String> actorClassName, boolean included, int samplingRate, AdaptiveSamplingRate adaptiveRate,
+                int mailboxTimestamps, AkkaAgentSnapshot snapshot) {
+        this.tags = tags;
+        this.actorClassName = actorClassName;
+        this.included = included;
+        this.samplingRate = samplingRate;
+        this.adaptiveRate = adaptiveRate;
+        this.mailboxTimestamps = mailboxTimestamps;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Marks this instance as kept by the {@link ActorTagCache}, which allows it to count the messages and to
+     * record their enqueue times. Must be called before this instance is published to other threads.
+     */
+    void retain() {
+        this.retained = true;
+        if (this.included && this.mailboxTimestamps > 0) this.timestamps = new MailboxTimestamps(this.mailboxTimestamps);
+    }
+
+    /**
+     * Returns the handles of the actor's metrics, creating them on the first call; must be called from the
+     * actor's {@code receive}. The instances that are not kept create new handles for every message, which
+     * costs about as much as the plain {@code CounterInterface} calls.
+     *
+     * @param counterInterface the counter interface that binds the handles
+     * @return the handles
+     */
+    ActorHandles handles(CounterInterface counterInterface) {
+        if (this.handles == null) this.handles = new ActorHandles(counterInterface, this.tags);
+        return this.handles;
+    }
+
+    /**
+     * Returns the slowest receives of the actor's type, looking them up on the first call; must be called
+     * from the actor's {@code receive}
+     *
+     * @param recorder the flight recorder
+     * @return the slowest receives of the actor's type
+     */
+    SlowMessages slowMessages(SlowMessageRecorder recorder) {
+        if (this.slowMessages == null) this.slowMessages = recorder.forType(this.actorClassName);
+        return this.slowMessages;
+    }
+
+    /**
+     * Returns the id of the actor's node in the message-flow graph, interning it on the first call. The node is
+     * the actor's path if it is included and the configuration asks for the paths; otherwise it is the actor's type.
+     *
+     * @param messageFlow the message-flow graph
+     * @return the node id
+     */
+    int flowNode(MessageFlowGraph messageFlow) {
+        int flowNode = this.flowNode;
+        if (flowNode < 0) {
+            final boolean paths = this.included && this.snapshot != null && this.snapshot.configuration.messageFlowPaths();
+            flowNode = messageFlow.node(MessageFlowGraph.nodeName(this.tags, paths));
+            this.flowNode = flowNode;
+        }
+        return flowNode;
+    }
+
+    /**
+     * Decides whether to sample the current message; must be called from the actor's {@code receive}
+     *
+     * @return the rate at which the message was sampled, i.e. how many messages it stands for;
+     *         {@code 0} if we should not sample this message
+     */
+    int sample() {
+        final int rate = this.adaptiveRate == null ? this.samplingRate : this.adaptiveRate.rate();
+        final boolean sampled;
+        if (rate <= 1) sampled = true;
+        else if (this.retained) sampled = (++this.messages % rate == 1); // == 1 to log the first message
+        else sampled = ThreadLocalRandom.current().nextInt(rate) == 0;
+
+        if (!sampled) return 0;
+        if (this.adaptiveRate != null) this.adaptiveRate.sampled(rate);
+        return rate;
+    }
+
+}
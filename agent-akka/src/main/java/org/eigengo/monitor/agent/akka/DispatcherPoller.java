@@ -0,0 +1,162 @@
+package org.eigengo.monitor.agent.akka;
+
+import akka.actor.ActorCell;
+import akka.dispatch.Dispatcher;
+import akka.dispatch.MessageDispatcher;
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.DaemonThreadFactory;
+import org.eigengo.monitor.output.GaugeHandle;
+import scala.concurrent.forkjoin.ForkJoinPool;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the thread pools of the registered dispatchers at a fixed interval. Each dispatcher is registered
+ * once, when it first dispatches a message; from then on, the {@code dispatch} advice only checks that the
+ * dispatcher is already known, and all the work happens in a single low-priority daemon thread.
+ *
+ * The dispatchers shut down their executors when they have no actors for a while, and create new ones
+ * when they dispatch again. The poller therefore forgets the dispatchers whose executors are shut down;
+ * their next {@code dispatch} registers the new executor. The polling thread itself runs for as long as the
+ * aspect that creates this instance, which is as long as the JVM.
+ */
+final class DispatcherPoller implements Runnable {
+    private final ConcurrentHashMap<Object, PolledExecutor> executors = new ConcurrentHashMap<Object, PolledExecutor>();
+    private final CounterInterface counterInterface;
+    private final DispatcherTagger tagger;
+    private final ScheduledExecutorService scheduler;
+    // written only by the polling thread
+    private boolean failed = false;
+
+    /**
+     * The executor of a registered dispatcher, the handles of its metrics and the last steal count
+     */
+    private static final class PolledExecutor {
+        private final ExecutorService executor;
+        private final GaugeHandle activeThreadCount;
+        private final GaugeHandle runningThreadCount;
+        private final GaugeHandle poolSize;
+        private final GaugeHandle queuedTaskCount;
+        private final CounterHandle steals;
+        private long stealCount;
+
+        private PolledExecutor(ExecutorService executor, CounterInterface counterInterface, String[] tags) {
+            this.executor = executor;
+            this.activeThreadCount = CounterHandles.gauge(counterInterface, Aspects.activeThreadCount(), tags);
+            this.runningThreadCount = CounterHandles.gauge(counterInterface, Aspects.runningThreadCount(), tags);
+            this.poolSize = CounterHandles.gauge(counterInterface, Aspects.poolSize(), tags);
+            this.queuedTaskCount = CounterHandles.gauge(counterInterface, Aspects.queuedTaskCount(), tags);
+            this.steals = executor instanceof ForkJoinPool ? CounterHandles.counter(counterInterface, Aspects.stealCount(), tags) : null;
+        }
+    }
+
+    /**
+     * Constructs this instance and starts polling the registered dispatchers
+     *
+     * @param counterInterface the counter interface that receives the sampled values
+     * @param tagger the tagger for the dispatchers
+     * @param interval the interval between the samples in milliseconds; {@code 0} to never sample
+     */
+    DispatcherPoller(CounterInterface counterInterface, DispatcherTagger tagger, long interval) {
+        this.counterInterface = counterInterface;
+        this.tagger = tagger;
+        if (interval > 0) {
+            final ScheduledThreadPoolExecutor scheduler =
+                    new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitor-dispatcher-poller"));
+            scheduler.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+            this.scheduler = scheduler;
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Registers the {@code dispatcher} that is about to dispatch a message to the {@code actorCell},
+     * unless it is already registered.
+     *
+     * @param dispatcher the dispatcher
+     * @param actorCell the actor cell that receives the message
+     */
+    void register(MessageDispatcher dispatcher, ActorCell actorCell) {
+        if (this.scheduler == null || !(dispatcher instanceof Dispatcher)) return;
+        if (this.executors.containsKey(dispatcher)) return;
+
+        register(dispatcher, ((Dispatcher)dispatcher).executorService().executor(), this.tagger.getTags(actorCell));
+    }
+
+    /**
+     * Registers the {@code executor} of the {@code dispatcher}, unless the {@code dispatcher} is already registered
+     *
+     * @param dispatcher the key of the executor
+     * @param executor the executor to sample
+     * @param tags the tags of the sampled values
+     */
+    void register(Object dispatcher, ExecutorService executor, String[] tags) {
+        if (this.scheduler == null || this.executors.containsKey(dispatcher)) return;
+        this.executors.putIfAbsent(dispatcher, new PolledExecutor(executor, this.counterInterface, tags));
+    }
+
+    /**
+     * Returns the number of registered dispatchers
+     *
+     * @return the size
+     */
+    int size() {
+        return this.executors.size();
+    }
+
+    /**
+     * Samples all registered executors
+     */
+    @Override
+    public void run() {
+        final Iterator<Map.Entry<Object, PolledExecutor>> i = this.executors.entrySet().iterator();
+        while (i.hasNext()) {
+            final PolledExecutor polled = i.next().getValue();
+            if (polled.executor.isShutdown()) {
+                i.remove();
+                continue;
+            }
+
+            try {
+                if (polled.executor instanceof ForkJoinPool) forkJoinPool((ForkJoinPool)polled.executor, polled);
+                else if (polled.executor instanceof ThreadPoolExecutor) threadPoolExecutor((ThreadPoolExecutor)polled.executor, polled);
+            } catch (RuntimeException e) {
+                // a failing sample must not cancel the future samples; the later failures are most likely the same
+                if (!this.failed) e.printStackTrace();
+                this.failed = true;
+            }
+        }
+    }
+
+    private void forkJoinPool(ForkJoinPool es, PolledExecutor polled) {
+        polled.activeThreadCount.set(es.getActiveThreadCount());
+        polled.runningThreadCount.set(es.getRunningThreadCount());
+
+        polled.poolSize.set(es.getPoolSize());
+        polled.queuedTaskCount.set(es.getQueuedTaskCount());
+
+        final long stealCount = es.getStealCount();
+        final long steals = stealCount - polled.stealCount;
+        polled.stealCount = stealCount;
+        if (steals > 0) polled.steals.increment(steals);
+    }
+
+    private void threadPoolExecutor(ThreadPoolExecutor es, PolledExecutor polled) {
+        polled.activeThreadCount.set(es.getActiveCount());
+        polled.runningThreadCount.set(es.getActiveCount());
+
+        polled.poolSize.set(es.getPoolSize());
+        polled.queuedTaskCount.set(es.getQueue().size());
+    }
+
+}
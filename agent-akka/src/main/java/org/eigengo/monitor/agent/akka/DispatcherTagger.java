@@ -12,27 +12,24 @@ import java.util.List;
 public class DispatcherTagger extends AbstractTagger {
 
     /**
-     * Constructs this instance, assigns the {@code includeRoutees} field.
-     *
-     * @param includeRoutees {@code true} if the tagging should include the routees
-     * @see org.eigengo.monitor.agent.akka.AbstractTagger#addActorPathTagsTo(akka.actor.ActorPath, java.util.List)
+     * Constructs this instance; the dispatcher tags do not include the actor paths, and so
+     * the {@code includeRoutees} setting does not apply.
      */
-    DispatcherTagger(boolean includeRoutees) {
-        super(includeRoutees);
+    DispatcherTagger() {
+        super(false);
     }
 
     /**
-     * Computes the tags for the dispatcher associated with subsequent operations on the
-     * given {@code actorCell}.
+     * Computes the tags for the dispatcher of the given {@code actorCell}: the actor system name and
+     * the dispatcher id. The tags are the same for all actors that share the dispatcher.
      *
-     * @param actorCell the ActorCell that will perform some operation later
+     * @param actorCell an ActorCell that uses the dispatcher
      * @return the tags
      */
     final String[] getTags(final ActorCell actorCell) {
-        final List<String> tags = new ArrayList<String>(3);
+        final List<String> tags = new ArrayList<String>(2);
         final ActorPath actorPath = actorCell.self().path();
 
-        addActorPathTagsTo(actorPath, tags);
         addSystemTagsTo(actorPath, tags);
         tags.add(String.format("akka.dispatcher:%s", actorCell.dispatcher().id()));
 
@@ -0,0 +1,96 @@
+package org.eigengo.monitor.agent.akka;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the times at which the messages were enqueued into one actor's mailbox, so that we can measure
+ * how long each message waited before the actor received it. The times are kept in rings of primitive
+ * {@code long}s, which means that the messages do not need to be wrapped in timestamped envelopes.
+ *
+ * The first ring keeps the time of every one of the last {@code capacity} messages. Each further ring keeps
+ * the time of every {@code capacity}-th message of the previous one, so that the times of the messages that
+ * are far behind are still known: the message takes the time of the first message of its block, which was
+ * enqueued just before it. The rings together cover about a million messages; the actors that fall further
+ * behind than that are not measured.
+ *
+ * Any thread may call {@link #enqueued(long)}; only the actor may call {@link #dequeued(int)}. Rather than
+ * pairing the n-th dequeued message with the n-th enqueued time, the actor finds the position of the message
+ * it receives from the number of messages that remain in its mailbox. This keeps the times in step with the
+ * mailbox when the messages sent to the actor go to the dead letters or are dropped by a bounded mailbox.
+ * The messages that the actor puts back to the front of its mailbox (for example, by {@code Stash.unstashAll})
+ * and the messages that were never timestamped (for example, those sent before the configuration changed) are
+ * not measured. The times remain approximate when several threads send to the actor at the same time, for the
+ * order of the timestamps may differ from the order of the mailbox for the messages that are in flight, and
+ * when the actor uses a mailbox that is not FIFO.
+ */
+final class MailboxTimestamps {
+    // the rings cover about 2^COVERED_SHIFT messages behind the newest one
+    private static final int COVERED_SHIFT = 20;
+
+    private final AtomicLongArray timestamps;
+    private final int size;
+    private final int shift;
+    private final int mask;
+    private final int levels;
+    private final AtomicLong enqueued = new AtomicLong(0);
+    private long dequeued;
+
+    /**
+     * Constructs this instance
+     *
+     * @param capacity the number of timestamps to keep in each ring; rounded up to the next power of two
+     */
+    MailboxTimestamps(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        this.size = size;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.mask = size - 1;
+        this.levels = this.shift == 0 ? 1 : (COVERED_SHIFT + this.shift - 1) / this.shift;
+        this.timestamps = new AtomicLongArray(size * this.levels);
+    }
+
+    /**
+     * Records that a message was enqueued at {@code now}
+     *
+     * @param now the value of {@code System.nanoTime()}
+     */
+    void enqueued(long now) {
+        final long sequence = this.enqueued.getAndIncrement();
+        // the mailbox's own enqueue follows, and it publishes the timestamp to the actor. the message
+        // starts a block in each further ring while the low bits of its sequence are zero
+        int level = 0;
+        do {
+            final int levelShift = level * this.shift;
+            this.timestamps.lazySet(level * this.size + ((int) (sequence >>> levelShift) & this.mask), now);
+            level++;
+        } while (level < this.levels && (sequence & ((1L << (level * this.shift)) - 1)) == 0);
+    }
+
+    /**
+     * Takes the time at which the message that the actor is receiving was enqueued
+     *
+     * @param remaining the number of messages that remain in the actor's mailbox
+     * @return the value of {@code System.nanoTime()} at the enqueue, or {@code 0} if it is not known
+     */
+    long dequeued(int remaining) {
+        final long enqueued = this.enqueued.get();
+        final long sequence = enqueued - remaining - 1;
+        // there are more messages in the mailbox than we have not yet received: this one was put back
+        // to the front of the mailbox, or it was never timestamped
+        if (sequence < this.dequeued) return 0;
+        this.dequeued = sequence + 1;
+
+        // the first ring whose block of the message has not yet been overwritten by a newer one
+        for (int level = 0; level < this.levels; level++) {
+            final int levelShift = level * this.shift;
+            final long block = sequence >>> levelShift;
+            if (((enqueued - 1) >>> levelShift) - block < this.size) {
+                return this.timestamps.get(level * this.size + ((int) block & this.mask));
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,292 @@
+package org.eigengo.monitor.agent.akka;
+
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the messages sent from one actor to another: the edges of the message-flow graph. The nodes are
+ * the actor types or, for the included actors if the configuration asks for it, the actor paths; each node
+ * is interned to an {@code int} id once, when the {@link CachedActor} first sends or receives a message.
+ *
+ * The counts are kept in an open-addressing table of {@code long} keys, each key being the pair of the sender's
+ * and the recipient's ids, with the counts in a parallel array. Counting a message probes at most
+ * {@code MAXIMUM_PROBES} slots and then adds to the count of the edge, without allocating. The sends that do not
+ * find their edge in the full table are only counted as dropped; likewise, the nodes that do not fit are all
+ * interned as {@code OTHER}.
+ *
+ * The edges are reported to the {@code CounterInterface} as counters at a fixed interval, by the increase since
+ * the previous report; the current graph is available over JMX in the Graphviz DOT format. The reports end
+ * with the JVM.
+ */
+final class MessageFlowGraph implements MessageFlowGraphMXBean, Runnable {
+    /**
+     * The node for the actors that do not fit into the graph
+     */
+    static final int OTHER = 0;
+    /**
+     * The node for the messages sent from outside of any actor, i.e. with the {@code deadLetters} sender
+     */
+    static final int NO_SENDER = 1;
+    /**
+     * The node for the senders that are not local actors, for example the temporary actors of the {@code ask}s
+     */
+    static final int EXTERNAL = 2;
+    private static final int MAXIMUM_PROBES = 16;
+    private static final String PATH_TAG = "akka.path:";
+    private static final String SYSTEM_TAG = "akka.system:";
+    private static final String TYPE_TAG = "akka.type:";
+
+    private final ConcurrentHashMap<String, Integer> nodeIds = new ConcurrentHashMap<String, Integer>();
+    private final AtomicReferenceArray<String> nodeNames;
+    // guarded by the nodeIds
+    private int nodes;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray resetCounts;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final int mask;
+    private final CounterInterface counterInterface;
+    // the exporter's own state: the counts it reported, and the handles of the edges
+    private final long[] reportedCounts;
+    private final CounterHandle[] handles;
+    private final CounterHandle droppedHandle;
+    private long reportedDropped;
+
+    /**
+     * Constructs this instance and starts reporting the edges
+     *
+     * @param counterInterface the counter interface that receives the edge counters
+     * @param maximumEdges the number of edges to make room for; also the maximum number of nodes
+     * @param interval the interval between the reports in milliseconds; {@code 0} to never report
+     */
+    MessageFlowGraph(CounterInterface counterInterface, int maximumEdges, long interval) {
+        // at most half full, which keeps the probes short
+        final int capacity = Integer.highestOneBit(Math.max(maximumEdges, 1) * 2 - 1) << 1;
+        this.counterInterface = counterInterface;
+        this.keys = new AtomicLongArray(capacity);
+        this.counts = new AtomicLongArray(capacity);
+        this.resetCounts = new AtomicLongArray(capacity);
+        this.reportedCounts = new long[capacity];
+        this.handles = new CounterHandle[capacity];
+        this.mask = capacity - 1;
+        this.nodeNames = new AtomicReferenceArray<String>(Math.max(maximumEdges, EXTERNAL + 1));
+        this.droppedHandle = CounterHandles.counter(counterInterface, Aspects.messageFlowDropped());
+        intern("other");
+        intern("noSender");
+        intern("external");
+
+        if (interval > 0) {
+            final ScheduledThreadPoolExecutor scheduler =
+                    new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitor-message-flow"));
+            scheduler.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Computes the name of the node of the actor with the given {@code tags}: the actor's path, or its type.
+     * The anonymous actors of each system share a single node.
+     *
+     * @param tags the tags computed by the {@link ActorPathTagger}
+     * @param paths {@code true} for the actor path; {@code false} for the actor type
+     * @return the node name
+     */
+    static String nodeName(String[] tags, boolean paths) {
+        String path = null;
+        String system = null;
+        for (String tag : tags) {
+            // the last path tag is the routee's own path if we include the routees
+            if (tag.startsWith(PATH_TAG)) path = tag.substring(PATH_TAG.length());
+            else if (tag.startsWith(SYSTEM_TAG)) system = tag.substring(SYSTEM_TAG.length());
+            else if (!paths && tag.startsWith(TYPE_TAG)) return tag.substring(TYPE_TAG.length());
+        }
+        if (paths && path != null) return path;
+        return system + ".anonymous";
+    }
+
+    /**
+     * Returns the id of the node with the given {@code name}, interning it on the first call
+     *
+     * @param name the node name
+     * @return the id; {@code OTHER} if there is no room for another node
+     */
+    int node(String name) {
+        final Integer id = this.nodeIds.get(name);
+        if (id != null) return id;
+        return intern(name);
+    }
+
+    private int intern(String name) {
+        synchronized (this.nodeIds) {
+            final Integer existing = this.nodeIds.get(name);
+            if (existing != null) return existing;
+            final int id = this.nodes;
+            if (id == this.nodeNames.length()) return OTHER;
+
+            this.nodeNames.set(id, name);
+            this.nodes = id + 1;
+            this.nodeIds.put(name, id);
+            return id;
+        }
+    }
+
+    /**
+     * Counts a message sent from the {@code sender} to the {@code recipient}
+     *
+     * @param sender the id of the sender's node
+     * @param recipient the id of the recipient's node
+     */
+    void record(int sender, int recipient) {
+        final long key = ((long)(sender + 1) << 32) | (recipient & 0xffffffffL);
+        int slot = hash(key) & this.mask;
+        for (int i = 0; i < MAXIMUM_PROBES; i++) {
+            final long slotKey = this.keys.get(slot);
+            if (slotKey == key || (slotKey == 0 && (this.keys.compareAndSet(slot, 0, key) || this.keys.get(slot) == key))) {
+                this.counts.incrementAndGet(slot);
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.dropped.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of messages sent from the {@code sender} to the {@code recipient} since the last reset
+     *
+     * @param sender the name of the sender's node
+     * @param recipient the name of the recipient's node
+     * @return the count; {@code 0} if there is no such edge
+     */
+    long count(String sender, String recipient) {
+        final Integer senderId = this.nodeIds.get(sender);
+        final Integer recipientId = this.nodeIds.get(recipient);
+        if (senderId == null || recipientId == null) return 0;
+
+        final long key = ((long)(senderId + 1) << 32) | (recipientId & 0xffffffffL);
+        int slot = hash(key) & this.mask;
+        for (int i = 0; i < MAXIMUM_PROBES; i++) {
+            if (this.keys.get(slot) == key) return this.counts.get(slot) - this.resetCounts.get(slot);
+            slot = (slot + 1) & this.mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of sends that did not fit into the graph
+     *
+     * @return the dropped sends
+     */
+    long dropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Reports the increase of the count of each edge since the previous report
+     */
+    @Override
+    public void run() {
+        for (int slot = 0; slot < this.keys.length(); slot++) {
+            final long key = this.keys.get(slot);
+            if (key == 0) continue;
+
+            final long count = this.counts.get(slot);
+            final long delta = count - this.reportedCounts[slot];
+            if (delta == 0) continue;
+            this.reportedCounts[slot] = count;
+            if (this.handles[slot] == null) {
+                this.handles[slot] = CounterHandles.counter(this.counterInterface, Aspects.messageFlow(),
+                        "akka.sender:" + sender(key), "akka.recipient:" + recipient(key));
+            }
+            this.handles[slot].increment(delta);
+        }
+
+        final long dropped = this.dropped.get();
+        if (dropped != this.reportedDropped) {
+            this.droppedHandle.increment(dropped - this.reportedDropped);
+            this.reportedDropped = dropped;
+        }
+    }
+
+    @Override
+    public String getGraph() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("digraph \"akka\" {\n");
+        for (int slot = 0; slot < this.keys.length(); slot++) {
+            final long key = this.keys.get(slot);
+            if (key == 0) continue;
+            final long count = this.counts.get(slot) - this.resetCounts.get(slot);
+            if (count == 0) continue;
+
+            sb.append("  ");
+            quote(sender(key), sb);
+            sb.append(" -> ");
+            quote(recipient(key), sb);
+            sb.append(" [label=\"").append(count).append("\", weight=").append(count).append("];\n");
+        }
+        final long dropped = this.dropped.get();
+        if (dropped > 0) sb.append("  // ").append(dropped).append(" sends did not fit into the graph\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    @Override
+    public String dump(String fileName) throws IOException {
+        final File file = new File(fileName);
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.print(getGraph());
+            if (writer.checkError()) throw new IOException("Cannot write " + file.getAbsolutePath());
+        } finally {
+            writer.close();
+        }
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public void reset() {
+        // the reported counters keep counting; only the graph starts again
+        for (int slot = 0; slot < this.keys.length(); slot++) this.resetCounts.set(slot, this.counts.get(slot));
+    }
+
+    private String sender(long key) {
+        return this.nodeNames.get((int)(key >>> 32) - 1);
+    }
+
+    private String recipient(long key) {
+        return this.nodeNames.get((int)key);
+    }
+
+    private static void quote(String name, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static int hash(long key) {
+        // the finalizer of the 64-bit MurmurHash3
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9a5ac9e1e53L;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+
+}
@@ -0,0 +1,33 @@
+package org.eigengo.monitor.agent.akka;
+
+import java.io.IOException;
+
+/**
+ * The management interface of the {@link MessageFlowGraph}, registered as
+ * {@code org.eigengo.monitor:type=MessageFlow}
+ */
+public interface MessageFlowGraphMXBean {
+
+    /**
+     * Returns the messages sent from one actor to another since the last reset, as a directed graph in the
+     * Graphviz DOT format; the edges are labelled with the number of messages
+     *
+     * @return the graph
+     */
+    String getGraph();
+
+    /**
+     * Writes the graph to the given file
+     *
+     * @param fileName the name of the file
+     * @return the absolute path of the written file
+     * @throws IOException if the file cannot be written
+     */
+    String dump(String fileName) throws IOException;
+
+    /**
+     * Starts counting the edges of the graph from zero; the reported counters are not affected
+     */
+    void reset();
+
+}
@@ -0,0 +1,87 @@
+package org.eigengo.monitor.agent.akka;
+
+import scala.Option;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The always-on flight recorder of the slowest receives: keeps the {@link SlowMessages} of each actor type,
+ * and makes their snapshots available over JMX and in a dump file.
+ *
+ * The {@code receiveMessage} advice offers every sampled receive of the included actors; the
+ * {@code handleInvokeFailure} advice offers the receives that throw, together with the exception class.
+ */
+final class SlowMessageRecorder implements SlowMessageRecorderMXBean {
+    private final ConcurrentHashMap<Option<String>, SlowMessages> actorTypes = new ConcurrentHashMap<Option<String>, SlowMessages>();
+    private final int capacity;
+
+    /**
+     * Constructs this instance
+     *
+     * @param capacity the number of receives to keep for each actor type
+     */
+    SlowMessageRecorder(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the slowest receives of the given actor type, creating them on the first call
+     *
+     * @param actorClassName the actor type
+     * @return the slowest receives
+     */
+    SlowMessages forType(Option<String> actorClassName) {
+        final SlowMessages slowMessages = this.actorTypes.get(actorClassName);
+        if (slowMessages != null) return slowMessages;
+
+        final SlowMessages created = new SlowMessages(actorClassName.isDefined() ? actorClassName.get() : "anonymous", this.capacity);
+        final SlowMessages existing = this.actorTypes.putIfAbsent(actorClassName, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Returns the recorded receives of all actor types, the slowest first
+     *
+     * @return the snapshot
+     */
+    List<SlowMessages.SlowMessage> snapshot() {
+        final List<SlowMessages.SlowMessage> snapshot = new ArrayList<SlowMessages.SlowMessage>();
+        for (SlowMessages slowMessages : this.actorTypes.values()) slowMessages.addTo(snapshot);
+        Collections.sort(snapshot, SlowMessages.SLOWEST_FIRST);
+        return snapshot;
+    }
+
+    @Override
+    public String[] getSlowestMessages() {
+        final List<SlowMessages.SlowMessage> snapshot = snapshot();
+        final String[] lines = new String[snapshot.size()];
+        for (int i = 0; i < lines.length; i++) lines[i] = snapshot.get(i).toString();
+        return lines;
+    }
+
+    @Override
+    public String dump(String fileName) throws IOException {
+        final File file = new File(fileName);
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            for (String line : getSlowestMessages()) writer.println(line);
+            if (writer.checkError()) throw new IOException("Cannot write " + file.getAbsolutePath());
+        } finally {
+            writer.close();
+        }
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public void reset() {
+        for (SlowMessages slowMessages : this.actorTypes.values()) slowMessages.reset();
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.eigengo.monitor.agent.akka;
+
+import java.io.IOException;
+
+/**
+ * The management interface of the {@link SlowMessageRecorder}, registered as
+ * {@code org.eigengo.monitor:type=SlowMessages}
+ */
+public interface SlowMessageRecorderMXBean {
+
+    /**
+     * Returns the slowest receives of all actor types, the slowest first, one receive per line
+     *
+     * @return the slowest receives
+     */
+    String[] getSlowestMessages();
+
+    /**
+     * Writes the slowest receives of all actor types to the given file
+     *
+     * @param fileName the name of the file
+     * @return the absolute path of the written file
+     * @throws IOException if the file cannot be written
+     */
+    String dump(String fileName) throws IOException;
+
+    /**
+     * Forgets all recorded receives
+     */
+    void reset();
+
+}
@@ -0,0 +1,202 @@
+package org.eigengo.monitor.agent.akka;
+
+import akka.actor.ActorPath;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the {@code capacity} slowest receives of the actors of one type in preallocated slots. Once the slots
+ * are full, a receive is only admitted if it is slower than the fastest receive we keep; that decision is a
+ * single compare with a volatile {@code threshold}, so the fast receives pay almost nothing.
+ *
+ * The admitted receives are written by one thread at a time: a thread that finds another one writing drops its
+ * receive instead of waiting, so the recording never blocks the actors. The capacity is small, which means that
+ * finding the slot to replace by scanning all slots is cheaper than keeping them in a heap.
+ */
+final class SlowMessages {
+    private final String actorType;
+    private final long[] durations;
+    private final long[] times;
+    private final int[] mailboxSizes;
+    private final Class<?>[] messageTypes;
+    private final ActorPath[] actorPaths;
+    private final String[] threads;
+    private final Class<?>[] failures;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private volatile long threshold;
+    private int size;
+
+    /**
+     * One recorded receive
+     */
+    static final class SlowMessage {
+        final String actorType;
+        final long duration;
+        final long time;
+        final int mailboxSize;
+        final Class<?> messageType;
+        final ActorPath actorPath;
+        final String thread;
+        final Class<?> failure;
+
+        private SlowMessage(String actorType, long duration, long time, int mailboxSize, Class<?> messageType, ActorPath actorPath,
+                            String thread, Class<?> failure) {
+            this.actorType = actorType;
+            this.duration = duration;
+            this.time = time;
+            this.mailboxSize = mailboxSize;
+            this.messageType = messageType;
+            this.actorPath = actorPath;
+            this.thread = thread;
+            this.failure = failure;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(this.duration / 1000).append(" us ");
+            sb.append(this.actorType).append(' ');
+            sb.append(this.actorPath).append(' ');
+            sb.append(this.messageType.getName());
+            sb.append(" mailbox=").append(this.mailboxSize);
+            sb.append(" thread=").append(this.thread);
+            sb.append(" at=").append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(this.time)));
+            if (this.failure != null) sb.append(" failure=").append(this.failure.getName());
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Orders the slowest receives first
+     */
+    static final Comparator<SlowMessage> SLOWEST_FIRST = new Comparator<SlowMessage>() {
+        @Override
+        public int compare(SlowMessage a, SlowMessage b) {
+            return a.duration < b.duration ? 1 : (a.duration == b.duration ? 0 : -1);
+        }
+    };
+
+    /**
+     * Constructs this instance
+     *
+     * @param actorType the actor type, for the snapshots
+     * @param capacity the number of receives to keep
+     */
+    SlowMessages(String actorType, int capacity) {
+        this.actorType = actorType;
+        this.durations = new long[capacity];
+        this.times = new long[capacity];
+        this.mailboxSizes = new int[capacity];
+        this.messageTypes = new Class<?>[capacity];
+        this.actorPaths = new ActorPath[capacity];
+        this.threads = new String[capacity];
+        this.failures = new Class<?>[capacity];
+    }
+
+    /**
+     * Records the receive if it is one of the slowest
+     *
+     * @param duration the duration of the receive in nanoseconds
+     * @param messageType the class of the message
+     * @param actorPath the path of the receiving actor
+     * @param mailboxSize the number of messages in the actor's mailbox
+     * @param failure the class of the exception that the receive threw; {@code null} if it did not fail
+     * @return {@code true} if the receive was recorded
+     */
+    boolean record(long duration, Class<?> messageType, ActorPath actorPath, int mailboxSize, Class<?> failure) {
+        if (duration <= this.threshold) return false;
+        if (!this.writing.compareAndSet(false, true)) return false;
+
+        try {
+            final int capacity = this.durations.length;
+            final int slot;
+            if (this.size < capacity) {
+                slot = this.size++;
+            } else {
+                slot = fastest();
+                if (this.durations[slot] >= duration) return false;
+            }
+
+            this.durations[slot] = duration;
+            this.times[slot] = System.currentTimeMillis();
+            this.mailboxSizes[slot] = mailboxSize;
+            this.messageTypes[slot] = messageType;
+            this.actorPaths[slot] = actorPath;
+            this.threads[slot] = Thread.currentThread().getName();
+            this.failures[slot] = failure;
+
+            if (this.size == capacity) this.threshold = this.durations[fastest()];
+            return true;
+        } finally {
+            this.writing.set(false);
+        }
+    }
+
+    /**
+     * Adds the recorded receives to the {@code snapshot}
+     *
+     * @param snapshot the list to add to
+     */
+    void addTo(List<SlowMessage> snapshot) {
+        acquire();
+        try {
+            for (int i = 0; i < this.size; i++) {
+                snapshot.add(new SlowMessage(this.actorType, this.durations[i], this.times[i], this.mailboxSizes[i],
+                        this.messageTypes[i], this.actorPaths[i], this.threads[i], this.failures[i]));
+            }
+        } finally {
+            this.writing.set(false);
+        }
+    }
+
+    /**
+     * Returns the recorded receives, the slowest first
+     *
+     * @return the snapshot
+     */
+    List<SlowMessage> snapshot() {
+        final List<SlowMessage> snapshot = new ArrayList<SlowMessage>(this.size);
+        addTo(snapshot);
+        Collections.sort(snapshot, SLOWEST_FIRST);
+        return snapshot;
+    }
+
+    /**
+     * Forgets all recorded receives
+     */
+    void reset() {
+        acquire();
+        try {
+            for (int i = 0; i < this.size; i++) {
+                this.messageTypes[i] = null;
+                this.actorPaths[i] = null;
+                this.threads[i] = null;
+                this.failures[i] = null;
+            }
+            this.size = 0;
+            this.threshold = 0;
+        } finally {
+            this.writing.set(false);
+        }
+    }
+
+    private void acquire() {
+        // the actors never hold the flag for long, and drop their receives while we hold it
+        while (!this.writing.compareAndSet(false, true)) Thread.yield();
+    }
+
+    private int fastest() {
+        int fastest = 0;
+        for (int i = 1; i < this.size; i++) {
+            if (this.durations[i] < this.durations[fastest]) fastest = i;
+        }
+        return fastest;
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.eigengo.monitor.agent.akka;
+
+import akka.actor.ActorCell;
+import akka.dispatch.Dispatcher;
+import akka.dispatch.MessageDispatcher;
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.DaemonThreadFactory;
+import scala.Option;
+import scala.concurrent.forkjoin.ForkJoinPool;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link BusyTime} of each actor type and each dispatcher, and reports their utilization and
+ * throughput at a fixed interval. The {@code receiveMessage} advice adds the time it already measures around
+ * the actor's {@code receive}; the only values sent to the {@code CounterInterface} are the gauges, once per
+ * interval for each actor type and dispatcher.
+ *
+ * The utilization of an actor type is the time its actors spent receiving, in percent of the interval; it
+ * exceeds 100 when several actors of the type receive at the same time. The utilization of a dispatcher is
+ * the time that its actors spent receiving, in percent of the time of its threads. The throughput is
+ * the exponentially weighted moving average of the messages per second, with a time constant of one minute.
+ * Both count the monitored actors only, and estimate the totals from the sampled messages.
+ *
+ * The poller forgets the actor types that have no live actors in the {@link ActorTypeRegistry} and received
+ * nothing in the last interval, and the dispatchers whose executors are shut down. It reads the number of
+ * threads from the executor that the dispatcher used when it was first recorded, so that it never makes an
+ * idle dispatcher create a new one. The forgotten {@code BusyTime}s are retired, and the actors that still
+ * hold them look the current ones up again when they next receive.
+ *
+ * The reports come from a daemon thread that is never stopped; the aspect that owns the poller is a singleton.
+ */
+final class UtilizationPoller implements Runnable {
+    private static final double TIME_CONSTANT = TimeUnit.MINUTES.toNanos(1);
+    private final ConcurrentHashMap<List<String>, ActorType> actorTypes = new ConcurrentHashMap<List<String>, ActorType>();
+    private final ConcurrentHashMap<Object, PolledDispatcher> dispatchers = new ConcurrentHashMap<Object, PolledDispatcher>();
+    private final CounterInterface counterInterface;
+    private final ActorTypeRegistry typeRegistry;
+    private final ActorPathTagger typeTagger = new ActorPathTagger(false);
+    private final DispatcherTagger dispatcherTagger = new DispatcherTagger();
+    private final int stripes = Runtime.getRuntime().availableProcessors();
+    private long lastRun = System.nanoTime();
+    // written only by the reporting thread
+    private boolean failed = false;
+
+    /**
+     * The busy time of an actor type and the class whose live actors the registry counts
+     */
+    private static final class ActorType {
+        private final BusyTime busyTime;
+        private final Option<String> actorClassName;
+
+        private ActorType(BusyTime busyTime, Option<String> actorClassName) {
+            this.busyTime = busyTime;
+            this.actorClassName = actorClassName;
+        }
+    }
+
+    /**
+     * The busy time of a dispatcher and the executor it used when it was first recorded
+     */
+    private static final class PolledDispatcher {
+        private final BusyTime busyTime;
+        private final ExecutorService executor;
+
+        private PolledDispatcher(BusyTime busyTime, ExecutorService executor) {
+            this.busyTime = busyTime;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Constructs this instance and starts reporting
+     *
+     * @param counterInterface the counter interface that receives the gauges
+     * @param typeRegistry the registry that counts the live actors of each type
+     * @param interval the interval between the reports in milliseconds; must be positive
+     */
+    UtilizationPoller(CounterInterface counterInterface, ActorTypeRegistry typeRegistry, long interval) {
+        this.counterInterface = counterInterface;
+        this.typeRegistry = typeRegistry;
+        final ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitor-utilization-poller"));
+        scheduler.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the time that the actor in the {@code actorCell} spent receiving the {@code messages}; must be called
+     * from the actor's {@code receive}
+     *
+     * @param cachedActor the actor's cached values
+     * @param actorCell the actor's cell
+     * @param nanos the time in nanoseconds
+     * @param messages the number of messages
+     */
+    void record(CachedActor cachedActor, ActorCell actorCell, long nanos, int messages) {
+        if (cachedActor.typeBusyTime == null || cachedActor.typeBusyTime.isRetired() || cachedActor.dispatcherBusyTime.isRetired()) {
+            cachedActor.typeBusyTime = actorType(this.typeTagger.getTypeTags(actorCell.self().path(), cachedActor.actorClassName),
+                    cachedActor.actorClassName);
+            cachedActor.dispatcherBusyTime = dispatcher(actorCell);
+        }
+        cachedActor.typeBusyTime.add(nanos, messages);
+        cachedActor.dispatcherBusyTime.add(nanos, messages);
+    }
+
+    /**
+     * Gets the busy time of the actor type with the system and type {@code tags}; the anonymous actors of each
+     * system share the system tag
+     *
+     * @param tags the system and type tags
+     * @param actorClassName the actor class name, as counted in the {@link ActorTypeRegistry}
+     * @return the busy time
+     */
+    BusyTime actorType(String[] tags, Option<String> actorClassName) {
+        final List<String> key = Arrays.asList(tags);
+        final ActorType actorType = this.actorTypes.get(key);
+        if (actorType != null) return actorType.busyTime;
+
+        final ActorType created = new ActorType(new BusyTime(this.counterInterface, Aspects.actorUtilization(),
+                Aspects.actorThroughput(), tags, this.stripes), actorClassName);
+        final ActorType existing = this.actorTypes.putIfAbsent(key, created);
+        return existing == null ? created.busyTime : existing.busyTime;
+    }
+
+    private BusyTime dispatcher(ActorCell actorCell) {
+        final MessageDispatcher dispatcher = actorCell.dispatcher();
+        final PolledDispatcher polled = this.dispatchers.get(dispatcher);
+        if (polled != null) return polled.busyTime;
+
+        // the actor is receiving on one of the executor's threads, so the executor exists
+        final ExecutorService executor = dispatcher instanceof Dispatcher ? ((Dispatcher)dispatcher).executorService().executor() : null;
+        return dispatcher(dispatcher, executor, this.dispatcherTagger.getTags(actorCell));
+    }
+
+    /**
+     * Gets the busy time of the {@code dispatcher}
+     *
+     * @param dispatcher the key of the dispatcher
+     * @param executor the dispatcher's executor; {@code null} if it has none
+     * @param tags the tags of the dispatcher
+     * @return the busy time
+     */
+    BusyTime dispatcher(Object dispatcher, ExecutorService executor, String[] tags) {
+        final PolledDispatcher polled = this.dispatchers.get(dispatcher);
+        if (polled != null) return polled.busyTime;
+
+        final PolledDispatcher created = new PolledDispatcher(new BusyTime(this.counterInterface, Aspects.poolUtilization(),
+                Aspects.poolThroughput(), tags, this.stripes), executor);
+        final PolledDispatcher existing = this.dispatchers.putIfAbsent(dispatcher, created);
+        return existing == null ? created.busyTime : existing.busyTime;
+    }
+
+    /**
+     * Returns the number of actor types whose utilization we report
+     *
+     * @return the number of actor types
+     */
+    int actorTypeCount() {
+        return this.actorTypes.size();
+    }
+
+    /**
+     * Returns the number of dispatchers whose utilization we report
+     *
+     * @return the number of dispatchers
+     */
+    int dispatcherCount() {
+        return this.dispatchers.size();
+    }
+
+    /**
+     * Reports the utilization and throughput of all actor types and dispatchers, and forgets the actor types
+     * without live actors and the shut down dispatchers
+     */
+    @Override
+    public void run() {
+        final long now = System.nanoTime();
+        final long elapsed = now - this.lastRun;
+        this.lastRun = now;
+        final double alpha = 1 - Math.exp(-elapsed / TIME_CONSTANT);
+
+        try {
+            final Iterator<ActorType> types = this.actorTypes.values().iterator();
+            while (types.hasNext()) {
+                final ActorType actorType = types.next();
+                final long messages = actorType.busyTime.report(elapsed, alpha, 1);
+                if (messages == 0 && this.typeRegistry.getLiveCount(actorType.actorClassName) <= 0) {
+                    types.remove();
+                    actorType.busyTime.retire();
+                }
+            }
+            final Iterator<PolledDispatcher> dispatchers = this.dispatchers.values().iterator();
+            while (dispatchers.hasNext()) {
+                final PolledDispatcher polled = dispatchers.next();
+                if (polled.executor != null && polled.executor.isShutdown()) {
+                    dispatchers.remove();
+                    polled.busyTime.retire();
+                } else {
+                    polled.busyTime.report(elapsed, alpha, threads(polled.executor));
+                }
+            }
+        } catch (RuntimeException e) {
+            // a failing report must not cancel the future reports; the later failures are most likely the same
+            if (!this.failed) e.printStackTrace();
+            this.failed = true;
+        }
+    }
+
+    private static int threads(ExecutorService executor) {
+        if (executor instanceof ForkJoinPool) return ((ForkJoinPool)executor).getParallelism();
+        if (executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor es = (ThreadPoolExecutor)executor;
+            return Math.max(es.getCorePoolSize(), es.getPoolSize());
+        }
+        return 1;
+    }
+
+}
@@ -16,19 +16,46 @@
 package org.eigengo.monitor.agent.akka
 
 object Aspects {
-  def delivered(x: Any): String        = String.format("%s.%s", delivered, x.getClass.getSimpleName)
+
+  /**
+   * Computes the ``aspect.SimpleName`` once for every message or exception class; the anonymous classes,
+   * which have no simple name, use their full name
+   *
+   * @param aspect the aspect to refine
+   */
+  private class MessageTypeAspects(aspect: String) extends ClassValue[String] {
+    override protected def computeValue(tpe: Class[_]): String = {
+      val name = if (tpe.getSimpleName.isEmpty) tpe.getName else tpe.getSimpleName
+      String.format("%s.%s", aspect, name)
+    }
+  }
+
   val delivered                        = "akka.actor.delivered"
+  private val deliveredTypes           = new MessageTypeAspects(delivered)
+  def delivered(x: Any): String        = deliveredTypes.get(x.getClass)
   val undelivered                      = "akka.actor.undelivered"
-  def undelivered(x: Any): String      = String.format("%s.%s", undelivered, x.getClass.getSimpleName)
+  private val undeliveredTypes         = new MessageTypeAspects(undelivered)
+  def undelivered(x: Any): String      = undeliveredTypes.get(x.getClass)
   val queueSize                        = "akka.actor.queue.size"
   val actorDuration                    = "akka.actor.duration"
+  val mailboxWait                      = "akka.actor.mailbox.wait"
   val actorError                       = "akka.actor.error"
-  def actorError(x: Throwable): String = String.format("%s.%s", actorError, x.getMessage)
+  private val actorErrorTypes          = new MessageTypeAspects(actorError)
+  def actorError(x: Throwable): String = actorErrorTypes.get(x.getClass)
   val actorCount                       = "akka.actor.count"
+  val samplingRate                     = "akka.actor.sampling.rate"
+  val registrySize                     = "akka.actor.registry.size"
+  val actorUtilization                 = "akka.actor.utilization"
+  val actorThroughput                  = "akka.actor.throughput"
+  val messageFlow                      = "akka.actor.flow"
+  val messageFlowDropped               = "akka.actor.flow.dropped"
 
   val activeThreadCount                = "akka.pool.thread.count"
   val runningThreadCount               = "akka.pool.running.thread.count"
   val queuedTaskCount                  = "akka.pool.queued.task.count"
   val poolSize                         = "akka.pool.size"
+  val stealCount                       = "akka.pool.steal.count"
+  val poolUtilization                  = "akka.pool.utilization"
+  val poolThroughput                   = "akka.pool.throughput"
 
 }
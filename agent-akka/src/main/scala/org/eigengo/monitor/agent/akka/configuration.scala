@@ -28,9 +28,27 @@ import org.eigengo.monitor.agent.akka.ActorFilter.SameType
  * @param included the filter that matches the included actors
  * @param excluded the filter that matches the excluded actors
  * @param sampling defines the sampling rate for any actors where we don't want to log every message received
+ * @param maximumCachedActors the maximum number of actors whose tags and filter decisions we keep
+ * @param dispatcherPollInterval the interval in milliseconds between the samples of the dispatchers' thread pools;
+ *                               ``0`` to not sample the thread pools
+ * @param mailboxTimestamps the number of enqueue times we keep for each actor to measure the time the messages
+ *                          wait in the mailbox; ``0`` to not measure the wait
+ * @param utilizationInterval the interval in milliseconds between the reports of the actor types' and dispatchers'
+ *                            utilization and throughput; ``0`` to not report them
+ * @param slowMessages the number of the slowest receives the flight recorder keeps for each actor type; ``0`` to
+ *                     not record them
+ * @param messageFlowEdges the number of sender-to-recipient edges of the message-flow graph; ``0`` to not count
+ *                         the messages between the actors
+ * @param messageFlowPaths ``true`` to count the messages between the paths of the included actors rather than
+ *                         between the actor types
+ * @param messageFlowInterval the interval in milliseconds between the reports of the message-flow edges; ``0`` to
+ *                            only keep the graph
  */
 case class AkkaAgentConfiguration(includeRoutees: Boolean, includeSystemAgents: Boolean, included: ActorFilter,
-                                  excluded: ActorFilter, sampling: SamplingRates)
+                                  excluded: ActorFilter, sampling: SamplingRates, maximumCachedActors: Int,
+                                  dispatcherPollInterval: Long, mailboxTimestamps: Int, utilizationInterval: Long,
+                                  slowMessages: Int, messageFlowEdges: Int, messageFlowPaths: Boolean,
+                                  messageFlowInterval: Long)
 
 /**
  * Companion for AkkaAgentConfiguration that provides a method to turn a ``Config`` into
@@ -55,8 +73,18 @@ object AkkaAgentConfiguration {
     val included = if (config.hasPath("included")) config.getStringList("included").map(parseFilter).toList else Nil
     val excluded = if (config.hasPath("excluded")) config.getStringList("excluded").map(parseFilter).toList else Nil
     val sampling = if (config.hasPath("sampling")) config.getObjectList("sampling").flatMap(parseSampling).toList else Nil
+    val maximumCachedActors = if (config.hasPath("maximumCachedActors")) config.getInt("maximumCachedActors") else 100000
+    val dispatcherPollInterval = if (config.hasPath("dispatcherPollInterval")) config.getLong("dispatcherPollInterval") else 1000
+    val mailboxTimestamps = if (config.hasPath("mailboxTimestamps")) config.getInt("mailboxTimestamps") else 16
+    val utilizationInterval = if (config.hasPath("utilizationInterval")) config.getLong("utilizationInterval") else 1000
+    val slowMessages = if (config.hasPath("slowMessages")) config.getInt("slowMessages") else 10
+    val messageFlowEdges = if (config.hasPath("messageFlowEdges")) config.getInt("messageFlowEdges") else 0
+    val messageFlowPaths = if (config.hasPath("messageFlowPaths")) config.getBoolean("messageFlowPaths") else false
+    val messageFlowInterval = if (config.hasPath("messageFlowInterval")) config.getLong("messageFlowInterval") else 10000
     AkkaAgentConfiguration(includeRoutees, includeSystemAgents, AnyAcceptActorFilter(included, false),
-                            AnyAcceptActorFilter(excluded, excludeAllNotIncluded), SamplingRates(sampling))
+                            AnyAcceptActorFilter(excluded, excludeAllNotIncluded), SamplingRates(sampling), maximumCachedActors,
+                            dispatcherPollInterval, mailboxTimestamps, utilizationInterval, slowMessages,
+                            messageFlowEdges, messageFlowPaths, messageFlowInterval)
   }
 
   private def parseActorSystemFilter(actorSystemName: String): ActorSystemNameFilter =
@@ -64,8 +92,9 @@ object AkkaAgentConfiguration {
 
   private def parseActorPathElements(path: String): List[ActorPathElement] =
     path.split("/").map {
-      case "*" => SingleWildcardPathElement
-      case x   => NamedPathElement(x)
+      case "*"  => SingleWildcardPathElement
+      case "**" => MultiWildcardPathElement
+      case x    => NamedPathElement(x)
     }.toList
 
   private def parseFilter(expression: String): ActorFilter = expression match {
@@ -75,9 +104,11 @@ object AkkaAgentConfiguration {
 
   private def parseSampling(samplingObject: ConfigObject): Iterable[SamplingRate] = {
     import scala.collection.JavaConversions._
-    (samplingObject.get("rate").unwrapped(), samplingObject.get("for").unwrapped()) match {
-      case (rate: Number, filters: java.util.List[String @unchecked]) =>
-        filters.map(filter => SamplingRate(parseFilter(filter), rate.intValue()))
+    val rate = Option(samplingObject.get("rate")).map(_.unwrapped()).getOrElse(1)
+    val maximumPerSecond = Option(samplingObject.get("maxPerSecond")).map(_.unwrapped()).getOrElse(0)
+    (rate, maximumPerSecond, samplingObject.get("for").unwrapped()) match {
+      case (r: Number, m: Number, filters: java.util.List[String @unchecked]) =>
+        filters.map(filter => SamplingRate(parseFilter(filter), r.intValue(), m.intValue()))
     }
   }
 
@@ -101,20 +132,38 @@ object AkkaAgentConfigurationJapi {
 * Represents a sampling rate provided by a conf object
 *
 * @param included the filter over the actors
-* @param sampleEvery how often to sample (e.g. every 5 messages)
+* @param sampleEvery how often to sample (e.g. every 5 messages); the minimum rate in the adaptive mode
+* @param maximumPerSecond the maximum number of sampled messages per second for each actor type, which
+*                         turns on the adaptive mode; ``0`` to always sample at ``sampleEvery``
 */
-case class SamplingRate(included: ActorFilter, sampleEvery: Int)
+case class SamplingRate(included: ActorFilter, sampleEvery: Int, maximumPerSecond: Int = 0)
 
 /**
-* A wrapper for holding multiple sampling rates
+* A wrapper for holding multiple sampling rates; the first matching rate applies
 */
 case class SamplingRates(samplingRates: List[SamplingRate]) {
+  private lazy val compiled = CompiledActorFilter(samplingRates.map(_.included))
+  private lazy val rates = samplingRates.toArray
+
   /**
   * Gets the sampling rate for a particular actor
   *
   * @param pathAndClass an object representing the actor's path and (optionally) its class name
   * @return the rate as an integer
   */
-  def getRate(pathAndClass: PathAndClass): Int =
-    samplingRates.find(_.included.accept(pathAndClass)).map(_.sampleEvery).getOrElse(1)
+  def getRate(pathAndClass: PathAndClass): Int = {
+    val index = compiled.firstAccepting(pathAndClass)
+    if (index < 0) 1 else rates(index).sampleEvery
+  }
+
+  /**
+  * Gets the maximum number of sampled messages per second for a particular actor's type
+  *
+  * @param pathAndClass an object representing the actor's path and (optionally) its class name
+  * @return the maximum, or ``0`` if the actor is sampled at the fixed rate
+  */
+  def getMaximumPerSecond(pathAndClass: PathAndClass): Int = {
+    val index = compiled.firstAccepting(pathAndClass)
+    if (index < 0) 0 else rates(index).maximumPerSecond
+  }
 }
\ No newline at end of file
@@ -18,8 +18,6 @@ package org.eigengo.monitor.agent.akka
 import akka.actor.ActorPath
 import org.eigengo.monitor.agent.akka.ActorFilter._
 
-import scala.annotation.tailrec
-
 /**
  * Combines the actor path (i.e. ``akka://system/user/foo``) and the class name of the actor that
  * "lives" at that path
@@ -39,6 +37,7 @@ case class PathAndClass(actorPath: ActorPath, actorClassName: Option[String])
  * akka://actor-system-name/user/concrete/path
  * akka://&#42;/user/concrete/path
  * akka://&#42;/&#42;/wildcard-path
+ * akka://&#42;/&#42;&#42;/multi-wildcard-path
  * akka://&#42;/child
  *
  * akka:actor-system-name.com.foo.BarActor
@@ -59,14 +58,18 @@ sealed trait ActorFilter {
 }
 
 /**
- * Filter that matches all given ``filters``, returning ``zero`` if ``filters`` is ``Nil``
+ * Filter that matches all given ``filters``, returning ``zero`` if ``filters`` is ``Nil``. The ``filters``
+ * are compiled into the ``CompiledActorFilter``, which means that the cost of ``accept`` does not depend
+ * on the number of ``filters``.
  *
  * @param filters the filters to accept
  * @param zero the zero
  */
 case class AnyAcceptActorFilter(filters: List[ActorFilter], zero: Boolean) extends ActorFilter {
+  private lazy val compiled = CompiledActorFilter(filters)
+
   override def accept(pathAndClass: PathAndClass): Boolean =
-    (zero || filters.exists(_.accept(pathAndClass)))
+    zero || compiled.firstAccepting(pathAndClass) >= 0
 }
 
 /**
@@ -85,14 +88,14 @@ case class ActorPathFilter(actorSystem: ActorSystemNameFilter, actorPathElements
 
   private def localAccept(pathAndClass: PathAndClass): Boolean = {
 
-    @tailrec
-    def acceptAll(xs: List[(ActorPathElement, String)]): Boolean = xs match {
-      case Nil         => true
-      case (ape, e)::t => if (ape.accept(e)) acceptAll(t) else false
+    def acceptAll(apes: List[ActorPathElement], elements: List[String]): Boolean = (apes, elements) match {
+      case (Nil, Nil)                           => true
+      case (MultiWildcardPathElement :: t, _)   => elements.tails.exists(acceptAll(t, _))
+      case (ape :: t, e :: et) if ape.accept(e) => acceptAll(t, et)
+      case _                                    => false
     }
 
-    val elements = pathAndClass.actorPath.elements.toList
-    actorPathElements.size == elements.size && acceptAll(actorPathElements.zip(elements))
+    acceptAll(actorPathElements, pathAndClass.actorPath.elements.toList)
   }
 }
 
@@ -134,12 +137,13 @@ object ActorFilter {
 
   /**
    * Actor path element can be either specified name (e.g. "user" or "barkeeper"), a single wildcard matching any
-   * single name, or a multi wildcard matching multiple names.
+   * single name, or a multi wildcard matching any number (including zero) of names.
    *
    * Let's tackle some examples
    *
    * - /foo/bar/baz     is ``NamedPathElement(foo) :: NamedPathElement(bar) :: NamedPathElement(baz) :: Nil``,
    * - /foo/&#42;/baz   is ``NamedPathElement(foo) :: SingleWildcardPathElement :: NamedPathElement(baz) :: Nil``
+   * - /foo/&#42;&#42;  is ``NamedPathElement(foo) :: MultiWildcardPathElement :: Nil``
    */
   sealed trait ActorPathElement {
     /**
@@ -153,7 +157,9 @@ object ActorFilter {
   case object SingleWildcardPathElement extends ActorPathElement {
     def accept(element: String): Boolean = true
   }
-  // (maybe add this in the future) case object MultiWildcardPathElement extends ActorPathElement
+  case object MultiWildcardPathElement extends ActorPathElement {
+    def accept(element: String): Boolean = true
+  }
   case class NamedPathElement(name: String) extends ActorPathElement {
     def accept(element: String): Boolean = element == name
   }
@@ -166,4 +172,124 @@ object ActorFilter {
   // (maybe we add these in the future) case class Subtype(tpe: Class[_ <: Actor]) extends ActorTypeOperator
   // (maybe we add these in the future) case class Supertype(tpe: Class[_ <: Actor]) extends ActorTypeOperator
 
-}
\ No newline at end of file
+}
+/**
+ * The compiled form of a list of ``ActorFilter``s, which finds the first accepting filter without
+ * evaluating the filters one by one. The ``ActorPathFilter``s are compiled into a trie of their path
+ * elements, and the ``ActorTypeFilter``s are indexed by the type name; any other filters are evaluated
+ * in the usual way.
+ *
+ * @param pathTrie the root of the path filters' trie
+ * @param types the type filters by the type name
+ * @param anyType the type filters, which all accept the actors whose type is not known
+ * @param others the remaining filters with their indexes
+ */
+class CompiledActorFilter private(pathTrie: CompiledActorFilter.Node,
+                                  types: Map[String, List[(ActorSystemNameFilter, Int)]],
+                                  anyType: List[(ActorSystemNameFilter, Int)],
+                                  others: List[(ActorFilter, Int)]) {
+  import CompiledActorFilter._
+
+  /**
+   * Returns the index of the first filter that accepts the ``pathAndClass``
+   *
+   * @param pathAndClass the path and type of the actor being examined
+   * @return the index of the first accepting filter in the compiled list, or ``-1``
+   */
+  def firstAccepting(pathAndClass: PathAndClass): Int = {
+    val systemName = pathAndClass.actorPath.root.address.system
+    val elements = pathAndClass.actorPath.elements.toIndexedSeq
+
+    var first = pathTrie.firstAccepting(elements, 0, systemName)
+    val typeFilters = pathAndClass.actorClassName match {
+      case null | None     => anyType
+      case Some(className) => types.getOrElse(className, Nil)
+    }
+    first = min(first, firstInSystem(typeFilters, systemName))
+    others.foreach { case (filter, index) => if ((first < 0 || index < first) && filter.accept(pathAndClass)) first = index }
+    first
+  }
+
+}
+
+/**
+ * Compiles the lists of ``ActorFilter``s into ``CompiledActorFilter``s
+ */
+object CompiledActorFilter {
+
+  private def min(a: Int, b: Int): Int = if (a < 0) b else if (b < 0) a else math.min(a, b)
+
+  private def systemAccepts(filter: ActorSystemNameFilter, systemName: String): Boolean = filter match {
+    case AnyActorSystem         => true
+    case NamedActorSystem(name) => name == systemName
+  }
+
+  // the filters are in the order of their indexes
+  private def firstInSystem(filters: List[(ActorSystemNameFilter, Int)], systemName: String): Int =
+    filters.find { case (filter, _) => systemAccepts(filter, systemName) }.map(_._2).getOrElse(-1)
+
+  /**
+   * The trie node; the indexes of the filters whose path elements end in this node are in ``filters``
+   */
+  private[akka] class Node {
+    var named = Map.empty[String, Node]
+    var single: Option[Node] = None
+    var multi: Option[Node] = None
+    var filters: List[(ActorSystemNameFilter, Int)] = Nil
+
+    def add(elements: List[ActorPathElement], actorSystem: ActorSystemNameFilter, index: Int): Unit = elements match {
+      case Nil =>
+        filters = filters :+ (actorSystem, index)
+      case NamedPathElement(name) :: t =>
+        val child = named.getOrElse(name, new Node)
+        named += name -> child
+        child.add(t, actorSystem, index)
+      case SingleWildcardPathElement :: t =>
+        val child = single.getOrElse(new Node)
+        single = Some(child)
+        child.add(t, actorSystem, index)
+      case MultiWildcardPathElement :: t =>
+        val child = multi.getOrElse(new Node)
+        multi = Some(child)
+        child.add(t, actorSystem, index)
+    }
+
+    def firstAccepting(elements: IndexedSeq[String], i: Int, systemName: String): Int = {
+      var first = -1
+      if (i == elements.size) first = firstInSystem(filters, systemName)
+      else {
+        named.get(elements(i)).foreach(child => first = min(first, child.firstAccepting(elements, i + 1, systemName)))
+        single.foreach(child => first = min(first, child.firstAccepting(elements, i + 1, systemName)))
+      }
+      // the multi wildcard matches any number of the remaining elements
+      multi.foreach(child => (i to elements.size).foreach(j => first = min(first, child.firstAccepting(elements, j, systemName))))
+      first
+    }
+  }
+
+  /**
+   * Compiles the ``filters``; the ``firstAccepting`` method returns the indexes into this list
+   *
+   * @param filters the filters to compile
+   * @return the compiled filter
+   */
+  def apply(filters: List[ActorFilter]): CompiledActorFilter = {
+    val pathTrie = new Node
+    var types = Map.empty[String, List[(ActorSystemNameFilter, Int)]]
+    var anyType = List.empty[(ActorSystemNameFilter, Int)]
+    var others = List.empty[(ActorFilter, Int)]
+
+    filters.zipWithIndex.foreach {
+      case (ActorPathFilter(actorSystem, elements), index) =>
+        pathTrie.add(elements, actorSystem, index)
+      case (ActorTypeFilter(actorSystem, SameType(typeName)), index) =>
+        types += typeName -> (types.getOrElse(typeName, Nil) :+ (actorSystem, index))
+        anyType = anyType :+ (actorSystem, index)
+      case (filter, index) =>
+        others = others :+ (filter, index)
+    }
+
+    new CompiledActorFilter(pathTrie, types, anyType, others)
+  }
+
+}
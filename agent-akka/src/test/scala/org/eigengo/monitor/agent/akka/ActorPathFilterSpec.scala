@@ -39,14 +39,12 @@ class ActorPathFilterSpec extends Specification {
       ActorPathFilter(AnyActorSystem, SingleWildcardPathElement :: List("baa", "baz").map(NamedPathElement)).accept(singlePathNullClass) mustEqual false
     }
 
-  /*
-  If we ever decide to support multi-paths
-
-  "Match multi-wildcard path" in {
-    ActorPathFilter(AnyActorSystem, MultiWildcardPathElement :: NamedPathElement("baz") :: Nil).accept(singlePath, null) mustEqual true
-    ActorPathFilter(AnyActorSystem, MultiWildcardPathElement :: NamedPathElement("foo") :: Nil).accept(singlePath, null) mustEqual false
-  }
-  */
+    "Match multi-wildcard path" in {
+      ActorPathFilter(AnyActorSystem, MultiWildcardPathElement :: NamedPathElement("baz") :: Nil).accept(singlePathNullClass) mustEqual true
+      ActorPathFilter(AnyActorSystem, MultiWildcardPathElement :: NamedPathElement("foo") :: Nil).accept(singlePathNullClass) mustEqual false
+      ActorPathFilter(AnyActorSystem, NamedPathElement("foo") :: MultiWildcardPathElement :: Nil).accept(singlePathNullClass) mustEqual true
+      ActorPathFilter(AnyActorSystem, List("foo", "bar", "baz").map(NamedPathElement) :+ MultiWildcardPathElement).accept(singlePathNullClass) mustEqual true
+    }
   }
 
 }
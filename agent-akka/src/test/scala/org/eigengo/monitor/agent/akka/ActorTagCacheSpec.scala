@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.{Props, ActorSystem}
+import akka.testkit.TestKit
+import org.specs2.mutable.SpecificationLike
+
+/**
+ * Checks that the cached actors are bounded, and that the full cache evicts the actors that have not been
+ * looked up lately.
+ */
+class ActorTagCacheSpec extends TestKit(ActorSystem("tagcache")) with SpecificationLike {
+  sequential
+
+  private def cachedActor(samplingRate: Int): CachedActor =
+    new CachedActor(Array("akka.path:/tagcache/user/a", "akka.system:tagcache"), None, true, samplingRate, null)
+
+  "The actor tag cache" should {
+    val a = system.actorOf(Props[SimpleActor], "a")
+    val b = system.actorOf(Props[SimpleActor], "b")
+    val c = system.actorOf(Props[SimpleActor], "c")
+
+    "retain at most the maximum number of actors" in {
+      val cache = new ActorTagCache(1)
+      val ca = cachedActor(1)
+      val cb = cachedActor(1)
+
+      cache.put(a, ca) must be(ca)
+      cache.put(a, cachedActor(1)) must be(ca)
+      cache.put(b, cb) must be(cb)
+      cache.get(b) must be(cb)
+      cache.get(a) must beNull
+      cache.size mustEqual 1
+    }
+
+    "evict the actors that have not been looked up since the last eviction" in {
+      val cache = new ActorTagCache(2)
+      val ca = cachedActor(1)
+      val cb = cachedActor(1)
+      val cc = cachedActor(1)
+      cache.put(a, ca)
+      cache.put(b, cb)
+      // neither a nor b has been looked up: one of them goes
+      cache.put(c, cc)
+      val survivor = if (cache.get(a) == null) b else a
+      cache.get(survivor) must not(beNull)
+
+      // the survivor has been looked up, but c has not
+      cache.put(if (survivor == a) b else a, cachedActor(1))
+      cache.get(survivor) must not(beNull)
+      cache.get(c) must beNull
+      cache.size mustEqual 2
+    }
+
+    "evict the stopped actors" in {
+      val cache = new ActorTagCache(10)
+      val ca = cachedActor(1)
+      cache.put(a, ca)
+
+      cache.remove(a) must be(ca)
+      cache.get(a) must beNull
+      cache.size mustEqual 0
+    }
+
+    "Shutdown system" in {
+      system.shutdown()
+      success
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.{ActorPath, Address, RootActorPath}
+import java.lang.management.ManagementFactory
+import org.specs2.mutable.Specification
+
+/**
+ * Checks that the actor type registry is bounded, forgets the stopped actors, and that its memory stays
+ * flat over millions of short-lived actors.
+ */
+class ActorTypeRegistrySpec extends Specification {
+  sequential
+
+  private val root = RootActorPath(Address("akka", "soak")) / "user"
+  private val someType = Some("org.eigengo.SomeActor")
+
+  // performs the work of the actorCreator and stop advices for ``count`` actors with distinct paths
+  private def createAndStop(registry: ActorTypeRegistry, from: Int, count: Int): Unit = {
+    var i = from
+    while (i < from + count) {
+      val path: ActorPath = root / s"request-$i"
+      if (registry.putType(path, someType.get)) registry.increment(someType)
+      registry.getType(path)
+      registry.decrement(someType)
+      registry.removeType(path)
+      i += 1
+    }
+  }
+
+  private def usedHeap(): Long = {
+    (0 until 3).foreach(_ => System.gc())
+    ManagementFactory.getMemoryMXBean.getHeapMemoryUsage.getUsed
+  }
+
+  "The actor type registry" should {
+
+    "keep at most the maximum number of paths" in {
+      val registry = new ActorTypeRegistry(1)
+      val a = root / "a"
+      val b = root / "b"
+
+      registry.putType(a, "A") must beTrue
+      registry.putType(a, "B") must beFalse
+      registry.putType(b, "B") must beFalse
+      registry.getType(a) mustEqual "A"
+      registry.getType(b) must beNull
+      registry.size mustEqual 1
+    }
+
+    "forget the stopped actors" in {
+      val registry = new ActorTypeRegistry(10)
+      val a = root / "a"
+      registry.putType(a, "A")
+      registry.removeType(a)
+      registry.removeType(a)
+
+      registry.getType(a) must beNull
+      registry.size mustEqual 0
+      registry.putType(a, "A") must beTrue
+    }
+
+    "count the live actors of each type" in {
+      val registry = new ActorTypeRegistry(10)
+      registry.increment(someType) mustEqual 1
+      registry.increment(someType) mustEqual 2
+      registry.increment(None) mustEqual 1
+      registry.decrement(someType) mustEqual 1
+      registry.decrement(None) mustEqual 0
+    }
+
+    "keep flat memory over 10M actor create / stop cycles" in {
+      val registry = new ActorTypeRegistry(100000)
+      // warm up, so that the JIT compiles the loop and the live count of the type exists
+      createAndStop(registry, 0, 1000000)
+      val before = usedHeap()
+
+      createAndStop(registry, 1000000, 10000000)
+      val after = usedHeap()
+
+      registry.size mustEqual 0
+      registry.increment(someType) mustEqual 1
+      // 10M leaked entries would take hundreds of megabytes
+      (after - before) must beLessThan(16L * 1024 * 1024)
+    }
+  }
+
+}
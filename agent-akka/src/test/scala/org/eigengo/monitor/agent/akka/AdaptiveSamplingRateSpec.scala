@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import org.specs2.mutable.Specification
+
+class AdaptiveSamplingRateSpec extends Specification {
+  sequential
+
+  private def cachedActor(samplingRate: Int, adaptiveRate: AdaptiveSamplingRate): CachedActor = {
+    val cachedActor = new CachedActor(Array("akka.path:/default/user/a"), None, true, samplingRate, adaptiveRate)
+    cachedActor.retained = true
+    cachedActor
+  }
+
+  "The message sampling" should {
+
+    "count the messages of each actor separately" in {
+      val a = cachedActor(4, null)
+      val b = cachedActor(4, null)
+
+      (1 to 8).map(_ => a.sample()) mustEqual Seq(4, 0, 0, 0, 4, 0, 0, 0)
+      b.sample() mustEqual 4
+    }
+
+    "sample at random when the actor is not retained" in {
+      val a = new CachedActor(Array("akka.path:/default/user/a"), None, true, 10, null)
+      val samples = (1 to 100000).count(_ => a.sample() == 10)
+
+      samples must beCloseTo(10000, 1000)
+    }
+
+    "adjust the rate to the maximum number of sampled messages per second" in {
+      val adaptiveRate = new AdaptiveSamplingRate(1, 100)
+      val actors = (0 until 4).map(_ => cachedActor(1, adaptiveRate))
+      var messages = 0L
+      var estimated = 0L
+      var sampledInLastSecond = 0L
+      val start = System.nanoTime()
+      var elapsed = 0L
+      while (elapsed < 3000000000L) {
+        var i = 0
+        while (i < 1024) {
+          val rate = actors(i & 3).sample()
+          estimated += rate
+          if (rate > 0 && elapsed >= 2000000000L) sampledInLastSecond += 1
+          messages += 1
+          i += 1
+        }
+        elapsed = System.nanoTime() - start
+      }
+
+      adaptiveRate.rate must beGreaterThan(1)
+      adaptiveRate.takeChanged() must beTrue
+      adaptiveRate.takeChanged() must beFalse
+      sampledInLastSecond must beLessThan(400L)
+      estimated.toDouble must beCloseTo(messages.toDouble, messages * 0.1)
+    }
+
+    "not go below the configured rate" in {
+      val adaptiveRate = new AdaptiveSamplingRate(5, Int.MaxValue)
+      val a = cachedActor(5, adaptiveRate)
+      val start = System.nanoTime()
+      while (System.nanoTime() - start < 1500000000L) a.sample()
+
+      adaptiveRate.rate mustEqual 5
+    }
+  }
+
+}
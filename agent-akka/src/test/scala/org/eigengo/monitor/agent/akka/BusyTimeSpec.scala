@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import org.eigengo.monitor.output.CounterInterface
+import org.specs2.mutable.Specification
+import scala.collection.mutable
+
+/**
+ * Checks that the busy time turns into the utilization and the throughput gauges
+ */
+class BusyTimeSpec extends Specification {
+  sequential
+
+  // keeps the last value of each gauge
+  class GaugeCounterInterface extends CounterInterface {
+    val gauges = mutable.Map[String, Int]()
+    override def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit = gauges += aspect -> value
+    override def incrementCounter(aspect: String, tags: String*): Unit = ()
+    override def incrementCounter(aspect: String, delta: Int, tags: String*): Unit = ()
+    override def decrementCounter(aspect: String, tags: String*): Unit = ()
+    override def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit = ()
+    override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = ()
+  }
+
+  private val second = 1000000000L
+
+  "The busy time" should {
+
+    "report the utilization of the threads" in {
+      val counterInterface = new GaugeCounterInterface
+      val busyTime = new BusyTime(counterInterface, "u", "t", Array("akka.dispatcher:default"), 4)
+      (0 until 10).foreach(_ => busyTime.add(second / 10, 1))
+
+      busyTime.report(second, 1.0, 4)
+      counterInterface.gauges("u") mustEqual 25
+
+      busyTime.report(second, 1.0, 4)
+      counterInterface.gauges("u") mustEqual 0
+    }
+
+    "report the moving average of the throughput" in {
+      val counterInterface = new GaugeCounterInterface
+      val busyTime = new BusyTime(counterInterface, "u", "t", Array("akka.type:default.A"), 4)
+      busyTime.add(0, 100)
+      busyTime.report(second, 0.5, 1)
+      counterInterface.gauges("t") mustEqual 100
+
+      busyTime.add(0, 300)
+      busyTime.report(second, 0.5, 1)
+      counterInterface.gauges("t") mustEqual 200
+
+      busyTime.report(2 * second, 0.5, 1)
+      counterInterface.gauges("t") mustEqual 100
+    }
+
+    "not lose the values added from many threads" in {
+      val counterInterface = new GaugeCounterInterface
+      val busyTime = new BusyTime(counterInterface, "u", "t", Array(), 4)
+      val threads = (0 until 8).map { _ =>
+        new Thread(new Runnable {
+          def run(): Unit = (0 until 100000).foreach(_ => busyTime.add(10, 1))
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+
+      busyTime.report(second, 1.0, 1)
+      counterInterface.gauges("u") mustEqual 1   // 8 * 100000 * 10 ns = 8 ms of 1 s
+      counterInterface.gauges("t") mustEqual 800000
+    }
+  }
+
+}
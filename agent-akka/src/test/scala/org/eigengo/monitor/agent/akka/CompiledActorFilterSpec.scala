@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import org.specs2.mutable.Specification
+import com.typesafe.config.ConfigFactory
+
+class CompiledActorFilterSpec extends Specification {
+  import akka.actor.ActorPath
+  import org.eigengo.monitor.agent.akka.ActorFilter._
+
+  "Compiled filter" should {
+    val filters: List[ActorFilter] = List(
+      ActorPathFilter(NamedActorSystem("other"), List("user", "foo").map(NamedPathElement)),
+      ActorTypeFilter(AnyActorSystem, SameType("com.foo.BarActor")),
+      ActorPathFilter(AnyActorSystem, NamedPathElement("user") :: SingleWildcardPathElement :: Nil),
+      ActorPathFilter(AnyActorSystem, NamedPathElement("user") :: MultiWildcardPathElement :: NamedPathElement("baz") :: Nil),
+      ActorPathFilter(AnyActorSystem, List("user", "foo").map(NamedPathElement)),
+      ActorPathFilter(AnyActorSystem, MultiWildcardPathElement :: Nil))
+    val compiled = CompiledActorFilter(filters)
+
+    def pac(path: String, className: Option[String] = None) = PathAndClass(ActorPath.fromString(path), className)
+
+    "Find the first accepting filter" in {
+      compiled.firstAccepting(pac("akka://other/user/foo")) mustEqual 0
+      compiled.firstAccepting(pac("akka://default/user/foo", Some("com.foo.BarActor"))) mustEqual 1
+      compiled.firstAccepting(pac("akka://default/user/foo", Some("com.faa.BarActor"))) mustEqual 2
+      compiled.firstAccepting(pac("akka://default/user/foo/bar/baz", Some("com.faa.BarActor"))) mustEqual 3
+      compiled.firstAccepting(pac("akka://default/system/foo", Some("com.faa.BarActor"))) mustEqual 5
+      CompiledActorFilter(filters.take(5)).firstAccepting(pac("akka://default/system/foo", Some("com.faa.BarActor"))) mustEqual -1
+    }
+
+    "Agree with the filters evaluated one by one" in {
+      val paths = for {
+        system <- List("default", "other")
+        path   <- List("user/foo", "user/foo/bar", "user/foo/bar/baz", "user/baz", "system/foo", "user")
+        clazz  <- List(None, Some("com.foo.BarActor"), Some("com.faa.BarActor"))
+      } yield pac(s"akka://$system/$path", clazz)
+
+      paths.map(compiled.firstAccepting) mustEqual paths.map(p => filters.indexWhere(_.accept(p)))
+    }
+
+    "Take the same time regardless of the number of filters" in {
+      val many = (0 until 1000).map(i => ActorPathFilter(AnyActorSystem, List("user", s"actor$i").map(NamedPathElement))).toList ++
+                 (0 until 1000).map(i => ActorTypeFilter(AnyActorSystem, SameType(s"com.foo.Actor$i")))
+      val manyCompiled = CompiledActorFilter(many)
+      manyCompiled.firstAccepting(pac("akka://default/user/actor999")) mustEqual 999
+      manyCompiled.firstAccepting(pac("akka://default/user/foo", Some("com.foo.Actor999"))) mustEqual 1999
+      manyCompiled.firstAccepting(pac("akka://default/user/foo", Some("com.foo.Other"))) mustEqual -1
+    }
+
+  }
+
+  "Filter decisions" should {
+    val configuration = AkkaAgentConfiguration(ConfigFactory.parseString(
+      """
+        |included: [ "akka://*/user/**/included" ]
+        |excluded: [ "akka://*/user/excluded" ]
+        |sampling: [ { rate: 5, for: [ "akka://*/user/sampled/*" ] } ]
+      """.stripMargin))
+    def pac(path: String) = PathAndClass(ActorPath.fromString(path), None)
+
+    "Decide on the inclusion and the sampling rates" in {
+      val decisions = new ActorFilterDecisions(configuration)
+
+      def decide(path: String) = {
+        val decision = decisions.decide(pac(path))
+        (decision.included, decision.samplingRate, decision.maximumSampledPerSecond)
+      }
+
+      decide("akka://default/user/a/b/included") mustEqual ((true, 1, 0))
+      decide("akka://default/user/excluded") mustEqual ((false, 1, 0))
+      decide("akka://default/system/foo") mustEqual ((false, 1, 0))
+      decide("akka://default/user/foo") mustEqual ((true, 1, 0))
+      decide("akka://default/user/sampled/foo") mustEqual ((true, 5, 0))
+      decide("akka://default/user/sampled/included") mustEqual ((true, 5, 0))
+    }
+  }
+
+}
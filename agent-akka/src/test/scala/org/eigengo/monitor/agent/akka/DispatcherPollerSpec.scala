@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue, ThreadPoolExecutor, TimeUnit}
+import org.eigengo.monitor.output.CounterInterface
+import org.specs2.mutable.Specification
+import scala.collection.mutable
+import scala.concurrent.forkjoin.ForkJoinPool
+
+/**
+ * Checks that the dispatcher poller samples the registered thread pools, and forgets the shut down ones
+ */
+class DispatcherPollerSpec extends Specification {
+  sequential
+
+  // keeps the last value of every gauge by its aspect and tags
+  class GaugeCounterInterface extends CounterInterface {
+    val gauges = mutable.Map[(String, List[String]), Int]()
+    override def incrementCounter(aspect: String, tags: String*): Unit = ()
+    override def incrementCounter(aspect: String, delta: Int, tags: String*): Unit = ()
+    override def decrementCounter(aspect: String, tags: String*): Unit = ()
+    override def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit = gauges((aspect, tags.toList)) = value
+    override def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit = ()
+    override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = ()
+  }
+
+  def blocking(started: CountDownLatch, release: CountDownLatch): Runnable = new Runnable {
+    def run(): Unit = {
+      started.countDown()
+      release.await()
+    }
+  }
+
+  "The dispatcher poller" should {
+
+    "sample the thread pool and fork-join executors, and drop the shut down ones" in {
+      val counterInterface = new GaugeCounterInterface
+      // polled by hand
+      val poller = new DispatcherPoller(counterInterface, new DispatcherTagger(), TimeUnit.HOURS.toMillis(1))
+      val threadPool = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, new LinkedBlockingQueue[Runnable]())
+      val forkJoinPool = new ForkJoinPool(4)
+      val started = new CountDownLatch(3)
+      val release = new CountDownLatch(1)
+
+      try {
+        poller.register("threadPool", threadPool, Array("akka.dispatcher:threadPool"))
+        poller.register("threadPool", threadPool, Array("akka.dispatcher:other"))
+        poller.register("forkJoinPool", forkJoinPool, Array("akka.dispatcher:forkJoinPool"))
+        poller.size mustEqual 2
+
+        (0 until 5).foreach(_ => threadPool.execute(blocking(started, release)))
+        forkJoinPool.execute(blocking(started, release))
+        started.await(5, TimeUnit.SECONDS) must beTrue
+        poller.run()
+
+        val threadPoolTags = List("akka.dispatcher:threadPool")
+        counterInterface.gauges((Aspects.activeThreadCount, threadPoolTags)) mustEqual 2
+        counterInterface.gauges((Aspects.poolSize, threadPoolTags)) mustEqual 2
+        counterInterface.gauges((Aspects.queuedTaskCount, threadPoolTags)) mustEqual 3
+        val forkJoinPoolTags = List("akka.dispatcher:forkJoinPool")
+        counterInterface.gauges((Aspects.activeThreadCount, forkJoinPoolTags)) mustEqual 1
+        counterInterface.gauges((Aspects.poolSize, forkJoinPoolTags)) must beGreaterThanOrEqualTo(1)
+        counterInterface.gauges.keys.exists(_._2 == List("akka.dispatcher:other")) must beFalse
+
+        release.countDown()
+        threadPool.shutdown()
+        threadPool.awaitTermination(5, TimeUnit.SECONDS) must beTrue
+        poller.run()
+        poller.size mustEqual 1
+      } finally {
+        release.countDown()
+        threadPool.shutdownNow()
+        forkJoinPool.shutdownNow()
+      }
+    }
+  }
+
+}
@@ -107,6 +107,11 @@ class JavaApiActorCellMonitoringAspectSpec
       ))
     }
 
+    "Forget the types of the stopped actors" in {
+      val registry = aspect.getTypeRegistry
+      Seq(greeter, greetPrinter, unnamedGreetPrinter, outerActor, innerActor).forall(ref => registry.getType(ref.path) == null) must beTrue
+    }
+
   }
 
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import org.specs2.mutable.Specification
+
+/**
+ * Checks that the mailbox timestamps find the enqueue times of the dequeued messages
+ */
+class MailboxTimestampsSpec extends Specification {
+
+  "The mailbox timestamps" should {
+
+    "return the enqueue times in order" in {
+      val timestamps = new MailboxTimestamps(4)
+      timestamps.enqueued(10)
+      timestamps.enqueued(20)
+      timestamps.dequeued(1) mustEqual 10
+      timestamps.enqueued(30)
+      timestamps.dequeued(1) mustEqual 20
+      timestamps.dequeued(0) mustEqual 30
+    }
+
+    "not measure the messages that were never timestamped" in {
+      val timestamps = new MailboxTimestamps(4)
+      timestamps.dequeued(0) mustEqual 0
+      timestamps.enqueued(10)
+      timestamps.dequeued(0) mustEqual 10
+      timestamps.dequeued(0) mustEqual 0
+    }
+
+    "measure the messages far behind by the first message of their block" in {
+      val timestamps = new MailboxTimestamps(4)
+      for (i <- 0 until 100) timestamps.enqueued((i + 1) * 10)
+      // the first message is still in the coarsest ring; the 50th takes the time of the 49th, which starts a block of 16
+      timestamps.dequeued(99) mustEqual 10
+      timestamps.dequeued(50) mustEqual 490
+      // the last messages are in the first ring
+      (2 to 0 by -1).map(timestamps.dequeued) mustEqual Seq(980, 990, 1000)
+    }
+
+    "skip the times of the messages that never reached the mailbox" in {
+      val timestamps = new MailboxTimestamps(4)
+      timestamps.enqueued(10)
+      // the second message went to the dead letters
+      timestamps.enqueued(20)
+      timestamps.enqueued(30)
+      timestamps.dequeued(1) mustEqual 20
+      timestamps.dequeued(0) mustEqual 30
+    }
+
+    "not measure the messages put back to the front of the mailbox" in {
+      val timestamps = new MailboxTimestamps(4)
+      for (i <- 1 to 3) {
+        timestamps.enqueued(i * 10)
+        timestamps.dequeued(0) mustEqual i * 10
+      }
+      timestamps.enqueued(40)
+      timestamps.enqueued(50)
+      // the three received messages are unstashed in front of the two new ones
+      (4 to 2 by -1).map(timestamps.dequeued) mustEqual Seq(0, 0, 0)
+      timestamps.dequeued(1) mustEqual 40
+      timestamps.dequeued(0) mustEqual 50
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import org.eigengo.monitor.output.CounterInterface
+import org.specs2.mutable.Specification
+import java.io.File
+import scala.collection.mutable
+import scala.io.Source
+
+/**
+ * Checks that the message-flow graph counts the edges between the actors, and reports and dumps them
+ */
+class MessageFlowGraphSpec extends Specification {
+  sequential
+
+  // adds up the counters by their aspect and tags
+  class SummingCounterInterface extends CounterInterface {
+    val counters = mutable.Map[(String, List[String]), Long]().withDefaultValue(0)
+    override def incrementCounter(aspect: String, tags: String*): Unit = incrementCounter(aspect, 1, tags: _*)
+    override def incrementCounter(aspect: String, delta: Int, tags: String*): Unit = counters((aspect, tags.toList)) += delta
+    override def decrementCounter(aspect: String, tags: String*): Unit = ()
+    override def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit = ()
+    override def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit = ()
+    override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = ()
+  }
+
+  "The message-flow graph" should {
+
+    "name the nodes by the actor type or path" in {
+      val tags = Array("akka.path:/default/user/r", "akka.path:/default/user/r/$a", "akka.system:default", "akka.type:default.com.foo.A")
+      MessageFlowGraph.nodeName(tags, false) mustEqual "default.com.foo.A"
+      MessageFlowGraph.nodeName(tags, true) mustEqual "/default/user/r/$a"
+      MessageFlowGraph.nodeName(Array("akka.path:/default/user/b", "akka.system:default"), false) mustEqual "default.anonymous"
+    }
+
+    "intern each node once, and share a node for those that do not fit" in {
+      val graph = new MessageFlowGraph(new SummingCounterInterface, 5, 0)
+      val a = graph.node("A")
+      graph.node("A") mustEqual a
+      graph.node("B") must not equalTo a
+      graph.node("C") mustEqual MessageFlowGraph.OTHER
+    }
+
+    "count the messages on each edge" in {
+      val graph = new MessageFlowGraph(new SummingCounterInterface, 16, 0)
+      val (a, b) = (graph.node("A"), graph.node("B"))
+      (0 until 3).foreach(_ => graph.record(a, b))
+      graph.record(b, a)
+      graph.record(MessageFlowGraph.NO_SENDER, a)
+
+      graph.count("A", "B") mustEqual 3
+      graph.count("B", "A") mustEqual 1
+      graph.count("noSender", "A") mustEqual 1
+      graph.count("A", "A") mustEqual 0
+      graph.dropped() mustEqual 0
+    }
+
+    "drop the sends that do not fit" in {
+      val graph = new MessageFlowGraph(new SummingCounterInterface, 1, 0)
+      // two slots
+      graph.record(MessageFlowGraph.OTHER, MessageFlowGraph.OTHER)
+      graph.record(MessageFlowGraph.NO_SENDER, MessageFlowGraph.OTHER)
+      graph.record(MessageFlowGraph.EXTERNAL, MessageFlowGraph.OTHER)
+
+      graph.dropped() mustEqual 1
+    }
+
+    "report the increase of each edge" in {
+      val counterInterface = new SummingCounterInterface
+      val graph = new MessageFlowGraph(counterInterface, 16, 0)
+      val (a, b) = (graph.node("A"), graph.node("B"))
+      (0 until 3).foreach(_ => graph.record(a, b))
+      graph.run()
+      graph.record(a, b)
+      graph.run()
+      graph.run()
+
+      counterInterface.counters((Aspects.messageFlow, List("akka.sender:A", "akka.recipient:B"))) mustEqual 4
+    }
+
+    "dump the graph in the DOT format" in {
+      val graph = new MessageFlowGraph(new SummingCounterInterface, 16, 0)
+      val (a, b) = (graph.node("A"), graph.node("\"B\""))
+      (0 until 3).foreach(_ => graph.record(a, b))
+
+      val file = File.createTempFile("flow", ".dot")
+      file.deleteOnExit()
+      graph.dump(file.getAbsolutePath)
+
+      val lines = Source.fromFile(file).getLines().toList
+      lines mustEqual List("digraph \"akka\" {", "  \"A\" -> \"\\\"B\\\"\" [label=\"3\", weight=3];", "}")
+      graph.getGraph mustEqual lines.mkString("", "\n", "\n")
+
+      graph.reset()
+      graph.count("A", "\"B\"") mustEqual 0
+      graph.getGraph mustEqual "digraph \"akka\" {\n}\n"
+    }
+
+    "not lose the messages counted from many threads" in {
+      val graph = new MessageFlowGraph(new SummingCounterInterface, 1024, 0)
+      val threads = (0 until 8).map { _ =>
+        new Thread(new Runnable {
+          def run(): Unit = (0 until 100000).foreach(i => graph.record(graph.node(s"S${i % 20}"), graph.node(s"R${i % 7}")))
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+
+      val total = for (s <- 0 until 20; r <- 0 until 7) yield graph.count(s"S$s", s"R$r")
+      total.sum mustEqual 800000
+      graph.dropped() mustEqual 0
+    }
+  }
+
+}
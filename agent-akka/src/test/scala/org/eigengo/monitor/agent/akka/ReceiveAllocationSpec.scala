@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.{Actor, ActorSystem, Props}
+import akka.testkit.{ImplicitSender, TestKit}
+import com.typesafe.config.ConfigFactory
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import org.specs2.mutable.SpecificationLike
+import scala.concurrent.duration._
+
+object ReceiveAllocationSpec {
+  case object Start
+  case object Message
+  case object End
+
+  /**
+   * Measures the bytes that its dispatcher thread allocates between the ``Start`` and the ``End`` messages
+   */
+  class MeasuringActor extends Actor {
+    private val threadMXBean = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+    private var start = 0L
+
+    private def allocated: Long = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId)
+
+    def receive = {
+      case latch: CountDownLatch => latch.await()
+      case Start                 => start = allocated
+      case Message               =>
+      case End                   => sender ! (allocated - start)
+    }
+  }
+
+  val config = ConfigFactory.parseString(
+    """
+      |pinned {
+      |  type: PinnedDispatcher
+      |  executor: thread-pool-executor
+      |}
+    """.stripMargin)
+}
+
+/**
+ * Checks that the woven ``invoke`` and ``receiveMessage`` advices do not allocate on the dispatcher thread once
+ * the actor is cached. It runs in its own JVM with the ``NullCounterInterface`` (see the ``testGrouping`` of
+ * the ``agent-akka`` module), so that the output does not allocate either.
+ */
+class ReceiveAllocationSpec extends TestKit(ActorSystem("allocation", ReceiveAllocationSpec.config))
+  with SpecificationLike with ImplicitSender {
+  import ReceiveAllocationSpec._
+  sequential
+
+  "The receive path" should {
+
+    "not allocate on the dispatcher thread" in {
+      val iterations = 100000
+      val actor = system.actorOf(Props[MeasuringActor].withDispatcher("pinned"), "measuring")
+
+      // the actor processes all messages of a round in a single run of its mailbox, so that the
+      // dispatcher does not re-schedule it in between
+      def round(): Long = {
+        val latch = new CountDownLatch(1)
+        actor ! latch
+        actor ! Start
+        var i = 0
+        while (i < iterations) {
+          actor ! Message
+          i += 1
+        }
+        actor ! End
+        latch.countDown()
+        expectMsgType[Long](30.seconds)
+      }
+
+      // warm up, so that the JIT compiles the advices and the message aspect names are computed
+      (0 until 10).foreach(_ => round())
+      val allocated = round()
+
+      // any per-message allocation would be at least 16 bytes per message
+      allocated must beLessThan(iterations.toLong)
+    }
+
+    "Shutdown system" in {
+      system.shutdown()
+      success
+    }
+  }
+
+}
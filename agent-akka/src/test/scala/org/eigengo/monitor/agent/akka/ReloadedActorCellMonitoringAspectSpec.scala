@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.Props
+import java.io.{FileWriter, File}
+import java.lang.management.ManagementFactory
+import javax.management.ObjectName
+import org.eigengo.monitor.{TestCounter, TestCounterInterface}
+import org.eigengo.monitor.agent.AgentConfigurationFactory
+
+/**
+ * Checks that the ``ActorCellMonitoringAspect`` applies the reloaded configuration to the actors that already
+ * exist, both when the reload is triggered directly and through JMX.
+ */
+class ReloadedActorCellMonitoringAspectSpec extends ActorCellMonitoringAspectSpec(Some("Unfiltered.conf")) {
+  import Aspects._
+
+  private val overrides = File.createTempFile("agent", ".conf")
+  overrides.deleteOnExit()
+
+  private def deliveredCounters(): List[TestCounter] = {
+    Thread.sleep(500)   // wait for the messages
+    TestCounterInterface.foldlByAspect(delivered(1: Int))(TestCounter.plus)
+  }
+
+  "With the configuration reloaded" should {
+    val a = system.actorOf(Props[SimpleActor], "a")
+    val b = system.actorOf(Props[SimpleActor], "b")
+
+    "Record all actors before the reload" in {
+      TestCounterInterface.clear()
+      a ! 1
+      b ! 1
+
+      deliveredCounters() must haveSize(2)
+    }
+
+    "Apply the filters from the overriding file" in {
+      val writer = new FileWriter(overrides)
+      writer.write("""org.eigengo.monitor.agent.akka {
+                     |  excludeAllNotIncluded: true
+                     |  included: [ "akka://default/user/a" ]
+                     |}""".stripMargin)
+      writer.close()
+      System.setProperty(AgentConfigurationFactory.ConfigFileProperty, overrides.getAbsolutePath)
+      AgentConfigurationFactory.reload()
+
+      TestCounterInterface.clear()
+      a ! 1
+      b ! 1
+
+      val counters = deliveredCounters()
+      counters must haveSize(1)
+      counters(0).tags must contain(getPathTags(a, 0).head)
+    }
+
+    "Reload the classpath configuration through JMX" in {
+      System.clearProperty(AgentConfigurationFactory.ConfigFileProperty)
+      ManagementFactory.getPlatformMBeanServer.invoke(new ObjectName("org.eigengo.monitor:type=AgentConfiguration"), "reload", Array[AnyRef](), Array[String]())
+
+      TestCounterInterface.clear()
+      a ! 1
+      b ! 1
+
+      deliveredCounters() must haveSize(2)
+    }
+
+    "Shutdown system" in {
+      system.shutdown()
+      success
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.{Address, RootActorPath}
+import java.io.File
+import org.specs2.mutable.Specification
+import scala.collection.JavaConversions._
+import scala.io.Source
+
+/**
+ * Checks that the flight recorder keeps the slowest receives of each actor type
+ */
+class SlowMessageRecorderSpec extends Specification {
+  sequential
+
+  private val a = RootActorPath(Address("akka", "default")) / "user" / "a"
+  private val b = RootActorPath(Address("akka", "default")) / "user" / "b"
+
+  "The slowest receives" should {
+
+    "keep the slowest receives once full" in {
+      val slowMessages = new SlowMessages("A", 3)
+      Seq(5L, 1L, 3L, 4L, 2L).foreach(d => slowMessages.record(d, classOf[String], a, 0, null))
+
+      slowMessages.snapshot().map(_.duration) mustEqual Seq(5L, 4L, 3L)
+    }
+
+    "only admit the receives slower than the fastest one kept" in {
+      val slowMessages = new SlowMessages("A", 2)
+      slowMessages.record(10, classOf[String], a, 0, null) must beTrue
+      slowMessages.record(20, classOf[String], a, 0, null) must beTrue
+      slowMessages.record(10, classOf[String], a, 0, null) must beFalse
+      slowMessages.record(5, classOf[String], a, 0, null) must beFalse
+      slowMessages.record(11, classOf[Integer], b, 7, classOf[RuntimeException]) must beTrue
+
+      val slowest = slowMessages.snapshot().last
+      slowest.duration mustEqual 11
+      slowest.messageType mustEqual classOf[Integer]
+      slowest.actorPath mustEqual b
+      slowest.mailboxSize mustEqual 7
+      slowest.thread mustEqual Thread.currentThread().getName
+      slowest.toString must contain("failure=java.lang.RuntimeException")
+    }
+
+    "forget the receives on reset" in {
+      val slowMessages = new SlowMessages("A", 1)
+      slowMessages.record(10, classOf[String], a, 0, null)
+      slowMessages.reset()
+
+      slowMessages.snapshot() must beEmpty
+      slowMessages.record(1, classOf[String], a, 0, null) must beTrue
+    }
+
+    "keep the slowest receives recorded from many threads" in {
+      val slowMessages = new SlowMessages("A", 10)
+      val threads = (0 until 4).map { t =>
+        new Thread(new Runnable {
+          def run(): Unit = (0 until 100000).foreach(i => slowMessages.record(i * 4 + t, classOf[String], a, 0, null))
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+
+      // the receives that found another thread writing may be dropped; the ones we keep are the slowest we saw
+      val durations = slowMessages.snapshot().map(_.duration)
+      durations must haveSize(10)
+      durations mustEqual durations.sorted.reverse
+      durations.head must beGreaterThan(390000L)
+    }
+  }
+
+  "The flight recorder" should {
+
+    "dump the slowest receives of all actor types" in {
+      val recorder = new SlowMessageRecorder(2)
+      recorder.forType(Some("A")).record(3000, classOf[String], a, 0, null)
+      recorder.forType(None).record(2000, classOf[String], b, 0, null)
+      recorder.forType(Some("A")).record(1000, classOf[String], a, 0, null)
+
+      val file = File.createTempFile("slow", ".txt")
+      file.deleteOnExit()
+      recorder.dump(file.getAbsolutePath)
+
+      val lines = Source.fromFile(file).getLines().toList
+      lines must haveSize(3)
+      lines(0) must startWith("3 us A akka://default/user/a java.lang.String")
+      lines(1) must startWith("2 us anonymous akka://default/user/b")
+      recorder.getSlowestMessages.toList mustEqual lines
+    }
+  }
+
+}
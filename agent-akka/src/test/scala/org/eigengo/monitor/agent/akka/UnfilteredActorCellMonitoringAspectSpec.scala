@@ -123,9 +123,27 @@ class UnfilteredActorCellMonitoringAspectSpec extends ActorCellMonitoringAspectS
 
         Thread.sleep(1100)
 
+        // the duration is in nanoseconds
         val counter = TestCounterInterface.foldlByAspect(actorDuration, ContainsTag(ca.pathTag))(TestCounter.max)(0)
-        counter.value must beGreaterThan(900)
-        counter.value must beLessThan(1100)
+        counter.value must beGreaterThan(900000000)
+        counter.value must beLessThan(1100000000)
+        counter.tags must containAllOf(ca.tags)
+      }
+    }
+
+    // keep track of the time the messages wait in the mailbox
+    "Record the mailbox wait" in {
+      withActorOf(Props[SimpleActor]) { ca =>
+        // the second message waits while the actor sleeps for a second
+        ca.actor ! 1000
+        ca.actor ! 1
+
+        Thread.sleep(1100)
+
+        // the wait is in nanoseconds
+        val counter = TestCounterInterface.foldlByAspect(mailboxWait, ContainsTag(ca.pathTag))(TestCounter.max)(0)
+        counter.value must beGreaterThan(900000000)
+        counter.value must beLessThan(1100000000)
         counter.tags must containAllOf(ca.tags)
       }
     }
@@ -141,6 +159,21 @@ class UnfilteredActorCellMonitoringAspectSpec extends ActorCellMonitoringAspectS
       }
     }
 
+    "Count the messages between the actors" in {
+      withActorOf(Props[SimpleActor]) { ca =>
+        aspect.getMessageFlow.reset()
+        ca.actor.tell("Bantha Poodoo!", testActor)
+        ca.actor.tell("Bantha Poodoo!", testActor)
+        ca.actor ! "Bantha Poodoo!"
+
+        Thread.sleep(500)   // wait for the messages
+
+        val simpleActor = s"${system.name}.${classOf[SimpleActor].getCanonicalName}"
+        aspect.getMessageFlow.count(s"${system.name}.akka.testkit.TestActor", simpleActor) mustEqual 2
+        aspect.getMessageFlow.count("noSender", simpleActor) mustEqual 1
+      }
+    }
+
   }
 
   // If we create actor "foo" with round-robin routing with x | x > 1 instances, then each instance's metrics
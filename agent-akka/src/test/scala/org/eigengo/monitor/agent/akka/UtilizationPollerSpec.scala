@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import java.util.concurrent.{LinkedBlockingQueue, ThreadPoolExecutor, TimeUnit}
+import org.eigengo.monitor.output.CounterInterface
+import org.specs2.mutable.Specification
+import scala.collection.mutable
+
+/**
+ * Checks that the utilization poller reports the busy times, and forgets the dead actor types and dispatchers
+ */
+class UtilizationPollerSpec extends Specification {
+  sequential
+
+  // keeps the last value of every gauge by its aspect and tags
+  class GaugeCounterInterface extends CounterInterface {
+    val gauges = mutable.Map[(String, List[String]), Int]()
+    override def incrementCounter(aspect: String, tags: String*): Unit = ()
+    override def incrementCounter(aspect: String, delta: Int, tags: String*): Unit = ()
+    override def decrementCounter(aspect: String, tags: String*): Unit = ()
+    override def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit = gauges((aspect, tags.toList)) = value
+    override def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit = ()
+    override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = ()
+  }
+
+  "The utilization poller" should {
+
+    "forget the actor types without live actors" in {
+      val counterInterface = new GaugeCounterInterface
+      val registry = new ActorTypeRegistry(10)
+      val actorClassName = Some("akka.A")
+      // reported by hand
+      val poller = new UtilizationPoller(counterInterface, registry, TimeUnit.HOURS.toMillis(1))
+      registry.increment(actorClassName)
+      val busyTime = poller.actorType(Array("akka.system:s", "akka.type:akka.A"), actorClassName)
+      busyTime.add(10, 1)
+      poller.run()
+      poller.actorTypeCount mustEqual 1
+      counterInterface.gauges.contains((Aspects.actorUtilization, List("akka.system:s", "akka.type:akka.A"))) must beTrue
+
+      // the last actor stops after its last message
+      registry.decrement(actorClassName)
+      busyTime.add(10, 1)
+      poller.run()
+      poller.actorTypeCount mustEqual 1
+      poller.run()
+      poller.actorTypeCount mustEqual 0
+      busyTime.isRetired must beTrue
+      poller.actorType(Array("akka.system:s", "akka.type:akka.A"), actorClassName) must not(beTheSameAs(busyTime))
+    }
+
+    "forget the dispatchers whose executors are shut down" in {
+      val counterInterface = new GaugeCounterInterface
+      val poller = new UtilizationPoller(counterInterface, new ActorTypeRegistry(10), TimeUnit.HOURS.toMillis(1))
+      val threadPool = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, new LinkedBlockingQueue[Runnable]())
+      try {
+        val busyTime = poller.dispatcher("threadPool", threadPool, Array("akka.dispatcher:threadPool"))
+        poller.dispatcher("threadPool", threadPool, Array("akka.dispatcher:other")) must beTheSameAs(busyTime)
+        poller.run()
+        poller.dispatcherCount mustEqual 1
+        counterInterface.gauges.contains((Aspects.poolUtilization, List("akka.dispatcher:threadPool"))) must beTrue
+
+        threadPool.shutdown()
+        poller.run()
+        poller.dispatcherCount mustEqual 0
+        busyTime.isRetired must beTrue
+      } finally {
+        threadPool.shutdownNow()
+      }
+    }
+  }
+
+}
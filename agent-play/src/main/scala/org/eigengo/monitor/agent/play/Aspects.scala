@@ -19,4 +19,6 @@ object Aspects {
 
   val requestCount = "play.request.count"
 
+  val requestDuration = "play.request.duration"
+
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.play
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import org.eigengo.monitor.output.CounterInterface
+import play.api.Routes
+import play.api.mvc.{Filter, RequestHeader, Result}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.control.NonFatal
+import scala.util.matching.Regex
+
+/**
+ * Holds everything we need to know about the requests to one route with one HTTP method, computed on
+ * the first request. The requests then only read the fields of this instance, which means that measuring
+ * a request does not need to re-compute the tags or the filter decisions.
+ *
+ * @param tags the route and method tags
+ * @param included ``true`` if the filters in the configuration include this route
+ * @param samplingRate the sampling rate from the configuration; ``1`` to measure every request
+ */
+private[play] final class MonitoredRoute(tags: Array[String], val included: Boolean, samplingRate: Int) {
+  private[this] val requests = new AtomicLong(0)
+  private[this] val statusTags = Array.tabulate(6) { statusClass =>
+    tags :+ ("play.response.status:" + (if (statusClass == 0) "other" else statusClass + "xx"))
+  }
+
+  /**
+   * Decides whether to measure the current request
+   *
+   * @return the rate at which the request was sampled, i.e. how many requests it stands for;
+   *         ``0`` if we should not measure this request
+   */
+  def sample(): Int =
+    if (samplingRate <= 1) 1
+    else if (requests.incrementAndGet() % samplingRate == 1) samplingRate // == 1 to measure the first request
+    else 0
+
+  /**
+   * Returns the tags of the requests that completed with the given ``status``
+   *
+   * @param status the HTTP status code
+   * @return the route, method and status class tags
+   */
+  def tags(status: Int): Array[String] = {
+    val statusClass = status / 100
+    statusTags(if (statusClass >= 1 && statusClass <= 5) statusClass else 0)
+  }
+}
+
+/**
+ * Runs the callbacks in the thread that completes the future; the callbacks only record the values
+ */
+private[play] object SameThreadExecutionContext extends ExecutionContext {
+  override def execute(runnable: Runnable): Unit = runnable.run()
+  override def reportFailure(t: Throwable): Unit = t.printStackTrace()
+}
+
+/**
+ * Measures the latency and the response status of the requests, tagged with the normalized route pattern
+ * rather than the path and the query string, which keeps the number of distinct tags bounded by the
+ * number of routes. The ``GlobalSettingsMonitoringAspect`` applies this filter around the application's
+ * filters, which means that the latency includes the filters, the body parsing and the action, up to the
+ * moment the ``Result`` is ready.
+ *
+ * The requests routed by the generated router carry the route pattern, for example ``/users/$id<[^/]+>``,
+ * which we normalize to ``/users/$id``. For the other requests, we use the path where the elements that
+ * contain digits are replaced by ``*``. Once we know ``maximumRoutes`` routes, the requests to any new routes
+ * are tagged with ``play.request.route:other``.
+ *
+ * @param counterInterface the counter interface
+ * @param configuration the agent configuration
+ */
+private[play] final class RequestMonitor(counterInterface: CounterInterface, configuration: PlayAgentConfiguration) extends Filter {
+  private[this] val routes = new ConcurrentHashMap[String, ConcurrentHashMap[String, MonitoredRoute]]()
+  private[this] val size = new AtomicInteger(0)
+  private[this] val other = monitoredRoute("other", "other")
+
+  override def apply(next: RequestHeader => Future[Result])(request: RequestHeader): Future[Result] = {
+    val monitored = route(request)
+    val rate = if (monitored.included) monitored.sample() else 0
+    if (rate == 0) next(request)
+    else {
+      val start = System.nanoTime()
+      val result = try next(request) catch {
+        case NonFatal(e) => record(monitored, rate, 500, start); throw e
+      }
+      result.transform(
+        { r => record(monitored, rate, r.header.status, start); r },
+        { e => record(monitored, rate, 500, start); e })(SameThreadExecutionContext)
+    }
+  }
+
+  /**
+   * Returns the number of routes we know
+   *
+   * @return the number of routes
+   */
+  def routeCount: Int = size.get()
+
+  private def record(route: MonitoredRoute, rate: Int, status: Int, start: Long): Unit = {
+    val tags = route.tags(status)
+    counterInterface.recordExecutionTimeNanos(Aspects.requestDuration, System.nanoTime() - start, tags: _*)
+    counterInterface.incrementCounter(Aspects.requestCount, rate, tags: _*)
+  }
+
+  private def route(request: RequestHeader): MonitoredRoute = {
+    // the generated router tags the request with the same pattern instance for every request to the route
+    val pattern = request.tags.get(Routes.ROUTE_PATTERN) match {
+      case Some(p) => p
+      case None    => RequestMonitor.normalizePath(request.path)
+    }
+    val methods = routes.get(pattern)
+    if (methods != null) {
+      val route = methods.get(request.method)
+      if (route != null) return route
+    }
+    newRoute(pattern, request.method)
+  }
+
+  private def newRoute(pattern: String, method: String): MonitoredRoute = {
+    if (size.get() >= configuration.maximumRoutes) return other
+
+    val route = monitoredRoute(method, RequestMonitor.normalizePattern(pattern))
+    val methods = Option(routes.putIfAbsent(pattern, new ConcurrentHashMap[String, MonitoredRoute]())).getOrElse(routes.get(pattern))
+    val existing = methods.putIfAbsent(method, route)
+    if (existing != null) existing
+    else {
+      size.incrementAndGet()
+      route
+    }
+  }
+
+  private def monitoredRoute(method: String, route: String): MonitoredRoute = {
+    val included = configuration.included.accept(method, route) || !configuration.excluded.accept(method, route)
+    new MonitoredRoute(Array("play.request.route:" + route, "play.request.method:" + method), included,
+      configuration.getSamplingRate(method, route))
+  }
+
+}
+
+/**
+ * Normalizes the route patterns and the paths
+ */
+private[play] object RequestMonitor {
+  private val Parameter = "\\$(\\w+)<[^>]*>".r
+  private val Digit = ".*\\d.*".r
+
+  /**
+   * Removes the regular expressions of the parameters from the route pattern generated by the router
+   *
+   * @param pattern the pattern, e.g. ``/users/$id<[^/]+>``
+   * @return the normalized pattern, e.g. ``/users/$id``
+   */
+  def normalizePattern(pattern: String): String =
+    if (pattern.indexOf('<') < 0) pattern else Parameter.replaceAllIn(pattern, m => Regex.quoteReplacement("$" + m.group(1)))
+
+  /**
+   * Replaces the path elements that contain digits with ``*``; these are typically the identifiers of
+   * the resources
+   *
+   * @param path the path, e.g. ``/users/42``
+   * @return the normalized path, e.g. ``/users/*``
+   */
+  def normalizePath(path: String): String =
+    path.split("/", -1).map {
+      case Digit() => "*"
+      case element => element
+    }.mkString("/")
+
+}
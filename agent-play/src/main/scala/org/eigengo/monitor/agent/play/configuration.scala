@@ -15,18 +15,46 @@
  */
 package org.eigengo.monitor.agent.play
 
-import com.typesafe.config.Config
+import com.typesafe.config.{ConfigObject, Config}
 
 /**
- * Configuration of the Play agent.
+ * Configures the Play agent by specifying the ``included`` and ``excluded`` route filters.
+ *
+ * @param included the filter that matches the included routes
+ * @param excluded the filter that matches the excluded routes
+ * @param sampling the sampling rates for the routes where we don't want to measure every request
+ * @param maximumRoutes the maximum number of distinct routes that we tag; the requests to the other routes
+ *                      are tagged with ``play.request.route:other``
  */
-class PlayAgentConfiguration
+case class PlayAgentConfiguration(included: RouteFilter, excluded: RouteFilter, sampling: List[RouteSamplingRate],
+                                  maximumRoutes: Int) {
+
+  /**
+   * Gets the sampling rate for the requests to a route
+   *
+   * @param method the HTTP method
+   * @param route the normalized route pattern
+   * @return the rate; ``1`` to measure every request
+   */
+  def getSamplingRate(method: String, route: String): Int =
+    sampling.find(_.included.accept(method, route)).map(_.sampleEvery).getOrElse(1)
+
+}
+
+/**
+ * Represents a sampling rate provided by a conf object
+ *
+ * @param included the filter over the routes
+ * @param sampleEvery how often to sample (e.g. every 5 requests)
+ */
+case class RouteSamplingRate(included: RouteFilter, sampleEvery: Int)
 
 /**
  * Companion for PlayAgentConfiguration that provides a method to turn a ``Config`` into
  * ``PlayAgentConfiguration``.
  */
 object PlayAgentConfiguration {
+  private val RoutePattern = "(?:([A-Za-z]+)\\s+)?(\\S+)".r
 
   /**
    * Parses the given ``config`` into a valid ``PlayAgentConfiguration``
@@ -34,7 +62,30 @@ object PlayAgentConfiguration {
    * @param config the agent-specific configuration
    * @return the PlayAgentConfiguration
    */
-  def apply(config: Config): PlayAgentConfiguration = new PlayAgentConfiguration()
+  def apply(config: Config): PlayAgentConfiguration = {
+    import scala.collection.JavaConversions._
+
+    val excludeAllNotIncluded = if (config.hasPath("excludeAllNotIncluded")) config.getBoolean("excludeAllNotIncluded") else false
+    val included = if (config.hasPath("included")) config.getStringList("included").map(parseFilter).toList else Nil
+    val excluded = if (config.hasPath("excluded")) config.getStringList("excluded").map(parseFilter).toList else Nil
+    val sampling = if (config.hasPath("sampling")) config.getObjectList("sampling").flatMap(parseSampling).toList else Nil
+    val maximumRoutes = if (config.hasPath("maximumRoutes")) config.getInt("maximumRoutes") else 1000
+    PlayAgentConfiguration(AnyAcceptRouteFilter(included, false), AnyAcceptRouteFilter(excluded, excludeAllNotIncluded),
+                           sampling, maximumRoutes)
+  }
+
+  private def parseFilter(expression: String): RouteFilter = expression.trim match {
+    case RoutePattern(method, pattern) => RoutePatternFilter(Option(method), pattern)
+  }
+
+  private def parseSampling(samplingObject: ConfigObject): Iterable[RouteSamplingRate] = {
+    import scala.collection.JavaConversions._
+    val rate = Option(samplingObject.get("rate")).map(_.unwrapped()).getOrElse(1)
+    (rate, samplingObject.get("for").unwrapped()) match {
+      case (r: Number, filters: java.util.List[String @unchecked]) =>
+        filters.map(filter => RouteSamplingRate(parseFilter(filter), r.intValue()))
+    }
+  }
 }
 
 /**
@@ -47,4 +98,4 @@ object PlayAgentConfigurationJapi {
    * @return the lifted function
    */
   def apply: Config => PlayAgentConfiguration = PlayAgentConfiguration.apply
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.play
+
+import java.util.regex.Pattern
+
+/**
+ * Decides whether a request to a route is accepted
+ */
+trait RouteFilter {
+
+  /**
+   * Decides whether to accept the request
+   *
+   * @param method the HTTP method, e.g. ``GET``
+   * @param route the normalized route pattern, e.g. ``/users/$id``
+   * @return ``true`` if accepted
+   */
+  def accept(method: String, route: String): Boolean
+
+}
+
+/**
+ * Filter that accepts the requests whose method and route match the expression. The expression is an optional
+ * HTTP method followed by the route pattern, where ``*`` matches any single path element and ``**`` matches
+ * any number of path elements; for example, ``GET /users/*`` or ``/assets/**``.
+ *
+ * @param method the HTTP method; ``None`` for any method
+ * @param pattern the route pattern
+ */
+case class RoutePatternFilter(method: Option[String], pattern: String) extends RouteFilter {
+  private lazy val regex = Pattern.compile(pattern.split("/", -1).map {
+    case "*"  => "[^/]*"
+    case "**" => ".*"
+    case x    => Pattern.quote(x)
+  }.mkString("/"))
+
+  override def accept(method: String, route: String): Boolean =
+    this.method.forall(_.equalsIgnoreCase(method)) && regex.matcher(route).matches()
+}
+
+/**
+ * Filter that accepts the request if any of the ``filters`` accepts it; ``zero`` accepts all requests
+ *
+ * @param filters the filters
+ * @param zero ``true`` to accept every request
+ */
+case class AnyAcceptRouteFilter(filters: List[RouteFilter], zero: Boolean) extends RouteFilter {
+
+  override def accept(method: String, route: String): Boolean =
+    zero || filters.exists(_.accept(method, route))
+}
@@ -2,7 +2,7 @@ package org.eigengo.monitor.agent.play
 
 import play.api.test.{WithApplication, PlaySpecification, FakeRequest}
 import play.api.mvc.Action
-import play.api.mvc.Results.Ok
+import play.api.mvc.Results.{NotFound, Ok}
 import org.eigengo.monitor.{ContainsTag, TestCounterInterface}
 import org.eigengo.monitor.TestCounterInterface._
 import play.api.test.FakeApplication
@@ -23,10 +23,19 @@ class GlobalSettingMonitoringAspectSpec extends PlaySpecification {
       Action {
         Ok("ok")
       }
+    case ("GET", "/missing") =>
+      Action {
+        NotFound("missing")
+      }
+    case ("GET", path) if path.startsWith("/users/") =>
+      Action {
+        Ok("ok")
+      }
   })
 
+  // the values are recorded when the result is ready, so we wait for it
   def hitUrl(url: String, r: Range): Unit = if (!r.isEmpty) {
-    route(FakeRequest(GET, url))
+    route(FakeRequest(GET, url)).foreach(status(_))
     hitUrl(url, r.tail)
   }
 
@@ -63,17 +72,64 @@ class GlobalSettingMonitoringAspectSpec extends PlaySpecification {
       val requestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount)(takeLHS)
       requestCounts.size must be equalTo(12)
 
-      val indexRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.path:/"))(takeLHS)
+      val indexRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.route:/"))(takeLHS)
       indexRequestCounts.size must be equalTo(3)
-      indexRequestCounts.forall(_.tags.contains("play.request.query:")) must beTrue
+      indexRequestCounts.forall(_.tags.contains("play.request.method:GET")) must beTrue
 
-      val fooRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.path:/foo"))(takeLHS)
+      val fooRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.route:/foo"))(takeLHS)
       fooRequestCounts.size must be equalTo(4)
-      fooRequestCounts.forall(_.tags.contains("play.request.query:")) must beTrue
 
-      val fooBarRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.path:/foo/bar"))(takeLHS)
+      // the query string is not a tag
+      val fooBarRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.route:/foo/bar"))(takeLHS)
       fooBarRequestCounts.size must be equalTo(5)
-      fooBarRequestCounts.forall(_.tags.contains("play.request.query:a=1")) must beTrue
+      fooBarRequestCounts.forall(_.tags.exists(_.contains("a=1"))) must beFalse
+    }
+
+    "measure the latency and tag the response status" in new WithApplication(appWithRoutes) {
+      TestCounterInterface.clear
+
+      hitUrl("/foo", 1 to 2)
+      hitUrl("/missing", 1 to 3)
+
+      val ok = TestCounterInterface.foldlByAspect(Aspects.requestDuration, ContainsTag("play.response.status:2xx"))(takeLHS)
+      ok.size must be equalTo(2)
+      ok.forall(_.value > 0) must beTrue
+      val notFound = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.response.status:4xx"))(takeLHS)
+      notFound.size must be equalTo(3)
+    }
+
+    "replace the identifiers in the paths without a route pattern" in new WithApplication(appWithRoutes) {
+      TestCounterInterface.clear
+
+      hitUrl("/users/1", 1 to 1)
+      hitUrl("/users/2", 1 to 1)
+
+      val userRequestCounts = TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("play.request.route:/users/*"))(takeLHS)
+      userRequestCounts.size must be equalTo(2)
+    }
+  }
+
+  "The RequestMonitor" should {
+
+    "normalize the route patterns" in {
+      RequestMonitor.normalizePattern("/users/$id<[^/]+>/orders/$order<[0-9]+>") must be equalTo("/users/$id/orders/$order")
+      RequestMonitor.normalizePattern("/foo") must be equalTo("/foo")
+    }
+
+    "filter the routes" in {
+      import com.typesafe.config.ConfigFactory
+      val configuration = PlayAgentConfiguration(ConfigFactory.parseString(
+        """
+          |included: [ "GET /users/**" ]
+          |excludeAllNotIncluded: true
+          |sampling: [ { rate: 10, for: [ "/users/*" ] } ]
+        """.stripMargin))
+
+      configuration.included.accept("GET", "/users/$id/orders") must beTrue
+      configuration.included.accept("POST", "/users/$id") must beFalse
+      configuration.excluded.accept("GET", "/assets/main.css") must beTrue
+      configuration.getSamplingRate("GET", "/users/$id") must be equalTo(10)
+      configuration.getSamplingRate("GET", "/users/$id/orders") must be equalTo(1)
     }
   }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.spray
+
+object Aspects {
+
+  val requestCount = "spray.request.count"
+
+  val requestDuration = "spray.request.duration"
+
+  val openRequests = "spray.request.open"
+
+  val connectionCount = "spray.connection.count"
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.spray
+
+import com.typesafe.config.Config
+
+/**
+ * Configures the Spray agent.
+ *
+ * @param routePrefixes the path prefixes that tag the requests, e.g. ``/api/users``; the longest matching
+ *                      prefix applies. The requests that do not match any prefix are tagged with the first
+ *                      element of their path
+ * @param maximumRoutes the maximum number of distinct first path elements that we tag for each listener;
+ *                      the requests to the other paths are tagged with ``spray.route:other``
+ */
+case class SprayAgentConfiguration(routePrefixes: List[String], maximumRoutes: Int)
+
+/**
+ * Companion for SprayAgentConfiguration that provides a method to turn a ``Config`` into
+ * ``SprayAgentConfiguration``.
+ */
+object SprayAgentConfiguration {
+
+  /**
+   * Parses the given ``config`` into a valid ``SprayAgentConfiguration``
+   *
+   * @param config the agent-specific configuration
+   * @return the SprayAgentConfiguration
+   */
+  def apply(config: Config): SprayAgentConfiguration = {
+    import scala.collection.JavaConversions._
+
+    val routePrefixes = if (config.hasPath("routePrefixes")) config.getStringList("routePrefixes").toList else Nil
+    val maximumRoutes = if (config.hasPath("maximumRoutes")) config.getInt("maximumRoutes") else 100
+    SprayAgentConfiguration(routePrefixes, maximumRoutes)
+  }
+}
+
+/**
+ * Exposes the ``SprayAgentConfigurationJapi``'s Java-friendly API
+ */
+object SprayAgentConfigurationJapi {
+  /**
+   * Lifted ``SprayAgentConfiguration.apply``
+   *
+   * @return the lifted function
+   */
+  def apply: Config => SprayAgentConfiguration = SprayAgentConfiguration.apply
+}
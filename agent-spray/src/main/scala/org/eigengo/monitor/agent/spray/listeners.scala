@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.spray
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import spray.http.{ChunkedResponseStart, Confirmed, HttpResponse, Uri}
+import spray.http.Uri.Path.{Segment, Slash}
+
+/**
+ * Holds the prebuilt tags of the requests to one route prefix, one array for each class of the response
+ * status, which means that recording a response does not allocate.
+ *
+ * @param tags the listener and route tags
+ */
+private[spray] final class MonitoredRoute(tags: Array[String]) {
+  private[this] val statusTags = Array.tabulate(6) { statusClass =>
+    tags :+ ("spray.response.status:" + (if (statusClass == 0) "other" else statusClass + "xx"))
+  }
+
+  /**
+   * Returns the tags of the requests that completed with the given ``status``
+   *
+   * @param status the HTTP status code
+   * @return the listener, route and status class tags
+   */
+  def tags(status: Int): Array[String] = {
+    val statusClass = status / 100
+    statusTags(if (statusClass >= 1 && statusClass <= 5) statusClass else 0)
+  }
+}
+
+/**
+ * Matches the paths of the requests against the configured prefixes, walking the ``Uri.Path`` without
+ * converting it to a ``String``.
+ *
+ * @param prefixes the prefixes, e.g. ``/api/users``
+ */
+private[spray] final class RoutePrefixes(prefixes: List[String]) {
+  private[this] val sorted = prefixes.sortBy(p => -p.split('/').count(_.nonEmpty)).toArray
+  private[this] val segments = sorted.map(_.split('/').filter(_.nonEmpty))
+
+  /**
+   * The prefixes in the order in which they are matched; the longest prefixes first
+   */
+  val names: Array[String] = sorted
+
+  /**
+   * Finds the longest prefix that matches the ``path``
+   *
+   * @param path the path
+   * @return the index of the prefix in ``names``, or ``-1``
+   */
+  def indexOf(path: Uri.Path): Int = {
+    var i = 0
+    while (i < segments.length) {
+      if (matches(path, segments(i))) return i
+      i += 1
+    }
+    -1
+  }
+
+  private def matches(path: Uri.Path, prefix: Array[String]): Boolean = {
+    var remaining = path
+    var i = 0
+    while (i < prefix.length) {
+      remaining match {
+        case Slash(Segment(head, tail)) if head == prefix(i) =>
+          remaining = tail
+          i += 1
+        case _ =>
+          return false
+      }
+    }
+    true
+  }
+
+}
+
+/**
+ * Counts the connections and the open requests of one spray-can listener, and holds the ``MonitoredRoute``s
+ * of the requests that the listener receives.
+ *
+ * @param name the name of the listener
+ * @param prefixes the configured route prefixes
+ * @param maximumRoutes the maximum number of distinct first path elements
+ */
+private[spray] final class SprayListener(name: String, prefixes: RoutePrefixes, maximumRoutes: Int) {
+  /**
+   * The listener tags
+   */
+  val tags: Array[String] = Array("spray.listener:" + name)
+  private[this] val connections = new AtomicInteger(0)
+  private[this] val openRequests = new AtomicInteger(0)
+  private[this] val configured = prefixes.names.map(prefix => new MonitoredRoute(tags :+ ("spray.route:" + prefix)))
+  private[this] val firstElements = new ConcurrentHashMap[String, MonitoredRoute]()
+  private[this] val other = new MonitoredRoute(tags :+ "spray.route:other")
+
+  /**
+   * Finds the route of the request with the given ``path``
+   *
+   * @param path the path of the request
+   * @return the route
+   */
+  def route(path: Uri.Path): MonitoredRoute = {
+    val index = prefixes.indexOf(path)
+    if (index >= 0) return configured(index)
+
+    val first = path match {
+      case Slash(Segment(head, _)) => head
+      case _                       => ""
+    }
+    val route = firstElements.get(first)
+    if (route != null) route
+    else if (firstElements.size() >= maximumRoutes) other
+    else {
+      val newRoute = new MonitoredRoute(tags :+ ("spray.route:/" + first))
+      Option(firstElements.putIfAbsent(first, newRoute)).getOrElse(newRoute)
+    }
+  }
+
+  /**
+   * Records an opened connection
+   *
+   * @return the number of open connections
+   */
+  def connectionOpened(): Int = connections.incrementAndGet()
+
+  /**
+   * Records a closed connection
+   *
+   * @return the number of open connections
+   */
+  def connectionClosed(): Int = connections.decrementAndGet()
+
+  /**
+   * Records a request dispatched to the handler
+   *
+   * @return the number of requests that the handlers have not yet responded to
+   */
+  def requestStarted(): Int = openRequests.incrementAndGet()
+
+  /**
+   * Records a response
+   *
+   * @return the number of requests that the handlers have not yet responded to
+   */
+  def requestCompleted(): Int = openRequests.decrementAndGet()
+
+}
+
+/**
+ * Holds the ``SprayListener``s, keyed by their names
+ *
+ * @param configuration the agent configuration
+ */
+private[spray] final class SprayListeners(configuration: SprayAgentConfiguration) {
+  private[this] val listeners = new ConcurrentHashMap[String, SprayListener]()
+  private[this] val prefixes = new RoutePrefixes(configuration.routePrefixes)
+
+  /**
+   * Gets the listener with the given ``name``, creating it if needed
+   *
+   * @param name the name
+   * @return the listener
+   */
+  def get(name: String): SprayListener = {
+    val listener = listeners.get(name)
+    if (listener != null) listener
+    else {
+      val newListener = new SprayListener(name, prefixes, configuration.maximumRoutes)
+      Option(listeners.putIfAbsent(name, newListener)).getOrElse(newListener)
+    }
+  }
+
+}
+
+/**
+ * Inspects the messages that the handlers send to the responders
+ */
+private[spray] object HttpMessages {
+
+  /**
+   * Returns the status of the response that the ``message`` starts
+   *
+   * @param message the message sent to the responder
+   * @return the status code, or ``-1`` if the message does not start a response (e.g. a chunk)
+   */
+  def status(message: Any): Int = message match {
+    case response: HttpResponse            => response.status.intValue
+    case ChunkedResponseStart(response)    => response.status.intValue
+    case Confirmed(part, _)                => status(part)
+    case _                                 => -1
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.spray
+
+import akka.actor.{Actor, ActorSystem, Props}
+import akka.io.IO
+import akka.pattern.ask
+import akka.testkit.TestKit
+import akka.util.Timeout
+import java.net.{HttpURLConnection, URL}
+import org.eigengo.monitor.{ContainsTag, TestCounterInterface}
+import org.eigengo.monitor.TestCounterInterface.takeLHS
+import org.specs2.mutable.SpecificationLike
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import spray.can.Http
+import spray.http._
+
+class HttpServerMonitoringAspectSpec extends TestKit(ActorSystem("spray")) with SpecificationLike {
+  sequential
+
+  class Service extends Actor {
+    def receive = {
+      case _: Http.Connected => sender ! Http.Register(self)
+      case request: HttpRequest if request.uri.path.toString == "/missing" => sender ! HttpResponse(StatusCodes.NotFound)
+      case _: HttpRequest => sender ! HttpResponse(entity = "ok")
+    }
+  }
+
+  val port = 18080
+  implicit val timeout = Timeout(5.seconds)
+  Await.result(IO(Http) ? Http.Bind(system.actorOf(Props(new Service)), interface = "localhost", port = port), timeout.duration)
+
+  def get(path: String, count: Int): Unit = (1 to count).foreach { _ =>
+    val connection = new URL(s"http://localhost:$port$path").openConnection().asInstanceOf[HttpURLConnection]
+    connection.getResponseCode
+    connection.disconnect()
+  }
+
+  "The HttpServerMonitoringAspect" should {
+
+    "time the requests and tag them with the route prefix and status class" in {
+      TestCounterInterface.clear()
+      get("/api/users/1", 3)
+      get("/api/users/2/orders", 2)
+      get("/other/42", 4)
+      get("/missing", 1)
+
+      TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("spray.route:/api/users"))(takeLHS).size mustEqual 5
+      TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("spray.route:/other"))(takeLHS).size mustEqual 4
+      TestCounterInterface.foldlByAspect(Aspects.requestCount, ContainsTag("spray.response.status:4xx"))(takeLHS).size mustEqual 1
+
+      val durations = TestCounterInterface.foldlByAspect(Aspects.requestDuration, ContainsTag("spray.response.status:2xx"))(takeLHS)
+      durations.size mustEqual 9
+      durations.forall(_.value > 0) must beTrue
+    }
+
+    "count the open connections and requests of the listener" in {
+      TestCounterInterface.clear()
+      get("/", 1)
+
+      TestCounterInterface.foldlByAspect(Aspects.connectionCount)(takeLHS) must not(beEmpty)
+      val openRequests = TestCounterInterface.foldlByAspect(Aspects.openRequests)(takeLHS)
+      openRequests.map(_.value) must contain(1)
+      openRequests.head.value mustEqual 0
+    }
+
+    "match the longest route prefix without converting the path" in {
+      val prefixes = new RoutePrefixes(List("/api", "/api/users"))
+      prefixes.names(prefixes.indexOf(Uri.Path("/api/users/1"))) mustEqual "/api/users"
+      prefixes.names(prefixes.indexOf(Uri.Path("/api/orders"))) mustEqual "/api"
+      prefixes.indexOf(Uri.Path("/apiary")) mustEqual -1
+    }
+  }
+
+}
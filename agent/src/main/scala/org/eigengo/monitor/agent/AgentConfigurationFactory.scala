@@ -16,16 +16,104 @@
 package org.eigengo.monitor.agent
 
 import com.typesafe.config._
-import scala.util.Try
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.util.{TimerTask, Timer}
+import java.util.concurrent.CopyOnWriteArrayList
+import javax.management.ObjectName
+import scala.util.{Failure, Success, Try}
 
 /**
  * Loads the configuration for the monitoring's agents (and outputs)
+ *
+ * The configuration comes from the ``META-INF/monitor/agent.conf`` resource; if the
+ * ``org.eigengo.monitor.agent.config`` system property names a file, its values override the resource.
+ * The agents that register an ``AgentConfigurationListener`` receive their new configuration whenever
+ * it is reloaded: when the ``reload`` operation of the ``org.eigengo.monitor:type=AgentConfiguration``
+ * MXBean is invoked, or when the file changes, if ``org.eigengo.monitor.agent.reloadInterval`` is set.
  */
 object AgentConfigurationFactory {
-  private val config = ConfigFactory.load("META-INF/monitor/agent.conf",
-    ConfigParseOptions.defaults().setAllowMissing(false),
-    ConfigResolveOptions.defaults())
-  private val agentConfig = config.getConfig("org.eigengo.monitor.agent")
+  /**
+   * The system property that names the file that overrides the ``META-INF/monitor/agent.conf`` resource
+   */
+  val ConfigFileProperty = "org.eigengo.monitor.agent.config"
+  private val MXBeanName = "org.eigengo.monitor:type=AgentConfiguration"
+
+  @volatile private var config = load()
+  private val listeners = new CopyOnWriteArrayList[Registration[_]]()
+  private val reloader = new AgentConfigurationReloader
+  startReloading()
+
+  /**
+   * Associates the ``listener`` with the function that completes its configuration
+   */
+  private class Registration[A](agentName: String, agent: Config => A, listener: AgentConfigurationListener[A]) {
+    def configurationChanged(): Unit = listener.configurationChanged(getAgentCofiguration(agentName)(agent))
+  }
+
+  /**
+   * Exposes the reloads over JMX and watches the overriding file
+   */
+  private class AgentConfigurationReloader extends TimerTask with AgentConfigurationReloaderMXBean {
+    @volatile private var lastModified = configFile.map(_.lastModified()).getOrElse(0L)
+    @volatile private var reloads = 0L
+    @volatile private var lastError = ""
+
+    override def run(): Unit = configFile.foreach { file =>
+      val modified = file.lastModified()
+      if (modified != lastModified) {
+        lastModified = modified
+        reload()
+      }
+    }
+
+    override def reload(): Unit = AgentConfigurationFactory.synchronized {
+      Try(load()) match {
+        case Success(loaded) =>
+          config = loaded
+          reloads += 1
+          lastError = ""
+          val i = listeners.iterator()
+          while (i.hasNext) {
+            try {
+              i.next().configurationChanged()
+            } catch {
+              case e: RuntimeException => lastError = e.getMessage; e.printStackTrace()
+            }
+          }
+        case Failure(e) =>
+          // keep the configuration we have
+          lastError = e.getMessage
+          e.printStackTrace()
+      }
+    }
+
+    override def getSource: String = configFile.map(_.getAbsolutePath).getOrElse("classpath:META-INF/monitor/agent.conf")
+
+    override def getReloads: Long = reloads
+
+    override def getLastError: String = lastError
+  }
+
+  private def configFile: Option[File] = Option(System.getProperty(ConfigFileProperty)).map(new File(_))
+
+  private def load(): Config = {
+    val resource = ConfigFactory.parseResources("META-INF/monitor/agent.conf", ConfigParseOptions.defaults().setAllowMissing(false))
+    val overrides = configFile.map(ConfigFactory.parseFile(_, ConfigParseOptions.defaults().setAllowMissing(false))).getOrElse(ConfigFactory.empty())
+    ConfigFactory.load(overrides.withFallback(resource), ConfigResolveOptions.defaults())
+  }
+
+  private def startReloading(): Unit = {
+    val agentConfig = config.getConfig("org.eigengo.monitor.agent")
+    if (!agentConfig.hasPath("jmx") || agentConfig.getBoolean("jmx")) {
+      // the agent classes may be loaded more than once, for example by the application servers' class loaders
+      Try(ManagementFactory.getPlatformMBeanServer.registerMBean(reloader, new ObjectName(MXBeanName)))
+    }
+    val reloadInterval = if (agentConfig.hasPath("reloadInterval")) agentConfig.getLong("reloadInterval") else 0
+    if (reloadInterval > 0 && configFile.isDefined) {
+      new Timer("monitor-agent-configuration", true).schedule(reloader, reloadInterval, reloadInterval)
+    }
+  }
 
   /**
    * Load the common configurations for all agents
@@ -33,7 +121,7 @@ object AgentConfigurationFactory {
    * @return the loaded ``CommonAgentConfiguration`` instance
    */
   private def getCommonAgentConfiguration(): CommonAgentConfiguration = {
-    val className = agentConfig.getString("output.class")
+    val className = config.getString("org.eigengo.monitor.agent.output.class")
     CommonAgentConfiguration(className)
   }
 
@@ -51,4 +139,22 @@ object AgentConfigurationFactory {
     AgentConfiguration(getCommonAgentConfiguration(), agent(agentConfig))
   }
 
+  /**
+   * Registers the ``listener`` to receive the agent-specific configuration, completed by the ``agent`` function,
+   * whenever the configuration is reloaded. The listeners are called one after another, in the thread that
+   * reloads the configuration.
+   *
+   * @param agentName the name of the agent, e.g. "akka"
+   * @param agent the function that completes the specific agent configuration
+   * @param listener the listener
+   */
+  def addListener[A](agentName: String, agent: Config => A, listener: AgentConfigurationListener[A]): Unit =
+    listeners.add(new Registration(agentName, agent, listener))
+
+  /**
+   * Reloads the configuration and notifies the listeners; if the configuration cannot be parsed, we keep
+   * the current one.
+   */
+  def reload(): Unit = reloader.reload()
+
 }
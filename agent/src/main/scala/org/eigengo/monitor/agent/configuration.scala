@@ -30,3 +30,46 @@ case class CommonAgentConfiguration(counterInterfaceClassName: String)
  *
  */
 case class AgentConfiguration[A](common: CommonAgentConfiguration, agent: A)
+
+/**
+ * Receives the agent-specific configuration when it is reloaded; implement it to apply the new configuration.
+ *
+ * @tparam A the type of the agent-specific configuration
+ */
+trait AgentConfigurationListener[A] {
+
+  /**
+   * Called with the reloaded configuration
+   *
+   * @param configuration the new configuration
+   */
+  def configurationChanged(configuration: AgentConfiguration[A]): Unit
+
+}
+
+/**
+ * The management interface of the agent configuration, registered as ``org.eigengo.monitor:type=AgentConfiguration``
+ */
+trait AgentConfigurationReloaderMXBean {
+
+  /**
+   * Reloads the configuration and applies it to the agents
+   */
+  def reload(): Unit
+
+  /**
+   * The file or resource that the configuration comes from
+   */
+  def getSource: String
+
+  /**
+   * The number of successful reloads
+   */
+  def getReloads: Long
+
+  /**
+   * The message of the last error, or an empty string
+   */
+  def getLastError: String
+
+}
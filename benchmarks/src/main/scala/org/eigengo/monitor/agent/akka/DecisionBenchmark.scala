@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.agent.akka
+
+import akka.actor.ActorPath
+import com.typesafe.config.ConfigFactory
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * Measures the work that the ``ActorCellMonitoringAspect`` does for every actor and every message: computing
+ * the tags, evaluating the filters, computing all filter decisions for an actor, and deciding whether to sample
+ * a message. It lives in the agent's package, because the measured classes are package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class DecisionBenchmark {
+
+  /**
+   * The number of path filters in each of the included, excluded and sampling lists
+   */
+  @Param(Array("1", "10", "100"))
+  var filters: Int = _
+
+  var configuration: AkkaAgentConfiguration = _
+  var decisions: ActorFilterDecisions = _
+  var tagger: ActorPathTagger = _
+  var sampledEveryMessage: CachedActor = _
+  var sampledEveryTenthMessage: CachedActor = _
+  val pathAndClass = PathAndClass(ActorPath.fromString("akka://benchmarks/user/parent/child-42"), Some("org.eigengo.Actor"))
+
+  @Setup
+  def setUp(): Unit = {
+    def quoted(prefix: String): String = (0 until filters).map(i => s""""akka://benchmarks/user/$prefix-$i/*"""").mkString(", ")
+    configuration = AkkaAgentConfiguration(ConfigFactory.parseString(
+      s"""
+        |included: [ ${quoted("included")}, "akka://*/user/parent/*" ]
+        |excluded: [ ${quoted("excluded")} ]
+        |sampling: [ { rate: 10, for: [ ${quoted("sampled")}, "akka://*/user/parent/*" ] } ]
+      """.stripMargin))
+    decisions = new ActorFilterDecisions(configuration)
+    tagger = new ActorPathTagger(false)
+    sampledEveryMessage = new CachedActor(Array("akka.path:/benchmarks/user/a"), None, true, 1, null)
+    sampledEveryMessage.retain()
+    sampledEveryTenthMessage = new CachedActor(Array("akka.path:/benchmarks/user/a"), None, true, 10, null)
+    sampledEveryTenthMessage.retain()
+  }
+
+  @Benchmark
+  def tags(): Array[String] = tagger.getTags(pathAndClass.actorPath, pathAndClass.actorClassName)
+
+  @Benchmark
+  def includedFilter(): Boolean = configuration.included.accept(pathAndClass)
+
+  @Benchmark
+  def samplingFilter(): Int = configuration.sampling.getRate(pathAndClass)
+
+  @Benchmark
+  def decision(): ActorFilterDecisions.Decision = decisions.decide(pathAndClass)
+
+  @Benchmark
+  def sampleEveryMessage(): Int = sampledEveryMessage.sample()
+
+  @Benchmark
+  def sampleEveryTenthMessage(): Int = sampledEveryTenthMessage.sample()
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.benchmarks
+
+import java.util.concurrent.TimeUnit
+import org.eigengo.monitor.output._
+import org.openjdk.jmh.annotations._
+
+/**
+ * Measures the cost of a single call to each output, as the agents' advices make them. Each output
+ * runs in its own forked JVM; run with ``-t`` to see how the outputs scale with the number of threads.
+ * The ``bound`` benchmarks update the handles that the agents keep for every actor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class CounterInterfaceBenchmark {
+
+  @Param(Array(
+    "org.eigengo.monitor.output.NullCounterInterface",
+    "org.eigengo.monitor.output.statsd.StatsdCounterInterface",
+    "org.eigengo.monitor.output.statsd.BufferedStatsdCounterInterface",
+    "org.eigengo.monitor.output.codahalemetrics.MetricsCounterInterface",
+    "org.eigengo.monitor.output.codahalemetrics.AkkaMetricsCounterInterface"))
+  var output: String = _
+
+  var counterInterface: CounterInterface = _
+  var counter: CounterHandle = _
+  var gauge: GaugeHandle = _
+  var timer: TimerHandle = _
+  val tags = Array("akka.path:/benchmarks/user/a", "akka.type:benchmarks.org.eigengo.Actor", "akka.system:benchmarks")
+
+  @Setup
+  def setUp(): Unit = {
+    UdpSink.start()
+    counterInterface = Class.forName(output).newInstance().asInstanceOf[CounterInterface]
+    counter = CounterHandles.counter(counterInterface, "akka.actor.delivered", tags: _*)
+    gauge = CounterHandles.gauge(counterInterface, "akka.actor.queue.size", tags: _*)
+    timer = CounterHandles.executionTimeNanos(counterInterface, "akka.actor.duration", tags: _*)
+  }
+
+  @Benchmark
+  def incrementCounter(): Unit = counterInterface.incrementCounter("akka.actor.delivered", 1, tags: _*)
+
+  @Benchmark
+  def recordGaugeValue(): Unit = counterInterface.recordGaugeValue("akka.actor.queue.size", 10, tags: _*)
+
+  @Benchmark
+  def recordExecutionTimeNanos(): Unit = counterInterface.recordExecutionTimeNanos("akka.actor.duration", 25000, tags: _*)
+
+  @Benchmark
+  def boundIncrementCounter(): Unit = counter.increment(1)
+
+  @Benchmark
+  def boundRecordGaugeValue(): Unit = gauge.set(10)
+
+  @Benchmark
+  def boundRecordExecutionTimeNanos(): Unit = timer.record(25000)
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.benchmarks
+
+import com.codahale.metrics.MetricRegistry
+import java.util.concurrent.TimeUnit
+import org.eigengo.monitor.output.codahalemetrics.{DefaultNameMarshaller, MetricsHandler}
+import org.openjdk.jmh.annotations._
+
+/**
+ * Measures the cost of updating a gauge through the ``MetricsHandler`` with 100, 1000 and 20000 registered
+ * metrics. The cost should not depend on the number of metrics, but for the cache misses that more metrics
+ * cause.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+class MetricsHandlerBenchmark {
+
+  /**
+   * The number of registered metrics, which the updates cycle through
+   */
+  @Param(Array("100", "1000", "20000"))
+  var metrics: Int = _
+
+  var handler: MetricsHandler = _
+  var tags: Array[Array[String]] = _
+  var i = 0
+
+  @Setup
+  def setUp(): Unit = {
+    handler = new MetricsHandler {
+      val registry = new MetricRegistry
+      val marshaller = new DefaultNameMarshaller("")
+    }
+    tags = Array.tabulate(metrics)(i => Array(s"akka.path:/benchmarks/user/actor$i"))
+    for (i <- 0 until metrics) handler.updateGaugeValue("akka.actor.queue.size", i, tags(i))
+  }
+
+  @Benchmark
+  def updateGaugeValue(): Unit = {
+    i += 1
+    if (i == metrics) i = 0
+    handler.updateGaugeValue("akka.actor.queue.size", i, tags(i))
+  }
+
+}
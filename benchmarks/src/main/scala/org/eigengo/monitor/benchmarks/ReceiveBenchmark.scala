@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.benchmarks
+
+import akka.actor.{ActorRef, Props, Actor, ActorSystem}
+import com.typesafe.config.ConfigFactory
+import java.util.concurrent.{TimeUnit, SynchronousQueue, CountDownLatch}
+import org.openjdk.jmh.annotations._
+
+object ReceiveBenchmark {
+  private final val Batch = 1000
+
+  /**
+   * The message that the actors receive; one instance, so that the benchmarks measure the monitoring
+   * rather than the allocation of the messages
+   */
+  case object Message
+
+  /**
+   * Counts down the latches it receives, and ignores every other message
+   */
+  class CountingActor extends Actor {
+    def receive: Receive = {
+      case latch: CountDownLatch => latch.countDown()
+      case _                     =>
+    }
+  }
+
+  /**
+   * Hands every message it receives to the benchmark thread
+   */
+  class EchoActor(replies: SynchronousQueue[Any]) extends Actor {
+    def receive: Receive = {
+      case message => replies.put(message)
+    }
+  }
+
+  // one actor system for all threads in the forked JVM; daemonic, so that it does not keep the JVM running
+  lazy val system = ActorSystem("benchmarks", ConfigFactory.parseString("akka.daemonic = on"))
+
+  /**
+   * Holds the actors of one benchmark thread; the agent includes all user actors, unless the forked JVM
+   * sets ``excludeAllNotIncluded``
+   */
+  @State(Scope.Thread)
+  class ActorState {
+    var counting: ActorRef = _
+    var echo: ActorRef = _
+    val replies = new SynchronousQueue[Any]()
+
+    @Setup
+    def setUp(): Unit = {
+      UdpSink.start()
+      counting = system.actorOf(Props[CountingActor])
+      echo = system.actorOf(Props(classOf[EchoActor], replies))
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+      system.stop(counting)
+      system.stop(echo)
+    }
+  }
+}
+
+/**
+ * Measures the throughput and latency of the ``receive`` of the actors in the woven akka-actor. The
+ * subclasses run the same benchmarks in JVMs forked with the system properties that select the output
+ * (or that exclude all actors, for the unmonitored baseline). Run with ``-prof gc`` to see the allocation
+ * rate, and with ``-t`` to vary the number of threads.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+abstract class ReceiveBenchmark {
+  import ReceiveBenchmark._
+
+  /**
+   * Sends a batch of messages to an actor and waits until it receives them all
+   */
+  @Benchmark
+  @OperationsPerInvocation(Batch)
+  def tell(state: ActorState): Unit = {
+    val latch = new CountDownLatch(1)
+    var i = 1
+    while (i < Batch) {
+      state.counting ! Message
+      i += 1
+    }
+    state.counting ! latch
+    latch.await()
+  }
+
+  /**
+   * Sends a message to an actor and waits until it receives it
+   */
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SampleTime))
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  def roundTrip(state: ActorState): Any = {
+    state.echo ! Message
+    state.replies.take()
+  }
+
+}
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.akka.excludeAllNotIncluded=true",
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.NullCounterInterface"))
+class UnmonitoredReceiveBenchmark extends ReceiveBenchmark
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.NullCounterInterface"))
+class NullOutputReceiveBenchmark extends ReceiveBenchmark
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.statsd.StatsdCounterInterface"))
+class StatsdReceiveBenchmark extends ReceiveBenchmark
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.statsd.BufferedStatsdCounterInterface"))
+class BufferedStatsdReceiveBenchmark extends ReceiveBenchmark
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.codahalemetrics.MetricsCounterInterface"))
+class MetricsReceiveBenchmark extends ReceiveBenchmark
+
+@Fork(value = 1, jvmArgsAppend = Array(
+  "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.codahalemetrics.AkkaMetricsCounterInterface"))
+class AkkaMetricsReceiveBenchmark extends ReceiveBenchmark
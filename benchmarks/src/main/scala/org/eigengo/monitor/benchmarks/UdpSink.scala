@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.benchmarks
+
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Stands in for the statsd agent: receives and discards the datagrams sent to the ``remotePort``
+ * in the benchmarks' ``output.conf``, so that the statsd outputs do their real work without
+ * ICMP port unreachable errors, and without depending on an agent running on the machine.
+ */
+object UdpSink {
+  val port = 18125
+  val received = new AtomicLong(0)
+
+  private lazy val thread = {
+    val channel = DatagramChannel.open()
+    channel.bind(new InetSocketAddress("localhost", port))
+    val thread = new Thread(new Runnable {
+      def run(): Unit = {
+        val buffer = ByteBuffer.allocateDirect(65536)
+        while (true) {
+          buffer.clear()
+          channel.receive(buffer)
+          received.incrementAndGet()
+        }
+      }
+    }, "udp-sink")
+    thread.setDaemon(true)
+    thread.start()
+    thread
+  }
+
+  /**
+   * Starts receiving the datagrams, unless already started
+   */
+  def start(): Unit = thread
+
+}
@@ -17,9 +17,12 @@ package org.eigengo.monitor.example.akka
 
 import akka.actor.{ActorRef, Props, ActorSystem, Actor}
 import akka.routing.RoundRobinPool
+import org.eigengo.monitor.soak.{Load, LoadTarget, SoakRunner}
 
 // run with -javaagent:$HOME/.ivy2/cache/org.aspectj/aspectjweaver/jars/aspectjweaver-1.7.4.jar
 // in my case -javaagent:/Users/janmachacek/.ivy2/cache/org.aspectj/aspectjweaver/jars/aspectjweaver-1.7.4.jar
+// without arguments, reads the commands from the console; with ``load <rate> <seconds> <warmup>``, runs the load
+// headless; with ``soak [<rate> [<seconds> [<warmup> [<report>]]]]``, compares the load with and without the agent
 object Main extends App {
   val longSleep = 10
   val shortSleep = 1
@@ -46,23 +49,62 @@ object Main extends App {
     }
   }
 
-  val system = ActorSystem()
-  val bar = system.actorOf(Props[BarActor].withRouter(RoundRobinPool(nrOfInstances = 10)), "bar")
-  val foo = system.actorOf(Props(new FooActor(bar)), "foo")
-  val CountPattern = "(\\d+)".r
-
-  def commandLoop(): Unit = {
-    Console.readLine() match {
-      case "quit"          => return
-      case "go"            => (0 to 20).foreach(_ => foo ! 400)
-      case CountPattern(i) => foo ! (i.toInt * 10)
-      case _               => println("WTF?")
+  case class Request(intendedStart: Long)
+
+  class FrontActor(back: ActorRef) extends Actor {
+    def receive: Receive = {
+      case request: Request => back ! request
+    }
+  }
+
+  class BackActor(load: Load) extends Actor {
+    def receive: Receive = {
+      case Request(intendedStart) => load.completed(intendedStart)
+    }
+  }
+
+  /**
+   * The target of the headless load: every request goes through a pool of front actors to a pool of
+   * back actors, which complete it
+   */
+  class ActorLoadTarget(load: Load) extends LoadTarget {
+    val system = ActorSystem()
+    val back = system.actorOf(Props(new BackActor(load)).withRouter(RoundRobinPool(nrOfInstances = 4)), "back")
+    val front = system.actorOf(Props(new FrontActor(back)).withRouter(RoundRobinPool(nrOfInstances = 10)), "front")
+
+    def send(intendedStart: Long): Unit = front ! Request(intendedStart)
+
+    def shutdown(): Unit = {
+      system.shutdown()
+      system.awaitTermination()
+    }
+  }
+
+  def interactive(): Unit = {
+    val system = ActorSystem()
+    val bar = system.actorOf(Props[BarActor].withRouter(RoundRobinPool(nrOfInstances = 10)), "bar")
+    val foo = system.actorOf(Props(new FooActor(bar)), "foo")
+    val CountPattern = "(\\d+)".r
+
+    def commandLoop(): Unit = {
+      Console.readLine() match {
+        case "quit"          => return
+        case "go"            => (0 to 20).foreach(_ => foo ! 400)
+        case CountPattern(i) => foo ! (i.toInt * 10)
+        case _               => println("WTF?")
+      }
+
+      commandLoop()
     }
 
     commandLoop()
+    system.shutdown()
   }
 
-  commandLoop()
-  system.shutdown()
+  args.toList match {
+    case "load" :: arguments => Load.main(arguments)(new ActorLoadTarget(_))
+    case "soak" :: arguments => SoakRunner.main("org.eigengo.monitor.example.akka.Main", arguments, defaultRate = 20000)
+    case _                   => interactive()
+  }
 
 }
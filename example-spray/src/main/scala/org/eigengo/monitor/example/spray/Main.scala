@@ -15,8 +15,134 @@
  */
 package org.eigengo.monitor.example.spray
 
-// run with -javaagent:$HOME/.m2/repository/org/aspectj/aspectjweaver/1.7.3/aspectjweaver-1.7.3.jar
-// in my case -javaagent:/Users/janmachacek/.m2/repository/org/aspectj/aspectjweaver/1.7.3/aspectjweaver-1.7.3.jar
+import akka.actor.{Actor, ActorSystem, Props, Status}
+import akka.io.IO
+import akka.pattern.ask
+import akka.util.Timeout
+import com.typesafe.config.ConfigFactory
+import org.eigengo.monitor.soak.{Load, LoadTarget, SoakRunner}
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.util.Random
+import spray.can.Http
+import spray.http._
+import spray.http.HttpHeaders.RawHeader
+
+// run with -javaagent:$HOME/.ivy2/cache/org.aspectj/aspectjweaver/jars/aspectjweaver-1.7.3.jar
+// in my case -javaagent:/Users/janmachacek/.ivy2/cache/org.aspectj/aspectjweaver/jars/aspectjweaver-1.7.3.jar
+// without arguments, reads the commands from the console; with ``load <rate> <seconds> <warmup>``, runs the load
+// headless; with ``soak [<rate> [<seconds> [<warmup> [<report>]]]]``, compares the load with and without the agent
 object Main extends App {
+  val port = 8080
+  // the headless load's requests carry the time they were meant to be sent, which the responses echo
+  val StartHeader = "x-soak-start"
+
+  class ServiceActor extends Actor {
+    def receive: Receive = {
+      case _: Http.Connected =>
+        sender ! Http.Register(self)
+      case request: HttpRequest =>
+        val echo = request.headers.filter(_.is(StartHeader))
+        request.uri.path.toString match {
+          case p if p.startsWith("/api/users/") =>
+            sender ! HttpResponse(entity = "user", headers = echo)
+          case "/api/orders" =>
+            Thread.sleep(Random.nextInt(20))
+            sender ! HttpResponse(entity = "orders", headers = echo)
+          case _ =>
+            sender ! HttpResponse(StatusCodes.NotFound, headers = echo)
+        }
+    }
+  }
+
+  /**
+   * Generates the load: sends ``rate`` requests per second to the local service, using the
+   * spray-can's request-level client API
+   */
+  class LoadGeneratorActor(rate: Int) extends Actor {
+    import context.dispatcher
+    val paths = Vector("/api/users/1", "/api/users/42", "/api/orders", "/missing")
+    val tick = context.system.scheduler.schedule(0.millis, math.max(1, 1000 / rate).millis, self, "tick")
+
+    def receive: Receive = {
+      case "tick" =>
+        IO(Http)(context.system) ! HttpRequest(uri = Uri(s"http://localhost:$port${paths(Random.nextInt(paths.size))}"))
+      case _: HttpResponse =>
+      case _: Status.Failure =>
+    }
+
+    override def postStop(): Unit = tick.cancel()
+  }
+
+  /**
+   * Completes the headless load's requests from the echoed ``StartHeader``
+   */
+  class LoadClientActor(load: Load) extends Actor {
+    def receive: Receive = {
+      case response: HttpResponse =>
+        response.headers.find(_.is(StartHeader)) match {
+          case Some(header) => load.completed(header.value.toLong)
+          case None         => load.failed()
+        }
+      case _: Status.Failure =>
+        load.failed()
+    }
+  }
+
+  /**
+   * The target of the headless load: sends the requests to the service on an ephemeral port, using the
+   * spray-can's request-level client API. The ``/api/orders`` requests are left out; their random sleep
+   * would drown the agent's overhead.
+   */
+  class HttpLoadTarget(load: Load) extends LoadTarget {
+    implicit val system = ActorSystem("load", ConfigFactory.parseString("spray.can.host-connector.max-connections = 32").
+      withFallback(ConfigFactory.load()))
+    implicit val timeout = Timeout(10.seconds)
+    val service = system.actorOf(Props(new ServiceActor), "service")
+    val bound = Await.result(IO(Http) ? Http.Bind(service, interface = "localhost", port = 0), timeout.duration).
+      asInstanceOf[Http.Bound]
+    val uris = Vector("/api/users/1", "/api/users/42", "/missing").map(path => Uri(s"http://localhost:${bound.localAddress.getPort}$path"))
+    val client = system.actorOf(Props(new LoadClientActor(load)), "client")
+    val http = IO(Http)
+    var sent = 0
+
+    def send(intendedStart: Long): Unit = {
+      // only the driver's thread sends
+      sent += 1
+      http.tell(HttpRequest(uri = uris(sent % uris.size), headers = List(RawHeader(StartHeader, intendedStart.toString))), client)
+    }
+
+    def shutdown(): Unit = {
+      system.shutdown()
+      system.awaitTermination()
+    }
+  }
+
+  def interactive(): Unit = {
+    implicit val system = ActorSystem()
+    val service = system.actorOf(Props(new ServiceActor), "service")
+    IO(Http) ! Http.Bind(service, interface = "localhost", port = port)
+    val RatePattern = "(\\d+)".r
+
+    def commandLoop(): Unit = {
+      Console.readLine() match {
+        case "quit"         => return
+        case "go"           => system.actorOf(Props(new LoadGeneratorActor(100)))
+        case RatePattern(r) => system.actorOf(Props(new LoadGeneratorActor(r.toInt)))
+        case _              => println("WTF?")
+      }
+
+      commandLoop()
+    }
+
+    commandLoop()
+    system.shutdown()
+  }
+
+  args.toList match {
+    case "load" :: arguments => Load.main(arguments)(new HttpLoadTarget(_))
+    case "soak" :: arguments => SoakRunner.main("org.eigengo.monitor.example.spray.Main", arguments, defaultRate = 2000)
+    case _                   => interactive()
+  }
 
 }
@@ -15,44 +15,63 @@
  */
 package org.eigengo.monitor.output.codahalemetrics
 
-import akka.actor.{ActorRef, ActorSystem, Props}
-import org.eigengo.monitor.output.{OutputConfigurationFactory, CounterInterface}
+import org.eigengo.monitor.output._
+import com.codahale.metrics.MetricRegistry
+import java.util.concurrent.TimeUnit
 
 /**
- * CounterInterface implementation that uses an Akka actor to handle the Codahale Metrics updates. Note that it starts its own
- * ``ActorSystem``, which allows you to further configure it.
+ * CounterInterface implementation that handles the Codahale Metrics updates on a single background thread. The
+ * monitored threads only publish the values into a bounded ring buffer, which the background thread drains into
+ * the registry; when the buffer is full, the values are dropped or the monitored threads wait, depending on the
+ * ``bufferFullPolicy``. The bound handles resolve their metrics when they are bound; the background thread then
+ * updates the resolved metrics directly.
+ *
+ * The name is kept for the existing configurations; the values used to be handled by an actor in a separate
+ * ``ActorSystem``, which could not reliably start while the monitored ``ActorSystem`` was initialising.
+ *
+ * @param configuration the output configuration
  */
-class AkkaMetricsCounterInterface extends CounterInterface {
+class AkkaMetricsCounterInterface(val configuration: OutputConfiguration[MetricsOutputConfiguration])
+  extends RingBufferCounterInterface("monitor-codahalemetrics",
+    configuration.outputConfig.buffer.capacity, configuration.outputConfig.buffer.policy,
+    configuration.outputConfig.refresh, TimeUnit.SECONDS) with MetricsHandler {
+
+  /**
+   * Constructs this instance by loading the ``codahalemetrics`` output configuration
+   */
+  def this() = this(OutputConfigurationFactory.getAgentCofiguration("codahalemetrics")(MetricsOutputConfiguration.apply))
 
-  val configuration = OutputConfigurationFactory.getAgentCofiguration("codahalemetrics")(MetricsOutputConfiguration.apply)
   val outputConfiguration = configuration.outputConfig
 
-  import MetricsActor._
-
-  // These are all lazy instantiation due to issues initializing them at the same time of this class construction.
-  // TODO: This still has an issue that is the same in the ``AkkaIOStatsdCounterInterface`` where this class is loaded
-  // on initialization of the running application's actor system. When the 'metrics' system is loaded we run into issues
-  // with threading.
-  lazy val system = ActorSystem("metrics")
-  lazy val metrics: ActorRef = {
-    system.actorOf(Props(classOf[MetricsActor],
-      RegistryFactory.getRegistryProvider(outputConfiguration.registryClass),
-      NameMarshallerFactory.getNameMarshaller(outputConfiguration.namingClass, outputConfiguration.prefix)))
-  }
-  import scala.concurrent.ExecutionContext.Implicits.global
-  def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit =
-    metrics ! ExecutionTime(aspect, duration, tags)
+  // Set the registry
+  val provider = RegistryFactory.getRegistryProvider(outputConfiguration.registryClass)
+  def registry: MetricRegistry = provider.registry
 
-  def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit =
-    metrics ! Gauge(aspect, value, tags)
+  // Set the naming marshaller
+  val marshaller: NameMarshaller = NameMarshallerFactory.getNameMarshaller(outputConfiguration.namingClass, outputConfiguration.prefix)
 
-  def decrementCounter(aspect: String, tags: String*): Unit =
-    metrics ! Counter(aspect, -1, tags)
+  override def reservoirWindow: Int = outputConfiguration.reservoirWindow
 
-  def incrementCounter(aspect: String, delta: Int, tags: String*): Unit =
-    metrics ! Counter(aspect, delta, tags)
+  start()
 
-  def incrementCounter(aspect: String, tags: String*): Unit =
-    metrics ! Counter(aspect, 1, tags)
+  protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit = kind match {
+    case EventRingBuffer.COUNTER              => updateCounter(aspect, value.toInt, tags)
+    case EventRingBuffer.GAUGE                => updateGaugeValue(aspect, value.toInt, tags)
+    case EventRingBuffer.EXECUTION_TIME       => updateExecutionTime(aspect, value.toInt, tags)
+    case EventRingBuffer.EXECUTION_TIME_NANOS => updateExecutionTimeNanos(aspect, value, tags)
+  }
+
+  override protected def encode(kind: Int, aspect: String, tags: Array[String]): AnyRef = kind match {
+    case EventRingBuffer.COUNTER              => counterHandle(aspect, tags)
+    case EventRingBuffer.GAUGE                => gaugeHandle(aspect, tags)
+    case EventRingBuffer.EXECUTION_TIME       => executionTimeHandle(aspect, tags)
+    case EventRingBuffer.EXECUTION_TIME_NANOS => executionTimeNanosHandle(aspect, tags)
+  }
+
+  override protected def onEncodedEvent(kind: Int, aspect: String, value: Long, tags: Array[String], encoded: AnyRef): Unit = kind match {
+    case EventRingBuffer.COUNTER => encoded.asInstanceOf[CounterHandle].increment(value)
+    case EventRingBuffer.GAUGE   => encoded.asInstanceOf[GaugeHandle].set(value)
+    case _                       => encoded.asInstanceOf[TimerHandle].record(value)
+  }
 
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.codahalemetrics
+
+import com.codahale.metrics.{Snapshot, Reservoir}
+import org.eigengo.monitor.output.{HistogramSnapshot, LogLinearHistogram}
+import java.io.{PrintWriter, OutputStreamWriter, OutputStream}
+import java.util.concurrent.TimeUnit
+
+/**
+ * Codahale ``Reservoir`` backed by the lock-free ``LogLinearHistogram``. Unlike the default
+ * ``ExponentiallyDecayingReservoir``, it does not allocate when recording a value, and it keeps all
+ * values (with bounded relative error) rather than a sample.
+ *
+ * Like the ``ExponentiallyDecayingReservoir``, it reports the recent values: the snapshots contain the values
+ * recorded in the last complete window of ``window`` nanoseconds, so that a latency spike is not lost among the
+ * values since the start. The first snapshot after the end of a window starts the next one; all snapshots
+ * taken within the same window (by several reporters, for example) contain the same values. If there are no
+ * snapshots for longer than a window, the completed window contains all values since it started. Until the
+ * first window completes, the snapshots contain the values recorded so far.
+ *
+ * @param stripes the number of stripes in the histogram
+ * @param window the length of the window in nanoseconds
+ * @param clock the source of the time in nanoseconds
+ */
+class LogLinearReservoir(stripes: Int, window: Long, clock: () => Long) extends Reservoir {
+  private val histogram = new LogLinearHistogram(stripes)
+  @volatile private var windowEnd = clock() + window
+  @volatile private var completed: HistogramSnapshot = null
+
+  def this(windowSeconds: Int) =
+    this(Runtime.getRuntime.availableProcessors(), TimeUnit.SECONDS.toNanos(windowSeconds), () => System.nanoTime())
+
+  def this() = this(LogLinearReservoir.DefaultWindow)
+
+  private def snapshot(): HistogramSnapshot = {
+    if (clock() - windowEnd >= 0) synchronized {
+      val now = clock()
+      if (now - windowEnd >= 0) {
+        completed = histogram.snapshotAndReset()
+        windowEnd = now + window
+      }
+    }
+    val last = completed
+    if (last != null) last else histogram.snapshot()
+  }
+
+  override def size(): Int = math.min(Int.MaxValue, snapshot().getCount).toInt
+
+  override def update(value: Long): Unit = histogram.record(value)
+
+  override def getSnapshot: Snapshot = new LogLinearSnapshot(snapshot())
+}
+
+object LogLinearReservoir {
+
+  /**
+   * The default length of the window in seconds
+   */
+  val DefaultWindow = 60
+
+}
+
+/**
+ * Exposes the ``HistogramSnapshot`` as Codahale ``Snapshot``
+ *
+ * @param snapshot the histogram snapshot
+ */
+class LogLinearSnapshot(snapshot: HistogramSnapshot) extends Snapshot(Array.emptyLongArray) {
+
+  override def getValue(quantile: Double): Double = snapshot.getValueAtQuantile(quantile).toDouble
+
+  override def size(): Int = math.min(Int.MaxValue, snapshot.getCount).toInt
+
+  override def getMax: Long = snapshot.getMax
+
+  override def getMin: Long = snapshot.getMin
+
+  override def getMean: Double = snapshot.getMean
+
+  override def getStdDev: Double = snapshot.getStdDev
+
+  // the histogram does not keep the individual values
+  override def getValues: Array[Long] = Array.emptyLongArray
+
+  override def dump(output: OutputStream): Unit = {
+    val out = new PrintWriter(new OutputStreamWriter(output, "UTF-8"))
+    try {
+      out.printf("count=%d, min=%d, max=%d%n", Long.box(snapshot.getCount), Long.box(snapshot.getMin), Long.box(snapshot.getMax))
+    } finally {
+      out.close()
+    }
+  }
+}
@@ -15,13 +15,13 @@
  */
 package org.eigengo.monitor.output.codahalemetrics
 
-import org.eigengo.monitor.output.{OutputConfigurationFactory, CounterInterface}
+import org.eigengo.monitor.output._
 import com.codahale.metrics.MetricRegistry
 
 /**
 * CounterInterface implementation that uses a metrics registry to register the Codahale Metrics updates.
 */
-class MetricsCounterInterface extends CounterInterface with MetricsHandler {
+class MetricsCounterInterface extends BindingCounterInterface with MetricsHandler {
 
   val configuration = OutputConfigurationFactory.getAgentCofiguration("codahalemetrics")(MetricsOutputConfiguration.apply)
   val outputConfiguration = configuration.outputConfig
@@ -31,11 +31,16 @@ class MetricsCounterInterface extends CounterInterface with MetricsHandler {
   def registry: MetricRegistry = provider.registry
 
   // Set the naming marshaller
-  def marshaller: NameMarshaller = NameMarshallerFactory.getNameMarshaller(outputConfiguration.namingClass, outputConfiguration.prefix)
+  val marshaller: NameMarshaller = NameMarshallerFactory.getNameMarshaller(outputConfiguration.namingClass, outputConfiguration.prefix)
+
+  override def reservoirWindow: Int = outputConfiguration.reservoirWindow
 
   override def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit =
     updateExecutionTime(aspect, duration, tags)
 
+  override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit =
+    updateExecutionTimeNanos(aspect, duration, tags)
+
   override def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit =
     updateGaugeValue(aspect, value, tags)
 
@@ -48,5 +53,17 @@ class MetricsCounterInterface extends CounterInterface with MetricsHandler {
   override def incrementCounter(aspect: String, tags: String*): Unit =
     updateCounter(aspect, 1, tags)
 
+  override def bindCounter(aspect: String, tags: String*): CounterHandle =
+    counterHandle(aspect, tags)
+
+  override def bindGauge(aspect: String, tags: String*): GaugeHandle =
+    gaugeHandle(aspect, tags)
+
+  override def bindExecutionTime(aspect: String, tags: String*): TimerHandle =
+    executionTimeHandle(aspect, tags)
+
+  override def bindExecutionTimeNanos(aspect: String, tags: String*): TimerHandle =
+    executionTimeNanosHandle(aspect, tags)
+
 }
 
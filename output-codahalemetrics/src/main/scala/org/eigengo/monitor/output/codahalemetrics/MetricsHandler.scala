@@ -15,19 +15,63 @@
  */
 package org.eigengo.monitor.output.codahalemetrics
 
-import com.codahale.metrics.{Metric, MetricFilter}
-import scala.collection.JavaConversions._
-import java.util.concurrent.TimeUnit
-import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.{Counter, Metric, MetricRegistry, Timer}
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import org.eigengo.monitor.output._
+import scala.collection.mutable.WrappedArray
 
 /**
- * Submits the counters to the local Codahale metrics interface
+ * Submits the counters to the local Codahale metrics interface.
+ *
+ * The handler keeps an index of the metrics it has resolved, keyed by the aspect and the tags. The name is
+ * marshalled and the metric is looked up in (or registered with) the ``registry`` only the first time the handler
+ * sees the aspect and tags; every subsequent update is a single hash lookup, regardless of the number of
+ * registered metrics. The metrics that are removed from the ``registry`` by someone else keep receiving the
+ * updates, but are not registered again. The handles resolve the metric once, when they are bound, and then
+ * update it directly.
  */
 trait MetricsHandler {
+  import MetricsHandler._
 
   def registry: MetricRegistry
   def marshaller: NameMarshaller
 
+  /**
+   * The window of the ``LogLinearReservoir``s of the execution times in nanoseconds, in seconds
+   */
+  def reservoirWindow: Int = LogLinearReservoir.DefaultWindow
+
+  private[this] val metrics = new ConcurrentHashMap[MetricKey, Metric]()
+  private[this] val probes = new ThreadLocal[MetricKey] {
+    override def initialValue(): MetricKey = new MetricKey()
+  }
+
+  /**
+   * Finds the metric for the given ``aspect`` and ``tags`` in the index, or resolves it using ``register``
+   * and the marshalled name.
+   *
+   * @param aspect the aspect
+   * @param tags the tags
+   * @param register registers the metric with the given name in the ``registry``
+   * @return the metric
+   */
+  private def metric(aspect: String, tags: Seq[String])(register: String => Metric): Metric = {
+    val tagArray = toArray(tags)
+    val metric = metrics.get(probes.get().set(aspect, tagArray))
+    if (metric != null) metric
+    else {
+      val name = marshaller.buildName(aspect, tags)
+      val registered = try {
+        register(name)
+      } catch {
+        // registered by another thread or another handler in the meantime
+        case e: IllegalArgumentException => Option(registry.getMetrics.get(name)).getOrElse(register(name))
+      }
+      val existing = metrics.putIfAbsent(new MetricKey(aspect, tagArray.clone()), registered)
+      if (existing != null) existing else registered
+    }
+  }
+
   /**
    * Increment the counter identified by {@code aspect} by one.
    *
@@ -35,8 +79,11 @@ trait MetricsHandler {
    * @param delta the amount to adjust by
    * @param tags optional tags
    */
-  def updateCounter(aspect: String, delta: Int, tags: Seq[String]): Unit = {
-    registry.counter(marshaller.buildName(aspect, tags)).inc(delta)
+  def updateCounter(aspect: String, delta: Long, tags: Seq[String]): Unit = {
+    metric(aspect, tags)(registry.counter) match {
+      case counter: Counter => counter.inc(delta)
+      case _                =>
+    }
   }
 
   /**
@@ -47,19 +94,11 @@ trait MetricsHandler {
    * @param tags optional tags
    */
   def updateGaugeValue(aspect: String, value: Int, tags: Seq[String]): Unit =  {
-    val name = marshaller.buildName(aspect, tags)
-
-    // See if this is already registered
-    registry.getGauges(new MetricFilter { def matches(regName:String, metric:Metric): Boolean =
-      regName.equals(name)}).values.headOption match {
-        case Some(m) =>
-          m.asInstanceOf[UpdatableGauge[Int]].setValue(value)
-        case None =>
-          // Not registered so do so now
-          val gauge = new UpdatableGauge[Int]()
-          gauge.setValue(value)
-          registry.register(name, gauge)
-      }
+    metric(aspect, tags)(registry.register(_, new IntGauge)) match {
+      case gauge: IntGauge                       => gauge.setValue(value)
+      case gauge: UpdatableGauge[Int @unchecked] => gauge.setValue(value)
+      case _                                     =>
+    }
   }
 
   /**
@@ -70,6 +109,113 @@ trait MetricsHandler {
    * @param tags optional tags
    */
   def updateExecutionTime(aspect: String, duration: Int, tags: Seq[String]): Unit = {
-    registry.timer(marshaller.buildName(aspect, tags)).update(duration, TimeUnit.MILLISECONDS)
+    metric(aspect, tags)(registry.timer) match {
+      case timer: Timer => timer.update(duration, TimeUnit.MILLISECONDS)
+      case _            =>
+    }
+  }
+
+  /**
+   * Records the execution time of the given {@code aspect} in nanoseconds, with optional {@code tags}. The
+   * ``Timer`` uses the ``LogLinearReservoir``, which keeps the sub-millisecond resolution, and reports the values
+   * of the last ``reservoirWindow``.
+   *
+   * @param aspect the aspect to record the execution time for
+   * @param duration the execution time in nanoseconds
+   * @param tags optional tags
+   */
+  def updateExecutionTimeNanos(aspect: String, duration: Long, tags: Seq[String]): Unit = {
+    metric(aspect, tags)(registry.register(_, new Timer(new LogLinearReservoir(reservoirWindow)))) match {
+      case timer: Timer => timer.update(duration, TimeUnit.NANOSECONDS)
+      case _            =>
+    }
+  }
+
+  /**
+   * Binds the handle that updates the counter for the given ``aspect`` and ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags
+   * @return the handle
+   */
+  def counterHandle(aspect: String, tags: Seq[String]): CounterHandle = {
+    metric(aspect, tags)(registry.counter) match {
+      case counter: Counter => new CounterHandle {
+        def increment(delta: Long): Unit = counter.inc(delta)
+      }
+      case _                => NoopHandle
+    }
+  }
+
+  /**
+   * Binds the handle that updates the gauge for the given ``aspect`` and ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags
+   * @return the handle
+   */
+  def gaugeHandle(aspect: String, tags: Seq[String]): GaugeHandle = {
+    metric(aspect, tags)(registry.register(_, new IntGauge)) match {
+      case gauge: IntGauge                       => new GaugeHandle {
+        def set(value: Long): Unit = gauge.setValue(CounterHandles.clamp(value))
+      }
+      case gauge: UpdatableGauge[Int @unchecked] => new GaugeHandle {
+        def set(value: Long): Unit = gauge.setValue(CounterHandles.clamp(value))
+      }
+      case _                                     => NoopHandle
+    }
+  }
+
+  /**
+   * Binds the handle that updates the execution time (most likely in ms) for the given ``aspect`` and ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags
+   * @return the handle
+   */
+  def executionTimeHandle(aspect: String, tags: Seq[String]): TimerHandle =
+    timerHandle(metric(aspect, tags)(registry.timer), TimeUnit.MILLISECONDS)
+
+  /**
+   * Binds the handle that updates the execution time in nanoseconds for the given ``aspect`` and ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags
+   * @return the handle
+   */
+  def executionTimeNanosHandle(aspect: String, tags: Seq[String]): TimerHandle =
+    timerHandle(metric(aspect, tags)(registry.register(_, new Timer(new LogLinearReservoir(reservoirWindow)))), TimeUnit.NANOSECONDS)
+
+  private def timerHandle(metric: Metric, unit: TimeUnit): TimerHandle = metric match {
+    case timer: Timer => new TimerHandle {
+      def record(duration: Long): Unit = timer.update(duration, unit)
+    }
+    case _            => NoopHandle
+  }
+
+}
+
+private[codahalemetrics] object MetricsHandler {
+  private val NoTags = Array.empty[String]
+
+  /**
+   * The handle of the metrics that are registered with an unexpected type
+   */
+  object NoopHandle extends CounterHandle with GaugeHandle with TimerHandle {
+    def increment(delta: Long): Unit = ()
+    def set(value: Long): Unit = ()
+    def record(duration: Long): Unit = ()
+  }
+
+  /**
+   * Returns the array that backs the varargs ``tags``, or copies the ``tags`` into a new array
+   *
+   * @param tags the tags
+   * @return the tags array, which must not be modified
+   */
+  def toArray(tags: Seq[String]): Array[String] = tags match {
+    case tags: WrappedArray[String @unchecked] => tags.array
+    case Nil                                   => NoTags
+    case _                                     => tags.toArray
   }
 }
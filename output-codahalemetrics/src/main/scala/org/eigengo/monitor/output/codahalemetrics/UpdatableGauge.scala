@@ -23,7 +23,7 @@ import com.codahale.metrics.Gauge
  */
 class UpdatableGauge[T] extends Gauge[T] {
 
-  var value: T = _
+  @volatile var value: T = _
 
   /**
    * Set the value
@@ -40,3 +40,26 @@ class UpdatableGauge[T] extends Gauge[T] {
    */
   override def getValue: T = value
 }
+
+/**
+ * A 'push' style gauge of a primitive ``Int``; the handlers update it without boxing the value
+ */
+class IntGauge extends Gauge[Int] {
+
+  @volatile private var value: Int = 0
+
+  /**
+   * Set the value
+   * @param newValue the new value
+   */
+  def setValue(newValue: Int): Unit = {
+    value = newValue
+  }
+
+  /**
+   * Returns the metric's current value.
+   *
+   * @return the metric's current value
+   */
+  override def getValue: Int = value
+}
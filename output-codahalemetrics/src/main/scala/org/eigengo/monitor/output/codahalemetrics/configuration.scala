@@ -16,6 +16,7 @@
 package org.eigengo.monitor.output.codahalemetrics
 
 import com.typesafe.config.Config
+import org.eigengo.monitor.output.RingBufferConfiguration
 
 /**
  * Holds the configuration for the Codahale Metrics output.
@@ -24,11 +25,15 @@ import com.typesafe.config.Config
  * @param namingClass the class to use to generate naming of statistics
  * @param refresh how often (in seconds) should the agent report the number of actors
  * @param prefix the prefix to apply to all values sent to metrics
+ * @param buffer the configuration of the ``AkkaMetricsCounterInterface``'s ring buffer
+ * @param reservoirWindow the window of the execution times' percentiles in seconds
  */
 case class MetricsOutputConfiguration(registryClass: String,
                                       namingClass: String,
                                       refresh: Int,
-                                      prefix: String)
+                                      prefix: String,
+                                      buffer: RingBufferConfiguration,
+                                      reservoirWindow: Int = LogLinearReservoir.DefaultWindow)
 
 /**
  * Companion object that makes instances of ``MetricsOutputConfiguration`` from the
@@ -42,10 +47,12 @@ object MetricsOutputConfiguration {
     val namingClass = config.getString("naming-class")
     val prefix = config.getString("prefix")
     val refresh = config.getInt("refresh")
+    val reservoirWindow = if (config.hasPath("reservoirWindow")) config.getInt("reservoirWindow") else LogLinearReservoir.DefaultWindow
 
     require(prefix.isEmpty || prefix.endsWith("."), "Prefix must be empty or end with '.'")
+    require(reservoirWindow > 0, "reservoirWindow must be positive")
 
-    MetricsOutputConfiguration(registryClass, namingClass, refresh, prefix)
+    MetricsOutputConfiguration(registryClass, namingClass, refresh, prefix, RingBufferConfiguration(config), reservoirWindow)
   }
 
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.codahalemetrics
+
+import org.specs2.mutable.Specification
+
+class LogLinearReservoirSpec extends Specification {
+
+  "The log-linear reservoir" should {
+
+    "report the values of the last complete window" in {
+      var now = 0L
+      val reservoir = new LogLinearReservoir(2, 1000, () => now)
+      reservoir.update(100000)
+      reservoir.getSnapshot.getMax mustEqual 100000
+
+      // the first window completes with the spike
+      now = 1000
+      reservoir.getSnapshot.getMax mustEqual 100000
+      reservoir.getSnapshot.size mustEqual 1
+      reservoir.update(10)
+      reservoir.update(20)
+
+      // the spike leaves with the next window, which all snapshots within the window see
+      now = 2500
+      reservoir.getSnapshot.getMax mustEqual 20
+      reservoir.getSnapshot.size mustEqual 2
+      now = 3000
+      reservoir.getSnapshot.getMax mustEqual 20
+    }
+  }
+
+}
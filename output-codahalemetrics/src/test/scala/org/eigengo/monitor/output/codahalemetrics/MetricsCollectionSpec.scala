@@ -86,6 +86,19 @@ class MetricsCollectionSpec extends Specification {
       metrics.size mustEqual 1
       metrics.head._2.getCount must be equalTo 5000
     }
+
+    "record the sub-millisecond execution times" in {
+
+      val count = 1000
+      timed(count)(aio.recordExecutionTimeNanos("akka.actor.latency", 250000L, "akka.path:/server/user/myactor"))
+      // wait for all messages
+      Thread.sleep(500)
+
+      val timer = registry.getTimers.get("server.user.myactor.latency")
+      timer.getCount must be equalTo count
+      timer.getSnapshot.getMax must be equalTo 250000L
+      timer.getSnapshot.getMedian must beCloseTo(250000.0, 250000.0 * 0.04)
+    }
   }
 
 }
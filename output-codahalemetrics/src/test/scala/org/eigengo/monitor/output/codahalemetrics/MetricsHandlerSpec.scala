@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.codahalemetrics
+
+import com.codahale.metrics.MetricRegistry
+import org.specs2.mutable.Specification
+
+/**
+ * Checks that the handler registers every metric once, and updates the right metrics. The cost of the updates
+ * with many registered metrics is measured by the ``MetricsHandlerBenchmark``.
+ */
+class MetricsHandlerSpec extends Specification {
+
+  sequential
+
+  class TestMetricsHandler extends MetricsHandler {
+    val registry = new MetricRegistry
+    val marshaller = new DefaultNameMarshaller("")
+  }
+
+  def tags(i: Int): Array[String] = Array(s"akka.path:/server/user/actor$i")
+
+  "The metrics handler" should {
+
+    "register every aspect and tags once" in {
+      val handler = new TestMetricsHandler
+      for (i <- 0 until 10; j <- 0 until 100) handler.updateGaugeValue("akka.actor.queue.size", i, tags(j))
+      for (i <- 0 until 10) handler.updateCounter("akka.actor.delivered", 1, tags(0))
+
+      handler.registry.getGauges.size must be equalTo 100
+      handler.registry.getGauges.get("server.user.actor42.queue.size").getValue must be equalTo 9
+      handler.registry.getCounters.get("server.user.actor0.delivered").getCount must be equalTo 10
+    }
+
+    "update the same metrics through the bound handles" in {
+      val handler = new TestMetricsHandler
+      val counter = handler.counterHandle("akka.actor.delivered", tags(0))
+      counter.increment(2)
+      handler.updateCounter("akka.actor.delivered", 1, tags(0))
+      handler.gaugeHandle("akka.actor.queue.size", tags(1)).set(42)
+      handler.executionTimeNanosHandle("akka.actor.duration", tags(0)).record(1000)
+
+      handler.registry.getCounters.get("server.user.actor0.delivered").getCount must be equalTo 3
+      handler.registry.getGauges.get("server.user.actor1.queue.size").getValue must be equalTo 42
+      handler.registry.getTimers.get("server.user.actor0.duration").getCount must be equalTo 1
+    }
+
+    "update the right gauges with 10k+ registered metrics" in {
+      val metrics = 20000
+      val handler = new TestMetricsHandler
+      val allTags = (0 until metrics).map(tags).toArray
+
+      for (i <- 0 until metrics) handler.updateGaugeValue("akka.actor.queue.size", i, allTags(i))
+      for (i <- 0 until metrics by 7) handler.updateGaugeValue("akka.actor.queue.size", -i, allTags(i))
+
+      handler.registry.getGauges.size must be equalTo metrics
+      handler.registry.getGauges.get("server.user.actor19999.queue.size").getValue must be equalTo -19999
+      handler.registry.getGauges.get("server.user.actor19998.queue.size").getValue must be equalTo 19998
+    }
+  }
+
+}
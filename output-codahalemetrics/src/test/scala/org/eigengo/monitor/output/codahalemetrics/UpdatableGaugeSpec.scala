@@ -45,5 +45,16 @@ class UpdatableGaugeSpec extends Specification {
       // Need to pull out as an Int type of Gauge since gauges can be applied to different types
       found.head._2.asInstanceOf[Gauge[Int]].getValue must be equalTo 5
     }
+
+    "be updated without boxing as an IntGauge" in {
+      val gauge = new IntGauge
+      gauge.setValue(5)
+
+      val registry = new MetricRegistry()
+      registry.register("test-gauge", gauge)
+      gauge.setValue(7)
+
+      registry.getGauges.get("test-gauge").getValue must be equalTo 7
+    }
   }
 }
@@ -55,4 +55,9 @@ public class DtraceCounterInterface implements CounterInterface {
     public void recordExecutionTime(String aspect, int duration, String... tags) {
         provider.executionTime(aspect, aspect.length(), duration);
     }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        provider.executionTimeNanos(aspect, aspect.length(), duration);
+    }
 }
\ No newline at end of file
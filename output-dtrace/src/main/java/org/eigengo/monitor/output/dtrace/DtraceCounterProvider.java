@@ -25,6 +25,10 @@ public interface DtraceCounterProvider extends com.sun.tracing.Provider {
     @ProbeName("execution-time")
     void executionTime(String name, int length, int duration);
 
+    @FunctionName("Receive execution time in nanoseconds")
+    @ProbeName("execution-time-ns")
+    void executionTimeNanos(String name, int length, long duration);
+
     @FunctionName("All counters")
     @ProbeName("all-counters")
     void counter(String name, int length, int delta);
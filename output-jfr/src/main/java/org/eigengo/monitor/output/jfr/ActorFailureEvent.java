@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An exception thrown from the receive of an actor
+ */
+@Name("org.eigengo.monitor.ActorFailure")
+@Label("Actor Failure")
+@Description("An exception thrown from the receive of an actor")
+@Category({"Monitor", "Akka"})
+public final class ActorFailureEvent extends jdk.jfr.Event {
+    @Label("Actor Path")
+    String actorPath;
+    @Label("Actor Type")
+    String actorType;
+    @Label("Actor System")
+    String actorSystem;
+    @Label("Failure Type")
+    String failureType;
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.jfr;
+
+import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.OutputConfigurationFactory;
+
+/**
+ * Turns the values that the agents record into JDK Flight Recorder events, which makes it possible to trace
+ * the actors on demand, for example with {@code jcmd <pid> JFR.start}, and to pay only for a check of whether
+ * the event is enabled when no recording is running. The aspects that the Akka agent records become:
+ *
+ * <ul>
+ *     <li>{@code akka.actor.duration}: an {@link ActorReceiveEvent}, but only if the receive took at least
+ *         the configured {@code receiveThreshold}</li>
+ *     <li>{@code akka.actor.error.<Type>}: an {@link ActorFailureEvent}</li>
+ *     <li>{@code akka.actor.undelivered.<Type>}: an {@link UnhandledMessageEvent}</li>
+ *     <li>{@code akka.pool.*}: a {@link DispatcherEvent}</li>
+ *     <li>any other aspect: a {@link MetricEvent}</li>
+ * </ul>
+ *
+ * The {@code akka.actor.error} and {@code akka.actor.undelivered} counters without the type only duplicate
+ * the typed ones, and do not become events. The fields of the events come from the {@code akka.path},
+ * {@code akka.type}, {@code akka.system} and {@code akka.dispatcher} tags; the tags are only looked at when
+ * the event is enabled.
+ *
+ * Use it by setting the {@code output.class} in the agent configuration to this class; the threshold is
+ * configured in the {@code output.conf}, in the {@code org.eigengo.monitor.output.jfr} key. The events need
+ * a JVM with the {@code jdk.jfr} API: JDK 11 or later, or JDK 8u262 or later.
+ */
+public class JfrCounterInterface implements CounterInterface {
+    private static final String ACTOR_DURATION = "akka.actor.duration";
+    private static final String ACTOR_ERROR = "akka.actor.error";
+    private static final String UNDELIVERED = "akka.actor.undelivered";
+    private static final String POOL = "akka.pool.";
+
+    private static final String PATH_TAG = "akka.path:";
+    private static final String TYPE_TAG = "akka.type:";
+    private static final String SYSTEM_TAG = "akka.system:";
+    private static final String DISPATCHER_TAG = "akka.dispatcher:";
+
+    private final long receiveThreshold;
+
+    /**
+     * Constructs this instance by loading the {@code output.conf} configuration, and then looking
+     * for the {@code org.eigengo.monitor.output.jfr} key.
+     */
+    public JfrCounterInterface() {
+        this(OutputConfigurationFactory.getAgentCofiguration("jfr", JfrOutputConfigurationJapi.apply()).outputConfig().receiveThreshold());
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param receiveThreshold the minimum duration of the receives that become events, in microseconds
+     */
+    public JfrCounterInterface(long receiveThreshold) {
+        this.receiveThreshold = receiveThreshold * 1000;
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        incrementCounter(aspect, 1, tags);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        if (aspect.startsWith(ACTOR_ERROR)) {
+            if (aspect.length() > ACTOR_ERROR.length()) actorFailure(aspect.substring(ACTOR_ERROR.length() + 1), tags);
+        } else if (aspect.startsWith(UNDELIVERED)) {
+            if (aspect.length() > UNDELIVERED.length()) unhandledMessage(aspect.substring(UNDELIVERED.length() + 1), tags);
+        } else if (aspect.startsWith(POOL)) {
+            dispatcher(aspect, delta, tags);
+        } else {
+            metric("counter", aspect, delta, tags);
+        }
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        metric("counter", aspect, -1, tags);
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        if (aspect.startsWith(POOL)) dispatcher(aspect, value, tags);
+        else metric("gauge", aspect, value, tags);
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        metric("time", aspect, duration, tags);
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        if (ACTOR_DURATION.equals(aspect)) {
+            if (duration < this.receiveThreshold) return;
+            final ActorReceiveEvent event = new ActorReceiveEvent();
+            if (!event.isEnabled()) return;
+
+            event.actorPath = tag(PATH_TAG, tags);
+            event.actorType = tag(TYPE_TAG, tags);
+            event.actorSystem = tag(SYSTEM_TAG, tags);
+            event.receiveDuration = duration;
+            event.commit();
+        } else {
+            metric("nanos", aspect, duration, tags);
+        }
+    }
+
+    private static void actorFailure(String failureType, String[] tags) {
+        final ActorFailureEvent event = new ActorFailureEvent();
+        if (!event.isEnabled()) return;
+
+        event.actorPath = tag(PATH_TAG, tags);
+        event.actorType = tag(TYPE_TAG, tags);
+        event.actorSystem = tag(SYSTEM_TAG, tags);
+        event.failureType = failureType;
+        event.commit();
+    }
+
+    private static void unhandledMessage(String messageType, String[] tags) {
+        final UnhandledMessageEvent event = new UnhandledMessageEvent();
+        if (!event.isEnabled()) return;
+
+        event.actorPath = tag(PATH_TAG, tags);
+        event.actorSystem = tag(SYSTEM_TAG, tags);
+        event.messageType = messageType;
+        event.commit();
+    }
+
+    private static void dispatcher(String aspect, long value, String[] tags) {
+        final DispatcherEvent event = new DispatcherEvent();
+        if (!event.isEnabled()) return;
+
+        event.dispatcher = tag(DISPATCHER_TAG, tags);
+        event.actorSystem = tag(SYSTEM_TAG, tags);
+        event.metric = aspect;
+        event.value = value;
+        event.commit();
+    }
+
+    private static void metric(String kind, String aspect, long value, String[] tags) {
+        final MetricEvent event = new MetricEvent();
+        if (!event.isEnabled()) return;
+
+        event.kind = kind;
+        event.aspect = aspect;
+        event.value = value;
+        if (tags.length > 0) {
+            final StringBuilder sb = new StringBuilder();
+            for (String tag : tags) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(tag);
+            }
+            event.tags = sb.toString();
+        }
+        event.commit();
+    }
+
+    /**
+     * Returns the value of the first tag with the given {@code prefix}
+     *
+     * @param prefix the prefix, including the {@code :}
+     * @param tags the tags
+     * @return the value after the prefix; {@code null} if there is no such tag
+     */
+    static String tag(String prefix, String[] tags) {
+        for (String tag : tags) {
+            if (tag.startsWith(prefix)) return tag.substring(prefix.length());
+        }
+        return null;
+    }
+
+}
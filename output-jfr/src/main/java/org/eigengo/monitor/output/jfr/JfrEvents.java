@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.jfr;
+
+/**
+ * Emits the monitor's JDK Flight Recorder events from code that knows more than the {@code CounterInterface}
+ * can carry. Each method checks that the event is enabled in a running recording before it sets any of the
+ * fields, which means that the calls cost a single check when no recording is running.
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+
+    }
+
+    /**
+     * Records a receive of the actor at the {@code actorPath}
+     *
+     * @param actorPath the actor path
+     * @param actorType the actor type
+     * @param actorSystem the actor system
+     * @param duration the duration of the receive in nanoseconds
+     */
+    public static void actorReceive(String actorPath, String actorType, String actorSystem, long duration) {
+        final ActorReceiveEvent event = new ActorReceiveEvent();
+        if (!event.isEnabled()) return;
+
+        event.actorPath = actorPath;
+        event.actorType = actorType;
+        event.actorSystem = actorSystem;
+        event.receiveDuration = duration;
+        event.commit();
+    }
+
+    /**
+     * Records an exception thrown from the receive of the actor at the {@code actorPath}
+     *
+     * @param actorPath the actor path
+     * @param actorType the actor type
+     * @param actorSystem the actor system
+     * @param failureType the name of the exception type
+     */
+    public static void actorFailure(String actorPath, String actorType, String actorSystem, String failureType) {
+        final ActorFailureEvent event = new ActorFailureEvent();
+        if (!event.isEnabled()) return;
+
+        event.actorPath = actorPath;
+        event.actorType = actorType;
+        event.actorSystem = actorSystem;
+        event.failureType = failureType;
+        event.commit();
+    }
+
+    /**
+     * Records a message that the actor at the {@code actorPath} did not handle
+     *
+     * @param actorPath the path of the recipient
+     * @param actorSystem the actor system
+     * @param messageType the name of the message type
+     */
+    public static void unhandledMessage(String actorPath, String actorSystem, String messageType) {
+        final UnhandledMessageEvent event = new UnhandledMessageEvent();
+        if (!event.isEnabled()) return;
+
+        event.actorPath = actorPath;
+        event.actorSystem = actorSystem;
+        event.messageType = messageType;
+        event.commit();
+    }
+
+    /**
+     * Records a sampled value of the thread pool of the {@code dispatcher}
+     *
+     * @param dispatcher the dispatcher id
+     * @param actorSystem the actor system
+     * @param metric the sampled metric, for example {@code akka.pool.size}
+     * @param value the value
+     */
+    public static void dispatcher(String dispatcher, String actorSystem, String metric, long value) {
+        final DispatcherEvent event = new DispatcherEvent();
+        if (!event.isEnabled()) return;
+
+        event.dispatcher = dispatcher;
+        event.actorSystem = actorSystem;
+        event.metric = metric;
+        event.value = value;
+        event.commit();
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.jfr
+
+import com.typesafe.config.Config
+
+/**
+ * Holds the configuration for the JDK Flight Recorder output.
+ *
+ * @param receiveThreshold the minimum duration of the actor receives that become events, in microseconds;
+ *                         ``0`` to record every sampled receive
+ */
+case class JfrOutputConfiguration(receiveThreshold: Long)
+
+/**
+ * Companion object that makes instances of ``JfrOutputConfiguration`` from the
+ * instances of ``Config``.
+ */
+object JfrOutputConfiguration {
+
+  def apply(config: Config): JfrOutputConfiguration = {
+    val receiveThreshold = if (config.hasPath("receiveThreshold")) config.getLong("receiveThreshold") else 100L
+
+    require(receiveThreshold >= 0, "Receive threshold must not be negative")
+
+    JfrOutputConfiguration(receiveThreshold)
+  }
+
+}
+
+/**
+ * Exposes the ``JfrOutputConfiguration.apply(Config)`` function in Java-friendly API
+ */
+object JfrOutputConfigurationJapi {
+
+  def apply: Config => JfrOutputConfiguration = JfrOutputConfiguration.apply
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.jfr
+
+import org.specs2.mutable.Specification
+import jdk.jfr.Recording
+import jdk.jfr.consumer.{RecordedEvent, RecordingFile}
+import java.io.File
+import java.time.Duration
+import scala.collection.JavaConversions._
+
+class JfrCounterInterfaceSpec extends Specification {
+  sequential
+
+  val actorTags = Array("akka.path:/default/user/foo", "akka.system:default", "akka.type:default.com.foo.Foo")
+
+  /**
+   * Runs ``f`` in a local recording of the monitor's events, and returns the recorded events
+   */
+  def record(f: => Unit): List[RecordedEvent] = {
+    val recording = new Recording()
+    List("ActorReceive", "ActorFailure", "UnhandledMessage", "Dispatcher", "Metric").foreach { name =>
+      recording.enable(s"org.eigengo.monitor.$name").withoutThreshold().withoutStackTrace()
+    }
+    val file = File.createTempFile("monitor", ".jfr")
+    try {
+      recording.start()
+      f
+      recording.stop()
+      recording.dump(file.toPath)
+      RecordingFile.readAllEvents(file.toPath).toList
+    } finally {
+      recording.close()
+      file.delete()
+    }
+  }
+
+  def named(events: List[RecordedEvent], name: String): List[RecordedEvent] =
+    events.filter(_.getEventType.getName == s"org.eigengo.monitor.$name")
+
+  "The JFR output" should {
+
+    "record only the receives slower than the threshold" in {
+      val counterInterface = new JfrCounterInterface(100)
+      val events = record {
+        counterInterface.recordExecutionTimeNanos("akka.actor.duration", 99999L, actorTags: _*)
+        counterInterface.recordExecutionTimeNanos("akka.actor.duration", 250000L, actorTags: _*)
+      }
+
+      val receives = named(events, "ActorReceive")
+      receives must haveSize(1)
+      receives.head.getString("actorPath") mustEqual "/default/user/foo"
+      receives.head.getString("actorType") mustEqual "default.com.foo.Foo"
+      receives.head.getString("actorSystem") mustEqual "default"
+      receives.head.getDuration("receiveDuration") mustEqual Duration.ofNanos(250000L)
+    }
+
+    "record the failures, the unhandled messages and the dispatchers" in {
+      val counterInterface = new JfrCounterInterface(0)
+      val events = record {
+        counterInterface.incrementCounter("akka.actor.error", actorTags: _*)
+        counterInterface.incrementCounter("akka.actor.error.IllegalArgumentException", actorTags: _*)
+        counterInterface.incrementCounter("akka.actor.undelivered", actorTags: _*)
+        counterInterface.incrementCounter("akka.actor.undelivered.String", actorTags: _*)
+        counterInterface.recordGaugeValue("akka.pool.size", 8, "akka.system:default", "akka.dispatcher:akka.actor.default-dispatcher")
+      }
+
+      val failures = named(events, "ActorFailure")
+      failures must haveSize(1)
+      failures.head.getString("failureType") mustEqual "IllegalArgumentException"
+      failures.head.getString("actorPath") mustEqual "/default/user/foo"
+
+      val unhandled = named(events, "UnhandledMessage")
+      unhandled must haveSize(1)
+      unhandled.head.getString("messageType") mustEqual "String"
+
+      val dispatchers = named(events, "Dispatcher")
+      dispatchers must haveSize(1)
+      dispatchers.head.getString("dispatcher") mustEqual "akka.actor.default-dispatcher"
+      dispatchers.head.getString("metric") mustEqual "akka.pool.size"
+      dispatchers.head.getLong("value") mustEqual 8
+
+      named(events, "Metric") must beEmpty
+    }
+
+    "record the other aspects as metrics" in {
+      val counterInterface = new JfrCounterInterface(0)
+      val events = record {
+        counterInterface.incrementCounter("akka.actor.delivered.String", 4, actorTags: _*)
+        counterInterface.recordGaugeValue("akka.actor.queue.size", 12)
+      }
+
+      val metrics = named(events, "Metric")
+      metrics must haveSize(2)
+      metrics.map(_.getString("aspect")) mustEqual List("akka.actor.delivered.String", "akka.actor.queue.size")
+      metrics.map(_.getLong("value")) mustEqual List(4L, 12L)
+      metrics.head.getString("tags") mustEqual actorTags.mkString(",")
+    }
+
+    "record nothing outside of a recording" in {
+      val counterInterface = new JfrCounterInterface(0)
+      counterInterface.recordExecutionTimeNanos("akka.actor.duration", 250000L, actorTags: _*)
+      JfrEvents.actorReceive("/default/user/foo", "default.com.foo.Foo", "default", 250000L)
+
+      val events = record(())
+      named(events, "ActorReceive") must beEmpty
+    }
+
+    "record the events of the typed API" in {
+      val events = record {
+        JfrEvents.actorReceive("/default/user/foo", "default.com.foo.Foo", "default", 1000L)
+        JfrEvents.actorFailure("/default/user/foo", "default.com.foo.Foo", "default", "RuntimeException")
+        JfrEvents.unhandledMessage("/default/user/foo", "default", "Integer")
+        JfrEvents.dispatcher("akka.actor.default-dispatcher", "default", "akka.pool.thread.count", 3)
+      }
+
+      named(events, "ActorReceive") must haveSize(1)
+      named(events, "ActorFailure") must haveSize(1)
+      named(events, "UnhandledMessage") must haveSize(1)
+      named(events, "Dispatcher").map(_.getLong("value")) mustEqual List(3L)
+    }
+
+  }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap;
+
+import org.eigengo.monitor.output.BindingCounterInterface;
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.GaugeHandle;
+import org.eigengo.monitor.output.MetricKey;
+import org.eigengo.monitor.output.OutputConfigurationFactory;
+import org.eigengo.monitor.output.TimerHandle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the counters, gauges and execution time histograms in a memory-mapped file with a fixed layout,
+ * similar to the JVM's {@code hsperfdata} files. Other processes can map the same file and read the values
+ * at any time, using the {@link MappedCounterReader}; unlike the DTrace output, this works on Linux and
+ * keeps the tags.
+ *
+ * The first update of each metric allocates its slots and publishes the metric in the file's directory;
+ * all the later updates find the slots' offset with a single hash lookup, and update the values off-heap
+ * with atomic instructions: a counter update is one atomic add, a gauge update is one ordered write. The
+ * metrics that do not fit into the file are counted in the file's header, and are otherwise ignored.
+ * The bound handles allocate the slots when they are bound, and keep their offset, which means that
+ * their updates skip the hash lookup.
+ */
+public class MappedCounterInterface implements BindingCounterInterface {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Long DROPPED = -1L;
+
+    private final MappedFile file;
+    @SuppressWarnings("unchecked")
+    private final ConcurrentHashMap<MetricKey, Long>[] offsets = new ConcurrentHashMap[MappedFile.KIND_TIMER_NANOS + 1];
+    private final ThreadLocal<MetricKey> probe = new ThreadLocal<MetricKey>() {
+        @Override
+        protected MetricKey initialValue() {
+            return new MetricKey();
+        }
+    };
+    private int metrics;
+    private int slots;
+
+    /**
+     * Constructs this instance by loading the {@code output.conf} configuration, and then looking
+     * for the {@code org.eigengo.monitor.output.mmap} key.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public MappedCounterInterface() throws IOException {
+        this(OutputConfigurationFactory.getAgentCofiguration("mmap", MappedOutputConfigurationJapi.apply()).outputConfig());
+    }
+
+    private MappedCounterInterface(MappedOutputConfiguration configuration) throws IOException {
+        this(new File(configuration.path()), configuration.maximumMetrics(), configuration.maximumNameLength(), configuration.dataSlots());
+        if (configuration.deleteOnExit()) new File(configuration.path()).deleteOnExit();
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param file the file to create; an existing file is truncated
+     * @param maximumMetrics the maximum number of distinct metrics
+     * @param maximumNameLength the maximum length of the aspect and tags of a metric in bytes of UTF-8
+     * @param dataSlots the number of 8-byte slots for the values
+     * @throws IOException if the file cannot be created
+     */
+    public MappedCounterInterface(File file, int maximumMetrics, int maximumNameLength, int dataSlots) throws IOException {
+        this.file = MappedFile.create(file, maximumMetrics, maximumNameLength, dataSlots);
+        for (int kind = MappedFile.KIND_COUNTER; kind < this.offsets.length; kind++) {
+            this.offsets[kind] = new ConcurrentHashMap<MetricKey, Long>();
+        }
+    }
+
+    /**
+     * Finds the offset of the first slot of the metric, allocating the slots on the first update
+     *
+     * @param kind the kind of the metric
+     * @param aspect the aspect
+     * @param tags the tags
+     * @return the offset, or {@code -1} if the metric does not fit into the file
+     */
+    private long offset(int kind, String aspect, String[] tags) {
+        final MetricKey key = this.probe.get().set(aspect, tags);
+        final Long offset = this.offsets[kind].get(key);
+        if (offset != null) return offset;
+        return allocate(kind, key.copy());
+    }
+
+    private synchronized long allocate(int kind, MetricKey key) {
+        final Long existing = this.offsets[kind].get(key);
+        if (existing != null) return existing;
+
+        final int slots = kind == MappedFile.KIND_TIMER_MILLIS || kind == MappedFile.KIND_TIMER_NANOS ? MappedFile.HISTOGRAM_SLOTS : 1;
+        final byte[] name = name(key);
+        if (this.metrics == this.file.maximumMetrics() || this.slots > this.file.dataSlots() - slots ||
+            name.length > this.file.maximumNameLength()) {
+            this.offsets[kind].put(key, DROPPED);
+            this.file.addLong(MappedFile.DROPPED_OFFSET, 1);
+            return DROPPED;
+        }
+
+        final long entry = this.file.entryOffset(this.metrics);
+        this.file.putOrderedInt(entry + MappedFile.ENTRY_KIND_OFFSET, kind);
+        this.file.putOrderedInt(entry + MappedFile.ENTRY_SLOT_OFFSET, this.slots);
+        this.file.putOrderedInt(entry + MappedFile.ENTRY_NAME_LENGTH_OFFSET, name.length);
+        this.file.putBytes(entry + MappedFile.ENTRY_NAME_OFFSET, name);
+        final long offset = this.file.slotOffset(this.slots);
+        this.slots += slots;
+        this.metrics++;
+        // publishes the entry to the readers
+        this.file.putOrderedInt(MappedFile.METRICS_OFFSET, this.metrics);
+
+        this.offsets[kind].put(key, offset);
+        return offset;
+    }
+
+    private static byte[] name(MetricKey key) {
+        final StringBuilder name = new StringBuilder(key.getAspect());
+        for (String tag : key.getTags()) name.append('\0').append(tag);
+        return name.toString().getBytes(UTF8);
+    }
+
+    private void add(String aspect, int delta, String[] tags) {
+        final long offset = offset(MappedFile.KIND_COUNTER, aspect, tags);
+        if (offset != DROPPED) this.file.addLong(offset, delta);
+    }
+
+    private void set(long offset, long value) {
+        if (offset != DROPPED) this.file.putOrderedLong(offset, value);
+    }
+
+    private void record(int kind, String aspect, long value, String[] tags) {
+        record(offset(kind, aspect, tags), value);
+    }
+
+    private void record(long offset, long value) {
+        if (offset == DROPPED) return;
+
+        this.file.addLong(offset + MappedFile.HISTOGRAM_COUNT * 8, 1);
+        this.file.addLong(offset + MappedFile.HISTOGRAM_SUM * 8, value);
+        this.file.maxLong(offset + MappedFile.HISTOGRAM_MAX * 8, value);
+        this.file.addLong(offset + (MappedFile.HISTOGRAM_MAX + 1 + MappedFile.bucketIndex(value)) * 8, 1);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        add(aspect, 1, tags);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        add(aspect, delta, tags);
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        add(aspect, -1, tags);
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        set(offset(MappedFile.KIND_GAUGE, aspect, tags), value);
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        record(MappedFile.KIND_TIMER_MILLIS, aspect, duration, tags);
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        record(MappedFile.KIND_TIMER_NANOS, aspect, duration, tags);
+    }
+
+    @Override
+    public CounterHandle bindCounter(String aspect, String... tags) {
+        return new Handle(offset(MappedFile.KIND_COUNTER, aspect, tags));
+    }
+
+    @Override
+    public GaugeHandle bindGauge(String aspect, String... tags) {
+        return new Handle(offset(MappedFile.KIND_GAUGE, aspect, tags));
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(String aspect, String... tags) {
+        return new Handle(offset(MappedFile.KIND_TIMER_MILLIS, aspect, tags));
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return new Handle(offset(MappedFile.KIND_TIMER_NANOS, aspect, tags));
+    }
+
+    /**
+     * The handle that keeps the offset of the first slot of its metric; the bind methods only return it
+     * as the handle of the metric's kind
+     */
+    private final class Handle implements CounterHandle, GaugeHandle, TimerHandle {
+        private final long offset;
+
+        private Handle(long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void increment(long delta) {
+            if (this.offset != DROPPED) file.addLong(this.offset, delta);
+        }
+
+        @Override
+        public void set(long value) {
+            MappedCounterInterface.this.set(this.offset, value);
+        }
+
+        @Override
+        public void record(long duration) {
+            MappedCounterInterface.this.record(this.offset, duration);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the metrics from the file written by the {@link MappedCounterInterface}, typically in another process.
+ * The reader maps the file read-only and never writes to it; it can therefore read the metrics of a running
+ * application as often as needed without slowing it down. Each {@link #read()} parses only the directory
+ * entries that were published since the previous call.
+ *
+ * The values of each metric are read one slot at a time, so a timer that is being updated during the read
+ * may report a count that does not exactly match its buckets.
+ *
+ * Run {@code MappedCounterReader <file> [interval in milliseconds]} to print the metrics once, or to tail
+ * the file and print the metrics that changed every {@code interval}.
+ */
+public final class MappedCounterReader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final MappedMetric.Kind[] KINDS = {
+            null, MappedMetric.Kind.COUNTER, MappedMetric.Kind.GAUGE, MappedMetric.Kind.TIMER_MILLIS, MappedMetric.Kind.TIMER_NANOS
+    };
+
+    private final MappedFile file;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * A parsed directory entry
+     */
+    private static final class Entry {
+        private final MappedMetric.Kind kind;
+        private final String aspect;
+        private final String[] tags;
+        private final long offset;
+
+        private Entry(MappedMetric.Kind kind, String aspect, String[] tags, long offset) {
+            this.kind = kind;
+            this.aspect = aspect;
+            this.tags = tags;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Constructs this instance by mapping the {@code file}
+     *
+     * @param file the file written by the {@code MappedCounterInterface}
+     * @throws IOException if the file cannot be mapped, or if it is not a file written by the {@code MappedCounterInterface}
+     */
+    public MappedCounterReader(File file) throws IOException {
+        this.file = MappedFile.open(file);
+    }
+
+    /**
+     * Returns the number of metrics that did not fit into the file
+     *
+     * @return the number of dropped metrics
+     */
+    public long getDropped() {
+        return this.file.getLong(MappedFile.DROPPED_OFFSET);
+    }
+
+    /**
+     * Reads the current values of all metrics in the file
+     *
+     * @return the metrics in the order in which they were first updated
+     */
+    public List<MappedMetric> read() {
+        final int metrics = Math.min(this.file.getInt(MappedFile.METRICS_OFFSET), this.file.maximumMetrics());
+        for (int i = this.entries.size(); i < metrics; i++) this.entries.add(entry(i));
+
+        final List<MappedMetric> result = new ArrayList<MappedMetric>(this.entries.size());
+        for (Entry entry : this.entries) {
+            if (entry.kind == MappedMetric.Kind.COUNTER || entry.kind == MappedMetric.Kind.GAUGE) {
+                result.add(new MappedMetric(entry.kind, entry.aspect, entry.tags, this.file.getLong(entry.offset), 0, 0, null));
+            } else {
+                final long[] buckets = new long[MappedFile.HISTOGRAM_BUCKETS];
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] = this.file.getLong(entry.offset + (MappedFile.HISTOGRAM_MAX + 1 + i) * 8);
+                }
+                result.add(new MappedMetric(entry.kind, entry.aspect, entry.tags,
+                        this.file.getLong(entry.offset + MappedFile.HISTOGRAM_COUNT * 8),
+                        this.file.getLong(entry.offset + MappedFile.HISTOGRAM_SUM * 8),
+                        this.file.getLong(entry.offset + MappedFile.HISTOGRAM_MAX * 8),
+                        buckets));
+            }
+        }
+        return result;
+    }
+
+    private Entry entry(int index) {
+        final long entry = this.file.entryOffset(index);
+        final int kind = this.file.getInt(entry + MappedFile.ENTRY_KIND_OFFSET);
+        final int slot = this.file.getInt(entry + MappedFile.ENTRY_SLOT_OFFSET);
+        final int nameLength = this.file.getInt(entry + MappedFile.ENTRY_NAME_LENGTH_OFFSET);
+        if (kind < MappedFile.KIND_COUNTER || kind > MappedFile.KIND_TIMER_NANOS ||
+            nameLength < 0 || nameLength > this.file.maximumNameLength() || slot < 0 || slot >= this.file.dataSlots()) {
+            throw new IllegalStateException("Corrupt directory entry " + index);
+        }
+
+        final String[] name = new String(this.file.getBytes(entry + MappedFile.ENTRY_NAME_OFFSET, nameLength), UTF8).split("\0", -1);
+        return new Entry(KINDS[kind], name[0], Arrays.copyOfRange(name, 1, name.length), this.file.slotOffset(slot));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: MappedCounterReader <file> [interval in milliseconds]");
+            System.exit(1);
+        }
+
+        final MappedCounterReader reader = new MappedCounterReader(new File(args[0]));
+        if (args.length == 1) {
+            for (MappedMetric metric : reader.read()) System.out.println(metric);
+            return;
+        }
+
+        final long interval = Long.parseLong(args[1]);
+        final Map<String, String> printed = new HashMap<String, String>();
+        while (true) {
+            for (MappedMetric metric : reader.read()) {
+                final String line = metric.toString();
+                final String key = metric.getKind() + " " + metric.getAspect() + " " + Arrays.toString(metric.getTags());
+                if (!line.equals(printed.put(key, line))) System.out.println(line);
+            }
+            Thread.sleep(interval);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap;
+
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The fixed layout of the memory-mapped file, and the atomic operations on its off-heap slots. The file
+ * is laid out in the native byte order as
+ *
+ * <ul>
+ *     <li>the header of {@link #HEADER_SIZE} bytes: the magic number, the version, the maximum number
+ *     of metrics, the size of a directory entry, the number of data slots, the number of published metrics,
+ *     the number of dropped metrics and the creation time</li>
+ *     <li>the directory of {@code maximumMetrics} entries; each entry holds the kind of the metric, the index
+ *     of its first data slot, and the length and the UTF-8 bytes of its name. The name is the aspect followed
+ *     by the tags, all separated by {@code '\0'}</li>
+ *     <li>the {@code dataSlots} 8-byte data slots. A counter or a gauge takes one slot; a timer takes
+ *     {@link #HISTOGRAM_SLOTS}: the count, the sum, the maximum and the {@link #HISTOGRAM_BUCKETS} buckets,
+ *     where the bucket {@code i} counts the values between {@code 2^i} and {@code 2^(i+1) - 1}</li>
+ * </ul>
+ *
+ * The directory only grows. The writer fills in an entry and only then increments the number of published
+ * metrics, which means that the readers only ever see complete entries.
+ */
+final class MappedFile {
+    static final int MAGIC = 0x4d4f4e49;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int MAXIMUM_METRICS_OFFSET = 8;
+    static final int ENTRY_SIZE_OFFSET = 12;
+    static final int DATA_SLOTS_OFFSET = 16;
+    static final int METRICS_OFFSET = 20;
+    static final int DROPPED_OFFSET = 24;
+    static final int CREATED_OFFSET = 32;
+
+    static final int ENTRY_KIND_OFFSET = 0;
+    static final int ENTRY_SLOT_OFFSET = 4;
+    static final int ENTRY_NAME_LENGTH_OFFSET = 8;
+    static final int ENTRY_NAME_OFFSET = 12;
+
+    static final int KIND_COUNTER = 1;
+    static final int KIND_GAUGE = 2;
+    static final int KIND_TIMER_MILLIS = 3;
+    static final int KIND_TIMER_NANOS = 4;
+
+    static final int HISTOGRAM_BUCKETS = 64;
+    static final int HISTOGRAM_COUNT = 0;
+    static final int HISTOGRAM_SUM = 1;
+    static final int HISTOGRAM_MAX = 2;
+    static final int HISTOGRAM_SLOTS = 3 + HISTOGRAM_BUCKETS;
+
+    private static final Unsafe UNSAFE;
+    static {
+        try {
+            final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // keeps the mapping alive: the file is unmapped when the buffer is collected
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final int maximumMetrics;
+    private final int entrySize;
+    private final int dataSlots;
+    private final long dataOffset;
+
+    private MappedFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.address = ((DirectBuffer) buffer).address();
+        this.maximumMetrics = buffer.getInt(MAXIMUM_METRICS_OFFSET);
+        this.entrySize = buffer.getInt(ENTRY_SIZE_OFFSET);
+        this.dataSlots = buffer.getInt(DATA_SLOTS_OFFSET);
+        this.dataOffset = HEADER_SIZE + (long) this.maximumMetrics * this.entrySize;
+    }
+
+    /**
+     * Creates (or truncates) the {@code file}, maps it and writes its header
+     *
+     * @param file the file
+     * @param maximumMetrics the maximum number of metrics in the directory
+     * @param maximumNameLength the maximum length of the metric names in bytes
+     * @param dataSlots the number of data slots
+     * @return the mapped file
+     * @throws IOException if the file cannot be created or mapped
+     */
+    static MappedFile create(File file, int maximumMetrics, int maximumNameLength, int dataSlots) throws IOException {
+        final int entrySize = (ENTRY_NAME_OFFSET + maximumNameLength + 7) & ~7;
+        final long size = HEADER_SIZE + (long) maximumMetrics * entrySize + (long) dataSlots * 8;
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("The file would be larger than 2 GB");
+
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        final MappedByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // drop the contents left behind by an earlier process with the same pid
+            raf.setLength(0);
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(MAXIMUM_METRICS_OFFSET, maximumMetrics);
+        buffer.putInt(ENTRY_SIZE_OFFSET, entrySize);
+        buffer.putInt(DATA_SLOTS_OFFSET, dataSlots);
+        buffer.putLong(CREATED_OFFSET, System.currentTimeMillis());
+        final MappedFile mappedFile = new MappedFile(buffer);
+        // the readers check the magic number last
+        mappedFile.putOrderedInt(MAGIC_OFFSET, MAGIC);
+        return mappedFile;
+    }
+
+    /**
+     * Maps an existing {@code file} for reading
+     *
+     * @param file the file
+     * @return the mapped file
+     * @throws IOException if the file cannot be mapped, or if it is not a file written by this output
+     */
+    static MappedFile open(File file) throws IOException {
+        final MappedByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long size = raf.length();
+            if (size < HEADER_SIZE) throw new IOException(file + " is too short");
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) throw new IOException(file + " is not a monitor file");
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) throw new IOException(file + " has unsupported version " + buffer.getInt(VERSION_OFFSET));
+
+        final MappedFile mappedFile = new MappedFile(buffer);
+        if (mappedFile.slotOffset(mappedFile.dataSlots) > buffer.capacity()) throw new IOException(file + " is truncated");
+        return mappedFile;
+    }
+
+    int maximumMetrics() {
+        return this.maximumMetrics;
+    }
+
+    int maximumNameLength() {
+        return this.entrySize - ENTRY_NAME_OFFSET;
+    }
+
+    int dataSlots() {
+        return this.dataSlots;
+    }
+
+    /**
+     * Computes the offset of the directory entry at {@code index}
+     *
+     * @param index the index of the entry
+     * @return the offset from the start of the file
+     */
+    long entryOffset(int index) {
+        return HEADER_SIZE + (long) index * this.entrySize;
+    }
+
+    /**
+     * Computes the offset of the data slot at {@code slot}
+     *
+     * @param slot the index of the slot
+     * @return the offset from the start of the file
+     */
+    long slotOffset(int slot) {
+        return this.dataOffset + (long) slot * 8;
+    }
+
+    int getInt(long offset) {
+        return UNSAFE.getIntVolatile(null, this.address + offset);
+    }
+
+    void putOrderedInt(long offset, int value) {
+        UNSAFE.putOrderedInt(null, this.address + offset, value);
+    }
+
+    long getLong(long offset) {
+        return UNSAFE.getLongVolatile(null, this.address + offset);
+    }
+
+    void putOrderedLong(long offset, long value) {
+        UNSAFE.putOrderedLong(null, this.address + offset, value);
+    }
+
+    /**
+     * Atomically adds the {@code delta} to the {@code long} at {@code offset}
+     *
+     * @param offset the offset from the start of the file
+     * @param delta the value to add
+     */
+    void addLong(long offset, long delta) {
+        final long address = this.address + offset;
+        long current;
+        do {
+            current = UNSAFE.getLongVolatile(null, address);
+        } while (!UNSAFE.compareAndSwapLong(null, address, current, current + delta));
+    }
+
+    /**
+     * Atomically replaces the {@code long} at {@code offset} with the {@code value} if the {@code value} is greater
+     *
+     * @param offset the offset from the start of the file
+     * @param value the value
+     */
+    void maxLong(long offset, long value) {
+        final long address = this.address + offset;
+        long current = UNSAFE.getLongVolatile(null, address);
+        while (value > current) {
+            if (UNSAFE.compareAndSwapLong(null, address, current, value)) return;
+            current = UNSAFE.getLongVolatile(null, address);
+        }
+    }
+
+    /**
+     * Copies the {@code length} bytes at {@code offset}
+     *
+     * @param offset the offset from the start of the file
+     * @param length the number of bytes
+     * @return the bytes
+     */
+    byte[] getBytes(long offset, int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer duplicate = this.buffer.duplicate();
+        duplicate.position((int) offset);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the {@code bytes} at {@code offset}; the writes are only visible to the readers after
+     * a subsequent ordered write
+     *
+     * @param offset the offset from the start of the file
+     * @param bytes the bytes
+     */
+    void putBytes(long offset, byte[] bytes) {
+        final ByteBuffer duplicate = this.buffer.duplicate();
+        duplicate.position((int) offset);
+        duplicate.put(bytes);
+    }
+
+    /**
+     * Computes the index of the histogram bucket for the given {@code value}
+     *
+     * @param value the value
+     * @return the bucket index between {@code 0} and {@code HISTOGRAM_BUCKETS - 1}
+     */
+    static int bucketIndex(long value) {
+        return value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Computes the highest value that falls into the bucket at {@code index}
+     *
+     * @param index the bucket index
+     * @return the highest value
+     */
+    static long highestValue(int index) {
+        return index >= 62 ? Long.MAX_VALUE : (2L << index) - 1;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap;
+
+import java.util.Arrays;
+
+/**
+ * The values of one metric read from the memory-mapped file by the {@link MappedCounterReader}. The counters
+ * and gauges have just the {@link #getValue() value}; the timers have the count, the sum and the maximum
+ * of the recorded values, and the counts in the power-of-two buckets.
+ */
+public final class MappedMetric {
+
+    /**
+     * The kinds of the metrics
+     */
+    public enum Kind {
+        COUNTER, GAUGE, TIMER_MILLIS, TIMER_NANOS
+    }
+
+    private final Kind kind;
+    private final String aspect;
+    private final String[] tags;
+    private final long value;
+    private final long sum;
+    private final long max;
+    private final long[] buckets;
+
+    MappedMetric(Kind kind, String aspect, String[] tags, long value, long sum, long max, long[] buckets) {
+        this.kind = kind;
+        this.aspect = aspect;
+        this.tags = tags;
+        this.value = value;
+        this.sum = sum;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the kind
+     *
+     * @return the kind
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Returns the aspect
+     *
+     * @return the aspect
+     */
+    public String getAspect() {
+        return this.aspect;
+    }
+
+    /**
+     * Returns the tags; the callers must not modify the returned array
+     *
+     * @return the tags
+     */
+    public String[] getTags() {
+        return this.tags;
+    }
+
+    /**
+     * Returns the value of a counter or a gauge, or the number of values recorded by a timer
+     *
+     * @return the value
+     */
+    public long getValue() {
+        return this.value;
+    }
+
+    /**
+     * Returns the sum of the values recorded by a timer
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return this.sum;
+    }
+
+    /**
+     * Returns the maximum value recorded by a timer
+     *
+     * @return the maximum
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the value at the given {@code quantile} of the values recorded by a timer. The value is the
+     * highest value of the power-of-two bucket that holds the quantile, but never more than the maximum;
+     * it is therefore at most twice the exact value.
+     *
+     * @param quantile the quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+     * @return the value, {@code 0} if no values were recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (this.buckets == null) return 0;
+        long count = 0;
+        for (long bucket : this.buckets) count += bucket;
+        if (count == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            seen += this.buckets[i];
+            if (seen >= rank) return Math.min(MappedFile.highestValue(i), this.max);
+        }
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(this.aspect);
+        if (this.tags.length > 0) sb.append(' ').append(Arrays.toString(this.tags));
+        switch (this.kind) {
+            case COUNTER:
+            case GAUGE:
+                return sb.append(" = ").append(this.value).toString();
+            default:
+                final String unit = this.kind == Kind.TIMER_MILLIS ? "ms" : "ns";
+                sb.append(" count=").append(this.value);
+                if (this.value > 0) {
+                    sb.append(" mean=").append(this.sum / this.value).append(unit)
+                      .append(" p50=").append(getValueAtQuantile(0.5)).append(unit)
+                      .append(" p99=").append(getValueAtQuantile(0.99)).append(unit)
+                      .append(" max=").append(this.max).append(unit);
+                }
+                return sb.toString();
+        }
+    }
+}
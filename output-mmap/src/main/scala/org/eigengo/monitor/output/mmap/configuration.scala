@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap
+
+import com.typesafe.config.Config
+import java.io.File
+import java.lang.management.ManagementFactory
+
+/**
+ * Holds the configuration for the memory-mapped output.
+ *
+ * @param path the path of the memory-mapped file
+ * @param maximumMetrics the maximum number of distinct metrics (aspects and tags) in the file
+ * @param maximumNameLength the maximum length (in bytes of UTF-8) of the aspect and tags of a metric
+ * @param dataSlots the number of 8-byte slots that hold the values; a counter or a gauge takes one slot,
+ *                  a histogram takes ``MappedFile.HISTOGRAM_SLOTS``
+ * @param deleteOnExit ``true`` to delete the file when the JVM exits
+ */
+case class MappedOutputConfiguration(path: String, maximumMetrics: Int, maximumNameLength: Int, dataSlots: Int,
+                                     deleteOnExit: Boolean)
+
+/**
+ * Companion object that makes instances of ``MappedOutputConfiguration`` from the
+ * instances of ``Config``.
+ */
+object MappedOutputConfiguration {
+
+  /**
+   * The default path, similar to the JVM's ``hsperfdata``: ``$tmpdir/monitor_$user/$pid``
+   */
+  def defaultPath: String = {
+    val pid = ManagementFactory.getRuntimeMXBean.getName.takeWhile(_ != '@')
+    val directory = new File(System.getProperty("java.io.tmpdir"), "monitor_" + System.getProperty("user.name"))
+    new File(directory, pid).getPath
+  }
+
+  def apply(config: Config): MappedOutputConfiguration = {
+    val path = if (config.hasPath("path")) config.getString("path") else defaultPath
+    val maximumMetrics = if (config.hasPath("maximumMetrics")) config.getInt("maximumMetrics") else 4096
+    val maximumNameLength = if (config.hasPath("maximumNameLength")) config.getInt("maximumNameLength") else 244
+    val dataSlots = if (config.hasPath("dataSlots")) config.getInt("dataSlots") else 262144
+    val deleteOnExit = if (config.hasPath("deleteOnExit")) config.getBoolean("deleteOnExit") else true
+
+    require(maximumMetrics > 0, "Maximum metrics must be positive")
+    require(maximumNameLength > 0, "Maximum name length must be positive")
+    require(dataSlots > 0, "Data slots must be positive")
+
+    MappedOutputConfiguration(path, maximumMetrics, maximumNameLength, dataSlots, deleteOnExit)
+  }
+
+}
+
+/**
+ * Exposes the ``MappedOutputConfiguration.apply(Config)`` function in Java-friendly API
+ */
+object MappedOutputConfigurationJapi {
+
+  def apply: Config => MappedOutputConfiguration = MappedOutputConfiguration.apply
+
+}
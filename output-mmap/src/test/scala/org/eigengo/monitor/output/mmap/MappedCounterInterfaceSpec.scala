@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.mmap
+
+import org.specs2.mutable.Specification
+import org.eigengo.monitor.output.CounterHandles
+import java.io.File
+import scala.collection.JavaConversions._
+
+class MappedCounterInterfaceSpec extends Specification {
+  sequential
+
+  def tempFile(): File = {
+    val file = File.createTempFile("monitor", ".mmap")
+    file.deleteOnExit()
+    file
+  }
+
+  "The memory-mapped output" should {
+
+    "write the values that the reader reads" in {
+      val file = tempFile()
+      val counterInterface = new MappedCounterInterface(file, 16, 120, 1024)
+      counterInterface.incrementCounter("counter", "akka:system")
+      counterInterface.incrementCounter("counter", 5, "akka:system")
+      counterInterface.decrementCounter("counter", "akka:system")
+      counterInterface.recordGaugeValue("gauge", 42)
+      (1 to 1000).foreach(i => counterInterface.recordExecutionTimeNanos("timer", i * 1000L, "a", "b"))
+
+      val metrics = new MappedCounterReader(file).read().map(m => m.getAspect -> m).toMap
+      metrics("counter").getKind mustEqual MappedMetric.Kind.COUNTER
+      metrics("counter").getTags.toList mustEqual List("akka:system")
+      metrics("counter").getValue mustEqual 5
+      metrics("gauge").getValue mustEqual 42
+
+      val timer = metrics("timer")
+      timer.getKind mustEqual MappedMetric.Kind.TIMER_NANOS
+      timer.getTags.toList mustEqual List("a", "b")
+      timer.getValue mustEqual 1000
+      timer.getSum mustEqual 500500000L
+      timer.getMax mustEqual 1000000L
+      timer.getValueAtQuantile(0.5) must beBetween(500000L, 1000000L)
+    }
+
+    "see the metrics and values written after the reader mapped the file" in {
+      val file = tempFile()
+      val counterInterface = new MappedCounterInterface(file, 16, 120, 1024)
+      val reader = new MappedCounterReader(file)
+      reader.read() must beEmpty
+
+      counterInterface.recordGaugeValue("gauge", 1)
+      reader.read().map(_.getValue).toList mustEqual List(1)
+      counterInterface.recordGaugeValue("gauge", 2)
+      reader.read().map(_.getValue).toList mustEqual List(2)
+    }
+
+    "update the same slots through the bound handles" in {
+      val file = tempFile()
+      val counterInterface = new MappedCounterInterface(file, 16, 120, 1024)
+      val counter = CounterHandles.counter(counterInterface, "counter", "akka:system")
+      counter.increment(5)
+      counterInterface.incrementCounter("counter", "akka:system")
+      CounterHandles.gauge(counterInterface, "gauge").set(42)
+      CounterHandles.executionTimeNanos(counterInterface, "timer").record(1000)
+
+      val metrics = new MappedCounterReader(file).read().map(m => m.getAspect -> m).toMap
+      metrics("counter").getValue mustEqual 6
+      metrics("gauge").getValue mustEqual 42
+      metrics("timer").getValue mustEqual 1
+    }
+
+    "count the updates from many threads exactly" in {
+      val file = tempFile()
+      val counterInterface = new MappedCounterInterface(file, 16, 120, 1024)
+      val threads = (1 to 4).map { _ =>
+        new Thread(new Runnable {
+          def run(): Unit = (1 to 100000).foreach(_ => counterInterface.incrementCounter("counter"))
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+
+      new MappedCounterReader(file).read().head.getValue mustEqual 400000
+    }
+
+    "drop the metrics that do not fit into the file" in {
+      val file = tempFile()
+      val counterInterface = new MappedCounterInterface(file, 2, 16, 1024)
+      counterInterface.incrementCounter("a")
+      counterInterface.incrementCounter("b")
+      counterInterface.incrementCounter("c")
+      counterInterface.incrementCounter("a name that is much too long")
+
+      val reader = new MappedCounterReader(file)
+      reader.read().map(_.getAspect).toList mustEqual List("a", "b")
+      reader.getDropped mustEqual 2
+    }
+
+    "refuse to read other files" in {
+      val file = tempFile()
+      new MappedCounterReader(file) must throwA[java.io.IOException]
+    }
+  }
+
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.prometheus;
+
+import org.eigengo.monitor.output.BindingCounterInterface;
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.DaemonThreadFactory;
+import org.eigengo.monitor.output.GaugeHandle;
+import org.eigengo.monitor.output.HistogramSnapshot;
+import org.eigengo.monitor.output.LogLinearHistogram;
+import org.eigengo.monitor.output.MetricKey;
+import org.eigengo.monitor.output.OutputConfigurationFactory;
+import org.eigengo.monitor.output.StripedCounter;
+import org.eigengo.monitor.output.TimerHandle;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates the counters, gauges and execution times in memory, and serves them on an HTTP endpoint in the
+ * Prometheus text format. Recording a value never performs any I/O: it is a hash lookup and an update of the
+ * in-memory value, which means that the cost of monitoring does not rise with the message rate. The values are
+ * encoded only when Prometheus scrapes the endpoint.
+ *
+ * The aspects become the metric names, with every character that is not allowed in the names replaced by
+ * {@code _}. The tags become the labels: {@code akka.path:akka://system/user/foo} becomes the label
+ * {@code akka_path="akka://system/user/foo"}; a tag without a {@code :} becomes a label with the value
+ * {@code true}. The execution times in milliseconds and in nanoseconds with the same aspect and tags are
+ * recorded in the same nanosecond histogram, and exposed as one summary in seconds: the {@code _count} and
+ * {@code _sum} are cumulative, and the quantiles are computed from the values recorded in the last complete window of
+ * {@code quantileWindow} seconds ({@code NaN} if there are none). The windows are rotated by a daemon thread at
+ * a fixed rate, and not by the scrapes, so that all scrapers see the same quantiles; until the first window
+ * completes, the quantiles are computed from the values recorded so far. The bound handles are the in-memory
+ * values themselves.
+ *
+ * Prometheus rejects a scrape with two series of the same name and labels, so the gauges whose metric name is
+ * also the name of a counter are exposed with the {@code _gauge} suffix.
+ *
+ * Use it by setting the {@code output.class} in the agent configuration to this class; the endpoint is
+ * configured in the {@code output.conf}, in the {@code org.eigengo.monitor.output.prometheus} key.
+ */
+public class PrometheusCounterInterface implements BindingCounterInterface, ScrapeEndpoint.Scrape {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    /** The default length of the quantile window in seconds */
+    public static final int DEFAULT_QUANTILE_WINDOW = 60;
+
+    private final int stripes;
+    private final ScrapeEndpoint endpoint;
+    private final ScheduledThreadPoolExecutor rotation;
+    private final ConcurrentHashMap<MetricKey, Counter> counters = new ConcurrentHashMap<MetricKey, Counter>();
+    private final ConcurrentHashMap<MetricKey, Gauge> gauges = new ConcurrentHashMap<MetricKey, Gauge>();
+    private final ConcurrentHashMap<MetricKey, Timer> timers = new ConcurrentHashMap<MetricKey, Timer>();
+    private final ThreadLocal<MetricKey> lookupKey = new ThreadLocal<MetricKey>() {
+        @Override
+        protected MetricKey initialValue() {
+            return new MetricKey();
+        }
+    };
+
+    /**
+     * Constructs this instance by loading the {@code output.conf} configuration, and then looking
+     * for the {@code org.eigengo.monitor.output.prometheus} key.
+     *
+     * @throws IOException if the endpoint cannot be started
+     */
+    public PrometheusCounterInterface() throws IOException {
+        this(OutputConfigurationFactory.getAgentCofiguration("prometheus", PrometheusOutputConfigurationJapi.apply()).outputConfig());
+    }
+
+    private PrometheusCounterInterface(PrometheusOutputConfiguration configuration) throws IOException {
+        this(new InetSocketAddress(configuration.host(), configuration.port()), configuration.path(), configuration.stripes(),
+                configuration.quantileWindow());
+    }
+
+    /**
+     * Constructs this instance and starts the scrape endpoint
+     *
+     * @param address the address of the endpoint; port {@code 0} to pick any free port
+     * @param path the path of the endpoint, e.g. {@code /metrics}
+     * @param stripes the number of cells in each counter; typically the number of threads that update the
+     *                same counter concurrently
+     * @throws IOException if the endpoint cannot be started
+     */
+    public PrometheusCounterInterface(InetSocketAddress address, String path, int stripes) throws IOException {
+        this(address, path, stripes, DEFAULT_QUANTILE_WINDOW);
+    }
+
+    /**
+     * Constructs this instance, starts the scrape endpoint and the rotation of the quantile windows
+     *
+     * @param address the address of the endpoint; port {@code 0} to pick any free port
+     * @param path the path of the endpoint, e.g. {@code /metrics}
+     * @param stripes the number of cells in each counter; typically the number of threads that update the
+     *                same counter concurrently
+     * @param quantileWindow the length of the window of the quantiles in seconds
+     * @throws IOException if the endpoint cannot be started
+     */
+    public PrometheusCounterInterface(InetSocketAddress address, String path, int stripes, int quantileWindow) throws IOException {
+        if (quantileWindow <= 0) throw new IllegalArgumentException("quantileWindow must be positive");
+        this.stripes = stripes;
+        this.endpoint = new ScrapeEndpoint(address, path, this);
+        this.rotation = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitor-prometheus-quantiles"));
+        this.rotation.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (Timer timer : timers.values()) timer.rotate();
+            }
+        }, quantileWindow, quantileWindow, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the port of the scrape endpoint
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return this.endpoint.port();
+    }
+
+    /**
+     * Stops the scrape endpoint and the rotation of the quantile windows
+     */
+    public void close() {
+        this.endpoint.close();
+        this.rotation.shutdownNow();
+    }
+
+    private Counter counter(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final Counter counter = this.counters.get(key);
+        if (counter != null) return counter;
+
+        final Counter newCounter = new Counter(key.copy(), this.stripes);
+        final Counter existing = this.counters.putIfAbsent(newCounter.key, newCounter);
+        return existing != null ? existing : newCounter;
+    }
+
+    private Gauge gauge(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final Gauge gauge = this.gauges.get(key);
+        if (gauge != null) return gauge;
+
+        final Gauge newGauge = new Gauge(key.copy());
+        final Gauge existing = this.gauges.putIfAbsent(newGauge.key, newGauge);
+        return existing != null ? existing : newGauge;
+    }
+
+    private Timer timer(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final Timer timer = this.timers.get(key);
+        if (timer != null) return timer;
+
+        final Timer newTimer = new Timer(key.copy(), this.stripes);
+        final Timer existing = this.timers.putIfAbsent(newTimer.key, newTimer);
+        return existing != null ? existing : newTimer;
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        counter(aspect, tags).increment(1);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        counter(aspect, tags).increment(delta);
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        counter(aspect, tags).increment(-1);
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        gauge(aspect, tags).set(value);
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        timer(aspect, tags).record(duration * Timer.NANOS_PER_MILLI);
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        timer(aspect, tags).record(duration);
+    }
+
+    @Override
+    public CounterHandle bindCounter(String aspect, String... tags) {
+        return counter(aspect, tags);
+    }
+
+    @Override
+    public GaugeHandle bindGauge(String aspect, String... tags) {
+        return gauge(aspect, tags);
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(String aspect, String... tags) {
+        return new MillisTimer(timer(aspect, tags));
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return timer(aspect, tags);
+    }
+
+    /**
+     * Encodes all values in the Prometheus text format; the series of each metric are grouped together
+     *
+     * @return the UTF-8 encoded values
+     */
+    @Override
+    public byte[] scrape() {
+        final TreeMap<String, List<Series>> families = new TreeMap<String, List<Series>>();
+        for (Counter counter : this.counters.values()) family(families, counter.name(""), counter);
+        for (Gauge gauge : this.gauges.values()) {
+            // the counters with the same name may have the same labels
+            final String name = gauge.name("");
+            family(families, families.containsKey(name) && !isGaugeFamily(families.get(name)) ? gauge.name("_gauge") : name, gauge);
+        }
+        for (Timer timer : this.timers.values()) family(families, timer.name("_seconds"), timer);
+
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<Series>> family : families.entrySet()) {
+            final String name = family.getKey();
+            final List<Series> series = family.getValue();
+            sb.append("# TYPE ").append(name).append(' ').append(type(series)).append('\n');
+            for (Series s : series) s.write(name, sb);
+        }
+        return sb.toString().getBytes(UTF8);
+    }
+
+    private static void family(TreeMap<String, List<Series>> families, String name, Series series) {
+        List<Series> family = families.get(name);
+        if (family == null) {
+            family = new ArrayList<Series>();
+            families.put(name, family);
+        }
+        family.add(series);
+    }
+
+    private static boolean isGaugeFamily(List<Series> series) {
+        for (Series s : series) if (!(s instanceof Gauge)) return false;
+        return true;
+    }
+
+    private static String type(List<Series> series) {
+        String type = null;
+        for (Series s : series) {
+            final String t = s.type();
+            if (type == null) type = t;
+            // a counter that went down among the ones that did not
+            else if (!type.equals(t)) return "untyped";
+        }
+        return type;
+    }
+
+    /**
+     * Replaces the characters that are not allowed in the metric and label names with {@code _}
+     *
+     * @param name the name
+     * @return the sanitized name
+     */
+    static String sanitizeName(String name) {
+        final StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            final boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (i > 0 && c >= '0' && c <= '9');
+            sb.append(allowed ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the {@code tags} as the labels, without the surrounding braces
+     *
+     * @param tags the tags, e.g. {@code akka.path:akka://system/user/foo}
+     * @return the labels, e.g. {@code akka_path="akka://system/user/foo"}
+     */
+    static String labels(String[] tags) {
+        final TreeMap<String, String> labels = new TreeMap<String, String>();
+        for (String tag : tags) {
+            final int colon = tag.indexOf(':');
+            final String name = sanitizeName(colon < 0 ? tag : tag.substring(0, colon));
+            final String value = colon < 0 ? "true" : tag.substring(colon + 1);
+            // the label names must be unique in a series
+            final String existing = labels.get(name);
+            labels.put(name, existing == null ? value : existing + "," + value);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(label.getKey()).append("=\"");
+            final String value = label.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '\\' || c == '"') sb.append('\\').append(c);
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A series of values with the same aspect and tags; it encodes its name and labels on the first scrape
+     */
+    private abstract static class Series {
+        final MetricKey key;
+        private String labels;
+
+        Series(MetricKey key) {
+            this.key = key;
+        }
+
+        final String name(String suffix) {
+            return sanitizeName(this.key.getAspect()) + suffix;
+        }
+
+        final String labels() {
+            if (this.labels == null) this.labels = PrometheusCounterInterface.labels(this.key.getTags());
+            return this.labels;
+        }
+
+        final void sample(String name, String extraLabel, Object value, StringBuilder sb) {
+            sb.append(name);
+            final String labels = labels();
+            if (!labels.isEmpty() || extraLabel != null) {
+                sb.append('{').append(labels);
+                if (extraLabel != null) sb.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+                sb.append('}');
+            }
+            sb.append(' ').append(value).append('\n');
+        }
+
+        abstract String type();
+
+        abstract void write(String name, StringBuilder sb);
+    }
+
+    private static final class Counter extends Series implements CounterHandle {
+        private final StripedCounter value;
+        private volatile boolean decremented;
+
+        Counter(MetricKey key, int stripes) {
+            super(key);
+            this.value = new StripedCounter(stripes);
+        }
+
+        @Override
+        public void increment(long delta) {
+            if (delta < 0 && !this.decremented) this.decremented = true;
+            this.value.add(delta);
+        }
+
+        @Override
+        String type() {
+            return this.decremented ? "gauge" : "counter";
+        }
+
+        @Override
+        void write(String name, StringBuilder sb) {
+            sample(name, null, this.value.sum(), sb);
+        }
+    }
+
+    private static final class Gauge extends Series implements GaugeHandle {
+        private volatile int value;
+
+        Gauge(MetricKey key) {
+            super(key);
+        }
+
+        @Override
+        public void set(long value) {
+            this.value = CounterHandles.clamp(value);
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void write(String name, StringBuilder sb) {
+            sample(name, null, this.value, sb);
+        }
+    }
+
+    /**
+     * The execution times in nanoseconds
+     */
+    private static final class Timer extends Series implements TimerHandle {
+        static final long NANOS_PER_MILLI = 1000000L;
+        private static final double SECONDS_PER_NANO = 1e-9;
+        private final LogLinearHistogram histogram;
+        private final StripedCounter count;
+        private final StripedCounter sum;
+        private volatile HistogramSnapshot completed;
+
+        Timer(MetricKey key, int stripes) {
+            super(key);
+            this.histogram = new LogLinearHistogram(stripes);
+            this.count = new StripedCounter(stripes);
+            this.sum = new StripedCounter(stripes);
+        }
+
+        @Override
+        public void record(long value) {
+            this.histogram.record(value);
+            this.count.add(1);
+            this.sum.add(value);
+        }
+
+        /**
+         * Completes the current window of the quantiles, and starts the next one
+         */
+        void rotate() {
+            this.completed = this.histogram.snapshotAndReset();
+        }
+
+        @Override
+        String type() {
+            return "summary";
+        }
+
+        @Override
+        void write(String name, StringBuilder sb) {
+            final HistogramSnapshot completed = this.completed;
+            final HistogramSnapshot snapshot = completed != null ? completed : this.histogram.snapshot();
+            for (double quantile : QUANTILES) {
+                // no values in the window
+                final Object value = snapshot.getCount() == 0 ? "NaN" : snapshot.getValueAtQuantile(quantile) * SECONDS_PER_NANO;
+                sample(name, "quantile=\"" + quantile + "\"", value, sb);
+            }
+            sample(name + "_sum", null, this.sum.sum() * SECONDS_PER_NANO, sb);
+            sample(name + "_count", null, this.count.sum(), sb);
+        }
+    }
+
+    /**
+     * The handle that records the execution times in milliseconds into the nanosecond {@link Timer}
+     */
+    private static final class MillisTimer implements TimerHandle {
+        private final Timer timer;
+
+        MillisTimer(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void record(long duration) {
+            this.timer.record(duration * Timer.NANOS_PER_MILLI);
+        }
+    }
+
+}
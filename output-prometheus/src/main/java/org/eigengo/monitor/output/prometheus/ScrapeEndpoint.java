@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.prometheus;
+
+import org.eigengo.monitor.output.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Minimal HTTP/1.1 server that answers the {@code GET} requests for a single path. A single low-priority
+ * daemon thread accepts the connections, reads the requests and writes the responses with non-blocking I/O;
+ * every response closes its connection. The body is produced by the {@link Scrape} only when a request
+ * arrives.
+ */
+final class ScrapeEndpoint implements Runnable {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAXIMUM_REQUEST_SIZE = 8192;
+
+    /**
+     * Produces the body of the response
+     */
+    interface Scrape {
+
+        /**
+         * Encodes the current values
+         *
+         * @return the UTF-8 encoded body
+         */
+        byte[] scrape();
+    }
+
+    private final String path;
+    private final Scrape scrape;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    /**
+     * Constructs this instance and starts serving the requests
+     *
+     * @param address the address to listen on
+     * @param path the path of the scrape requests
+     * @param scrape produces the body of the responses
+     * @throws IOException if the address cannot be bound
+     */
+    ScrapeEndpoint(InetSocketAddress address, String path, Scrape scrape) throws IOException {
+        this.path = path;
+        this.scrape = scrape;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.socket().setReuseAddress(true);
+        this.server.socket().bind(address);
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        new DaemonThreadFactory("monitor-prometheus").newThread(this).start();
+    }
+
+    /**
+     * Returns the port the endpoint listens on
+     *
+     * @return the port
+     */
+    int port() {
+        return this.server.socket().getLocalPort();
+    }
+
+    /**
+     * Stops serving the requests
+     */
+    void close() {
+        try {
+            this.selector.close();
+            this.server.close();
+        } catch (IOException e) {
+            // we are closing anyway
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (this.selector.isOpen()) {
+                this.selector.select();
+                final Iterator<SelectionKey> i = this.selector.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    final SelectionKey key = i.next();
+                    i.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        else if (key.isReadable()) read(key);
+                        else if (key.isWritable()) write(key);
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = this.server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.register(this.selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAXIMUM_REQUEST_SIZE));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final ByteBuffer request = (ByteBuffer) key.attachment();
+        if (channel.read(request) < 0) {
+            close(key);
+            return;
+        }
+
+        final String received = new String(request.array(), 0, request.position(), ASCII);
+        final ByteBuffer response;
+        if (received.contains("\r\n\r\n")) response = respond(received.substring(0, received.indexOf("\r\n")));
+        else if (!request.hasRemaining()) response = response("431 Request Header Fields Too Large", new byte[0]);
+        else return;
+
+        key.attach(response);
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        final ByteBuffer response = (ByteBuffer) key.attachment();
+        ((SocketChannel) key.channel()).write(response);
+        if (!response.hasRemaining()) close(key);
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // we are closing anyway
+        }
+    }
+
+    private ByteBuffer respond(String requestLine) {
+        final String[] parts = requestLine.split(" ");
+        if (parts.length != 3) return response("400 Bad Request", new byte[0]);
+        final int query = parts[1].indexOf('?');
+        final String requestPath = query < 0 ? parts[1] : parts[1].substring(0, query);
+        if (!requestPath.equals(this.path)) return response("404 Not Found", new byte[0]);
+        if (!parts[0].equals("GET")) return response("405 Method Not Allowed", new byte[0]);
+
+        return response("200 OK", this.scrape.scrape());
+    }
+
+    private static ByteBuffer response(String status, byte[] body) {
+        final byte[] head = ("HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n\r\n").getBytes(ASCII);
+        final ByteBuffer response = ByteBuffer.allocate(head.length + body.length);
+        response.put(head).put(body).flip();
+        return response;
+    }
+
+}
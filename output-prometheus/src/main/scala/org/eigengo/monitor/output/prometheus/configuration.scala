@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.prometheus
+
+import com.typesafe.config.Config
+
+/**
+ * Holds the configuration for the Prometheus output.
+ *
+ * @param host the address of the interface on which the scrape endpoint listens
+ * @param port the port of the scrape endpoint; ``0`` to pick any free port
+ * @param path the path of the scrape endpoint
+ * @param stripes the number of cells in each counter; typically the number of threads that update the
+ *                same counter concurrently
+ * @param quantileWindow the length (in seconds) of the window of the execution time quantiles
+ */
+case class PrometheusOutputConfiguration(host: String, port: Int, path: String, stripes: Int,
+                                         quantileWindow: Int = PrometheusCounterInterface.DEFAULT_QUANTILE_WINDOW)
+
+/**
+ * Companion object that makes instances of ``PrometheusOutputConfiguration`` from the
+ * instances of ``Config``.
+ */
+object PrometheusOutputConfiguration {
+
+  def apply(config: Config): PrometheusOutputConfiguration = {
+    val host = if (config.hasPath("host")) config.getString("host") else "0.0.0.0"
+    val port = if (config.hasPath("port")) config.getInt("port") else 9095
+    val path = if (config.hasPath("path")) config.getString("path") else "/metrics"
+    val stripes = if (config.hasPath("stripes")) config.getInt("stripes") else Runtime.getRuntime.availableProcessors()
+    val quantileWindow =
+      if (config.hasPath("quantileWindow")) config.getInt("quantileWindow") else PrometheusCounterInterface.DEFAULT_QUANTILE_WINDOW
+
+    require(port >= 0 && port < 65536, "Port must be between 0 and 65535")
+    require(path.startsWith("/"), "Path must start with /")
+    require(stripes > 0, "Stripes must be positive")
+    require(quantileWindow > 0, "Quantile window must be positive")
+
+    PrometheusOutputConfiguration(host, port, path, stripes, quantileWindow)
+  }
+
+}
+
+/**
+ * Exposes the ``PrometheusOutputConfiguration.apply(Config)`` function in Java-friendly API
+ */
+object PrometheusOutputConfigurationJapi {
+
+  def apply: Config => PrometheusOutputConfiguration = PrometheusOutputConfiguration.apply
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.prometheus
+
+import org.specs2.mutable.Specification
+import java.net.{HttpURLConnection, InetSocketAddress, URL}
+import scala.io.Source
+import org.eigengo.monitor.output.CounterHandles
+
+class PrometheusCounterInterfaceSpec extends Specification {
+  sequential
+
+  def get(counterInterface: PrometheusCounterInterface, path: String): (Int, List[String]) = {
+    val connection = new URL(s"http://localhost:${counterInterface.getPort}$path").openConnection().asInstanceOf[HttpURLConnection]
+    val status = connection.getResponseCode
+    val lines = if (status == 200) Source.fromInputStream(connection.getInputStream, "UTF-8").getLines().toList else Nil
+    connection.disconnect()
+    (status, lines)
+  }
+
+  "The Prometheus output" should {
+
+    "serve the aggregated values with the tags as labels" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2)
+      try {
+        counterInterface.incrementCounter("akka.actor.delivered.String", "akka.path:akka://default/user/foo", "akka.system:default")
+        counterInterface.incrementCounter("akka.actor.delivered.String", 4, "akka.path:akka://default/user/foo", "akka.system:default")
+        counterInterface.recordGaugeValue("akka.pool.size", 8, "akka.dispatcher:default")
+        (1 to 100).foreach(i => counterInterface.recordExecutionTimeNanos("akka.actor.duration", i * 1000L))
+
+        val (status, lines) = get(counterInterface, "/metrics")
+        status mustEqual 200
+        lines must contain("# TYPE akka_actor_delivered_String counter")
+        lines must contain("""akka_actor_delivered_String{akka_path="akka://default/user/foo",akka_system="default"} 5""")
+        lines must contain("# TYPE akka_pool_size gauge")
+        lines must contain("""akka_pool_size{akka_dispatcher="default"} 8""")
+        lines must contain("# TYPE akka_actor_duration_seconds summary")
+        lines must contain("akka_actor_duration_seconds_count 100")
+        lines must contain("""akka_actor_duration_seconds{quantile="0.99"} 1.0E-4""")
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "report the same quantiles to every scrape until the window rotates" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2, 1)
+      def median(lines: List[String]): String = lines.find(_.startsWith("""akka_actor_duration_seconds{quantile="0.5"}""")).get
+      try {
+        (1 to 100).foreach(i => counterInterface.recordExecutionTimeNanos("akka.actor.duration", i * 1000L))
+        // the first window has completed
+        Thread.sleep(1500)
+        counterInterface.recordExecutionTimeNanos("akka.actor.duration", 1000000000L)
+
+        val first = get(counterInterface, "/metrics")._2
+        val second = get(counterInterface, "/metrics")._2
+        second mustEqual first
+        first must contain("""akka_actor_duration_seconds{quantile="0.99"} 1.0E-4""")
+        first must contain("akka_actor_duration_seconds_count 101")
+
+        // the second window, with only the last value, has completed
+        Thread.sleep(1000)
+        median(get(counterInterface, "/metrics")._2) must not equalTo median(first)
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "report the counters that go down as gauges" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2)
+      try {
+        counterInterface.incrementCounter("akka.actor.count")
+        counterInterface.decrementCounter("akka.actor.count")
+
+        get(counterInterface, "/metrics")._2 must contain("# TYPE akka_actor_count gauge")
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "combine the execution times in milliseconds and nanoseconds into one summary" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2)
+      try {
+        counterInterface.recordExecutionTime("akka.actor.duration", 2, "akka.system:default")
+        counterInterface.recordExecutionTimeNanos("akka.actor.duration", 1000000L, "akka.system:default")
+        CounterHandles.executionTime(counterInterface, "akka.actor.duration", "akka.system:default").record(1)
+
+        val lines = get(counterInterface, "/metrics")._2
+        lines.filter(_.startsWith("# TYPE akka_actor_duration_seconds")) mustEqual List("# TYPE akka_actor_duration_seconds summary")
+        lines.filter(_.startsWith("akka_actor_duration_seconds_count")) mustEqual
+          List("""akka_actor_duration_seconds_count{akka_system="default"} 3""")
+        lines must contain("""akka_actor_duration_seconds_sum{akka_system="default"} 0.004""")
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "expose the gauges that share the name of a counter with a suffix" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2)
+      try {
+        counterInterface.incrementCounter("akka.actor.count", 3, "akka.system:default")
+        counterInterface.recordGaugeValue("akka.actor.count", 5, "akka.system:default")
+        counterInterface.recordGaugeValue("akka.pool.size", 8, "akka.system:default")
+
+        val lines = get(counterInterface, "/metrics")._2
+        lines must contain("# TYPE akka_actor_count counter")
+        lines must contain("""akka_actor_count{akka_system="default"} 3""")
+        lines must contain("# TYPE akka_actor_count_gauge gauge")
+        lines must contain("""akka_actor_count_gauge{akka_system="default"} 5""")
+        lines must contain("""akka_pool_size{akka_system="default"} 8""")
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "answer the other paths with 404" in {
+      val counterInterface = new PrometheusCounterInterface(new InetSocketAddress("localhost", 0), "/metrics", 2)
+      try {
+        get(counterInterface, "/other")._1 mustEqual 404
+      } finally {
+        counterInterface.close()
+      }
+    }
+
+    "escape the label values" in {
+      PrometheusCounterInterface.labels(Array("a.b:x\"y", "flag", "a.b:z")) mustEqual """a_b="x\"y,z",flag="true""""
+      PrometheusCounterInterface.sanitizeName("akka.actor.error.IOException$1") mustEqual "akka_actor_error_IOException_1"
+    }
+  }
+
+}
@@ -17,19 +17,28 @@ package org.eigengo.monitor.output.statsd;
 
 import com.timgroup.statsd.NonBlockingStatsDClient;
 import com.timgroup.statsd.StatsDClient;
-import org.eigengo.monitor.output.CounterInterface;
+import org.eigengo.monitor.output.BindingCounterInterface;
+import org.eigengo.monitor.output.CounterHandle;
+import org.eigengo.monitor.output.CounterHandles;
+import org.eigengo.monitor.output.GaugeHandle;
+import org.eigengo.monitor.output.HistogramGauges;
 import org.eigengo.monitor.output.OutputConfigurationFactory;
+import org.eigengo.monitor.output.TimerHandle;
 
 import java.util.Arrays;
-import java.util.Map;
 import java.util.concurrent.*;
 
 /**
- * Submits the counters to the local statsd interface
+ * Submits the counters to the local statsd interface. The nanosecond execution times are recorded
+ * in histograms, which are sent as percentile gauges every {@code refresh} seconds.
+ *
+ * The bound handles sanitize their tags once, and the bound gauges keep their slot in the gauges that are
+ * sent again every {@code refresh} seconds; the statsd client then formats the values.
  */
-public class StatsdCounterInterface implements CounterInterface {
+public class StatsdCounterInterface implements BindingCounterInterface {
     private final StatsDClient statsd;
-    private final Map<String, Metric> gaugeValues;
+    private final ConcurrentMap<String, Metric> gaugeValues;
+    private final HistogramGauges histograms;
 
     /**
      * Constructs this instance by loading the {@code output.conf} configuration, and then looking
@@ -41,6 +50,12 @@ public class StatsdCounterInterface implements CounterInterface {
         this.statsd = new NonBlockingStatsDClient(configuration.prefix(),
                 configuration.remoteAddress(), configuration.remotePort(), configuration.constantTags());
         this.gaugeValues = new ConcurrentHashMap<>();
+        this.histograms = new HistogramGauges(Runtime.getRuntime().availableProcessors()) {
+            @Override
+            protected void gauge(String aspect, int value, String[] tags) {
+                statsd.recordGaugeValue(aspect, value, sanitize(tags));
+            }
+        };
 
         final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1, new ThreadFactory() {
             private final ThreadFactory delegate = Executors.defaultThreadFactory();
@@ -65,6 +80,7 @@ public class StatsdCounterInterface implements CounterInterface {
                 for (Metric metric : gaugeValues.values()) {
                     statsd.recordGaugeValue(metric.aspect, metric.value, metric.tags);
                 }
+                histograms.flush();
             }
         }, configuration.refresh(), configuration.refresh(), TimeUnit.SECONDS);
         //Shutdown scheduler
@@ -95,12 +111,80 @@ public class StatsdCounterInterface implements CounterInterface {
     public void recordGaugeValue(String aspect, int value, String... tags) {
         final String[] sanitized = sanitize(tags);
         this.statsd.recordGaugeValue(aspect, value, sanitized);
-        this.gaugeValues.put(aspect + Arrays.toString(sanitized), new Metric(aspect, value, sanitized));
+        gauge(aspect, sanitized).value = value;
     }
 
     @Override
     public void recordExecutionTime(String aspect, int duration, String... tags) {
-        this.statsd.recordExecutionTime(aspect, duration, tags);
+        this.statsd.recordExecutionTime(aspect, duration, sanitize(tags));
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        this.histograms.record(aspect, duration, tags);
+    }
+
+    @Override
+    public CounterHandle bindCounter(final String aspect, String... tags) {
+        final String[] sanitized = sanitize(tags);
+        return new CounterHandle() {
+            @Override
+            public void increment(long delta) {
+                statsd.count(aspect, CounterHandles.clamp(delta), sanitized);
+            }
+        };
+    }
+
+    @Override
+    public GaugeHandle bindGauge(final String aspect, String... tags) {
+        final String[] sanitized = sanitize(tags);
+        return new GaugeHandle() {
+            // the gauge is sent again every refresh only once it has a value
+            private volatile Metric metric;
+
+            @Override
+            public void set(long value) {
+                final int v = CounterHandles.clamp(value);
+                statsd.recordGaugeValue(aspect, v, sanitized);
+                Metric metric = this.metric;
+                if (metric == null) this.metric = metric = gauge(aspect, sanitized);
+                metric.value = v;
+            }
+        };
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(final String aspect, String... tags) {
+        final String[] sanitized = sanitize(tags);
+        return new TimerHandle() {
+            @Override
+            public void record(long duration) {
+                statsd.recordExecutionTime(aspect, CounterHandles.clamp(duration), sanitized);
+            }
+        };
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return this.histograms.bind(aspect, tags);
+    }
+
+    /**
+     * Returns the gauge that is sent again every {@code refresh} seconds for the {@code aspect} and {@code sanitized}
+     * tags, creating it if needed
+     *
+     * @param aspect the aspect
+     * @param sanitized the sanitized tags
+     * @return the gauge
+     */
+    private Metric gauge(String aspect, String[] sanitized) {
+        final String key = aspect + Arrays.toString(sanitized);
+        final Metric metric = this.gaugeValues.get(key);
+        if (metric != null) return metric;
+
+        final Metric newMetric = new Metric(aspect, sanitized);
+        final Metric existing = this.gaugeValues.putIfAbsent(key, newMetric);
+        return existing != null ? existing : newMetric;
     }
 
     /**
@@ -118,16 +202,15 @@ public class StatsdCounterInterface implements CounterInterface {
     }
 
     /**
-     * Simple gauge container holding the {@code aspect}, {@code value} and {@code tags}.
+     * Simple gauge container holding the {@code aspect}, the last {@code value} and {@code tags}.
      */
     private final static class Metric {
         private final String aspect;
-        private final int value;
+        private volatile int value;
         private final String[] tags;
 
-        private Metric(String aspect, int value, String[] tags) {
+        private Metric(String aspect, String[] tags) {
             this.aspect = aspect;
-            this.value = value;
             this.tags = tags;
         }
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.statsd
+
+import org.eigengo.monitor.output._
+import java.io.IOException
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.{TimeUnit, Executors}
+import scala.collection.mutable
+
+/**
+ * CounterInterface implementation that sends the values to statsd from a single background thread. The
+ * monitored threads only publish the values into a bounded ring buffer; the background thread packs them
+ * into datagrams of up to ``maximumPacketSize`` bytes, which wait at most ``maximumLinger`` milliseconds,
+ * and sends them through a non-blocking ``DatagramChannel``.
+ *
+ * The bound handles encode their aspects, tags and types once; the background thread then only writes
+ * their values between the encoded bytes.
+ *
+ * @param configuration the output configuration
+ */
+class BufferedStatsdCounterInterface(val configuration: OutputConfiguration[StatsdOutputConfiguration])
+  extends RingBufferCounterInterface("monitor-statsd",
+    configuration.outputConfig.buffer.capacity, configuration.outputConfig.buffer.policy,
+    configuration.outputConfig.refresh, TimeUnit.SECONDS) {
+
+  /**
+   * Constructs this instance by loading the ``statsd`` output configuration
+   */
+  def this() = this(OutputConfigurationFactory.getAgentCofiguration("statsd")(StatsdOutputConfiguration.apply))
+
+  val outputConfiguration = configuration.outputConfig
+
+  // the drain thread is the only user of the channel and the packer
+  private val remote = outputConfiguration.inetSocketAddress
+  private val channel = DatagramChannel.open()
+  channel.configureBlocking(false)
+  private val marshaller = new DataDogStatisticMarshaller {
+    val constantTags: Seq[String] = outputConfiguration.constantTags
+  }
+  private val packer = new DatagramPacker(marshaller, outputConfiguration.prefix, outputConfiguration.maximumPacketSize,
+    { packet =>
+      try channel.send(packet, remote)
+      catch { case _: IOException => } // lost, just like the datagrams that the kernel drops
+    })
+  private val maximumLingerNanos = TimeUnit.MILLISECONDS.toNanos(outputConfiguration.maximumLinger)
+  private var packetStarted = 0L
+
+  // the nanosecond execution times are sent as percentile gauges every ``refresh`` seconds
+  private val histograms = new HistogramGauges(Runtime.getRuntime.availableProcessors()) {
+    protected def gauge(aspect: String, value: Int, tags: Array[String]): Unit = publishGauge(aspect, value, tags)
+  }
+  Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("monitor-statsd-histograms")).scheduleAtFixedRate(new Runnable {
+    def run(): Unit = histograms.flush()
+  }, outputConfiguration.refresh, outputConfiguration.refresh, TimeUnit.SECONDS)
+
+  start()
+
+  private def publishGauge(aspect: String, value: Int, tags: Array[String]): Unit =
+    publish(EventRingBuffer.GAUGE, aspect, value, tags)
+
+  protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit = {
+    if (packer.append(kind, aspect, value, tags)) packetStarted = System.nanoTime()
+    if (maximumLingerNanos == 0) packer.flush()
+  }
+
+  override protected def encode(kind: Int, aspect: String, tags: Array[String]): AnyRef =
+    packer.encode(kind, aspect, tags)
+
+  override protected def onEncodedEvent(kind: Int, aspect: String, value: Long, tags: Array[String], encoded: AnyRef): Unit = {
+    if (packer.append(encoded.asInstanceOf[EncodedStatistic], value)) packetStarted = System.nanoTime()
+    if (maximumLingerNanos == 0) packer.flush()
+  }
+
+  override protected def onIdle(): Unit =
+    if (!packer.isEmpty && System.nanoTime() - packetStarted >= maximumLingerNanos) packer.flush()
+
+  override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = tags match {
+    // the Java callers' varargs arrive wrapped; we record the array without copying it
+    case wrapped: mutable.WrappedArray[String @unchecked] => histograms.record(aspect, duration, wrapped.array)
+    case _                                                => histograms.record(aspect, duration, tags.toArray)
+  }
+
+  override def bindExecutionTimeNanos(aspect: String, tags: String*): TimerHandle =
+    histograms.bind(aspect, tags.toArray)
+
+}
+
+/**
+ * The former name of the ``BufferedStatsdCounterInterface``, kept for the existing configurations; the values
+ * used to be sent by an Akka IO actor in a separate ``ActorSystem``.
+ *
+ * @param configuration the output configuration
+ */
+@deprecated("Use the BufferedStatsdCounterInterface", "0.4")
+class AkkaIOStatsdCounterInterface(configuration: OutputConfiguration[StatsdOutputConfiguration])
+  extends BufferedStatsdCounterInterface(configuration) {
+
+  /**
+   * Constructs this instance by loading the ``statsd`` output configuration
+   */
+  def this() = this(OutputConfigurationFactory.getAgentCofiguration("statsd")(StatsdOutputConfiguration.apply))
+
+}
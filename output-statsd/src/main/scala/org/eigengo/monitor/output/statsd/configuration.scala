@@ -17,6 +17,7 @@ package org.eigengo.monitor.output.statsd
 
 import com.typesafe.config.Config
 import java.net.InetSocketAddress
+import org.eigengo.monitor.output.RingBufferConfiguration
 
 /**
  * Holds the configuration for the Statsd output.
@@ -26,10 +27,15 @@ import java.net.InetSocketAddress
  * @param refresh how often (in seconds) should the agent report the number of actors
  * @param prefix the prefix to apply to all values sent to statsd
  * @param constantTags the constant tags (in form of ``[tag:value]``) to apply to all values sent to statsd
+ * @param maximumPacketSize the maximum size (in bytes) of a datagram that packs multiple values
+ * @param maximumLinger how long (in milliseconds) can a value wait for other values to fill its datagram
+ * @param buffer the configuration of the ``BufferedStatsdCounterInterface``'s ring buffer
  */
 case class StatsdOutputConfiguration(remoteAddress: String, remotePort: Int,
                                       refresh: Int,
-                                      prefix: String, constantTags: Array[String]) {
+                                      prefix: String, constantTags: Array[String],
+                                      maximumPacketSize: Int, maximumLinger: Int,
+                                      buffer: RingBufferConfiguration) {
 
   /**
    * Returns the ``InetSocketAddress`` from the ``remoteAddress`` and ``remotePort``
@@ -52,8 +58,11 @@ object StatsdOutputConfiguration {
     val refresh = config.getInt("refresh")
     val tagList = config.getStringList("constantTags")
     val constantTags: Array[String] = tagList.toArray(Array.ofDim(tagList.size()))
+    val maximumPacketSize = if (config.hasPath("maximumPacketSize")) config.getInt("maximumPacketSize") else 1432
+    val maximumLinger = if (config.hasPath("maximumLinger")) config.getInt("maximumLinger") else 10
 
-    StatsdOutputConfiguration(remoteAddress, remotePort, refresh, prefix, constantTags)
+    StatsdOutputConfiguration(remoteAddress, remotePort, refresh, prefix, constantTags, maximumPacketSize, maximumLinger,
+      RingBufferConfiguration(config))
   }
 
 }
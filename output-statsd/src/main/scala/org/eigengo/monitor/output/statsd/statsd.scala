@@ -15,67 +15,115 @@
  */
 package org.eigengo.monitor.output.statsd
 
-import akka.actor.{Actor, ActorRef}
-import akka.io.{IO, Udp}
-import java.net.InetSocketAddress
-import akka.util.ByteString
+import java.nio.{BufferOverflowException, ByteBuffer}
+import java.nio.charset.Charset
+import org.eigengo.monitor.output.EventRingBuffer
 
 /**
- * Companion object for the ``StatsdActor``, containing the messages that it can handle
+ * Writes the statistics and some ``prefix`` into a ``ByteBuffer``
  */
-object StatsdActor {
+trait StatisticMarshaller {
 
   /**
-   * Common supertype for all ``StatsdStatistic``s
+   * Writes the statistic into the ``buffer``, starting at its current position
+   *
+   * @param kind the kind of the statistic; one of the ``EventRingBuffer`` constants
+   * @param aspect the aspect
+   * @param value the value
+   * @param tags the tags
+   * @param prefix the UTF-8 encoded prefix, including the trailing ``.``
+   * @param buffer the buffer to write to
+   * @throws BufferOverflowException if the statistic does not fit into the ``buffer``
    */
-  sealed trait StatsdStatistic
+  def write(kind: Int, aspect: String, value: Long, tags: Seq[String], prefix: Array[Byte], buffer: ByteBuffer): Unit
 
   /**
-   * A counter increments or decrements the specified ``aspect`` by ``delta``, optionally containing
-   * non-empty ``tags``.
+   * Encodes everything but the value of the statistic, so that the statistics of a bound handle can be
+   * written by copying the encoded bytes around the value
    *
-   * @param aspect the aspect identifying the counter
-   * @param delta the delta
-   * @param tags the optional tags (DD extension)
+   * @param kind the kind of the statistic; one of the ``EventRingBuffer`` constants
+   * @param aspect the aspect
+   * @param tags the tags
+   * @param prefix the UTF-8 encoded prefix, including the trailing ``.``
+   * @return the encoded statistic
    */
-  case class Counter(aspect: String, delta: Int, tags: Seq[String] = Nil) extends StatsdStatistic
+  def encode(kind: Int, aspect: String, tags: Seq[String], prefix: Array[Byte]): EncodedStatistic
+
+}
+
+/**
+ * The statistic of a bound handle, encoded without its value
+ *
+ * @param head the bytes before the value, e.g. ``prefix.aspect:``
+ * @param tail the bytes after the value, e.g. ``|c|#tag1,tag2``
+ */
+class EncodedStatistic(val head: Array[Byte], val tail: Array[Byte])
+
+/**
+ * Contains the encoding helpers for the ``StatisticMarshaller``s
+ */
+object StatisticMarshaller {
+  private[statsd] val UTF8 = Charset.forName("UTF-8")
 
   /**
-   * A gauge records a ``value`` identified by ``aspect``, optionally containing
-   * non-empty ``tags``.
+   * Writes the UTF-8 encoded ``s`` into the ``buffer``. The ASCII characters (which make up the
+   * typical aspects and tags) are written directly, without allocating any intermediate arrays.
    *
-   * @param aspect the aspect identifying the gauge
-   * @param value the gauge value
-   * @param tags the optional tags (DD extension)
+   * @param s the string to write
+   * @param buffer the buffer to write to
    */
-  case class Gauge(aspect: String, value: Int, tags: Seq[String] = Nil) extends StatsdStatistic
+  def putString(s: String, buffer: ByteBuffer): Unit = {
+    var i = 0
+    while (i < s.length) {
+      val c = s.charAt(i)
+      if (c >= 0x80) {
+        buffer.put(s.substring(i).getBytes(UTF8))
+        return
+      }
+      buffer.put(c.toByte)
+      i += 1
+    }
+  }
 
   /**
-   * An execution execution time records time in milliseconds for the given ``aspect``, with
-   * optional ``tags``.
+   * Computes the number of bytes that ``putString`` writes for ``s``
    *
-   * @param aspect the aspect identifying the execution time
-   * @param timeMs the time in milliseconds
-   * @param tags the optional tags (DD extension)
+   * @param s the string
+   * @return the length of the UTF-8 encoded ``s``
    */
-  case class ExecutionTime(aspect: String, timeMs: Int, tags: Seq[String] = Nil) extends StatsdStatistic
-
-}
-
-/**
- * Turns the ``StatsdStatistic`` and some ``prefix`` into a ``ByteString``
- */
-trait StatisticMarshaller {
-  import StatsdActor._
+  def stringLength(s: String): Int = {
+    var i = 0
+    while (i < s.length) {
+      if (s.charAt(i) >= 0x80) return i + s.substring(i).getBytes(UTF8).length
+      i += 1
+    }
+    s.length
+  }
 
   /**
-   * Formats the ``statistic`` into the appropriate ``ByteString``
+   * Writes the decimal representation of ``value`` into the ``buffer``
    *
-   * @param statistic the statistic to format
-   * @param prefix the prefix, including the trailing ``.``
-   * @return the formatted value that can be sent to the statsd server
+   * @param value the value to write
+   * @param buffer the buffer to write to
    */
-  def toByteString(statistic: StatsdStatistic, prefix: String): ByteString
+  def putLong(value: Long, buffer: ByteBuffer): Unit = {
+    if (value == Long.MinValue) {
+      putString(value.toString, buffer)
+      return
+    }
+    var v = value
+    if (v < 0) {
+      buffer.put('-'.toByte)
+      v = -v
+    }
+    var divisor = 1L
+    while (divisor <= v / 10) divisor *= 10
+    while (divisor > 0) {
+      buffer.put(('0' + v / divisor).toByte)
+      v %= divisor
+      divisor /= 10
+    }
+  }
 
 }
 
@@ -83,52 +131,203 @@ trait StatisticMarshaller {
  * Implements the DataDog extensions
  */
 trait DataDogStatisticMarshaller extends StatisticMarshaller {
-  import StatsdActor._
+  import StatisticMarshaller._
   def constantTags: Seq[String]
 
-  private def tagString(tags: Seq[String]): String =
-    if (tags.isEmpty) "" else {
-      // mutable, but we need speed
-      val b = new StringBuilder("|#")
-      tags.foreach { tag => if (b.length > 2) b.append(','); b.append(tag) }
-      b.toString()
+  private val CounterType = "|c".getBytes(UTF8)
+  private val GaugeType = "|g".getBytes(UTF8)
+  private val ExecutionTimeType = "|ms".getBytes(UTF8)
+  private val TagsStart = "|#".getBytes(UTF8)
+
+  // lazy, because the ``constantTags`` are typically defined in the subclass
+  private lazy val encodedConstantTags: Array[Byte] =
+    if (constantTags.isEmpty) Array.emptyByteArray else ("|#" + constantTags.mkString(",")).getBytes(UTF8)
+
+  private def putTags(tags: Seq[String], buffer: ByteBuffer): Unit = {
+    val constant = encodedConstantTags
+    buffer.put(constant)
+    if (tags.nonEmpty) {
+      var first = constant.length == 0
+      if (first) buffer.put(TagsStart)
+      val i = tags.iterator
+      while (i.hasNext) {
+        if (!first) buffer.put(','.toByte)
+        putString(i.next(), buffer)
+        first = false
+      }
     }
+  }
 
-  private def format(prefix: String, aspect: String, value: Int, clazz: String, tags: Seq[String]): ByteString =
-    ByteString("%s%s:%d|%s%s".format(prefix, aspect, value, clazz, tagString(tags)))
+  private def tagsLength(tags: Seq[String]): Int = {
+    val constant = encodedConstantTags.length
+    if (tags.isEmpty) constant
+    else {
+      // the constant tags, or the start of the tags; then the tags, each after a comma but for the very first
+      var length = if (constant == 0) TagsStart.length - 1 else constant
+      val i = tags.iterator
+      while (i.hasNext) length += stringLength(i.next()) + 1
+      length
+    }
+  }
+
+  private def typeOf(kind: Int): Array[Byte] = kind match {
+    case EventRingBuffer.COUNTER        => CounterType
+    case EventRingBuffer.GAUGE          => GaugeType
+    case EventRingBuffer.EXECUTION_TIME => ExecutionTimeType
+    case _                              => throw new IllegalArgumentException(s"Unsupported statistic kind $kind")
+  }
 
-  override def toByteString(statistic: StatsdStatistic, prefix: String): ByteString = statistic match {
-    case Counter(aspect, delta, tags)        => format(prefix, aspect, delta, "c", constantTags ++ tags)
-    case Gauge(aspect, value, tags)          => format(prefix, aspect, value, "g", constantTags ++ tags)
-    case ExecutionTime(aspect, timeMs, tags) => format(prefix, aspect, timeMs, "ms", constantTags ++ tags)
+  override def write(kind: Int, aspect: String, value: Long, tags: Seq[String], prefix: Array[Byte], buffer: ByteBuffer): Unit = {
+    val clazz = typeOf(kind)
+    buffer.put(prefix)
+    putString(aspect, buffer)
+    buffer.put(':'.toByte)
+    putLong(value, buffer)
+    buffer.put(clazz)
+    putTags(tags, buffer)
+  }
+
+  override def encode(kind: Int, aspect: String, tags: Seq[String], prefix: Array[Byte]): EncodedStatistic = {
+    val clazz = typeOf(kind)
+    // the arrays are sized exactly, which leaves no garbage behind but the EncodedStatistic
+    val head = new Array[Byte](prefix.length + stringLength(aspect) + 1)
+    val tail = new Array[Byte](clazz.length + tagsLength(tags))
+    if (head.length + tail.length > DatagramPacker.MaximumDatagramSize) throw new BufferOverflowException()
+
+    val headBuffer = ByteBuffer.wrap(head)
+    headBuffer.put(prefix)
+    putString(aspect, headBuffer)
+    headBuffer.put(':'.toByte)
+    val tailBuffer = ByteBuffer.wrap(tail)
+    tailBuffer.put(clazz)
+    putTags(tags, tailBuffer)
+    new EncodedStatistic(head, tail)
   }
 
 }
 
 /**
- * Sends the received ``StatsdStatistic`` messages to the statsd server.
+ * Contains the datagram sizes for the ``DatagramPacker``
+ */
+object DatagramPacker {
+
+  /**
+   * The largest payload of a UDP datagram
+   */
+  val MaximumDatagramSize = 65507
+
+  /**
+   * The maximum datagram size that fits into the Ethernet MTU, leaving room for the IP and UDP headers
+   */
+  val DefaultMaximumPacketSize = 1432
+
+}
+
+/**
+ * Packs the statistics into newline-separated datagrams of up to ``maximumPacketSize`` bytes. The statistics
+ * are encoded into reusable buffers; the full datagrams are passed to ``send``, which must consume the
+ * buffer before it returns. A statistic larger than the ``maximumPacketSize`` is sent in its own datagram.
+ * The instances are not thread-safe.
  *
- * @param remote the address of the statsd server
- * @param prefix the constant prefix for all messages. Must be empty or end with ``.``
+ * @param marshaller the marshaller that encodes the statistics
+ * @param prefix the constant prefix for all statistics. Must be empty or end with ``.``
+ * @param maximumPacketSize the maximum size of the datagrams
+ * @param send the function that sends the datagram between the buffer's position and limit
  */
-class StatsdActor(remote: InetSocketAddress, prefix: String) extends Actor {
-  this: StatisticMarshaller =>
+class DatagramPacker(marshaller: StatisticMarshaller, prefix: String, maximumPacketSize: Int, send: ByteBuffer => Unit) {
+  import DatagramPacker._
 
   require(prefix.isEmpty || prefix.endsWith("."), "Prefix must be empty or end with '.'")
+  require(maximumPacketSize > 0 && maximumPacketSize <= MaximumDatagramSize,
+    s"Maximum packet size must be between 1 and $MaximumDatagramSize")
 
-  import context.system
-  import StatsdActor._
+  private val encodedPrefix = prefix.getBytes(StatisticMarshaller.UTF8)
+  private val statistic = ByteBuffer.allocate(MaximumDatagramSize)
+  private val packet = ByteBuffer.allocate(maximumPacketSize)
 
-  IO(Udp) ! Udp.SimpleSender
+  /**
+   * Appends the statistic
+   *
+   * @param kind the kind of the statistic; one of the ``EventRingBuffer`` constants
+   * @param aspect the aspect
+   * @param value the value
+   * @param tags the tags
+   * @return ``true`` if the statistic started a new datagram
+   */
+  def append(kind: Int, aspect: String, value: Long, tags: Seq[String]): Boolean = {
+    statistic.clear()
+    try {
+      marshaller.write(kind, aspect, value, tags, encodedPrefix, statistic)
+    } catch {
+      case _: BufferOverflowException => return false // does not fit into any UDP datagram
+    }
+    appendStatistic()
+  }
 
-  def receive: Receive = {
-    case Udp.SimpleSenderReady =>
-      context.become(ready(sender))
+  /**
+   * Encodes the statistic of a bound handle; unlike the other methods, it may be called from any thread
+   *
+   * @param kind the kind of the statistic; one of the ``EventRingBuffer`` constants
+   * @param aspect the aspect
+   * @param tags the tags
+   * @return the encoded statistic, or ``null`` if it does not fit into any UDP datagram
+   */
+  def encode(kind: Int, aspect: String, tags: Seq[String]): EncodedStatistic =
+    try {
+      marshaller.encode(kind, aspect, tags, encodedPrefix)
+    } catch {
+      case _: BufferOverflowException => null
+    }
+
+  /**
+   * Appends the statistic of a bound handle
+   *
+   * @param encoded the statistic encoded by ``encode``
+   * @param value the value
+   * @return ``true`` if the statistic started a new datagram
+   */
+  def append(encoded: EncodedStatistic, value: Long): Boolean = {
+    statistic.clear()
+    try {
+      statistic.put(encoded.head)
+      StatisticMarshaller.putLong(value, statistic)
+      statistic.put(encoded.tail)
+    } catch {
+      case _: BufferOverflowException => return false // does not fit into any UDP datagram
+    }
+    appendStatistic()
   }
 
-  def ready(send: ActorRef): Receive = {
-    case stat: StatsdStatistic =>
-      val payload = toByteString(stat, prefix)
-      send ! Udp.Send(payload, remote)
+  private def appendStatistic(): Boolean = {
+    statistic.flip()
+    val separator = if (packet.position() == 0) 0 else 1
+    if (statistic.remaining() + separator > packet.remaining()) flush()
+
+    if (statistic.remaining() > packet.remaining()) {
+      send(statistic)
+      false
+    } else {
+      val started = packet.position() == 0
+      if (!started) packet.put('\n'.toByte)
+      packet.put(statistic)
+      started
+    }
   }
+
+  /**
+   * Sends the current datagram, if it contains any statistics
+   */
+  def flush(): Unit = if (packet.position() > 0) {
+    packet.flip()
+    send(packet)
+    packet.clear()
+  }
+
+  /**
+   * Returns ``true`` if the current datagram has no statistics
+   *
+   * @return ``true`` if there is nothing to send
+   */
+  def isEmpty: Boolean = packet.position() == 0
+
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output.statsd
+
+import org.specs2.mutable.Specification
+import akka.actor.{Props, ActorSystem}
+import com.typesafe.config.ConfigFactory
+import java.nio.ByteBuffer
+import java.util.concurrent.{TimeUnit, LinkedBlockingQueue}
+import org.eigengo.monitor.output.{RingBufferConfiguration, OutputConfiguration, EventRingBuffer}
+
+class DatagramPackerSpec extends Specification {
+  sequential
+  import EventRingBuffer._
+
+  def marshaller(tags: String*) = new DataDogStatisticMarshaller {
+    val constantTags: Seq[String] = tags
+  }
+
+  def format(m: StatisticMarshaller, kind: Int, aspect: String, value: Long, tags: Seq[String] = Nil, prefix: String = ""): String = {
+    val buffer = ByteBuffer.allocate(DatagramPacker.MaximumDatagramSize)
+    m.write(kind, aspect, value, tags, prefix.getBytes("UTF-8"), buffer)
+    new String(buffer.array(), 0, buffer.position(), "UTF-8")
+  }
+
+  "Marshalling the statistics" should {
+
+    "Format the values, types and tags" in {
+      format(marshaller(), COUNTER, "a.b", 1) mustEqual "a.b:1|c"
+      format(marshaller(), GAUGE, "a.b", -42, Seq("x:y"), "p.") mustEqual "p.a.b:-42|g|#x:y"
+      format(marshaller(), EXECUTION_TIME, "a.b", Long.MinValue) mustEqual "a.b:-9223372036854775808|ms"
+      format(marshaller("t1:v1", "t2:v2"), COUNTER, "a", 0) mustEqual "a:0|c|#t1:v1,t2:v2"
+      format(marshaller("t1:v1"), COUNTER, "a", 10, Seq("x", "y")) mustEqual "a:10|c|#t1:v1,x,y"
+    }
+
+    "Encode the non-ASCII characters" in {
+      format(marshaller(), COUNTER, "a.žluťoučký", 1, Seq("kůň")) mustEqual "a.žluťoučký:1|c|#kůň"
+    }
+
+    "Write into the buffer at its position" in {
+      val buffer = ByteBuffer.allocate(32)
+      val m = marshaller()
+      m.write(COUNTER, "a", 1, Nil, Array.emptyByteArray, buffer)
+      m.write(COUNTER, "b", 2, Nil, Array.emptyByteArray, buffer)
+      new String(buffer.array(), 0, buffer.position(), "UTF-8") mustEqual "a:1|cb:2|c"
+    }
+
+    "Write the values of the bound handles between the encoded bytes" in {
+      val datagrams = new LinkedBlockingQueue[String]()
+      val packer = new DatagramPacker(marshaller("t1:v1"), "p.", 1432,
+        { payload => datagrams.offer(new String(payload.array(), payload.position(), payload.remaining(), "UTF-8")) })
+      val gauge = packer.encode(GAUGE, "a.b", Seq("x:y"))
+      packer.append(gauge, -42)
+      packer.append(gauge, Long.MaxValue)
+      packer.append(packer.encode(COUNTER, "c", Nil), 1)
+      packer.flush()
+
+      datagrams.poll() mustEqual s"p.a.b:-42|g|#t1:v1,x:y\np.a.b:${Long.MaxValue}|g|#t1:v1,x:y\np.c:1|c|#t1:v1"
+    }
+
+    "Encode the bound handles into exactly sized bytes" in {
+      def encoded(m: DataDogStatisticMarshaller, aspect: String, tags: Seq[String]): String = {
+        val e = m.encode(COUNTER, aspect, tags, "p.".getBytes("UTF-8"))
+        new String(e.head, "UTF-8") + "7" + new String(e.tail, "UTF-8")
+      }
+      for {
+        m    <- Seq(marshaller(), marshaller("t1:v1"), marshaller("t1:v1", "t2:v2"))
+        tags <- Seq(Nil, Seq("x"), Seq("x:y", "kůň"))
+      } {
+        encoded(m, "a.žluťoučký", tags) mustEqual format(m, COUNTER, "a.žluťoučký", 7, tags, "p.")
+      }
+      success
+    }
+
+  }
+
+  "Packing the statistics" should {
+
+    def packer(maximumPacketSize: Int, datagrams: LinkedBlockingQueue[String]) =
+      new DatagramPacker(marshaller(), "", maximumPacketSize,
+        { payload => datagrams.offer(new String(payload.array(), payload.position(), payload.remaining(), "UTF-8")) })
+
+    "Pack the statistics into a single datagram" in {
+      val datagrams = new LinkedBlockingQueue[String]()
+      val p = packer(1432, datagrams)
+      p.append(COUNTER, "a", 1, Nil) must beTrue
+      p.append(GAUGE, "b", 2, Nil) must beFalse
+      p.append(EXECUTION_TIME, "c", 3, Nil) must beFalse
+      datagrams.isEmpty must beTrue
+
+      p.flush()
+      datagrams.poll() mustEqual "a:1|c\nb:2|g\nc:3|ms"
+      p.isEmpty must beTrue
+      p.flush()
+      datagrams.poll() must beNull
+    }
+
+    "Not exceed the maximum packet size" in {
+      val datagrams = new LinkedBlockingQueue[String]()
+      val p = packer(16, datagrams)
+      p.append(COUNTER, "a", 1, Nil)
+      p.append(COUNTER, "b", 2, Nil)
+      p.append(COUNTER, "c", 3, Nil)
+      p.append(COUNTER, "d", 4, Nil)
+      p.append(COUNTER, "a.very.long.aspect", 5, Nil)
+      p.flush()
+
+      datagrams.poll() mustEqual "a:1|c\nb:2|c"
+      datagrams.poll() mustEqual "c:3|c\nd:4|c"
+      datagrams.poll() mustEqual "a.very.long.aspect:5|c"
+      datagrams.poll() must beNull
+    }
+
+  }
+
+  "Sending the statistics" should {
+    val port = 12346
+
+    def withRecorder[A](f: LinkedBlockingQueue[String] => A): A = {
+      val system = ActorSystem()
+      val datagrams = new LinkedBlockingQueue[String]()
+      system.actorOf(Props(new StatsdRecorderActor(port, datagrams.offer(_: String))))
+      Thread.sleep(500)
+      try f(datagrams) finally {
+        system.shutdown()
+        system.awaitTermination()
+      }
+    }
+
+    def statsd(maximumLinger: Int) = new BufferedStatsdCounterInterface(OutputConfiguration(ConfigFactory.empty(),
+      StatsdOutputConfiguration("localhost", port, 60, "", Array(), 1432, maximumLinger,
+        RingBufferConfiguration(1024, EventRingBuffer.FullPolicy.DROP))))
+
+    "Pack the values that arrive within the linger time into one datagram" in withRecorder { datagrams =>
+      val counterInterface = statsd(200)
+      counterInterface.incrementCounter("a")
+      counterInterface.recordGaugeValue("b", 2)
+      counterInterface.recordExecutionTime("c", 3)
+
+      datagrams.poll(5, TimeUnit.SECONDS) mustEqual "a:1|c\nb:2|g\nc:3|ms"
+      datagrams.poll(500, TimeUnit.MILLISECONDS) must beNull
+    }
+
+    "Send every value in its own datagram without the linger time" in withRecorder { datagrams =>
+      val counterInterface = statsd(0)
+      counterInterface.incrementCounter("a")
+      counterInterface.incrementCounter("b", 2)
+
+      datagrams.poll(5, TimeUnit.SECONDS) mustEqual "a:1|c"
+      datagrams.poll(5, TimeUnit.SECONDS) mustEqual "b:2|c"
+    }
+
+  }
+
+}
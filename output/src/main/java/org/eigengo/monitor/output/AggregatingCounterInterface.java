@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorates another {@link CounterInterface}, folding the counters and gauges in memory and sending
+ * them to the decorated instance in batches. Between two flushes, all increments of the same
+ * {@code aspect} and {@code tags} become one {@code incrementCounter} call with the summed delta, and
+ * all gauge values become one {@code recordGaugeValue} call with the last recorded value. The
+ * execution times are passed to the decorated instance immediately; the decorated instance records
+ * them in its histograms.
+ *
+ * Use it by setting the {@code output.class} in the agent configuration to this class; the decorated
+ * {@code CounterInterface} and the flush interval are loaded from the {@code output.conf}, from the
+ * {@code org.eigengo.monitor.output.aggregating} key.
+ *
+ * The bound counters and gauges update their folded values directly; the bound execution times are
+ * the handles of the decorated instance.
+ */
+public class AggregatingCounterInterface implements BindingCounterInterface {
+    private final CounterInterface delegate;
+    private final int stripes;
+    private final ConcurrentHashMap<MetricKey, StripedCounter> counters = new ConcurrentHashMap<MetricKey, StripedCounter>();
+    private final ConcurrentHashMap<MetricKey, LastValue> gauges = new ConcurrentHashMap<MetricKey, LastValue>();
+    private final ThreadLocal<MetricKey> lookupKey = new ThreadLocal<MetricKey>() {
+        @Override
+        protected MetricKey initialValue() {
+            return new MetricKey();
+        }
+    };
+
+    /**
+     * Constructs this instance by loading the {@code output.conf} configuration, and then looking
+     * for the {@code org.eigengo.monitor.output.aggregating} key.
+     */
+    public AggregatingCounterInterface() {
+        this(OutputConfigurationFactory.getAgentCofiguration("aggregating", AggregatingOutputConfigurationJapi.apply()).outputConfig());
+    }
+
+    private AggregatingCounterInterface(AggregatingOutputConfiguration configuration) {
+        this(createDelegate(configuration.delegateClassName()), configuration.interval(), TimeUnit.MILLISECONDS, configuration.stripes());
+    }
+
+    /**
+     * Constructs this instance, starting the thread that flushes the folded values every {@code interval}.
+     *
+     * @param delegate the decorated instance
+     * @param interval the flush interval
+     * @param unit the unit of {@code interval}
+     * @param stripes the number of cells in each counter; typically the number of threads that update the
+     *                same counter concurrently
+     */
+    public AggregatingCounterInterface(CounterInterface delegate, long interval, TimeUnit unit, int stripes) {
+        this.delegate = delegate;
+        this.stripes = stripes;
+
+        final ScheduledExecutorService scheduledExecutorService =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("monitor-aggregating"));
+        scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval, unit);
+        // send whatever we have folded so far and stop the scheduler
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                scheduledExecutorService.shutdown();
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Instantiates the decorated {@code CounterInterface}, falling back to the {@code NullCounterInterface}
+     *
+     * @param className the class name of the decorated instance
+     * @return the decorated instance
+     */
+    static CounterInterface createDelegate(String className) {
+        try {
+            return (CounterInterface)Class.forName(className).newInstance();
+        } catch (final ReflectiveOperationException e) {
+            e.printStackTrace();
+            return new NullCounterInterface();
+        } catch (final ClassCastException e) {
+            e.printStackTrace();
+            return new NullCounterInterface();
+        }
+    }
+
+    /**
+     * Sends the folded values to the decorated instance. The counters that have not changed since the
+     * last flush and the gauges that have not been recorded since the last flush are not sent.
+     */
+    public synchronized void flush() {
+        for (Map.Entry<MetricKey, StripedCounter> entry : this.counters.entrySet()) {
+            long delta = entry.getValue().sumThenReset();
+            final MetricKey key = entry.getKey();
+            while (delta != 0) {
+                final int chunk = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, delta));
+                this.delegate.incrementCounter(key.getAspect(), chunk, key.getTags());
+                delta -= chunk;
+            }
+        }
+        for (Map.Entry<MetricKey, LastValue> entry : this.gauges.entrySet()) {
+            final LastValue gauge = entry.getValue();
+            if (!gauge.updated) continue;
+            gauge.updated = false;
+            final MetricKey key = entry.getKey();
+            this.delegate.recordGaugeValue(key.getAspect(), gauge.value, key.getTags());
+        }
+    }
+
+    private StripedCounter counter(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final StripedCounter counter = this.counters.get(key);
+        if (counter != null) return counter;
+
+        final StripedCounter newCounter = new StripedCounter(this.stripes);
+        final StripedCounter existing = this.counters.putIfAbsent(key.copy(), newCounter);
+        return existing != null ? existing : newCounter;
+    }
+
+    private LastValue gauge(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final LastValue gauge = this.gauges.get(key);
+        if (gauge != null) return gauge;
+
+        final LastValue newGauge = new LastValue();
+        final LastValue existing = this.gauges.putIfAbsent(key.copy(), newGauge);
+        return existing != null ? existing : newGauge;
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        counter(aspect, tags).add(1);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        counter(aspect, tags).add(delta);
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        counter(aspect, tags).add(-1);
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        gauge(aspect, tags).set(value);
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        this.delegate.recordExecutionTime(aspect, duration, tags);
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        this.delegate.recordExecutionTimeNanos(aspect, duration, tags);
+    }
+
+    @Override
+    public CounterHandle bindCounter(String aspect, String... tags) {
+        final StripedCounter counter = counter(aspect, tags);
+        return new CounterHandle() {
+            @Override
+            public void increment(long delta) {
+                counter.add(delta);
+            }
+        };
+    }
+
+    @Override
+    public GaugeHandle bindGauge(String aspect, String... tags) {
+        return gauge(aspect, tags);
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(String aspect, String... tags) {
+        return CounterHandles.executionTime(this.delegate, aspect, tags);
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return CounterHandles.executionTimeNanos(this.delegate, aspect, tags);
+    }
+
+    /**
+     * Holds the last recorded gauge value, and whether it was recorded since the last flush
+     */
+    private static final class LastValue implements GaugeHandle {
+        private volatile int value;
+        private volatile boolean updated;
+
+        @Override
+        public void set(long value) {
+            this.value = CounterHandles.clamp(value);
+            this.updated = true;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+/**
+ * The {@link CounterInterface} that can resolve the aspect and tags of a metric once, into a handle that
+ * the callers keep and update with primitive values. Updating a handle does not allocate the varargs
+ * array, and the implementations can look up their own structures, sanitize the tags or encode the
+ * name when they bind the handle, rather than on every update.
+ *
+ * The callers should not use this interface directly; {@link CounterHandles} binds the handles of the
+ * implementations of this interface, and falls back to the plain {@code CounterInterface} methods for
+ * all other implementations.
+ *
+ * The implementations may register the metric when they bind the handle, which means that the callers
+ * should bind the handles for the metrics that they are about to update, not for all metrics that they
+ * might update.
+ */
+public interface BindingCounterInterface extends CounterInterface {
+
+    /**
+     * Binds the counter identified by {@code aspect} and {@code tags}
+     *
+     * @param aspect the aspect
+     * @param tags optional tags; the array must not be modified after the call
+     * @return the handle
+     */
+    CounterHandle bindCounter(String aspect, String... tags);
+
+    /**
+     * Binds the gauge identified by {@code aspect} and {@code tags}
+     *
+     * @param aspect the aspect
+     * @param tags optional tags; the array must not be modified after the call
+     * @return the handle
+     */
+    GaugeHandle bindGauge(String aspect, String... tags);
+
+    /**
+     * Binds the execution time (most likely in ms) identified by {@code aspect} and {@code tags}; see
+     * {@link #recordExecutionTime(String, int, String...)}
+     *
+     * @param aspect the aspect
+     * @param tags optional tags; the array must not be modified after the call
+     * @return the handle
+     */
+    TimerHandle bindExecutionTime(String aspect, String... tags);
+
+    /**
+     * Binds the execution time in nanoseconds identified by {@code aspect} and {@code tags}; see
+     * {@link #recordExecutionTimeNanos(String, long, String...)}
+     *
+     * @param aspect the aspect
+     * @param tags optional tags; the array must not be modified after the call
+     * @return the handle
+     */
+    TimerHandle bindExecutionTimeNanos(String aspect, String... tags);
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admits at most {@code maximumSize} distinct values, preferring the most frequent ones. The admitted
+ * values are kept in a concurrent map, and admitting a value that is already admitted is a single
+ * lookup.
+ *
+ * The values that are not admitted are first counted in a count-min sketch of four rows of at least
+ * {@code 4 * maximumSize} counters, which takes a few array increments and no lock. The sketch never
+ * underestimates, and so the values whose estimated frequency does not exceed the frequency of the least
+ * frequent admitted value (as of the last rebalance) are rejected right there. The other values take the
+ * lock, and are counted in a space-saving sketch of {@code 4 * maximumSize} counters, kept in a min-heap;
+ * when the guaranteed frequency of a value in the space-saving sketch (its count less the count it inherited
+ * from the value it replaced) exceeds the frequency of the least frequent admitted value, it takes its place.
+ * The values that are seen only a few times, such as the values that contain IDs, therefore never displace
+ * the values that are seen all the time, and they rarely get past the lock-free check.
+ *
+ * All frequencies are halved after every {@code 10} increments per counter of a count-min row, so that the
+ * recent values count more than the old ones, and the count-min counters do not fill up with the IDs. The
+ * halving also finds the least frequent admitted value again, which amortises the scan of the admitted values
+ * over the increments; otherwise, the admitted values are only scanned when one of them is replaced.
+ *
+ * The frequencies of the admitted values and the count-min counters are counted without synchronization, and
+ * so they are estimates; this is enough to find the heavy hitters, and it keeps the threads from contending on
+ * the common path.
+ */
+public final class CardinalityGuard {
+    private static final int DEPTH = 4;
+    private static final int MINIMUM_WIDTH = 256;
+    private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+    private final int maximumSize;
+    private final ConcurrentHashMap<String, Count> admitted = new ConcurrentHashMap<String, Count>();
+    private final int[] estimates;
+    private final int width;
+    private final int shift;
+    private final int agingPeriod;
+    // counted without synchronization, like the frequencies
+    private int increments;
+    private volatile boolean full;
+    private volatile long threshold;
+    // guarded by this
+    private final Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+    private final Candidate[] heap;
+    private int heapSize;
+    private String leastValue;
+    private Count least;
+
+    /**
+     * The (estimated) number of occurrences of an admitted value
+     */
+    private static final class Count {
+        private long value;
+
+        private Count(long value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * A value in the space-saving sketch: the number of its occurrences, the maximum overestimate of that
+     * number, and its index in the heap
+     */
+    private static final class Candidate {
+        private String value;
+        private long count;
+        private long error;
+        private int index;
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param maximumSize the maximum number of admitted values
+     */
+    public CardinalityGuard(int maximumSize) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("maximumSize must be positive");
+        this.maximumSize = maximumSize;
+        this.width = Math.max(MINIMUM_WIDTH, Integer.highestOneBit(4 * maximumSize - 1) << 1);
+        this.shift = 32 - Integer.numberOfTrailingZeros(this.width);
+        this.estimates = new int[DEPTH * this.width];
+        this.agingPeriod = 10 * this.width;
+        this.heap = new Candidate[4 * maximumSize];
+    }
+
+    /**
+     * Decides whether to admit the given {@code value}
+     *
+     * @param value the value
+     * @return {@code true} if the value is admitted; {@code false} if it should go to the overflow bucket
+     */
+    public boolean admit(String value) {
+        final Count count = this.admitted.get(value);
+        if (count != null) {
+            count.value++;
+            return true;
+        }
+
+        final int estimate = estimate(value);
+        if (this.full && estimate <= this.threshold) return false;
+        return admitSlow(value);
+    }
+
+    /**
+     * Returns the number of admitted values
+     *
+     * @return the size
+     */
+    public int size() {
+        return this.admitted.size();
+    }
+
+    /**
+     * Adds an occurrence of {@code value} to the count-min sketch
+     *
+     * @param value the value
+     * @return the estimated frequency of the value; never less than the actual frequency since the last halving
+     */
+    private int estimate(String value) {
+        int h = value.hashCode();
+        h ^= h >>> 16;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = row * this.width + ((h * SEEDS[row]) >>> this.shift);
+            estimate = Math.min(estimate, ++this.estimates[index]);
+        }
+        if (++this.increments >= this.agingPeriod) age();
+        return estimate;
+    }
+
+    private synchronized boolean admitSlow(String value) {
+        final Count count = this.admitted.get(value);
+        if (count != null) {
+            count.value++;
+            return true;
+        }
+
+        final long frequency = offer(value);
+        if (!this.full) {
+            admitCandidate(value, frequency);
+            if (this.admitted.size() == this.maximumSize) {
+                findLeast();
+                this.full = true;
+            }
+            return true;
+        }
+
+        // the least frequent value may have been seen since we found it
+        if (frequency <= this.least.value) {
+            this.threshold = this.least.value;
+            return false;
+        }
+        findLeast();
+        if (frequency <= this.least.value) return false;
+
+        this.admitted.remove(this.leastValue);
+        admitCandidate(value, frequency);
+        findLeast();
+        return true;
+    }
+
+    private void admitCandidate(String value, long frequency) {
+        final Candidate candidate = this.candidates.remove(value);
+        if (candidate != null) removeFromHeap(candidate.index);
+        this.admitted.put(value, new Count(frequency));
+    }
+
+    /**
+     * Adds an occurrence of {@code value} to the space-saving sketch. If the sketch is full and does not
+     * contain the {@code value}, it replaces the least frequent value in the sketch, and inherits its count
+     * as the error.
+     *
+     * @param value the value
+     * @return the guaranteed frequency of the value
+     */
+    private long offer(String value) {
+        Candidate candidate = this.candidates.get(value);
+        if (candidate != null) {
+            candidate.count++;
+            siftDown(candidate.index);
+            return candidate.count - candidate.error;
+        }
+
+        if (this.heapSize < this.heap.length) {
+            candidate = new Candidate();
+            candidate.count = 1;
+            this.heap[this.heapSize] = candidate;
+            candidate.index = this.heapSize;
+            this.heapSize++;
+            siftUp(candidate.index);
+        } else {
+            candidate = this.heap[0];
+            this.candidates.remove(candidate.value);
+            candidate.error = candidate.count;
+            candidate.count++;
+            siftDown(0);
+        }
+        candidate.value = value;
+        this.candidates.put(value, candidate);
+        return 1;
+    }
+
+    private void removeFromHeap(int index) {
+        this.heapSize--;
+        final Candidate last = this.heap[this.heapSize];
+        this.heap[this.heapSize] = null;
+        if (index == this.heapSize) return;
+
+        move(last, index);
+        siftDown(index);
+        siftUp(last.index);
+    }
+
+    private void siftUp(int index) {
+        final Candidate candidate = this.heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (this.heap[parent].count <= candidate.count) break;
+            move(this.heap[parent], index);
+            index = parent;
+        }
+        move(candidate, index);
+    }
+
+    private void siftDown(int index) {
+        final Candidate candidate = this.heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= this.heapSize) break;
+            if (child + 1 < this.heapSize && this.heap[child + 1].count < this.heap[child].count) child++;
+            if (candidate.count <= this.heap[child].count) break;
+            move(this.heap[child], index);
+            index = child;
+        }
+        move(candidate, index);
+    }
+
+    private void move(Candidate candidate, int index) {
+        this.heap[index] = candidate;
+        candidate.index = index;
+    }
+
+    private synchronized void age() {
+        if (this.increments < this.agingPeriod) return;
+        this.increments = 0;
+        for (int i = 0; i < this.estimates.length; i++) this.estimates[i] >>>= 1;
+        for (Count count : this.admitted.values()) count.value >>>= 1;
+        // halving keeps the order of the heap
+        for (int i = 0; i < this.heapSize; i++) {
+            this.heap[i].count >>>= 1;
+            this.heap[i].error >>>= 1;
+        }
+        if (this.full) findLeast();
+    }
+
+    private void findLeast() {
+        String leastValue = null;
+        Count least = null;
+        for (Map.Entry<String, Count> entry : this.admitted.entrySet()) {
+            if (least == null || entry.getValue().value < least.value) {
+                leastValue = entry.getKey();
+                least = entry.getValue();
+            }
+        }
+        this.leastValue = leastValue;
+        this.least = least;
+        this.threshold = least.value;
+    }
+
+}
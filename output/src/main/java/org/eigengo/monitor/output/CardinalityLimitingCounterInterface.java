@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decorates another {@link CounterInterface}, limiting the number of distinct series that it receives.
+ *
+ * The refined aspects (for example, {@code akka.actor.delivered.String} or {@code akka.actor.error.IOException})
+ * of each configured aspect are limited to the {@code maximumRefinements} most frequent ones; the rest are
+ * sent as the {@code <aspect>.other} aspect. Similarly, at most {@code maximumTagValues} distinct tags are
+ * passed to the decorated instance; the rest are sent as {@code <tag name>:other}. Every value sent to the
+ * overflow bucket increments the {@code monitor.cardinality.dropped} counter, tagged with
+ * {@code monitor.dropped:aspect} or {@code monitor.dropped:tag}.
+ *
+ * Use it by setting the {@code output.class} in the agent configuration to this class; the decorated
+ * {@code CounterInterface} and the limits are loaded from the {@code output.conf}, from the
+ * {@code org.eigengo.monitor.output.cardinality} key.
+ */
+public class CardinalityLimitingCounterInterface implements CounterInterface {
+    /**
+     * The counter of the values sent to the overflow bucket
+     */
+    public static final String DROPPED = "monitor.cardinality.dropped";
+    private static final String[] DROPPED_ASPECT_TAGS = new String[] {"monitor.dropped:aspect"};
+    private static final String[] DROPPED_TAG_TAGS = new String[] {"monitor.dropped:tag"};
+    private static final String OTHER = "other";
+
+    private final CounterInterface delegate;
+    private final String[] refinedAspects;
+    private final String[] otherAspects;
+    private final CardinalityGuard[] refinementGuards;
+    private final CardinalityGuard tagGuard;
+    private final ConcurrentHashMap<String, String> otherTags = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Constructs this instance by loading the {@code output.conf} configuration, and then looking
+     * for the {@code org.eigengo.monitor.output.cardinality} key.
+     */
+    public CardinalityLimitingCounterInterface() {
+        this(OutputConfigurationFactory.getAgentCofiguration("cardinality", CardinalityOutputConfigurationJapi.apply()).outputConfig());
+    }
+
+    private CardinalityLimitingCounterInterface(CardinalityOutputConfiguration configuration) {
+        this(AggregatingCounterInterface.createDelegate(configuration.delegateClassName()), configuration.refinedAspectsJava(),
+             configuration.maximumRefinements(), configuration.maximumTagValues());
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param delegate the decorated instance
+     * @param refinedAspects the aspects whose refinements are limited
+     * @param maximumRefinements the maximum number of distinct refinements of each of the {@code refinedAspects}
+     * @param maximumTagValues the maximum number of distinct tags
+     */
+    public CardinalityLimitingCounterInterface(CounterInterface delegate, List<String> refinedAspects,
+                                               int maximumRefinements, int maximumTagValues) {
+        this.delegate = delegate;
+        this.refinedAspects = new String[refinedAspects.size()];
+        this.otherAspects = new String[refinedAspects.size()];
+        this.refinementGuards = new CardinalityGuard[refinedAspects.size()];
+        for (int i = 0; i < refinedAspects.size(); i++) {
+            this.refinedAspects[i] = refinedAspects.get(i);
+            this.otherAspects[i] = refinedAspects.get(i) + "." + OTHER;
+            this.refinementGuards[i] = new CardinalityGuard(maximumRefinements);
+        }
+        this.tagGuard = new CardinalityGuard(maximumTagValues);
+    }
+
+    /**
+     * Returns the {@code aspect} if it is not a refinement of the limited aspects, or if the refinement
+     * is admitted; otherwise returns the overflow aspect.
+     *
+     * @param aspect the aspect
+     * @return the aspect to send to the decorated instance
+     */
+    private String aspect(String aspect) {
+        for (int i = 0; i < this.refinedAspects.length; i++) {
+            final String refinedAspect = this.refinedAspects[i];
+            if (aspect.length() > refinedAspect.length() && aspect.charAt(refinedAspect.length()) == '.' &&
+                aspect.startsWith(refinedAspect)) {
+                if (this.refinementGuards[i].admit(aspect)) return aspect;
+
+                this.delegate.incrementCounter(DROPPED, DROPPED_ASPECT_TAGS);
+                return this.otherAspects[i];
+            }
+        }
+        return aspect;
+    }
+
+    /**
+     * Returns the {@code tags} if all of them are admitted; otherwise returns a copy, where the tags that
+     * are not admitted are replaced by their overflow tags.
+     *
+     * @param tags the tags
+     * @return the tags to send to the decorated instance
+     */
+    private String[] tags(String[] tags) {
+        String[] result = tags;
+        for (int i = 0; i < tags.length; i++) {
+            if (this.tagGuard.admit(tags[i])) continue;
+
+            if (result == tags) result = tags.clone();
+            result[i] = otherTag(tags[i]);
+            this.delegate.incrementCounter(DROPPED, DROPPED_TAG_TAGS);
+        }
+        return result;
+    }
+
+    private String otherTag(String tag) {
+        final int colon = tag.indexOf(':');
+        final String name = colon == -1 ? "" : tag.substring(0, colon);
+        final String otherTag = this.otherTags.get(name);
+        if (otherTag != null) return otherTag;
+
+        final String newOtherTag = colon == -1 ? OTHER : name + ":" + OTHER;
+        final String existing = this.otherTags.putIfAbsent(name, newOtherTag);
+        return existing != null ? existing : newOtherTag;
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        this.delegate.incrementCounter(aspect(aspect), tags(tags));
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        this.delegate.incrementCounter(aspect(aspect), delta, tags(tags));
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        this.delegate.decrementCounter(aspect(aspect), tags(tags));
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        this.delegate.recordGaugeValue(aspect(aspect), value, tags(tags));
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        this.delegate.recordExecutionTime(aspect(aspect), duration, tags(tags));
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        this.delegate.recordExecutionTimeNanos(aspect(aspect), duration, tags(tags));
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+/**
+ * Binds the handles of any {@link CounterInterface}. The {@link BindingCounterInterface}s bind their own
+ * handles; the handles of the other implementations keep the aspect and tags, and call the plain
+ * {@code CounterInterface} methods with them, which still saves the varargs array on every update.
+ */
+public final class CounterHandles {
+
+    private CounterHandles() {
+    }
+
+    /**
+     * Binds the counter identified by {@code aspect} and {@code tags}
+     *
+     * @param counterInterface the counter interface
+     * @param aspect the aspect
+     * @param tags the tags; the array must not be modified after the call
+     * @return the handle
+     */
+    public static CounterHandle counter(CounterInterface counterInterface, String aspect, String... tags) {
+        if (counterInterface instanceof BindingCounterInterface) return ((BindingCounterInterface)counterInterface).bindCounter(aspect, tags);
+        return new UnboundCounter(counterInterface, aspect, tags);
+    }
+
+    /**
+     * Binds the gauge identified by {@code aspect} and {@code tags}
+     *
+     * @param counterInterface the counter interface
+     * @param aspect the aspect
+     * @param tags the tags; the array must not be modified after the call
+     * @return the handle
+     */
+    public static GaugeHandle gauge(CounterInterface counterInterface, String aspect, String... tags) {
+        if (counterInterface instanceof BindingCounterInterface) return ((BindingCounterInterface)counterInterface).bindGauge(aspect, tags);
+        return new UnboundGauge(counterInterface, aspect, tags);
+    }
+
+    /**
+     * Binds the execution time (most likely in ms) identified by {@code aspect} and {@code tags}
+     *
+     * @param counterInterface the counter interface
+     * @param aspect the aspect
+     * @param tags the tags; the array must not be modified after the call
+     * @return the handle
+     */
+    public static TimerHandle executionTime(CounterInterface counterInterface, String aspect, String... tags) {
+        if (counterInterface instanceof BindingCounterInterface) return ((BindingCounterInterface)counterInterface).bindExecutionTime(aspect, tags);
+        return new UnboundExecutionTime(counterInterface, aspect, tags);
+    }
+
+    /**
+     * Binds the execution time in nanoseconds identified by {@code aspect} and {@code tags}
+     *
+     * @param counterInterface the counter interface
+     * @param aspect the aspect
+     * @param tags the tags; the array must not be modified after the call
+     * @return the handle
+     */
+    public static TimerHandle executionTimeNanos(CounterInterface counterInterface, String aspect, String... tags) {
+        if (counterInterface instanceof BindingCounterInterface) return ((BindingCounterInterface)counterInterface).bindExecutionTimeNanos(aspect, tags);
+        return new UnboundExecutionTimeNanos(counterInterface, aspect, tags);
+    }
+
+    /**
+     * Clamps the {@code value} to the {@code int} range of the plain {@code CounterInterface} methods
+     *
+     * @param value the value
+     * @return the clamped value
+     */
+    public static int clamp(long value) {
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private abstract static class Unbound {
+        final CounterInterface counterInterface;
+        final String aspect;
+        final String[] tags;
+
+        Unbound(CounterInterface counterInterface, String aspect, String[] tags) {
+            this.counterInterface = counterInterface;
+            this.aspect = aspect;
+            this.tags = tags;
+        }
+    }
+
+    private static final class UnboundCounter extends Unbound implements CounterHandle {
+        UnboundCounter(CounterInterface counterInterface, String aspect, String[] tags) {
+            super(counterInterface, aspect, tags);
+        }
+
+        @Override
+        public void increment(long delta) {
+            if (delta == 1) this.counterInterface.incrementCounter(this.aspect, this.tags);
+            else if (delta == -1) this.counterInterface.decrementCounter(this.aspect, this.tags);
+            else this.counterInterface.incrementCounter(this.aspect, clamp(delta), this.tags);
+        }
+    }
+
+    private static final class UnboundGauge extends Unbound implements GaugeHandle {
+        UnboundGauge(CounterInterface counterInterface, String aspect, String[] tags) {
+            super(counterInterface, aspect, tags);
+        }
+
+        @Override
+        public void set(long value) {
+            this.counterInterface.recordGaugeValue(this.aspect, clamp(value), this.tags);
+        }
+    }
+
+    private static final class UnboundExecutionTime extends Unbound implements TimerHandle {
+        UnboundExecutionTime(CounterInterface counterInterface, String aspect, String[] tags) {
+            super(counterInterface, aspect, tags);
+        }
+
+        @Override
+        public void record(long duration) {
+            this.counterInterface.recordExecutionTime(this.aspect, clamp(duration), this.tags);
+        }
+    }
+
+    private static final class UnboundExecutionTimeNanos extends Unbound implements TimerHandle {
+        UnboundExecutionTimeNanos(CounterInterface counterInterface, String aspect, String[] tags) {
+            super(counterInterface, aspect, tags);
+        }
+
+        @Override
+        public void record(long duration) {
+            this.counterInterface.recordExecutionTimeNanos(this.aspect, duration, this.tags);
+        }
+    }
+
+}
@@ -64,4 +64,15 @@ public interface CounterInterface {
      * @param tags optional tags
      */
     void recordExecutionTime(String aspect, int duration, String... tags);
+
+    /**
+     * Records the execution time of the given {@code aspect} in nanoseconds, with optional {@code tags}, into
+     * a histogram. The implementations should report at least the 50th, 99th and 99.9th percentiles and the
+     * maximum of the recorded values, and they should not allocate when recording the value.
+     *
+     * @param aspect the aspect to record the execution time for
+     * @param duration the execution time in nanoseconds
+     * @param tags optional tags
+     */
+    void recordExecutionTimeNanos(String aspect, long duration, String... tags);
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer / single-consumer queue of the monitoring events. The events are not objects:
+ * each slot holds the event's kind, aspect, value, tags and attachment in pre-allocated arrays, which means that
+ * publishing an event does not allocate, and that the buffer never holds more than {@code capacity}
+ * events, however many the producers publish.
+ *
+ * The producers claim the slots by incrementing the {@code tail}; each slot's sequence tells whether it is
+ * free for the producer that claimed it or ready for the consumer. Only one thread may call {@link #drain}.
+ * Once the consumer {@link #close}s the buffer, the producers drop the events that do not fit into it whatever
+ * the policy, for nobody will free the slots they would wait for.
+ */
+public final class EventRingBuffer {
+    /** Counter increment or decrement; the value is the delta */
+    public static final int COUNTER = 0;
+    /** Gauge value */
+    public static final int GAUGE = 1;
+    /** Execution time in milliseconds */
+    public static final int EXECUTION_TIME = 2;
+    /** Execution time in nanoseconds */
+    public static final int EXECUTION_TIME_NANOS = 3;
+
+    /**
+     * What the producers do when the buffer is full
+     */
+    public enum FullPolicy {
+        /** Drop the event and count it in {@link #getDropped()} */
+        DROP,
+        /** Wait until the consumer frees a slot; drop the event once the buffer is closed */
+        SPIN
+    }
+
+    /**
+     * Receives the drained events
+     */
+    public interface EventHandler {
+
+        /**
+         * Handles one event
+         *
+         * @param kind the kind, one of the {@code EventRingBuffer} constants
+         * @param aspect the aspect
+         * @param value the value
+         * @param tags the tags
+         * @param attachment the object published with the event, typically the encoded aspect and tags of a bound
+         *                   handle; {@code null} if there is none
+         */
+        void onEvent(int kind, String aspect, long value, String[] tags, Object attachment);
+
+    }
+
+    private final int mask;
+    private final FullPolicy policy;
+    private final AtomicLongArray sequences;
+    private final int[] kinds;
+    private final String[] aspects;
+    private final long[] values;
+    private final String[][] tags;
+    private final Object[] attachments;
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile long head = 0;
+    private volatile boolean closed = false;
+    private final StripedCounter dropped;
+
+    /**
+     * Constructs this instance
+     *
+     * @param capacity the maximum number of events; rounded up to the nearest power of two
+     * @param policy the full buffer policy
+     */
+    public EventRingBuffer(int capacity, FullPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        this.mask = size - 1;
+        this.policy = policy;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) this.sequences.set(i, i);
+        this.kinds = new int[size];
+        this.aspects = new String[size];
+        this.values = new long[size];
+        this.tags = new String[size][];
+        this.attachments = new Object[size];
+        this.dropped = new StripedCounter(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Publishes the event
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param value the value
+     * @param tags the tags; the array must not be modified after it has been published
+     * @return {@code true} if the event has been published, {@code false} if it has been dropped
+     */
+    public boolean publish(int kind, String aspect, long value, String[] tags) {
+        return publish(kind, aspect, value, tags, null);
+    }
+
+    /**
+     * Publishes the event with an attachment
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param value the value
+     * @param tags the tags; the array must not be modified after it has been published
+     * @param attachment the object to pass to the consumer with the event; may be {@code null}
+     * @return {@code true} if the event has been published, {@code false} if it has been dropped
+     */
+    public boolean publish(int kind, String aspect, long value, String[] tags, Object attachment) {
+        while (true) {
+            final long t = this.tail.get();
+            final int index = (int)t & this.mask;
+            final long sequence = this.sequences.get(index);
+            if (sequence == t) {
+                if (!this.tail.compareAndSet(t, t + 1)) continue;
+                this.kinds[index] = kind;
+                this.aspects[index] = aspect;
+                this.values[index] = value;
+                this.tags[index] = tags;
+                this.attachments[index] = attachment;
+                // publishes the fields above to the consumer
+                this.sequences.lazySet(index, t + 1);
+                return true;
+            }
+            if (sequence < t) {
+                // the slot still holds the event from the previous lap: the buffer is full
+                if (this.policy == FullPolicy.DROP || this.closed) {
+                    this.dropped.add(1);
+                    return false;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Passes at most {@code maximum} events to the {@code handler}; must be called from one thread only
+     *
+     * @param handler the handler
+     * @param maximum the maximum number of events to drain
+     * @return the number of drained events
+     */
+    public int drain(EventHandler handler, int maximum) {
+        long h = this.head;
+        int count = 0;
+        while (count < maximum) {
+            final int index = (int)h & this.mask;
+            if (this.sequences.get(index) != h + 1) break;
+
+            final String aspect = this.aspects[index];
+            final String[] eventTags = this.tags[index];
+            final int kind = this.kinds[index];
+            final long value = this.values[index];
+            final Object attachment = this.attachments[index];
+            this.aspects[index] = null;
+            this.tags[index] = null;
+            this.attachments[index] = null;
+            // frees the slot for the producers in the next lap
+            this.sequences.lazySet(index, h + this.mask + 1);
+            h++;
+            this.head = h;
+            count++;
+
+            handler.onEvent(kind, aspect, value, eventTags, attachment);
+        }
+        return count;
+    }
+
+    /**
+     * Tells the producers that the consumer no longer drains the buffer, so that they drop the events
+     * that do not fit into it rather than wait
+     */
+    public void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Returns the number of published events that have not yet been drained
+     *
+     * @return the lag
+     */
+    public long getLag() {
+        return Math.max(0, this.tail.get() - this.head);
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full
+     *
+     * @return the number of dropped events
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Returns the capacity
+     *
+     * @return the maximum number of events in the buffer
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+/**
+ * A gauge bound to its aspect and tags; see {@link BindingCounterInterface#bindGauge(String, String...)}.
+ * The handles are thread-safe, and updating them should not allocate.
+ */
+public interface GaugeHandle {
+
+    /**
+     * Records the gauge value
+     *
+     * @param value the value
+     */
+    void set(long value);
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a {@link LogLinearHistogram} of nanosecond durations for every {@code aspect} and {@code tags},
+ * and turns them into pre-computed percentile gauges on every {@link #flush()}. This is the way for
+ * the outputs that have no native histograms (e.g. statsd) to implement
+ * {@link CounterInterface#recordExecutionTimeNanos(String, long, String...)}.
+ *
+ * On flush, every histogram with recorded values in the last interval reports the
+ * {@code aspect.p50}, {@code aspect.p99}, {@code aspect.p999}, {@code aspect.max} gauges in
+ * microseconds, and the {@code aspect.count} gauge. The histograms without any recorded values are
+ * evicted, so that the histograms of the actors that have stopped do not stay around; the bound handles
+ * of an evicted histogram create a new one when they next record.
+ */
+public abstract class HistogramGauges {
+    private final int stripes;
+    private final ConcurrentHashMap<MetricKey, Entry> histograms = new ConcurrentHashMap<MetricKey, Entry>();
+    private final ThreadLocal<MetricKey> lookupKey = new ThreadLocal<MetricKey>() {
+        @Override
+        protected MetricKey initialValue() {
+            return new MetricKey();
+        }
+    };
+
+    /**
+     * Constructs this instance
+     *
+     * @param stripes the number of stripes in each histogram
+     */
+    protected HistogramGauges(int stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * Records the {@code duration} for the {@code aspect} and {@code tags}
+     *
+     * @param aspect the aspect
+     * @param duration the duration in nanoseconds
+     * @param tags the tags
+     */
+    public final void record(String aspect, long duration, String[] tags) {
+        entry(aspect, tags).histogram.record(duration);
+    }
+
+    /**
+     * Binds the handle that records the nanosecond durations for the {@code aspect} and {@code tags} directly
+     * into their histogram
+     *
+     * @param aspect the aspect
+     * @param tags the tags
+     * @return the handle
+     */
+    public final TimerHandle bind(final String aspect, final String[] tags) {
+        final Entry bound = entry(aspect, tags);
+        return new TimerHandle() {
+            private volatile Entry entry = bound;
+
+            @Override
+            public void record(long duration) {
+                Entry entry = this.entry;
+                if (entry.evicted) {
+                    entry = entry(aspect, tags);
+                    this.entry = entry;
+                }
+                entry.histogram.record(duration);
+            }
+        };
+    }
+
+    private Entry entry(String aspect, String[] tags) {
+        final MetricKey key = this.lookupKey.get().set(aspect, tags);
+        final Entry entry = this.histograms.get(key);
+        if (entry != null) return entry;
+
+        final Entry newEntry = new Entry(aspect, new LogLinearHistogram(this.stripes));
+        final Entry existing = this.histograms.putIfAbsent(key.copy(), newEntry);
+        return existing != null ? existing : newEntry;
+    }
+
+    /**
+     * Returns the number of histograms, which is the number of the {@code aspect} and {@code tags} that had
+     * values recorded since the last-but-one flush
+     *
+     * @return the number of histograms
+     */
+    public final int size() {
+        return this.histograms.size();
+    }
+
+    /**
+     * Computes the percentiles of the values recorded since the last flush and submits them to
+     * {@link #gauge(String, int, String[])}; evicts the histograms without any recorded values.
+     */
+    public final synchronized void flush() {
+        for (Map.Entry<MetricKey, Entry> e : this.histograms.entrySet()) {
+            final Entry entry = e.getValue();
+            HistogramSnapshot snapshot = entry.histogram.snapshotAndReset();
+            if (snapshot.getCount() == 0) {
+                entry.evicted = true;
+                this.histograms.remove(e.getKey(), entry);
+                // the values recorded by the handles that had not yet seen the eviction
+                snapshot = entry.histogram.snapshotAndReset();
+                if (snapshot.getCount() == 0) continue;
+            }
+
+            final String[] tags = e.getKey().getTags();
+            gauge(entry.p50, micros(snapshot.getValueAtQuantile(0.5)), tags);
+            gauge(entry.p99, micros(snapshot.getValueAtQuantile(0.99)), tags);
+            gauge(entry.p999, micros(snapshot.getValueAtQuantile(0.999)), tags);
+            gauge(entry.max, micros(snapshot.getMax()), tags);
+            gauge(entry.count, (int)Math.min(Integer.MAX_VALUE, snapshot.getCount()), tags);
+        }
+    }
+
+    private static int micros(long nanos) {
+        return (int)Math.min(Integer.MAX_VALUE, nanos / 1000);
+    }
+
+    /**
+     * Submits the computed gauge to the output
+     *
+     * @param aspect the aspect of the gauge, e.g. {@code akka.actor.duration.p99}
+     * @param value the value
+     * @param tags the tags
+     */
+    protected abstract void gauge(String aspect, int value, String[] tags);
+
+    /**
+     * The histogram together with the pre-computed gauge aspects
+     */
+    private static final class Entry {
+        private final LogLinearHistogram histogram;
+        private final String p50;
+        private final String p99;
+        private final String p999;
+        private final String max;
+        private final String count;
+        private volatile boolean evicted;
+
+        private Entry(String aspect, LogLinearHistogram histogram) {
+            this.histogram = histogram;
+            this.p50 = aspect + ".p50";
+            this.p99 = aspect + ".p99";
+            this.p999 = aspect + ".p999";
+            this.max = aspect + ".max";
+            this.count = aspect + ".count";
+        }
+    }
+
+}
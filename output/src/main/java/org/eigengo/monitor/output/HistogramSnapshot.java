@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+/**
+ * Immutable view of the values recorded in a {@link LogLinearHistogram}. The percentiles are reported
+ * as the highest value that falls into the matching bucket, but never more than the exact maximum.
+ */
+public final class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    /**
+     * Constructs this instance
+     *
+     * @param counts the counts in the histogram buckets
+     * @param max the maximum recorded value
+     */
+    HistogramSnapshot(long[] counts, long max) {
+        long count = 0;
+        for (long c : counts) count += c;
+        this.counts = counts;
+        this.count = count;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the maximum recorded value
+     *
+     * @return the maximum
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the (approximate) minimum recorded value
+     *
+     * @return the minimum, {@code 0} if empty
+     */
+    public long getMin() {
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) return LogLinearHistogram.lowestValue(i);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the value at the given {@code quantile}
+     *
+     * @param quantile the quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+     * @return the value, {@code 0} if empty
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (this.count == 0) return 0;
+        final long rank = Math.max(1, (long)Math.ceil(quantile * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) return Math.min(LogLinearHistogram.highestValue(i), this.max);
+        }
+        return this.max;
+    }
+
+    /**
+     * Returns the (approximate) mean of the recorded values
+     *
+     * @return the mean, {@code 0} if empty
+     */
+    public double getMean() {
+        if (this.count == 0) return 0;
+        double sum = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) sum += this.counts[i] * midValue(i);
+        }
+        return sum / this.count;
+    }
+
+    /**
+     * Returns the (approximate) standard deviation of the recorded values
+     *
+     * @return the standard deviation, {@code 0} if fewer than two values
+     */
+    public double getStdDev() {
+        if (this.count < 2) return 0;
+        final double mean = getMean();
+        double sum = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) {
+                final double diff = midValue(i) - mean;
+                sum += this.counts[i] * diff * diff;
+            }
+        }
+        return Math.sqrt(sum / (this.count - 1));
+    }
+
+    private static double midValue(int index) {
+        return (LogLinearHistogram.lowestValue(index) + LogLinearHistogram.highestValue(index)) / 2.0;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of non-negative {@code long} values (typically durations in nanoseconds) with
+ * log-linear buckets: every power of two is split into {@code 32} linear sub-buckets, which keeps the
+ * relative error of the reported values under about 3%. The values up to {@code 2^37 - 1}
+ * (about 137 seconds in nanoseconds) are bucketed; the greater values are counted in the last
+ * bucket. The maximum is tracked exactly.
+ *
+ * The threads record into stripes of buckets, which are allocated when a thread first records into
+ * them; after that, {@link #record(long)} does not allocate.
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HIGHEST_BIT = 36;
+    static final int BUCKET_COUNT = (HIGHEST_BIT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int mask;
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Constructs this instance
+     *
+     * @param stripes the number of stripes; rounded up to the nearest power of two
+     */
+    public LogLinearHistogram(int stripes) {
+        int size = 1;
+        while (size < stripes) size <<= 1;
+        this.mask = size - 1;
+        this.stripes = new AtomicReferenceArray<AtomicLongArray>(size);
+    }
+
+    /**
+     * Computes the bucket index of the given {@code value}
+     *
+     * @param value the value
+     * @return the index
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return value < 0 ? 0 : (int)value;
+        final int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit > HIGHEST_BIT) return BUCKET_COUNT - 1;
+        final int shift = highestBit - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Computes the lowest value that falls into the bucket at {@code index}
+     *
+     * @param index the bucket index
+     * @return the lowest value
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long)(SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1)))) << shift;
+    }
+
+    /**
+     * Computes the highest value that falls into the bucket at {@code index}
+     *
+     * @param index the bucket index
+     * @return the highest value
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Records the {@code value}
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        final int stripe = StripedCounter.threadHash() & this.mask;
+        AtomicLongArray buckets = this.stripes.get(stripe);
+        if (buckets == null) {
+            this.stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKET_COUNT));
+            buckets = this.stripes.get(stripe);
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+
+        long currentMax = this.max.get();
+        while (value > currentMax) {
+            if (this.max.compareAndSet(currentMax, value)) break;
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * Returns the snapshot of all values recorded so far
+     *
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Returns the snapshot of all values recorded since the last call to this method, and starts
+     * recording the next interval. The values recorded during this call are either included in the
+     * returned snapshot or in the next one.
+     *
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private HistogramSnapshot snapshot(boolean reset) {
+        final long max = reset ? this.max.getAndSet(0) : this.max.get();
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i <= this.mask; i++) {
+            final AtomicLongArray buckets = this.stripes.get(i);
+            if (buckets == null) continue;
+            for (int j = 0; j < BUCKET_COUNT; j++) {
+                counts[j] += reset ? buckets.getAndSet(j, 0) : buckets.get(j);
+            }
+        }
+        return new HistogramSnapshot(counts, max);
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a metric by its {@code aspect} and {@code tags}; suitable for use as a key in hash-based
+ * maps. To avoid allocating a new key for every lookup, the outputs may keep a thread-local instance
+ * and {@link #set(String, String[])} its values before each lookup; the keys that are stored in a map
+ * must be the {@link #copy()}s.
+ */
+public final class MetricKey {
+    private String aspect;
+    private String[] tags;
+    private int hashCode;
+
+    /**
+     * Constructs an empty instance, typically to be {@link #set(String, String[])} later
+     */
+    public MetricKey() {
+    }
+
+    /**
+     * Constructs this instance
+     *
+     * @param aspect the aspect
+     * @param tags the tags
+     */
+    public MetricKey(String aspect, String[] tags) {
+        set(aspect, tags);
+    }
+
+    /**
+     * Sets the {@code aspect} and {@code tags} of this key. Use only on keys that are not stored
+     * in any map.
+     *
+     * @param aspect the aspect
+     * @param tags the tags
+     * @return this instance
+     */
+    public MetricKey set(String aspect, String[] tags) {
+        this.aspect = aspect;
+        this.tags = tags;
+        this.hashCode = 31 * aspect.hashCode() + Arrays.hashCode(tags);
+        return this;
+    }
+
+    /**
+     * Returns an immutable copy of this key that can be stored in a map
+     *
+     * @return the copy
+     */
+    public MetricKey copy() {
+        return new MetricKey(this.aspect, this.tags.clone());
+    }
+
+    /**
+     * Returns the aspect
+     *
+     * @return the aspect
+     */
+    public String getAspect() {
+        return this.aspect;
+    }
+
+    /**
+     * Returns the tags; the callers must not modify the returned array
+     *
+     * @return the tags
+     */
+    public String[] getTags() {
+        return this.tags;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MetricKey)) return false;
+
+        final MetricKey that = (MetricKey) o;
+        return this.hashCode == that.hashCode && this.aspect.equals(that.aspect) && Arrays.equals(this.tags, that.tags);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricKey{aspect='" + aspect + '\'' + ", tags=" + Arrays.toString(tags) + '}';
+    }
+}
@@ -18,7 +18,8 @@ package org.eigengo.monitor.output;
 /**
  * Implements a no-op version of the {@link CounterInterface}.
  */
-public class NullCounterInterface implements CounterInterface {
+public class NullCounterInterface implements BindingCounterInterface {
+    private static final NullHandle HANDLE = new NullHandle();
 
     @Override
     public void incrementCounter(String aspect, String... tags) {
@@ -44,4 +45,50 @@ public class NullCounterInterface implements CounterInterface {
     public void recordExecutionTime(String aspect, int duration, String... tags) {
         // noop
     }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        // noop
+    }
+
+    @Override
+    public CounterHandle bindCounter(String aspect, String... tags) {
+        return HANDLE;
+    }
+
+    @Override
+    public GaugeHandle bindGauge(String aspect, String... tags) {
+        return HANDLE;
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(String aspect, String... tags) {
+        return HANDLE;
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return HANDLE;
+    }
+
+    /**
+     * The no-op handle of all metrics
+     */
+    private static final class NullHandle implements CounterHandle, GaugeHandle, TimerHandle {
+
+        @Override
+        public void increment(long delta) {
+            // noop
+        }
+
+        @Override
+        public void set(long value) {
+            // noop
+        }
+
+        @Override
+        public void record(long duration) {
+            // noop
+        }
+    }
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for the {@code CounterInterface}s that handle the values on a single background thread. The monitored
+ * threads only publish the values into the bounded {@link EventRingBuffer}; the drain thread then passes them
+ * to {@link #onEvent}. Because there is only one drain thread, the subclasses do not need to worry about
+ * concurrent calls to {@code onEvent} and {@code onIdle}.
+ *
+ * Every {@code selfMetricsInterval}, the drain thread also reports its own health to {@code onEvent}: the
+ * {@code monitor.output.dropped} counter with the number of events dropped since the last report and the
+ * {@code monitor.output.lag} gauge with the highest number of events waiting to be drained. The values are
+ * reported only when something has been dropped or was waiting, so that a healthy output stays quiet.
+ *
+ * A failure of {@code onEvent} or {@code onIdle}, be it an exception or an error, does not stop the drain thread:
+ * the failed event is lost, the first failure is printed, and all failures are counted in {@link #getFailures()}
+ * and reported in the {@code monitor.output.failed} counter. Once the drain thread stops at the shutdown of the
+ * JVM, the ring buffer is closed, and the producers drop the values that do not fit into it even with the
+ * {@code SPIN} policy.
+ *
+ * The bound handles publish their values with the object that {@link #encode} returned when they were
+ * bound; the subclasses that override {@code encode} can, for example, encode the aspect and tags of the
+ * handle once, and only append the value on the drain thread.
+ */
+public abstract class RingBufferCounterInterface implements BindingCounterInterface {
+    /** The aspect of the number of dropped events */
+    public static final String DROPPED_ASPECT = "monitor.output.dropped";
+    /** The aspect of the number of events waiting to be drained */
+    public static final String LAG_ASPECT = "monitor.output.lag";
+    /** The aspect of the number of events that the subclass failed to handle */
+    public static final String FAILED_ASPECT = "monitor.output.failed";
+
+    private static final String[] NO_TAGS = new String[0];
+    private static final int BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final EventRingBuffer buffer;
+    private final long selfMetricsIntervalNanos;
+    private final Thread drainThread;
+    private volatile boolean running = true;
+    // written only by the drain thread
+    private volatile long failures = 0;
+
+    // accessed only from the drain thread
+    private long lastSelfMetrics = System.nanoTime();
+    private long reportedDropped = 0;
+    private long maximumLag = 0;
+    private long reportedLag = 0;
+    private long reportedFailures = 0;
+
+    private final EventRingBuffer.EventHandler handler = new EventRingBuffer.EventHandler() {
+        @Override
+        public void onEvent(int kind, String aspect, long value, String[] tags, Object attachment) {
+            if (attachment == null) RingBufferCounterInterface.this.onEvent(kind, aspect, value, tags);
+            else onEncodedEvent(kind, aspect, value, tags, attachment);
+        }
+    };
+
+    /**
+     * Constructs this instance; the subclasses must call {@link #start()} at the end of their constructors
+     *
+     * @param name the name of the drain thread
+     * @param capacity the ring buffer capacity
+     * @param policy the full buffer policy
+     * @param selfMetricsInterval how often to report the dropped events and the lag
+     * @param unit the unit of {@code selfMetricsInterval}
+     */
+    protected RingBufferCounterInterface(String name, int capacity, EventRingBuffer.FullPolicy policy,
+                                         long selfMetricsInterval, TimeUnit unit) {
+        this.buffer = new EventRingBuffer(capacity, policy);
+        this.selfMetricsIntervalNanos = unit.toNanos(selfMetricsInterval);
+        this.drainThread = new DaemonThreadFactory(name).newThread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        });
+    }
+
+    /**
+     * Starts the drain thread. The subclasses call it once they have initialised everything that
+     * {@link #onEvent} and {@link #onIdle} use.
+     */
+    protected final void start() {
+        this.drainThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                running = false;
+                LockSupport.unpark(drainThread);
+                try {
+                    drainThread.join(TimeUnit.SECONDS.toMillis(1));
+                } catch (InterruptedException e) {
+                    // shutting down anyway
+                }
+            }
+        });
+    }
+
+    private void drainLoop() {
+        try {
+            drainUntilStopped();
+        } finally {
+            // nobody frees the slots from now on; the producers must not wait for them
+            this.buffer.close();
+        }
+    }
+
+    private void drainUntilStopped() {
+        while (this.running) {
+            this.maximumLag = Math.max(this.maximumLag, this.buffer.getLag());
+            int drained = 1;
+            try {
+                drained = this.buffer.drain(this.handler, BATCH_SIZE);
+                final long now = System.nanoTime();
+                if (now - this.lastSelfMetrics >= this.selfMetricsIntervalNanos) {
+                    reportSelfMetrics();
+                    this.lastSelfMetrics = now;
+                }
+                if (drained == 0) onIdle();
+            } catch (Throwable e) {
+                // a failing output must not stop the draining; the failed event has already been removed
+                failed(e);
+            }
+            if (drained == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        // the JVM is shutting down: hand over what we have
+        try {
+            while (this.buffer.drain(this.handler, BATCH_SIZE) > 0) { }
+            onIdle();
+        } catch (Throwable e) {
+            // shutting down anyway
+            failed(e);
+        }
+    }
+
+    private void failed(Throwable e) {
+        if (this.failures == 0) e.printStackTrace();
+        this.failures++;
+    }
+
+    private void reportSelfMetrics() {
+        final long dropped = this.buffer.getDropped();
+        final long droppedDelta = dropped - this.reportedDropped;
+        if (droppedDelta > 0) {
+            onEvent(EventRingBuffer.COUNTER, DROPPED_ASPECT, droppedDelta, NO_TAGS);
+            this.reportedDropped = dropped;
+        }
+        if (this.maximumLag > 0 || this.reportedLag > 0) {
+            onEvent(EventRingBuffer.GAUGE, LAG_ASPECT, this.maximumLag, NO_TAGS);
+            this.reportedLag = this.maximumLag;
+        }
+        this.maximumLag = 0;
+        final long failures = this.failures;
+        final long failuresDelta = failures - this.reportedFailures;
+        if (failuresDelta > 0) {
+            // the failures are counted before the report, so that a failing onEvent does not report them again
+            this.reportedFailures = failures;
+            onEvent(EventRingBuffer.COUNTER, FAILED_ASPECT, failuresDelta, NO_TAGS);
+        }
+    }
+
+    /**
+     * Handles one event on the drain thread
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param value the value
+     * @param tags the tags
+     */
+    protected abstract void onEvent(int kind, String aspect, long value, String[] tags);
+
+    /**
+     * Handles one event published by a bound handle on the drain thread; the default implementation
+     * ignores the {@code encoded} value and calls {@link #onEvent(int, String, long, String[])}
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param value the value
+     * @param tags the tags
+     * @param encoded the value that {@link #encode} returned for the handle
+     */
+    protected void onEncodedEvent(int kind, String aspect, long value, String[] tags, Object encoded) {
+        onEvent(kind, aspect, value, tags);
+    }
+
+    /**
+     * Prepares whatever the drain thread needs to handle the values of a handle that is being bound; called
+     * once per handle on the thread that binds it. The default implementation returns {@code null}, and the
+     * values of the handle are then passed to {@link #onEvent(int, String, long, String[])}.
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param tags the tags
+     * @return the value to pass to {@link #onEncodedEvent}, or {@code null}
+     */
+    protected Object encode(int kind, String aspect, String[] tags) {
+        return null;
+    }
+
+    /**
+     * Called on the drain thread when there are no events to drain; for example to send out
+     * the buffered values
+     */
+    protected void onIdle() {
+    }
+
+    /**
+     * Publishes the event into the ring buffer; the subclasses can use it to publish the events
+     * from their own threads
+     *
+     * @param kind the kind, one of the {@code EventRingBuffer} constants
+     * @param aspect the aspect
+     * @param value the value
+     * @param tags the tags
+     * @return {@code true} if the event has been published, {@code false} if it has been dropped
+     */
+    protected final boolean publish(int kind, String aspect, long value, String[] tags) {
+        return this.buffer.publish(kind, aspect, value, tags);
+    }
+
+    /**
+     * Returns the number of events dropped because the ring buffer was full
+     *
+     * @return the number of dropped events
+     */
+    public long getDropped() {
+        return this.buffer.getDropped();
+    }
+
+    /**
+     * Returns the number of times that {@code onEvent} or {@code onIdle} failed on the drain thread
+     *
+     * @return the number of failures
+     */
+    public long getFailures() {
+        return this.failures;
+    }
+
+    /**
+     * Returns the number of events waiting to be drained
+     *
+     * @return the lag
+     */
+    public long getLag() {
+        return this.buffer.getLag();
+    }
+
+    @Override
+    public void incrementCounter(String aspect, String... tags) {
+        this.buffer.publish(EventRingBuffer.COUNTER, aspect, 1, tags);
+    }
+
+    @Override
+    public void incrementCounter(String aspect, int delta, String... tags) {
+        this.buffer.publish(EventRingBuffer.COUNTER, aspect, delta, tags);
+    }
+
+    @Override
+    public void decrementCounter(String aspect, String... tags) {
+        this.buffer.publish(EventRingBuffer.COUNTER, aspect, -1, tags);
+    }
+
+    @Override
+    public void recordGaugeValue(String aspect, int value, String... tags) {
+        this.buffer.publish(EventRingBuffer.GAUGE, aspect, value, tags);
+    }
+
+    @Override
+    public void recordExecutionTime(String aspect, int duration, String... tags) {
+        this.buffer.publish(EventRingBuffer.EXECUTION_TIME, aspect, duration, tags);
+    }
+
+    @Override
+    public void recordExecutionTimeNanos(String aspect, long duration, String... tags) {
+        this.buffer.publish(EventRingBuffer.EXECUTION_TIME_NANOS, aspect, duration, tags);
+    }
+
+    @Override
+    public CounterHandle bindCounter(String aspect, String... tags) {
+        return new BoundEvent(EventRingBuffer.COUNTER, aspect, tags);
+    }
+
+    @Override
+    public GaugeHandle bindGauge(String aspect, String... tags) {
+        return new BoundEvent(EventRingBuffer.GAUGE, aspect, tags);
+    }
+
+    @Override
+    public TimerHandle bindExecutionTime(String aspect, String... tags) {
+        return new BoundEvent(EventRingBuffer.EXECUTION_TIME, aspect, tags);
+    }
+
+    @Override
+    public TimerHandle bindExecutionTimeNanos(String aspect, String... tags) {
+        return new BoundEvent(EventRingBuffer.EXECUTION_TIME_NANOS, aspect, tags);
+    }
+
+    /**
+     * The handle that publishes its values with its kind, aspect, tags and encoded value; it implements all
+     * handle interfaces, but the bind methods only return it as the handle of its own kind.
+     */
+    private final class BoundEvent implements CounterHandle, GaugeHandle, TimerHandle {
+        private final int kind;
+        private final String aspect;
+        private final String[] tags;
+        private final Object encoded;
+
+        private BoundEvent(int kind, String aspect, String[] tags) {
+            this.kind = kind;
+            this.aspect = aspect;
+            this.tags = tags;
+            this.encoded = encode(kind, aspect, tags);
+        }
+
+        private void publish(long value) {
+            buffer.publish(this.kind, this.aspect, value, this.tags, this.encoded);
+        }
+
+        @Override
+        public void increment(long delta) {
+            publish(delta);
+        }
+
+        @Override
+        public void set(long value) {
+            publish(value);
+        }
+
+        @Override
+        public void record(long duration) {
+            publish(duration);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads the updates from different threads over multiple cells, so that the threads
+ * that update the same counter do not contend on the same cache line. Reading the value sums
+ * the cells.
+ */
+public final class StripedCounter {
+    // the cells are 8 longs (64 bytes) apart to avoid false sharing
+    private static final int PADDING = 8;
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Constructs this instance
+     *
+     * @param stripes the number of cells; rounded up to the nearest power of two
+     */
+    public StripedCounter(int stripes) {
+        int size = 1;
+        while (size < stripes) size <<= 1;
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PADDING);
+    }
+
+    /**
+     * Returns a well-spread hash of the current thread's id; the threads use it to pick their stripe
+     *
+     * @return the hash
+     */
+    static int threadHash() {
+        final long id = Thread.currentThread().getId();
+        final int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return hash >>> 16;
+    }
+
+    /**
+     * Returns the cell index for the current thread
+     *
+     * @return the index into {@code cells}
+     */
+    private int index() {
+        return (threadHash() & this.mask) * PADDING;
+    }
+
+    /**
+     * Adds the {@code delta}
+     *
+     * @param delta the value to add
+     */
+    public void add(long delta) {
+        this.cells.getAndAdd(index(), delta);
+    }
+
+    /**
+     * Returns the current sum of all cells
+     *
+     * @return the sum
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= this.mask; i++) sum += this.cells.get(i * PADDING);
+        return sum;
+    }
+
+    /**
+     * Returns the current sum of all cells, setting each cell to zero. The updates that happen
+     * during this call are either included in the result or left in the cells; none are lost.
+     *
+     * @return the sum
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i <= this.mask; i++) sum += this.cells.getAndSet(i * PADDING, 0);
+        return sum;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import com.typesafe.config.Config
+
+/**
+ * Holds the configuration for the ``AggregatingCounterInterface``.
+ *
+ * @param delegateClassName the class name of the decorated ``CounterInterface`` with a nullary constructor
+ * @param interval how often (in milliseconds) should the folded values be sent to the decorated instance
+ * @param stripes the number of cells in each counter
+ */
+case class AggregatingOutputConfiguration(delegateClassName: String, interval: Int, stripes: Int)
+
+/**
+ * Companion object that makes instances of ``AggregatingOutputConfiguration`` from the
+ * instances of ``Config``.
+ */
+object AggregatingOutputConfiguration {
+
+  def apply(config: Config): AggregatingOutputConfiguration = {
+    val delegateClassName = config.getString("delegate")
+    val interval = if (config.hasPath("interval")) config.getInt("interval") else 1000
+    val stripes = if (config.hasPath("stripes")) config.getInt("stripes") else Runtime.getRuntime.availableProcessors()
+
+    require(interval > 0, "Interval must be positive")
+
+    AggregatingOutputConfiguration(delegateClassName, interval, stripes)
+  }
+
+}
+
+/**
+ * Exposes the ``AggregatingOutputConfiguration.apply(Config)`` function in Java-friendly API
+ */
+object AggregatingOutputConfigurationJapi {
+
+  def apply: Config => AggregatingOutputConfiguration = AggregatingOutputConfiguration.apply
+
+}
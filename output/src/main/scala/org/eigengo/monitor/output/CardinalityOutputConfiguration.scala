@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import com.typesafe.config.Config
+
+/**
+ * Holds the configuration for the ``CardinalityLimitingCounterInterface``.
+ *
+ * @param delegateClassName the class name of the decorated ``CounterInterface`` with a nullary constructor
+ * @param refinedAspects the aspects whose refinements (``aspect.Refinement``) are limited
+ * @param maximumRefinements the maximum number of distinct refinements of each of the ``refinedAspects``
+ * @param maximumTagValues the maximum number of distinct tags
+ */
+case class CardinalityOutputConfiguration(delegateClassName: String, refinedAspects: List[String],
+                                          maximumRefinements: Int, maximumTagValues: Int) {
+
+  /**
+   * Returns the ``refinedAspects`` as a Java ``List``
+   *
+   * @return the refined aspects
+   */
+  def refinedAspectsJava: java.util.List[String] = {
+    import scala.collection.JavaConversions._
+    refinedAspects
+  }
+
+}
+
+/**
+ * Companion object that makes instances of ``CardinalityOutputConfiguration`` from the
+ * instances of ``Config``.
+ */
+object CardinalityOutputConfiguration {
+  private val DefaultRefinedAspects = List("akka.actor.delivered", "akka.actor.undelivered", "akka.actor.error")
+
+  def apply(config: Config): CardinalityOutputConfiguration = {
+    import scala.collection.JavaConversions._
+
+    val delegateClassName = config.getString("delegate")
+    val refinedAspects = if (config.hasPath("refinedAspects")) config.getStringList("refinedAspects").toList else DefaultRefinedAspects
+    val maximumRefinements = if (config.hasPath("maximumRefinements")) config.getInt("maximumRefinements") else 100
+    val maximumTagValues = if (config.hasPath("maximumTagValues")) config.getInt("maximumTagValues") else 10000
+
+    require(maximumRefinements > 0, "Maximum refinements must be positive")
+    require(maximumTagValues > 0, "Maximum tag values must be positive")
+
+    CardinalityOutputConfiguration(delegateClassName, refinedAspects, maximumRefinements, maximumTagValues)
+  }
+
+}
+
+/**
+ * Exposes the ``CardinalityOutputConfiguration.apply(Config)`` function in Java-friendly API
+ */
+object CardinalityOutputConfigurationJapi {
+
+  def apply: Config => CardinalityOutputConfiguration = CardinalityOutputConfiguration.apply
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import com.typesafe.config.Config
+
+/**
+ * Holds the configuration of the ``EventRingBuffer`` of the outputs that extend the ``RingBufferCounterInterface``.
+ *
+ * @param capacity the maximum number of events waiting to be handled
+ * @param policy what to do when the buffer is full
+ */
+case class RingBufferConfiguration(capacity: Int, policy: EventRingBuffer.FullPolicy)
+
+/**
+ * Companion object that makes instances of ``RingBufferConfiguration`` from the ``bufferSize`` and
+ * ``bufferFullPolicy`` keys of the output's ``Config``.
+ */
+object RingBufferConfiguration {
+
+  def apply(config: Config): RingBufferConfiguration = {
+    val capacity = if (config.hasPath("bufferSize")) config.getInt("bufferSize") else 65536
+    val policy = if (config.hasPath("bufferFullPolicy")) config.getString("bufferFullPolicy") else "drop"
+
+    require(capacity > 0, "Buffer size must be positive")
+
+    RingBufferConfiguration(capacity, EventRingBuffer.FullPolicy.valueOf(policy.toUpperCase))
+  }
+
+}
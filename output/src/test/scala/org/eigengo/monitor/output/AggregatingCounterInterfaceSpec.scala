@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import org.specs2.mutable.Specification
+import java.util.concurrent.TimeUnit
+import scala.collection.mutable
+
+/**
+ * Records all calls it receives
+ */
+class RecordingCounterInterface extends CounterInterface {
+  val events = new mutable.ArrayBuffer[(String, String, Int, List[String])]()
+
+  private def record(kind: String, aspect: String, value: Int, tags: Seq[String]): Unit = synchronized {
+    events += ((kind, aspect, value, tags.toList))
+  }
+
+  def incrementCounter(aspect: String, tags: String*): Unit = record("c", aspect, 1, tags)
+  def incrementCounter(aspect: String, delta: Int, tags: String*): Unit = record("c", aspect, delta, tags)
+  def decrementCounter(aspect: String, tags: String*): Unit = record("c", aspect, -1, tags)
+  def recordGaugeValue(aspect: String, value: Int, tags: String*): Unit = record("g", aspect, value, tags)
+  def recordExecutionTime(aspect: String, duration: Int, tags: String*): Unit = record("ms", aspect, duration, tags)
+  def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = record("ns", aspect, duration.toInt, tags)
+}
+
+class AggregatingCounterInterfaceSpec extends Specification {
+  sequential
+
+  "The aggregating counter interface" should {
+
+    "fold the counters from many threads into one call per aspect and tags" in {
+      val delegate = new RecordingCounterInterface
+      val aggregating = new AggregatingCounterInterface(delegate, 1, TimeUnit.HOURS, 4)
+      val threads = (0 until 8).map { _ =>
+        new Thread(new Runnable {
+          def run(): Unit = for (_ <- 0 until 100000) {
+            aggregating.incrementCounter("a", "t:1")
+            aggregating.incrementCounter("a", 2, "t:2")
+          }
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+      aggregating.decrementCounter("a", "t:1")
+      aggregating.flush()
+
+      delegate.events must haveSize(2)
+      delegate.events must contain(("c", "a", 799999, List("t:1")))
+      delegate.events must contain(("c", "a", 1600000, List("t:2")))
+
+      // nothing changed since the last flush
+      aggregating.flush()
+      delegate.events must haveSize(2)
+    }
+
+    "send the last gauge value" in {
+      val delegate = new RecordingCounterInterface
+      val aggregating = new AggregatingCounterInterface(delegate, 1, TimeUnit.HOURS, 4)
+      (0 to 100).foreach(v => aggregating.recordGaugeValue("g", v, "t:1"))
+      aggregating.flush()
+      aggregating.flush()
+
+      delegate.events.toList mustEqual List(("g", "g", 100, List("t:1")))
+    }
+
+    "pass the execution times immediately" in {
+      val delegate = new RecordingCounterInterface
+      val aggregating = new AggregatingCounterInterface(delegate, 1, TimeUnit.HOURS, 4)
+      aggregating.recordExecutionTime("d", 10, "t:1")
+
+      delegate.events.toList mustEqual List(("ms", "d", 10, List("t:1")))
+    }
+
+    "fold the values of the bound handles with the plain calls" in {
+      val delegate = new RecordingCounterInterface
+      val aggregating = new AggregatingCounterInterface(delegate, 1, TimeUnit.HOURS, 4)
+      val counter = CounterHandles.counter(aggregating, "a", "t:1")
+      counter.increment(2)
+      aggregating.incrementCounter("a", "t:1")
+      CounterHandles.gauge(aggregating, "g").set(42)
+      CounterHandles.executionTimeNanos(aggregating, "d", "t:1").record(10)
+      aggregating.flush()
+
+      delegate.events.toList mustEqual List(("ns", "d", 10, List("t:1")), ("c", "a", 3, List("t:1")), ("g", "g", 42, Nil))
+    }
+
+    "flush on the configured interval" in {
+      val delegate = new RecordingCounterInterface
+      val aggregating = new AggregatingCounterInterface(delegate, 50, TimeUnit.MILLISECONDS, 4)
+      aggregating.incrementCounter("a")
+      Thread.sleep(500)
+
+      delegate.events.toList mustEqual List(("c", "a", 1, Nil))
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import org.specs2.mutable.Specification
+import scala.collection.JavaConversions._
+
+class CardinalityLimitingCounterInterfaceSpec extends Specification {
+
+  "The cardinality guard" should {
+
+    "admit at most the maximum number of values" in {
+      val guard = new CardinalityGuard(2)
+      guard.admit("a") must beTrue
+      guard.admit("b") must beTrue
+      guard.admit("c") must beFalse
+      guard.admit("a") must beTrue
+      guard.size mustEqual 2
+    }
+
+    "replace the rare admitted values by the frequent ones" in {
+      val guard = new CardinalityGuard(2)
+      guard.admit("rare")
+      for (_ <- 0 until 10) guard.admit("frequent")
+      // seen once each, these never displace the admitted values
+      for (i <- 0 until 1000) guard.admit(s"id-$i") must beFalse
+
+      for (_ <- 0 until 10) guard.admit("heavy")
+      guard.admit("heavy") must beTrue
+      guard.admit("frequent") must beTrue
+      guard.admit("rare") must beFalse
+    }
+
+    "keep the frequent values while the IDs overflow" in {
+      val guard = new CardinalityGuard(100)
+      for (_ <- 0 until 3; i <- 0 until 100) guard.admit(s"hot-$i")
+      val admittedIds = (0 until 100000).count { i =>
+        guard.admit(s"hot-${i % 100}")
+        guard.admit(s"id-$i")
+      }
+
+      admittedIds mustEqual 0
+      (0 until 100).forall(i => guard.admit(s"hot-$i")) must beTrue
+    }
+  }
+
+  "The cardinality limiting counter interface" should {
+
+    "send the overflowing refinements and tags to the other bucket" in {
+      val delegate = new RecordingCounterInterface
+      val limiting = new CardinalityLimitingCounterInterface(delegate, List("akka.actor.error"), 1, 2)
+
+      limiting.incrementCounter("akka.actor.error.IOException", "akka.path:/a")
+      limiting.incrementCounter("akka.actor.error.Exception 42", "akka.path:/a")
+      limiting.incrementCounter("akka.actor.error", "akka.path:/a", "akka.path:/b", "akka.path:/c")
+      limiting.incrementCounter("akka.actor.errors", "akka.path:/a")
+
+      val dropped = CardinalityLimitingCounterInterface.DROPPED
+      delegate.events.toList mustEqual List(
+        ("c", "akka.actor.error.IOException", 1, List("akka.path:/a")),
+        ("c", dropped, 1, List("monitor.dropped:aspect")),
+        ("c", "akka.actor.error.other", 1, List("akka.path:/a")),
+        ("c", dropped, 1, List("monitor.dropped:tag")),
+        ("c", "akka.actor.error", 1, List("akka.path:/a", "akka.path:/b", "akka.path:other")),
+        ("c", "akka.actor.errors", 1, List("akka.path:/a")))
+    }
+  }
+
+}
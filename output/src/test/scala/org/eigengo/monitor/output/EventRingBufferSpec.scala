@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import org.specs2.mutable.Specification
+import java.lang.management.ManagementFactory
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.mutable
+
+class EventRingBufferSpec extends Specification {
+  sequential
+
+  class Collecting extends EventRingBuffer.EventHandler {
+    val events = new mutable.ArrayBuffer[(Int, String, Long, List[String])]()
+    def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String], attachment: AnyRef): Unit =
+      events += ((kind, aspect, value, tags.toList))
+  }
+
+  "The event ring buffer" should {
+
+    "round the capacity up to the nearest power of two" in {
+      new EventRingBuffer(1000, EventRingBuffer.FullPolicy.DROP).getCapacity mustEqual 1024
+      new EventRingBuffer(1, EventRingBuffer.FullPolicy.DROP).getCapacity mustEqual 1
+    }
+
+    "drain the events in the published order" in {
+      val buffer = new EventRingBuffer(4, EventRingBuffer.FullPolicy.DROP)
+      val handler = new Collecting
+      (1 to 10).foreach { i =>
+        buffer.publish(EventRingBuffer.COUNTER, "a", i, Array("t")) must beTrue
+        buffer.publish(EventRingBuffer.GAUGE, "b", -i, Array()) must beTrue
+        buffer.getLag mustEqual 2
+        buffer.drain(handler, 10) mustEqual 2
+      }
+
+      handler.events.size mustEqual 20
+      handler.events(0) mustEqual ((EventRingBuffer.COUNTER, "a", 1L, List("t")))
+      handler.events(19) mustEqual ((EventRingBuffer.GAUGE, "b", -10L, Nil))
+      buffer.getLag mustEqual 0
+    }
+
+    "drop and count the events when full" in {
+      val buffer = new EventRingBuffer(4, EventRingBuffer.FullPolicy.DROP)
+      (1 to 10).map(i => buffer.publish(EventRingBuffer.COUNTER, "a", i, Array())).count(identity) mustEqual 4
+      buffer.getDropped mustEqual 6
+
+      val handler = new Collecting
+      buffer.drain(handler, 2) mustEqual 2
+      buffer.drain(handler, 10) mustEqual 2
+      handler.events.map(_._3) mustEqual Seq(1L, 2L, 3L, 4L)
+    }
+
+    "make the producers wait when full with the spin policy" in {
+      val buffer = new EventRingBuffer(16, EventRingBuffer.FullPolicy.SPIN)
+      val producers = 4
+      val events = 100000
+      val done = new CountDownLatch(producers)
+      (0 until producers).foreach { _ =>
+        new Thread(new Runnable {
+          def run(): Unit = {
+            (1 to events).foreach(i => buffer.publish(EventRingBuffer.COUNTER, "a", i, Array()))
+            done.countDown()
+          }
+        }).start()
+      }
+
+      val sum = new AtomicLong(0)
+      val handler = new EventRingBuffer.EventHandler {
+        def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String], attachment: AnyRef): Unit = sum.addAndGet(value)
+      }
+      while (done.getCount > 0 || buffer.getLag > 0) buffer.drain(handler, 1024)
+
+      done.await(10, TimeUnit.SECONDS) must beTrue
+      buffer.getDropped mustEqual 0
+      sum.get mustEqual producers * (events.toLong * (events + 1) / 2)
+    }
+
+    "drop and count the events when full once closed with the spin policy" in {
+      val buffer = new EventRingBuffer(4, EventRingBuffer.FullPolicy.SPIN)
+      buffer.close()
+      (1 to 10).map(i => buffer.publish(EventRingBuffer.COUNTER, "a", i, Array())).count(identity) mustEqual 4
+      buffer.getDropped mustEqual 6
+    }
+
+    "not allocate when publishing and draining" in {
+      val threadMXBean = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+      val buffer = new EventRingBuffer(1024, EventRingBuffer.FullPolicy.DROP)
+      val tags = Array("t")
+      val handler = new EventRingBuffer.EventHandler {
+        def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String], attachment: AnyRef): Unit = ()
+      }
+      val iterations = 1000000
+      def publishAll(): Unit = {
+        var i = 0
+        while (i < iterations) {
+          buffer.publish(EventRingBuffer.COUNTER, "a", i, tags)
+          if ((i & 511) == 0) buffer.drain(handler, 1024)
+          i += 1
+        }
+      }
+      publishAll()
+
+      val threadId = Thread.currentThread().getId
+      val before = threadMXBean.getThreadAllocatedBytes(threadId)
+      publishAll()
+      val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before
+
+      allocated must beLessThan(iterations.toLong)
+    }
+  }
+
+  "The ring buffer counter interface" should {
+
+    "drain the values and report the dropped values" in {
+      val recorded = new java.util.concurrent.LinkedBlockingQueue[(Int, String, Long)]()
+      val blocked = new CountDownLatch(1)
+      val counterInterface = new RingBufferCounterInterface("test", 4, EventRingBuffer.FullPolicy.DROP, 100, TimeUnit.MILLISECONDS) {
+        protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit = {
+          blocked.await()
+          recorded.offer((kind, aspect, value))
+        }
+        start()
+      }
+      (1 to 10).foreach(_ => counterInterface.incrementCounter("a"))
+      blocked.countDown()
+
+      val values = Iterator.continually(recorded.poll(2, TimeUnit.SECONDS)).takeWhile(_ != null).toList
+      counterInterface.getDropped must beGreaterThan(0L)
+      values.filter(_._2 == "a").size mustEqual 10 - counterInterface.getDropped
+      values must contain((EventRingBuffer.COUNTER, RingBufferCounterInterface.DROPPED_ASPECT, counterInterface.getDropped))
+    }
+
+    "keep draining, count and report the failures" in {
+      val recorded = new java.util.concurrent.LinkedBlockingQueue[(Int, String, Long)]()
+      val counterInterface = new RingBufferCounterInterface("test", 16, EventRingBuffer.FullPolicy.SPIN, 100, TimeUnit.MILLISECONDS) {
+        protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit =
+          if (aspect == "fail") throw new IllegalStateException("expected") else recorded.offer((kind, aspect, value))
+        start()
+      }
+      counterInterface.incrementCounter("fail")
+      counterInterface.incrementCounter("a")
+      counterInterface.incrementCounter("fail")
+
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.COUNTER, "a", 1L))
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.COUNTER, RingBufferCounterInterface.FAILED_ASPECT, 2L))
+      counterInterface.getFailures mustEqual 2
+    }
+
+    "keep draining after an error" in {
+      val recorded = new java.util.concurrent.LinkedBlockingQueue[(Int, String, Long)]()
+      val counterInterface = new RingBufferCounterInterface("test", 16, EventRingBuffer.FullPolicy.SPIN, 100, TimeUnit.MILLISECONDS) {
+        protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit =
+          if (aspect == "fail") throw new StackOverflowError("expected") else recorded.offer((kind, aspect, value))
+        start()
+      }
+      counterInterface.incrementCounter("fail")
+      counterInterface.incrementCounter("a")
+
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.COUNTER, "a", 1L))
+      counterInterface.getFailures mustEqual 1
+    }
+
+    "pass the encoded values of the bound handles to the drain thread" in {
+      val recorded = new java.util.concurrent.LinkedBlockingQueue[(Int, String, Long, AnyRef)]()
+      val counterInterface = new RingBufferCounterInterface("test", 16, EventRingBuffer.FullPolicy.SPIN, 1, TimeUnit.MINUTES) {
+        override protected def encode(kind: Int, aspect: String, tags: Array[String]): AnyRef =
+          if (kind == EventRingBuffer.GAUGE) null else aspect + tags.mkString("|", ",", "")
+        protected def onEvent(kind: Int, aspect: String, value: Long, tags: Array[String]): Unit =
+          recorded.offer((kind, aspect, value, null))
+        override protected def onEncodedEvent(kind: Int, aspect: String, value: Long, tags: Array[String], encoded: AnyRef): Unit =
+          recorded.offer((kind, aspect, value, encoded))
+        start()
+      }
+      val counter = CounterHandles.counter(counterInterface, "a", "t:1")
+      val gauge = CounterHandles.gauge(counterInterface, "b", "t:2")
+      counter.increment(3)
+      gauge.set(Long.MaxValue)
+      counterInterface.incrementCounter("a", "t:1")
+
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.COUNTER, "a", 3L, "a|t:1"))
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.GAUGE, "b", Long.MaxValue, null))
+      recorded.poll(2, TimeUnit.SECONDS) mustEqual ((EventRingBuffer.COUNTER, "a", 1L, null))
+    }
+
+  }
+
+  "The counter handles" should {
+
+    "fall back to the plain methods of the counter interfaces that do not bind" in {
+      val counterInterface = new RecordingCounterInterface
+      val counter = CounterHandles.counter(counterInterface, "c", "t")
+      counter.increment(1)
+      counter.increment(-1)
+      counter.increment(5)
+      CounterHandles.gauge(counterInterface, "g").set(Long.MaxValue)
+      CounterHandles.executionTime(counterInterface, "e", "t").record(7)
+      CounterHandles.executionTimeNanos(counterInterface, "n", "t").record(8)
+
+      counterInterface.events.toList mustEqual List(
+        ("c", "c", 1, List("t")), ("c", "c", -1, List("t")), ("c", "c", 5, List("t")),
+        ("g", "g", Int.MaxValue, Nil), ("ms", "e", 7, List("t")), ("ns", "n", 8, List("t")))
+    }
+
+    "bind the no-op handles of the null counter interface" in {
+      val handle = CounterHandles.counter(new NullCounterInterface, "a")
+      handle.increment(1)
+      handle must be(CounterHandles.gauge(new NullCounterInterface, "b"))
+    }
+
+  }
+
+}
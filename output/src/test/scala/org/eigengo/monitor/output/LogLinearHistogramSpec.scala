@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.output
+
+import org.specs2.mutable.Specification
+import java.lang.management.ManagementFactory
+import scala.collection.mutable
+
+class LogLinearHistogramSpec extends Specification {
+  sequential
+
+  "The log-linear histogram" should {
+
+    "bucket the values with bounded relative error" in {
+      val values = (0L until 40L) ++ (0 until 36).map(1L << _) ++ Seq(123456789L, 999999L, 1000001L)
+      values.foreach { value =>
+        val index = LogLinearHistogram.bucketIndex(value)
+        LogLinearHistogram.lowestValue(index) must beLessThanOrEqualTo(value)
+        LogLinearHistogram.highestValue(index) must beGreaterThanOrEqualTo(value)
+        (LogLinearHistogram.highestValue(index) - LogLinearHistogram.lowestValue(index)).toDouble must beLessThanOrEqualTo(value / 32.0)
+      }
+      LogLinearHistogram.bucketIndex(Long.MaxValue) mustEqual LogLinearHistogram.BUCKET_COUNT - 1
+    }
+
+    "report the percentiles and the exact maximum" in {
+      val histogram = new LogLinearHistogram(4)
+      (1 to 100000).foreach(i => histogram.record(i * 1000L))
+      val snapshot = histogram.snapshot()
+
+      snapshot.getCount mustEqual 100000
+      snapshot.getMax mustEqual 100000000L
+      snapshot.getValueAtQuantile(0.5).toDouble must beCloseTo(50000000.0, 50000000.0 * 0.04)
+      snapshot.getValueAtQuantile(0.99).toDouble must beCloseTo(99000000.0, 99000000.0 * 0.04)
+      snapshot.getValueAtQuantile(0.999).toDouble must beCloseTo(99900000.0, 99900000.0 * 0.04)
+    }
+
+    "start the next interval on reset" in {
+      val histogram = new LogLinearHistogram(4)
+      histogram.record(10)
+      histogram.snapshotAndReset().getCount mustEqual 1
+      histogram.snapshotAndReset().getCount mustEqual 0
+    }
+
+    "not allocate when recording" in {
+      val threadMXBean = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+      val histogram = new LogLinearHistogram(4)
+      val iterations = 1000000
+      def recordAll(): Unit = {
+        var i = 0
+        while (i < iterations) { histogram.record(i); i += 1 }
+      }
+      recordAll()
+
+      val threadId = Thread.currentThread().getId
+      val before = threadMXBean.getThreadAllocatedBytes(threadId)
+      recordAll()
+      val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before
+
+      allocated must beLessThan(iterations.toLong)
+    }
+  }
+
+  "The histogram gauges" should {
+
+    "report the percentile gauges in microseconds" in {
+      val gauges = new mutable.ArrayBuffer[(String, Int, List[String])]()
+      val histograms = new HistogramGauges(2) {
+        protected def gauge(aspect: String, value: Int, tags: Array[String]): Unit = gauges += ((aspect, value, tags.toList))
+      }
+      (1 to 1000).foreach(i => histograms.record("d", i * 1000L, Array("t:1")))
+      histograms.flush()
+
+      gauges.map(_._1).toList mustEqual List("d.p50", "d.p99", "d.p999", "d.max", "d.count")
+      gauges.find(_._1 == "d.max").map(_._2) must beSome(1000)
+      gauges.find(_._1 == "d.count").map(_._2) must beSome(1000)
+      gauges.forall(_._3 == List("t:1")) must beTrue
+
+      // nothing recorded in the next interval
+      gauges.clear()
+      histograms.flush()
+      gauges must beEmpty
+    }
+
+    "evict the idle histograms, and re-create them for the bound handles" in {
+      val gauges = new mutable.ArrayBuffer[(String, Int, List[String])]()
+      val histograms = new HistogramGauges(2) {
+        protected def gauge(aspect: String, value: Int, tags: Array[String]): Unit = gauges += ((aspect, value, tags.toList))
+      }
+      val handle = histograms.bind("d", Array("t:1"))
+      handle.record(1000)
+      histograms.record("e", 1000, Array("t:2"))
+      histograms.flush()
+      histograms.size mustEqual 2
+
+      histograms.flush()
+      histograms.size mustEqual 0
+
+      gauges.clear()
+      handle.record(2000)
+      histograms.size mustEqual 1
+      histograms.flush()
+      gauges.find(_._1 == "d.max").map(_._2) must beSome(2)
+      gauges.forall(_._1.startsWith("d.")) must beTrue
+    }
+  }
+
+}
@@ -2,6 +2,7 @@ import sbt._
 import sbt.Keys._
 import sbt.LocalProject
 import scala.Some
+import scala.util.Try
 
 object MonitorBuild extends Build {
 
@@ -41,7 +42,7 @@ object MonitorBuild extends Build {
       fork in run := true,
       connectInput in run := true,
       mainClass in (Compile, run) := Some("org.eigengo.monitor.example.akka.Main")),
-    aggregate = Seq(agent, output, output_statsd, output_codahalemetrics, output_dtrace, agent_akka, agent_spray, agent_play, example_akka, docs)) dependsOn (example_akka)
+    aggregate = Seq(agent, output, output_statsd, output_codahalemetrics, output_dtrace, output_mmap, output_prometheus, agent_akka, agent_spray, agent_play, example_akka, docs) ++ jfrModules) dependsOn (example_akka)
 
   lazy val agent = module("agent") settings (
   	libraryDependencies += typesafe_config
@@ -65,6 +66,29 @@ object MonitorBuild extends Build {
     fork in run := true,
     connectInput in run := true
   )
+  lazy val output_mmap = module("output-mmap") dependsOn (output) settings (
+    libraryDependencies += specs2 % "test",
+    mainClass in (Compile, run) := Some("org.eigengo.monitor.output.mmap.MappedCounterReader")
+  )
+  lazy val output_prometheus = module("output-prometheus") dependsOn (output) settings (
+    libraryDependencies += specs2 % "test"
+  )
+  // the jdk.jfr API is only available on JDK 11+ (and 8u262+), so the root only aggregates the module
+  // when it is asked for with -Dmonitor.jfr=true and the JDK has the API
+  lazy val jfrRequested = sys.props.get("monitor.jfr").exists(_.toBoolean)
+  lazy val jfrAvailable = Try(Class.forName("jdk.jfr.Event")).isSuccess
+  lazy val output_jfr = module("output-jfr") dependsOn (output) settings (
+    javacOptions in (Compile, compile) ++= Seq("-source", "1.8", "-target", "1.8"),
+    libraryDependencies += specs2 % "test"
+  )
+  lazy val jfrModules: Seq[ProjectReference] =
+    if (!jfrRequested) {
+      ConsoleLogger().warn("Skipping output-jfr; build it with -Dmonitor.jfr=true on JDK 11+ (or 8u262+)")
+      Nil
+    } else if (!jfrAvailable) {
+      ConsoleLogger().warn("Skipping output-jfr: -Dmonitor.jfr=true needs a JDK with the jdk.jfr API, that is JDK 11+ (or 8u262+)")
+      Nil
+    } else Seq(output_jfr)
   lazy val test = module("test") dependsOn (output) settings (
   	libraryDependencies += specs2,
     libraryDependencies += akka.testkit
@@ -77,7 +101,15 @@ object MonitorBuild extends Build {
   	libraryDependencies += akka.actor,
 
     javaOptions in Test += aspectjAgent,
-    fork in Test := true
+    fork in Test := true,
+    // the allocation spec measures the receive path with the null output, in a JVM of its own
+    testGrouping in Test <<= (definedTests in Test, javaOptions in Test) map { (tests, options) =>
+      val (allocation, others) = tests.partition(_.name.endsWith("ReceiveAllocationSpec"))
+      def group(name: String, tests: Seq[TestDefinition], extraOptions: Seq[String]) =
+        Tests.Group(name, tests, Tests.SubProcess(ForkOptions(runJVMOptions = options ++ extraOptions)))
+      val nullOutput = "-Dorg.eigengo.monitor.agent.output.class=org.eigengo.monitor.output.NullCounterInterface"
+      group("default", others, Nil) +: allocation.map(t => group(t.name, Seq(t), Seq(nullOutput)))
+    }
   )
   lazy val agent_play  = module("agent-play", BuildSettings.aspectjCompileSettings) dependsOn (agent, output, test % "test") settings (
     libraryDependencies += aspectj_weaver,
@@ -86,12 +118,45 @@ object MonitorBuild extends Build {
     javaOptions in Test += aspectjAgent,
     fork in Test := true
   )
-  lazy val agent_spray  = module("agent-spray")  dependsOn(agent, output)
+  lazy val agent_spray  = module("agent-spray", BuildSettings.aspectjCompileSettings) dependsOn (agent, output, test % "test") settings (
+    libraryDependencies += aspectj_weaver,
+    libraryDependencies += akka.actor,
+    libraryDependencies += spray.can,
+
+    javaOptions in Test += aspectjAgent,
+    fork in Test := true
+  )
+
+  import com.typesafe.sbt.SbtAspectj.{ Aspectj, useInstrumentedClasses }
+  import com.typesafe.sbt.SbtAspectj.AspectjKeys.{ binaries, compileOnly, inputs }
+  import pl.project13.scala.sbt.SbtJmh.jmhSettings
+
+  lazy val benchmarks = module("benchmarks", jmhSettings) dependsOn(agent_akka, output_statsd, output_codahalemetrics) settings (
+    libraryDependencies += akka.actor,
+
+    // weave the Akka agent's aspects into akka-actor at compile time, and run against the woven classes
+    compileOnly in Aspectj := false,
+    inputs in Aspectj <<= update map { report =>
+      report.matching(moduleFilter(organization = "com.typesafe.akka", name = "akka-actor*"))
+    },
+    binaries in Aspectj <++= products in Compile in agent_akka,
+    fullClasspath in Runtime <<= useInstrumentedClasses(Runtime),
+    publishArtifact := false
+  )
+
+  // the soak forks the examples' JVMs with and without the weaver; see the examples' ``soak`` arguments
+  lazy val soak = module("soak") dependsOn (output) settings (
+    publishArtifact := false
+  )
+  lazy val soakSettings = Seq(
+    fork in run := true,
+    connectInput in run := true
+  )
 
-  lazy val example_akka = module("example-akka") dependsOn(agent_akka, output_statsd, output_dtrace) settings (
+  lazy val example_akka = module("example-akka", soakSettings) dependsOn(agent_akka, output_statsd, output_codahalemetrics, output_dtrace, output_mmap, soak) settings (
     libraryDependencies += akka.actor
   )
-  lazy val example_spray = module("example-spray") dependsOn(agent_spray, output_statsd, output_dtrace) settings (
+  lazy val example_spray = module("example-spray", soakSettings) dependsOn(agent_akka, agent_spray, output_statsd, output_codahalemetrics, output_dtrace, soak) settings (
     libraryDependencies += spray.can,
     libraryDependencies += spray.httpx
   )
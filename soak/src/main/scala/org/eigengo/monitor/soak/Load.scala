@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.soak
+
+import java.io.{File, FileInputStream, FileOutputStream}
+import java.lang.management.ManagementFactory
+import java.util.Properties
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import org.eigengo.monitor.output.LogLinearHistogram
+import scala.collection.JavaConversions._
+
+/**
+ * The system under load: accepts the requests that the [[Load]] issues, and completes each one by calling
+ * ``load.completed`` with the time at which the request was meant to be sent.
+ */
+trait LoadTarget {
+
+  /**
+   * Sends one request
+   *
+   * @param intendedStart the ``System.nanoTime`` at which the request was meant to be sent
+   */
+  def send(intendedStart: Long): Unit
+
+  /**
+   * Stops the target, once the load is over
+   */
+  def shutdown(): Unit
+
+}
+
+/**
+ * Drives a ``LoadTarget`` at a fixed rate, and records the latencies of the completed requests.
+ *
+ * The latency of a request is measured from the time at which it was meant to be sent, not from the time at
+ * which it was sent; if the target (or the driver) falls behind, the requests that wait for it count the time
+ * they waited. Without that, a stalled target would hold back its own load, and would hide the stall from
+ * the percentiles.
+ *
+ * @param rate the number of requests per second
+ */
+final class Load(val rate: Int) {
+  require(rate > 0, "The rate must be positive")
+  private val latencies = new LogLinearHistogram(Runtime.getRuntime.availableProcessors())
+  private val completedCount = new AtomicLong(0)
+  private val failedCount = new AtomicLong(0)
+  @volatile private var measuredSince = Long.MaxValue
+
+  /**
+   * Records a completed request; the requests sent during the warm-up are not recorded
+   *
+   * @param intendedStart the value given to ``LoadTarget.send``
+   */
+  def completed(intendedStart: Long): Unit = {
+    if (intendedStart >= measuredSince) {
+      latencies.record(System.nanoTime() - intendedStart)
+      completedCount.incrementAndGet()
+    }
+  }
+
+  /**
+   * Records a failed request, which the target cannot tell apart from the other requests
+   */
+  def failed(): Unit = failedCount.incrementAndGet()
+
+  /**
+   * Sends the requests until the ``until`` time
+   *
+   * @return the number of requests sent
+   */
+  private def drive(target: LoadTarget, since: Long, until: Long): Long = {
+    val interval = 1000000000L / rate
+    var next = since
+    var sent = 0L
+    while (next < until) {
+      var now = System.nanoTime()
+      while (now < next) {
+        LockSupport.parkNanos(next - now)
+        now = System.nanoTime()
+      }
+      target.send(next)
+      sent += 1
+      next += interval
+    }
+    sent
+  }
+
+  /**
+   * Warms the target up, and then measures it
+   *
+   * @param target the target
+   * @param warmup the warm-up in seconds
+   * @param seconds the measurement in seconds
+   * @param drainTimeout the time to wait for the outstanding requests after the measurement, in seconds
+   * @return the measured values
+   */
+  def run(target: LoadTarget, warmup: Int, seconds: Int, drainTimeout: Int = 10): LoadResult = {
+    val start = System.nanoTime()
+    val measurementStart = start + warmup * 1000000000L
+    drive(target, start, measurementStart)
+
+    val before = Resources()
+    failedCount.set(0)
+    measuredSince = measurementStart
+    val sent = drive(target, measurementStart, measurementStart + seconds * 1000000000L)
+
+    val drainUntil = System.nanoTime() + drainTimeout * 1000000000L
+    while (completedCount.get() + failedCount.get() < sent && System.nanoTime() < drainUntil) Thread.sleep(1)
+    val after = Resources()
+
+    val snapshot = latencies.snapshot()
+    val elapsed = (after.nanoTime - measurementStart) / 1000000000.0
+    def micros(nanos: Long): Double = nanos / 1000.0
+    LoadResult(
+      rate = rate,
+      seconds = seconds,
+      sent = sent,
+      completed = completedCount.get(),
+      failed = failedCount.get(),
+      throughput = completedCount.get() / elapsed,
+      p50 = micros(snapshot.getValueAtQuantile(0.5)),
+      p90 = micros(snapshot.getValueAtQuantile(0.9)),
+      p99 = micros(snapshot.getValueAtQuantile(0.99)),
+      p999 = micros(snapshot.getValueAtQuantile(0.999)),
+      max = micros(snapshot.getMax),
+      gcCount = after.gcCount - before.gcCount,
+      gcMillis = after.gcMillis - before.gcMillis,
+      allocationRate = if (before.allocatedBytes < 0) -1 else ((after.allocatedBytes - before.allocatedBytes) / elapsed).toLong,
+      cpuMillis = if (before.cpuNanos < 0) -1 else (after.cpuNanos - before.cpuNanos) / 1000000)
+  }
+
+}
+
+/**
+ * Runs the load in the JVM that the ``SoakRunner`` starts, or on its own
+ */
+object Load {
+  /**
+   * The system property with the name of the file the result is written to; without it, the result is
+   * printed as JSON
+   */
+  val ResultProperty = "org.eigengo.monitor.soak.result"
+
+  /**
+   * Runs the load for the arguments ``<rate> <seconds> <warmup>``, writes the result to the file in the
+   * ``ResultProperty``, and exits the JVM, in which the outputs may still run their own threads
+   *
+   * @param arguments the arguments
+   * @param target creates the target that the load drives
+   */
+  def main(arguments: List[String])(target: Load => LoadTarget): Unit = {
+    val (rate, seconds, warmup) = arguments.map(_.toInt) match {
+      case r :: s :: w :: Nil => (r, s, w)
+      case _                  => throw new IllegalArgumentException("Usage: load <rate> <seconds> <warmup>")
+    }
+    val exitCode = try {
+      val load = new Load(rate)
+      val loadTarget = target(load)
+      val result = try load.run(loadTarget, warmup, seconds) finally loadTarget.shutdown()
+
+      Option(System.getProperty(ResultProperty)) match {
+        case Some(fileName) => result.write(new File(fileName))
+        case None           => println(result.toJson)
+      }
+      0
+    } catch {
+      case e: Exception =>
+        e.printStackTrace()
+        1
+    }
+    System.exit(exitCode)
+  }
+
+}
+
+/**
+ * The resources the JVM used up to a point in time. The allocated bytes are the sum of the live threads' allocated
+ * bytes, which misses the bytes allocated by the threads that end between the two points.
+ */
+private[soak] case class Resources(nanoTime: Long, gcCount: Long, gcMillis: Long, allocatedBytes: Long, cpuNanos: Long)
+
+private[soak] object Resources {
+
+  def apply(): Resources = {
+    val collectors = ManagementFactory.getGarbageCollectorMXBeans.toList
+    val allocatedBytes = ManagementFactory.getThreadMXBean match {
+      case threads: com.sun.management.ThreadMXBean if threads.isThreadAllocatedMemorySupported && threads.isThreadAllocatedMemoryEnabled =>
+        threads.getThreadAllocatedBytes(threads.getAllThreadIds).filter(_ > 0).sum
+      case _ => -1L
+    }
+    val cpuNanos = ManagementFactory.getOperatingSystemMXBean match {
+      case os: com.sun.management.OperatingSystemMXBean => os.getProcessCpuTime
+      case _                                            => -1L
+    }
+    Resources(System.nanoTime(), collectors.map(_.getCollectionCount).sum, collectors.map(_.getCollectionTime).sum, allocatedBytes, cpuNanos)
+  }
+
+}
+
+/**
+ * The values measured by one run of the load; the latencies are in microseconds
+ *
+ * @param rate the requests per second the load was meant to send
+ * @param seconds the duration of the measurement
+ * @param sent the requests sent during the measurement
+ * @param completed the completed requests
+ * @param failed the failed requests
+ * @param throughput the completed requests per second
+ * @param gcCount the number of garbage collections
+ * @param gcMillis the time spent in the garbage collections
+ * @param allocationRate the allocated bytes per second; ``-1`` if the JVM does not measure it
+ * @param cpuMillis the CPU time of the JVM; ``-1`` if the JVM does not measure it
+ */
+case class LoadResult(rate: Int, seconds: Int, sent: Long, completed: Long, failed: Long, throughput: Double,
+                      p50: Double, p90: Double, p99: Double, p999: Double, max: Double,
+                      gcCount: Long, gcMillis: Long, allocationRate: Long, cpuMillis: Long) {
+
+  private def fields: List[(String, Any)] = List(
+    "rate" -> rate, "seconds" -> seconds, "sent" -> sent, "completed" -> completed, "failed" -> failed,
+    "throughput" -> throughput,
+    "p50" -> p50, "p90" -> p90, "p99" -> p99, "p999" -> p999, "max" -> max,
+    "gcCount" -> gcCount, "gcMillis" -> gcMillis, "allocationRate" -> allocationRate, "cpuMillis" -> cpuMillis)
+
+  /**
+   * Returns the JSON fields of this result, without the enclosing braces
+   */
+  def toJsonFields: String = fields.map { case (name, value) => "\"" + name + "\": " + Json.number(value) }.mkString(", ")
+
+  /**
+   * Returns this result as a JSON object
+   */
+  def toJson: String = "{" + toJsonFields + "}"
+
+  /**
+   * Writes this result to the given file, to be read by ``LoadResult.read``
+   */
+  def write(file: File): Unit = {
+    val properties = new Properties()
+    fields.foreach { case (name, value) => properties.setProperty(name, value.toString) }
+    val out = new FileOutputStream(file)
+    try properties.store(out, null) finally out.close()
+  }
+
+}
+
+object LoadResult {
+
+  /**
+   * Reads the result that ``write`` wrote to the given file
+   */
+  def read(file: File): LoadResult = {
+    val properties = new Properties()
+    val in = new FileInputStream(file)
+    try properties.load(in) finally in.close()
+    def long(name: String) = properties.getProperty(name).toLong
+    def double(name: String) = properties.getProperty(name).toDouble
+    LoadResult(long("rate").toInt, long("seconds").toInt, long("sent"), long("completed"), long("failed"), double("throughput"),
+      double("p50"), double("p90"), double("p99"), double("p999"), double("max"),
+      long("gcCount"), long("gcMillis"), long("allocationRate"), long("cpuMillis"))
+  }
+
+}
+
+/**
+ * The bits of JSON the reports need
+ */
+private[soak] object Json {
+
+  def number(value: Any): String = value match {
+    case d: Double if d.isNaN || d.isInfinite => "null"
+    case d: Double                            => "%.3f".formatLocal(java.util.Locale.ROOT, d)
+    case n                                    => n.toString
+  }
+
+  def string(value: String): String = {
+    val sb = new StringBuilder("\"")
+    value.foreach {
+      case '"'            => sb.append("\\\"")
+      case '\\'           => sb.append("\\\\")
+      case c if c < ' '   => sb.append("\\u%04x".format(c.toInt))
+      case c              => sb.append(c)
+    }
+    sb.append('"').toString()
+  }
+
+}
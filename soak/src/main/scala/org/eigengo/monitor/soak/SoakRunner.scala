@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor.soak
+
+import java.io.{File, PrintWriter}
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.text.SimpleDateFormat
+import java.util.{Date, TimeZone}
+
+/**
+ * One way of running the target: without the weaver, or with the weaver and the given output
+ *
+ * @param name the name in the report
+ * @param woven ``true`` to run with the AspectJ weaver
+ * @param properties the system properties of the target's JVM, which select and configure the output
+ */
+case class SoakConfiguration(name: String, woven: Boolean, properties: Map[String, String] = Map())
+
+/**
+ * Runs the same load against the target without the agent, and then with the agent and each of the outputs,
+ * each in its own JVM; and reports what the agent costs.
+ *
+ * The report is a JSON object with the settings of the soak and a result for each configuration: the throughput,
+ * the latency percentiles in microseconds, the garbage collections, the allocation rate and the CPU time. The
+ * results of the woven configurations also have the overhead in percent against the ``unwoven`` configuration: the
+ * lost throughput, and the increase of the p99 latency, of the allocation rate and of the CPU time.
+ */
+object SoakRunner {
+  private val OutputClass = "org.eigengo.monitor.agent.output.class"
+
+  /**
+   * The configurations in the order in which they run
+   *
+   * @param statsdPort the port of the local UDP sink that stands in for the statsd agent
+   */
+  def configurations(statsdPort: Int): List[SoakConfiguration] = List(
+    SoakConfiguration("unwoven", woven = false),
+    SoakConfiguration("null", woven = true, Map(OutputClass -> "org.eigengo.monitor.output.NullCounterInterface")),
+    SoakConfiguration("statsd", woven = true, Map(
+      OutputClass -> "org.eigengo.monitor.output.statsd.StatsdCounterInterface",
+      "org.eigengo.monitor.output.statsd.remoteAddress" -> "localhost",
+      "org.eigengo.monitor.output.statsd.remotePort" -> statsdPort.toString)),
+    SoakConfiguration("codahale", woven = true, Map(OutputClass -> "org.eigengo.monitor.output.codahalemetrics.MetricsCounterInterface")))
+
+  /**
+   * Runs the soak for the arguments ``[<rate> [<seconds> [<warmup> [<report> [<configuration> ...]]]]]``
+   *
+   * @param mainClass the class whose ``main`` runs the load for the arguments ``load <rate> <seconds> <warmup>``
+   * @param arguments the arguments
+   * @param defaultRate the rate if the arguments do not have one
+   */
+  def main(mainClass: String, arguments: List[String], defaultRate: Int): Unit = {
+    val rate :: seconds :: warmup :: _ = arguments.take(3).map(_.toInt) ++ List(defaultRate, 60, 20).drop(arguments.size)
+    val report = arguments.drop(3).headOption.getOrElse("soak-" + mainClass.split('.').dropRight(1).last + ".json")
+    val names = arguments.drop(4)
+
+    val sink = new UdpSink
+    val selected = configurations(sink.port).filter(c => names.isEmpty || names.contains(c.name))
+    if (selected.isEmpty) throw new IllegalArgumentException("No configuration in " + names.mkString(", "))
+    val results = try {
+      selected.map { configuration =>
+        println(s"Soak: running ${configuration.name} at $rate requests per second for ${warmup}s + ${seconds}s")
+        configuration -> fork(mainClass, configuration, rate, seconds, warmup)
+      }
+    } finally sink.close()
+
+    val file = new File(report)
+    val writer = new PrintWriter(file, "UTF-8")
+    try writer.println(toJson(mainClass, rate, seconds, warmup, results)) finally writer.close()
+    printSummary(results)
+    println("Soak: report written to " + file.getAbsolutePath)
+  }
+
+  /**
+   * Runs the load in a new JVM, with the classpath of this JVM
+   *
+   * @return the result, or the reason why there is none
+   */
+  def fork(mainClass: String, configuration: SoakConfiguration, rate: Int, seconds: Int, warmup: Int): Either[String, LoadResult] = {
+    val resultFile = File.createTempFile("soak", ".properties")
+    try {
+      val command =
+        List(new File(System.getProperty("java.home"), "bin/java").getPath) ++
+        jvmOptions ++
+        (if (configuration.woven) List("-javaagent:" + weaver) else Nil) ++
+        (configuration.properties + (Load.ResultProperty -> resultFile.getPath)).map { case (k, v) => s"-D$k=$v" } ++
+        List("-cp", System.getProperty("java.class.path"), mainClass, "load", rate.toString, seconds.toString, warmup.toString)
+
+      val exitCode = new ProcessBuilder(command: _*).inheritIO().start().waitFor()
+      if (exitCode != 0) Left("The JVM exited with " + exitCode)
+      else if (resultFile.length() == 0) Left("The JVM did not write the result")
+      else Right(LoadResult.read(resultFile))
+    } finally resultFile.delete()
+  }
+
+  /**
+   * The options of the target's JVMs; a fixed heap by default, so that the collections are comparable
+   */
+  private def jvmOptions: List[String] =
+    System.getProperty("org.eigengo.monitor.soak.jvmOptions", "-Xms1G -Xmx1G").split("\\s+").filter(_.nonEmpty).toList
+
+  /**
+   * The weaver's jar: the ``org.eigengo.monitor.soak.weaver`` system property, or the ``aspectjweaver`` jar on
+   * the classpath
+   */
+  private def weaver: String = Option(System.getProperty("org.eigengo.monitor.soak.weaver")).getOrElse {
+    val classpath = System.getProperty("java.class.path").split(File.pathSeparator)
+    classpath.find(path => new File(path).getName.matches("aspectjweaver.*\\.jar")).getOrElse {
+      throw new IllegalStateException("No aspectjweaver jar on the classpath; set -Dorg.eigengo.monitor.soak.weaver")
+    }
+  }
+
+  /**
+   * Computes the increase of the ``value`` over the ``baseline`` in percent; ``NaN`` if either was not measured
+   */
+  private def overhead(value: Double, baseline: Double): Double =
+    if (value < 0 || baseline <= 0) Double.NaN else (value - baseline) / baseline * 100
+
+  /**
+   * Formats the report
+   */
+  def toJson(mainClass: String, rate: Int, seconds: Int, warmup: Int, results: List[(SoakConfiguration, Either[String, LoadResult])]): String = {
+    val baseline = results.collectFirst { case (SoakConfiguration("unwoven", false, _), Right(result)) => result }
+    val timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'")
+    timestamp.setTimeZone(TimeZone.getTimeZone("UTC"))
+
+    val entries = results.map {
+      case (configuration, Left(error)) =>
+        s"""    {"configuration": ${Json.string(configuration.name)}, "woven": ${configuration.woven}, "error": ${Json.string(error)}}"""
+      case (configuration, Right(result)) =>
+        val overheads = baseline.filter(_ => configuration.woven).map { base =>
+          val fields = List(
+            "throughput" -> -overhead(result.throughput, base.throughput),
+            "p99" -> overhead(result.p99, base.p99),
+            "allocationRate" -> overhead(result.allocationRate, base.allocationRate),
+            "cpu" -> overhead(result.cpuMillis, base.cpuMillis))
+          ", \"overhead\": {" + fields.map { case (name, value) => "\"" + name + "\": " + Json.number(value) }.mkString(", ") + "}"
+        }.getOrElse("")
+        s"""    {"configuration": ${Json.string(configuration.name)}, "woven": ${configuration.woven}, ${result.toJsonFields}$overheads}"""
+    }
+
+    s"""{
+       |  "target": ${Json.string(mainClass)},
+       |  "timestamp": ${Json.string(timestamp.format(new Date()))},
+       |  "java": ${Json.string(System.getProperty("java.version"))},
+       |  "processors": ${Runtime.getRuntime.availableProcessors()},
+       |  "jvmOptions": ${Json.string(jvmOptions.mkString(" "))},
+       |  "rate": $rate,
+       |  "seconds": $seconds,
+       |  "warmup": $warmup,
+       |  "results": [
+       |${entries.mkString(",\n")}
+       |  ]
+       |}""".stripMargin
+  }
+
+  private def printSummary(results: List[(SoakConfiguration, Either[String, LoadResult])]): Unit = {
+    println("%-10s %12s %10s %10s %10s %8s %14s".format("", "throughput", "p50 µs", "p99 µs", "p99.9 µs", "gc ms", "alloc B/s"))
+    results.foreach {
+      case (configuration, Left(error)) =>
+        println("%-10s %s".format(configuration.name, error))
+      case (configuration, Right(r)) =>
+        println("%-10s %12.1f %10.1f %10.1f %10.1f %8d %14d".format(configuration.name, r.throughput, r.p50, r.p99, r.p999, r.gcMillis, r.allocationRate))
+    }
+  }
+
+}
+
+/**
+ * Stands in for the statsd agent: receives and discards the datagrams, so that the statsd output does its
+ * real work without ICMP port unreachable errors, and without depending on an agent running on the machine
+ */
+private[soak] class UdpSink {
+  private val channel = DatagramChannel.open().bind(new InetSocketAddress("localhost", 0))
+  val port = channel.socket().getLocalPort
+
+  private val thread = new Thread(new Runnable {
+    def run(): Unit = {
+      val buffer = ByteBuffer.allocateDirect(65536)
+      try {
+        while (true) {
+          buffer.clear()
+          channel.receive(buffer)
+        }
+      } catch {
+        case _: java.nio.channels.ClosedChannelException => // closed
+      }
+    }
+  }, "soak-udp-sink")
+  thread.setDaemon(true)
+  thread.start()
+
+  def close(): Unit = channel.close()
+
+}
@@ -16,7 +16,10 @@
 package org.eigengo.monitor
 
 import org.eigengo.monitor.output.CounterInterface
-import scala.collection.mutable
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import scala.annotation.tailrec
+import scala.collection.JavaConversions._
 
 /**
  * Test-only implementation of the ``CounterInterface`` that records all received
@@ -41,6 +44,11 @@ class TestCounterInterface extends CounterInterface {
     TestCounterInterface.set(aspect, duration, tags.toList)
   }
 
+  // the nanosecond values up to ~2.1 s fit into the ``TestCounter.value``
+  override def recordExecutionTimeNanos(aspect: String, duration: Long, tags: String*): Unit = {
+    TestCounterInterface.set(aspect, math.min(Int.MaxValue, duration).toInt, tags.toList)
+  }
+
   def decrementCounter(aspect: String, tags: String*): Unit = {
     TestCounterInterface.add(aspect, -1, tags.toList)
   }
@@ -97,25 +105,118 @@ case class SingleTag(tag: String) extends TagFilter
 case class ContainsTag(tag: String) extends TagFilter
 
 /**
- * Companion for the TestCounterInterface containing all recorded events
+ * The running aggregates of the values recorded for one aspect and one set of tags
+ *
+ * @param aspect the aspect
+ * @param tags the tags
+ * @param count the number of recorded values
+ * @param sum the sum of the recorded values, i.e. the value of a counter
+ * @param last the last recorded value, i.e. the value of a gauge
+ * @param max the greatest recorded value
+ */
+case class TestAggregate(aspect: String, tags: List[String], count: Long, sum: Long, last: Int, max: Int)
+
+/**
+ * Keeps the running aggregates of one aspect and one set of tags; the updates of the individual fields
+ * are atomic, and the snapshot is consistent once the recording threads are done.
+ */
+private[monitor] class RunningAggregate(aspect: String, tags: List[String]) {
+  private val count = new AtomicLong(0)
+  private val sum = new AtomicLong(0)
+  private val max = new AtomicInteger(Int.MinValue)
+  @volatile private var last = 0
+
+  @tailrec
+  private def accumulateMax(value: Int): Unit = {
+    val current = max.get()
+    if (value > current && !max.compareAndSet(current, value)) accumulateMax(value)
+  }
+
+  def record(value: Int): Unit = {
+    sum.addAndGet(value)
+    last = value
+    accumulateMax(value)
+    count.incrementAndGet()
+  }
+
+  def snapshot: TestAggregate = TestAggregate(aspect, tags, count.get(), sum.get(), last, max.get())
+
+}
+
+/**
+ * Keeps everything recorded for one aspect: the running aggregates of each set of tags, and the
+ * most recent raw values, each with its global sequence number
+ */
+private[monitor] class AspectRecord(aspect: String) {
+  val aggregates = new ConcurrentHashMap[List[String], RunningAggregate]()
+  private val events = new ConcurrentLinkedQueue[(Long, TestCounter)]()
+  private val size = new AtomicInteger(0)
+
+  private def aggregate(tags: List[String]): RunningAggregate = {
+    val aggregate = aggregates.get(tags)
+    if (aggregate != null) aggregate
+    else {
+      val created = new RunningAggregate(aspect, tags)
+      val existing = aggregates.putIfAbsent(tags, created)
+      if (existing == null) created else existing
+    }
+  }
+
+  def record(sequence: Long, value: Int, tags: List[String], rawEventLimit: Int): Unit = {
+    aggregate(tags).record(value)
+    if (rawEventLimit > 0) {
+      events.add((sequence, TestCounter(aspect, value, tags)))
+      // drop the oldest values over the limit
+      if (size.incrementAndGet() > rawEventLimit && events.poll() != null) size.decrementAndGet()
+    }
+  }
+
+  def rawEvents: List[(Long, TestCounter)] = events.toList
+
+}
+
+/**
+ * Companion for the TestCounterInterface containing all recorded events.
+ *
+ * The values are indexed by their aspect and then by their tags: recording a value is a lookup in both
+ * indexes and an update of the running aggregates of its set of tags, which means that any number of threads
+ * can record millions of values. The ``aggregate`` query is a lookup; the other queries only look at the
+ * recorded sets of tags of the aspect, however many values they received.
+ *
+ * The ``foldlByAspect`` and ``allCounters`` queries look at the individual values, and only see the most recent
+ * ``rawEventLimit`` values of each aspect; the load tests should use the aggregates instead.
  */
 object TestCounterInterface {
-  private val counters = new mutable.ListBuffer[TestCounter]()
+  private val aspects = new ConcurrentHashMap[String, AspectRecord]()
+  private val sequence = new AtomicLong(0)
 
-  // adds a new counter
-  private def add(aspect: String, delta: Int, tags: List[String]): Unit = synchronized {
-    val counter: TestCounter = TestCounter(aspect, delta, tags)
-    counters += counter
+  /**
+   * The number of the most recent raw values kept for each aspect; ``0`` to only keep the aggregates
+   */
+  @volatile var rawEventLimit: Int = 100000
 
-//    println(s"**counter: $aspect -> $counter")
+  private def aspectRecord(aspect: String): AspectRecord = {
+    val record = aspects.get(aspect)
+    if (record != null) record
+    else {
+      val created = new AspectRecord(aspect)
+      val existing = aspects.putIfAbsent(aspect, created)
+      if (existing == null) created else existing
+    }
   }
 
+  // adds a new counter
+  private def add(aspect: String, delta: Int, tags: List[String]): Unit =
+    aspectRecord(aspect).record(sequence.incrementAndGet(), delta, tags, rawEventLimit)
+
   // sets a gauge
-  private def set(aspect: String, value: Int, tags: List[String]): Unit = synchronized {
-    val gauge = TestCounter(aspect, value, tags)
-    counters += gauge
+  private def set(aspect: String, value: Int, tags: List[String]): Unit =
+    aspectRecord(aspect).record(sequence.incrementAndGet(), value, tags, rawEventLimit)
 
-//    println(s"**gauge:   $aspect -> $gauge")
+  private def matches(tags: List[String], tagFilter: TagFilter): Boolean = tagFilter match {
+    case AnyTag           => true
+    case SingleTag(tag)   => tags == tag :: Nil
+    case ContainsTag(tag) => tags.contains(tag)
   }
 
   /**
@@ -126,7 +227,8 @@ object TestCounterInterface {
 
   /**
    * Selects from the recorded counters those with the matching ``aspect`` and conforming to the
-   * requested ``tagFilter``, and then folds the matches over some operation ``fold``.
+   * requested ``tagFilter``, and then folds the matches over some operation ``fold``. The head of the
+   * returned list is the fold of all matching counters; the tail holds the folds of the older ones.
    *
    * @param aspect the aspect to be matched
    * @param tagFilter the tag filter
@@ -134,29 +236,89 @@ object TestCounterInterface {
    * @return list of matching & folded tags
    */
   def foldlByAspect(aspect: String, tagFilter: TagFilter = AnyTag)(fold: (TestCounter, TestCounter) => TestCounter): List[TestCounter] = {
-    def pred(x: TestCounter): Boolean =
-      (x.aspect == aspect) &&
-      (tagFilter match {
-        case AnyTag           => true
-        case SingleTag(tag)   => x.tags == tag :: Nil
-        case ContainsTag(tag) => x.tags.contains(tag)
-      })
-
-    counters.foldLeft[List[TestCounter]](Nil) { (b, a) =>
-      if (pred(a)) b.find(pred).map(fold(a, _)).getOrElse(a) :: b else b
+    val record = aspects.get(aspect)
+    if (record == null) Nil
+    else record.rawEvents.foldLeft[List[TestCounter]](Nil) {
+      case (b, (_, a)) if matches(a.tags, tagFilter) => (if (b.isEmpty) a else fold(a, b.head)) :: b
+      case (b, _)                                    => b
     }
   }
 
   /**
-   * Returns immutable view of all recorded counters
+   * Returns the running aggregates of the ``aspect`` recorded with exactly the given ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags, in the order in which they were recorded
+   * @return the aggregates, if anything was recorded
+   */
+  def aggregate(aspect: String, tags: List[String] = Nil): Option[TestAggregate] = {
+    val record = aspects.get(aspect)
+    if (record == null) None else Option(record.aggregates.get(tags)).map(_.snapshot)
+  }
+
+  /**
+   * Returns the running aggregates of all sets of tags of the ``aspect`` that conform to the ``tagFilter``
+   *
+   * @param aspect the aspect
+   * @param tagFilter the tag filter
+   * @return the aggregates of each set of tags
+   */
+  def aggregates(aspect: String, tagFilter: TagFilter = AnyTag): List[TestAggregate] = {
+    val record = aspects.get(aspect)
+    if (record == null) Nil
+    else record.aggregates.values().map(_.snapshot).filter(aggregate => matches(aggregate.tags, tagFilter)).toList
+  }
+
+  /**
+   * Returns the sum of the values of the ``aspect`` with the tags that conform to the ``tagFilter``
+   *
+   * @param aspect the aspect
+   * @param tagFilter the tag filter
+   * @return the sum; ``0`` if nothing was recorded
+   */
+  def sum(aspect: String, tagFilter: TagFilter = AnyTag): Long = aggregates(aspect, tagFilter).map(_.sum).sum
+
+  /**
+   * Returns the number of the values of the ``aspect`` with the tags that conform to the ``tagFilter``
+   *
+   * @param aspect the aspect
+   * @param tagFilter the tag filter
+   * @return the number of values
+   */
+  def count(aspect: String, tagFilter: TagFilter = AnyTag): Long = aggregates(aspect, tagFilter).map(_.count).sum
+
+  /**
+   * Returns the greatest value of the ``aspect`` with the tags that conform to the ``tagFilter``
+   *
+   * @param aspect the aspect
+   * @param tagFilter the tag filter
+   * @return the greatest value, if anything was recorded
+   */
+  def max(aspect: String, tagFilter: TagFilter = AnyTag): Option[Int] = {
+    val matching = aggregates(aspect, tagFilter)
+    if (matching.isEmpty) None else Some(matching.map(_.max).max)
+  }
+
+  /**
+   * Returns the last value of the ``aspect`` recorded with exactly the given ``tags``
+   *
+   * @param aspect the aspect
+   * @param tags the tags, in the order in which they were recorded
+   * @return the last value, if anything was recorded
+   */
+  def last(aspect: String, tags: List[String] = Nil): Option[Int] = aggregate(aspect, tags).map(_.last)
+
+  /**
+   * Returns immutable view of all recorded counters that are still kept, in the order in which
+   * they were recorded
    *
    * @return all recorded counters
    */
-  def allCounters: List[TestCounter] = counters.toList
+  def allCounters: List[TestCounter] = aspects.values().flatMap(_.rawEvents).toList.sortBy(_._1).map(_._2)
 
   /**
    * Removes all recorded counters
    */
-  def clear(): Unit = counters.clear()
+  def clear(): Unit = aspects.clear()
 
-}
\ No newline at end of file
+}
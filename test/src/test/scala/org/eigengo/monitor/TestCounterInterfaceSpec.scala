@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigengo.monitor
+
+import org.specs2.mutable.Specification
+
+/**
+ * Checks that the ``TestCounterInterface`` keeps the aggregates and the raw values
+ */
+class TestCounterInterfaceSpec extends Specification {
+  sequential
+
+  val counterInterface = new TestCounterInterface
+
+  "The test counter interface" should {
+
+    "fold the recorded values of an aspect" in {
+      TestCounterInterface.clear()
+      counterInterface.incrementCounter("a", "t:1")
+      counterInterface.incrementCounter("a", 2, "t:2")
+      counterInterface.incrementCounter("b", 10, "t:1")
+      counterInterface.incrementCounter("a", 3, "t:1")
+
+      TestCounterInterface.foldlByAspect("a")(TestCounter.plus) mustEqual
+        List(TestCounter("a", 6, List("t:1")), TestCounter("a", 3, List("t:2")), TestCounter("a", 1, List("t:1")))
+      TestCounterInterface.foldlByAspect("a", ContainsTag("t:1"))(TestCounter.max).head mustEqual TestCounter("a", 3, List("t:1"))
+      TestCounterInterface.foldlByAspect("a", SingleTag("t:2"))(TestCounterInterface.takeLHS) must haveSize(1)
+      TestCounterInterface.allCounters.map(_.value) mustEqual List(1, 2, 10, 3)
+    }
+
+    "keep the running aggregates of each set of tags" in {
+      TestCounterInterface.clear()
+      counterInterface.recordGaugeValue("g", 5, "t:1")
+      counterInterface.recordGaugeValue("g", 9, "t:1")
+      counterInterface.recordGaugeValue("g", 2, "t:1")
+      counterInterface.recordGaugeValue("g", 7, "t:2")
+
+      TestCounterInterface.aggregate("g", List("t:1")) must beSome(TestAggregate("g", List("t:1"), 3, 16, 2, 9))
+      TestCounterInterface.last("g", List("t:2")) must beSome(7)
+      TestCounterInterface.max("g") must beSome(9)
+      TestCounterInterface.sum("g", ContainsTag("t:2")) mustEqual 7
+      TestCounterInterface.count("g") mustEqual 4
+      TestCounterInterface.aggregate("g", List("t:3")) must beNone
+    }
+
+    "keep only the most recent raw values, but all aggregates" in {
+      TestCounterInterface.clear()
+      TestCounterInterface.rawEventLimit = 10
+      try {
+        (1 to 100).foreach(i => counterInterface.incrementCounter("a", i))
+
+        TestCounterInterface.foldlByAspect("a")(TestCounterInterface.takeLHS) must haveSize(10)
+        TestCounterInterface.sum("a") mustEqual 5050
+      } finally {
+        TestCounterInterface.rawEventLimit = 100000
+      }
+    }
+
+    "record millions of values from many threads" in {
+      TestCounterInterface.clear()
+      TestCounterInterface.rawEventLimit = 0
+      try {
+        val threads = (0 until 8).map { t =>
+          new Thread(new Runnable {
+            def run(): Unit = (0 until 250000).foreach(i => counterInterface.incrementCounter("a", s"t:${i % 4}"))
+          })
+        }
+        threads.foreach(_.start())
+        threads.foreach(_.join())
+
+        TestCounterInterface.sum("a") mustEqual 2000000
+        TestCounterInterface.count("a", SingleTag("t:1")) mustEqual 500000
+        TestCounterInterface.foldlByAspect("a")(TestCounter.plus) must beEmpty
+      } finally {
+        TestCounterInterface.rawEventLimit = 100000
+      }
+    }
+  }
+
+}